@@ -0,0 +1,127 @@
+package com.nicta.topicmodels;
+
+/**
+ * An alias table (Walker, Vose) for sampling from a fixed discrete
+ * distribution in O(1) time.
+ *
+ * <p>
+ * The table also keeps the normalized probability of each outcome at the time
+ * it was built, so that it can be used as a (stale) proposal distribution in a
+ * Metropolis-Hastings step.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class AliasTable {
+    private final int size;
+    // prob[k] = probability of keeping k when the k_th bucket is chosen
+    private final float[] prob;
+    // alias[k] = the outcome returned when k is not kept
+    private final int[] alias;
+    // q[k] = normalized probability of k when the table was built
+    private final float[] q;
+    // number of samples drawn since the table was built
+    private int numDraws;
+
+    /**
+     * Constructs an empty table for a distribution over <code>size</code>
+     * outcomes.
+     *
+     * @param size
+     */
+    public AliasTable(int size) {
+        this.size = size;
+        prob = new float[size];
+        alias = new int[size];
+        q = new float[size];
+    }
+
+    /**
+     * (Re)builds this table from the unnormalized <code>weights</code>.
+     *
+     * @param weights
+     *            the unnormalized distribution (length must equal the size of
+     *            this table)
+     * @param scaled
+     *            a work array of length at least the size of this table
+     * @param small
+     *            a work array of length at least the size of this table
+     * @param large
+     *            a work array of length at least the size of this table
+     */
+    public void build(double[] weights, double[] scaled, int[] small,
+            int[] large) {
+        double sum = 0.0;
+        for (int k = 0; k < size; k++) {
+            sum += weights[k];
+        }
+        int numSmall = 0, numLarge = 0;
+        for (int k = 0; k < size; k++) {
+            q[k] = (float) (weights[k] / sum);
+            scaled[k] = weights[k] * size / sum;
+            if (scaled[k] < 1.0) {
+                small[numSmall++] = k;
+            } else {
+                large[numLarge++] = k;
+            }
+        }
+        int s, l;
+        while (numSmall > 0 && numLarge > 0) {
+            s = small[--numSmall];
+            l = large[--numLarge];
+            prob[s] = (float) scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if (scaled[l] < 1.0) {
+                small[numSmall++] = l;
+            } else {
+                large[numLarge++] = l;
+            }
+        }
+        // the remaining buckets are full (up to round-off errors)
+        while (numLarge > 0) {
+            l = large[--numLarge];
+            prob[l] = 1.0f;
+            alias[l] = l;
+        }
+        while (numSmall > 0) {
+            s = small[--numSmall];
+            prob[s] = 1.0f;
+            alias[s] = s;
+        }
+        numDraws = 0;
+    }
+
+    /**
+     * Draws a sample from this table.
+     *
+     * @param random
+     *            the random generator
+     * @return
+     */
+    public int sample(RandomGenerator random) {
+        numDraws++;
+        double u = random.nextDouble() * size;
+        int k = (int) u;
+        return (u - k) < prob[k] ? k : alias[k];
+    }
+
+    /**
+     * Returns the probability of outcome <code>k</code> when this table was
+     * built.
+     *
+     * @param k
+     * @return
+     */
+    public double probability(int k) {
+        return q[k];
+    }
+
+    /**
+     * Returns the number of samples drawn since this table was last built.
+     *
+     * @return
+     */
+    public int getNumDraws() {
+        return numDraws;
+    }
+}
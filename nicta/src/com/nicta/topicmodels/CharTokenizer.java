@@ -0,0 +1,63 @@
+package com.nicta.topicmodels;
+
+/**
+ * A tokenizer which works on the characters of a text and finds the tokens
+ * of lingpipe's <code>RegExTokenizerFactory("[$a-zA-Z_]+")</code> in lower
+ * case without creating a {@code String} (and a lingpipe tokenizer) per
+ * token.
+ *
+ * <p>
+ * Since the characters of a token are ASCII, a text is lowercased once by
+ * mapping {@code A-Z} to {@code a-z}, and the tokens are ranges of the
+ * lowercased characters. The tokenizer has no state, so it may be used by
+ * several threads.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class CharTokenizer {
+
+    /**
+     * Tokenizes a text.
+     *
+     * @param text
+     *            the text
+     * @param tokens
+     *            receives the start and the end of each token in the returned
+     *            array
+     * @return the characters of the text in lower case
+     */
+    public char[] tokenize(CharSequence text, IntList tokens) {
+        char[] cs = toLowerCase(text);
+        int start = -1;
+        for (int i = 0; i <= cs.length; i++) {
+            char c = i < cs.length ? cs[i] : ' ';
+            if ((c >= 'a' && c <= 'z') || c == '$' || c == '_') {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                tokens.add(start);
+                tokens.add(i);
+                start = -1;
+            }
+        }
+        return cs;
+    }
+
+    private static char[] toLowerCase(CharSequence text) {
+        char[] cs = new char[text.length()];
+        if (text instanceof String) {
+            ((String) text).getChars(0, cs.length, cs, 0);
+        } else {
+            for (int i = 0; i < cs.length; i++) {
+                cs[i] = text.charAt(i);
+            }
+        }
+        for (int i = 0; i < cs.length; i++) {
+            if (cs[i] >= 'A' && cs[i] <= 'Z') {
+                cs[i] += 'a' - 'A';
+            }
+        }
+        return cs;
+    }
+}
@@ -0,0 +1,87 @@
+package com.nicta.topicmodels;
+
+/**
+ * Decides if a sampler has converged from the values of its log-likelihood.
+ *
+ * <p>
+ * The sampler is considered converged when the relative change of the
+ * log-likelihood between two consecutive evaluations has stayed below a
+ * threshold for a number of evaluations in a row.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class ConvergenceMonitor {
+    private final int interval;
+    private final double threshold;
+    private final int window;
+    private double lastValue = Double.NaN;
+    private int numStable;
+
+    /**
+     * Constructs a new monitor.
+     *
+     * @param interval
+     *            the number of iterations between two evaluations
+     * @param threshold
+     *            the maximum relative change of a converged log-likelihood
+     * @param window
+     *            the number of consecutive evaluations whose change must be
+     *            below the threshold
+     */
+    public ConvergenceMonitor(int interval, double threshold, int window) {
+        if (interval < 1 || window < 1) {
+            throw new IllegalArgumentException(
+                    "interval and window must be positive");
+        }
+        this.interval = interval;
+        this.threshold = threshold;
+        this.window = window;
+    }
+
+    /**
+     * Returns true if the log-likelihood should be evaluated after iteration
+     * <code>iter</code> (counted from 0).
+     *
+     * @param iter
+     * @return
+     */
+    public boolean isDue(int iter) {
+        return (iter + 1) % interval == 0;
+    }
+
+    /**
+     * Adds a new value of the log-likelihood and returns true if the sampler
+     * has converged.
+     *
+     * @param logLikelihood
+     * @return
+     */
+    public boolean update(double logLikelihood) {
+        if (!Double.isNaN(lastValue)
+                && Math.abs((logLikelihood - lastValue) / lastValue) < threshold) {
+            numStable++;
+        } else {
+            numStable = 0;
+        }
+        lastValue = logLikelihood;
+
+        return isConverged();
+    }
+
+    /**
+     * Returns true if the sampler has converged.
+     *
+     * @return
+     */
+    public boolean isConverged() {
+        return numStable >= window;
+    }
+
+    /**
+     * Forgets all values.
+     */
+    public void reset() {
+        lastValue = Double.NaN;
+        numStable = 0;
+    }
+}
@@ -8,18 +8,17 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.aliasi.symbol.MapSymbolTable;
 import com.aliasi.symbol.SymbolTable;
-import com.aliasi.tokenizer.LowerCaseTokenizerFactory;
-import com.aliasi.tokenizer.ModifyTokenTokenizerFactory;
-import com.aliasi.tokenizer.RegExTokenizerFactory;
-import com.aliasi.tokenizer.StopTokenizerFactory;
-import com.aliasi.tokenizer.Tokenizer;
-import com.aliasi.tokenizer.TokenizerFactory;
 import com.aliasi.util.Counter;
 import com.aliasi.util.ObjectToCounterMap;
-import com.aliasi.util.Strings;
 
 import edu.kaist.uilab.stemmers.EnglishStemmer;
 
@@ -29,17 +28,22 @@ import edu.kaist.uilab.stemmers.EnglishStemmer;
  * @author trung (trung.ngvan@gmail.com)
  */
 public class CorpusParser {
+    // the maximum number of articles read but not counted yet
+    private static final int MAX_PENDING = 256;
 
     int mMinTokenCount;
     int mTopStopWords;
     int mTopDocumentTokens;
     String mCorpusDir;
-    TokenizerFactory mTokenizerFactory;
+    CharTokenizer mTokenizer;
+    Set<String> mStopStems;
     SymbolTable mSymbolTable;
     ObjectToCounterMap<String> mWordCnt;
-    ArrayList<ArrayList<Integer>> mDocuments;
-    ArticleContentExtractor mExtractor;
+    ArrayList<int[]> mDocuments;
+    // the extractor of each parsing thread (PDFTextStripper is not thread-safe)
+    ThreadLocal<ArticleContentExtractor> mExtractor;
     boolean mUseAbstract;
+    int mNumThreads = Runtime.getRuntime().availableProcessors();
 
     /**
      * Constructor
@@ -64,26 +68,192 @@ public class CorpusParser {
         mCorpusDir = corpusDir;
         mMinTokenCount = minTokenCount;
         mTopStopWords = topStopWords;
-        mTokenizerFactory = StemmingTokenizerFactory.getInstance(stopStems);
+        mTokenizer = new CharTokenizer();
+        mStopStems = new HashSet<String>(stopStems);
         mSymbolTable = new MapSymbolTable();
         mWordCnt = new ObjectToCounterMap<String>();
-        mExtractor = new ArticleContentExtractor();
-        mDocuments = new ArrayList<ArrayList<Integer>>();
+        mExtractor = new ThreadLocal<ArticleContentExtractor>();
+        mDocuments = new ArrayList<int[]>();
         mUseAbstract = useAbstract;
     }
 
+    /**
+     * Sets the number of threads which read and tokenize the articles.
+     * 
+     * @param numThreads
+     *            the number of threads (default value is the number of
+     *            processors)
+     */
+    public void setNumThreads(int numThreads) {
+        mNumThreads = Math.max(1, numThreads);
+    }
+
     /**
      * Parses all text files in this corpus.
      * 
      * <p>
+     * Each article is read and tokenized once: the threads read and tokenize
+     * the articles in parallel while the calling thread counts the tokens of
+     * the articles in the order of the directory listing. The number of
+     * articles per second of the reading and tokenizing stages is printed.
+     * 
+     * <p>
+     * The tokens of an article are ranges of its characters (see
+     * {@link CharTokenizer}), so no {@code String} is created per token; each
+     * distinct surface form is stemmed once (see {@link StemCounter}).
+     * 
+     * <p>
      * After calling this method, all properties of the corpus can be queried
      * using the various getter methods.
      */
     public void parse() throws IOException {
-        ArrayList<String> documents = constructSymbolTable();
-        for (String document : documents) {
-            mDocuments.add(tokenizeDocument(document));
+        final File directory = new File(mCorpusDir);
+        String[] articles = directory.list();
+        // the stems of all tokens of the corpus (before pruning)
+        StemCounter counter = new StemCounter(mStopStems);
+        ArrayList<int[]> documents = new ArrayList<int[]>();
+        final long[] stageTime = new long[2]; // ns of reading, tokenizing
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(mNumThreads);
+        List<Future<Article>> pending = new ArrayList<Future<Article>>();
+        try {
+            int next = 0; // the next article to count
+            for (int a = 0; a < articles.length; a++) {
+                // at most MAX_PENDING articles are tokenized but not counted
+                if (a - next >= MAX_PENDING) {
+                    countTokens(pending.get(next).get(), counter, documents);
+                    pending.set(next++, null);
+                }
+                final String article = articles[a];
+                pending.add(executor.submit(new Callable<Article>() {
+                    @Override
+                    public Article call() throws IOException {
+                        return readArticle(directory.getPath() + "/" + article,
+                                stageTime);
+                    }
+                }));
+            }
+            while (next < articles.length) {
+                countTokens(pending.get(next).get(), counter, documents);
+                pending.set(next++, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Corpus parsing interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("Corpus parsing failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        synchronized (stageTime) {
+            System.out.printf("read: %.1f articles/sec, tokenize: %.1f "
+                    + "articles/sec (%d threads), %d articles in %.2f s\n",
+                    articlesPerSecond(articles.length, stageTime[0]),
+                    articlesPerSecond(articles.length, stageTime[1]),
+                    mNumThreads, articles.length,
+                    (System.nanoTime() - start) / 1e9);
+        }
+
+        // the counter is filled in the order the stems first appear in the
+        // corpus, as when it was incremented token by token
+        String[] stems = new String[counter.stems.size()];
+        for (int id = 0; id < stems.length; id++) {
+            stems[id] = counter.stems.idToSymbol(id);
+            mWordCnt.set(stems[id], counter.counts.get(id));
+        }
+        mWordCnt.prune(mMinTokenCount);
+        pruneTopTokens(mWordCnt, mTopStopWords);
+        for (String token : mWordCnt.keySet()) {
+            mSymbolTable.getOrAddSymbol(token);
+        }
+        // the id in the symbol table of each stem of the corpus
+        int[] wordId = new int[stems.length];
+        for (int id = 0; id < wordId.length; id++) {
+            wordId[id] = mSymbolTable.symbolToID(stems[id]);
+        }
+        for (int[] document : documents) {
+            int size = 0;
+            for (int stem : document) {
+                if (wordId[stem] >= 0) {
+                    size++;
+                }
+            }
+            int[] words = new int[size];
+            size = 0;
+            for (int stem : document) {
+                if (wordId[stem] >= 0) {
+                    words[size++] = wordId[stem];
+                }
+            }
+            mDocuments.add(words);
+        }
+    }
+
+    /**
+     * Counts the stems of the tokens of an article and adds the article (as
+     * ids of all stems of the corpus) to {@code documents}.
+     * 
+     * @param article
+     *            the tokens of the article, null if it could not be read
+     */
+    private void countTokens(Article article, StemCounter counter,
+            ArrayList<int[]> documents) {
+        if (article == null) {
+            return;
+        }
+        documents.add(counter.count(article.chars, article.tokens));
+    }
+
+    /**
+     * Returns the number of articles per second of a stage with all threads
+     * busy.
+     */
+    private double articlesPerSecond(int numArticles, long time) {
+        return time > 0 ? numArticles / (time / 1e9) * mNumThreads : 0.0;
+    }
+
+    /**
+     * Reads and tokenizes an article.
+     * 
+     * @param file
+     *            the file of the article
+     * @param stageTime
+     *            the times of reading and tokenizing (ns), incremented by
+     *            this article
+     * @return the tokens of the article, null if the file cannot be read
+     */
+    private Article readArticle(String file, long[] stageTime)
+            throws IOException {
+        long start = System.nanoTime();
+        ArticleContentExtractor extractor = mExtractor.get();
+        if (extractor == null) {
+            extractor = new ArticleContentExtractor();
+            mExtractor.set(extractor);
+        }
+        String content;
+        try {
+            if (mUseAbstract) {
+                content = extractor.getAbstract(file);
+            } else {
+                content = extractor.getFullText(file);
+            }
+        } catch (IOException e) {
+            // some file cannot be read, just ignore
+            System.err.printf("Cannot read file %s\n", file);
+            return null;
+        }
+        long read = System.nanoTime();
+        IntList tokens = new IntList(content.length() / 4);
+        char[] cs = mTokenizer.tokenize(content, tokens);
+        synchronized (stageTime) {
+            stageTime[0] += read - start;
+            stageTime[1] += System.nanoTime() - read;
         }
+
+        return new Article(cs, tokens);
     }
 
     /**
@@ -125,9 +295,9 @@ public class CorpusParser {
     }
 
     /**
-     * Returns the list documents in the corpus.
+     * Returns the list documents in the corpus (the ids of their words).
      */
-    public ArrayList<ArrayList<Integer>> getDocuments() {
+    public ArrayList<int[]> getDocuments() {
         return mDocuments;
     }
 
@@ -137,16 +307,7 @@ public class CorpusParser {
      * @return
      */
     public int[][] getDocumentsAsArray() {
-        int[][] res = new int[mDocuments.size()][];
-        for (int i = 0; i < res.length; i++) {
-            ArrayList<Integer> doc = mDocuments.get(i);
-            res[i] = new int[doc.size()];
-            for (int j = 0; j < doc.size(); j++) {
-                res[i][j] = doc.get(j);
-            }
-        }
-
-        return res;
+        return mDocuments.toArray(new int[mDocuments.size()][]);
     }
 
     /**
@@ -158,53 +319,6 @@ public class CorpusParser {
         return mSymbolTable;
     }
 
-    /**
-     * Constructs the symbol table which keeps all valid tokens in the corpus.
-     * 
-     * <p>
-     * This method reads all documents in the corpus, constructing a symbol
-     * table in the process. Top words and not frequent words are pruned from
-     * the set of vocabulary.
-     * 
-     * @return the document contents read from the corpus directory
-     * @throws IOException
-     */
-    private ArrayList<String> constructSymbolTable() throws IOException {
-        ArrayList<String> documents = new ArrayList<String>();
-        File directory = new File(mCorpusDir);
-        String[] articles = directory.list();
-        for (String article : articles) {
-            try {
-                String content = "";
-                if (mUseAbstract) {
-                    content = mExtractor.getAbstract(directory.getPath() + "/"
-                            + article);
-                } else {
-                    content = mExtractor.getFullText(directory.getPath() + "/"
-                            + article);
-                }
-                documents.add(content);
-                char[] articleContent = Strings.toCharArray(content);
-                Tokenizer tokenizer = mTokenizerFactory.tokenizer(
-                        articleContent, 0, articleContent.length);
-                for (String token : tokenizer) {
-                    mWordCnt.increment(token);
-                }
-            } catch (IOException e) {
-                // some file cannot be read, just ignore
-                System.err.printf("Cannot read file %s\n", article);
-            }
-
-        }
-        mWordCnt.prune(mMinTokenCount);
-        pruneTopTokens(mWordCnt, mTopStopWords);
-        for (String token : mWordCnt.keySet()) {
-            mSymbolTable.getOrAddSymbol(token);
-        }
-
-        return documents;
-    }
-
     /**
      * Prunes the top {@code num} tokens from the vocabulary set.
      * 
@@ -227,55 +341,79 @@ public class CorpusParser {
     }
 
     /**
-     * Tokenizes the specified text document returning only tokens that exist in
-     * the symbol table constructed in previous step. This method is useful
-     * within a given LDA model for tokenizing new documents into lists of
-     * words.
-     * 
-     * @param content
-     *            a document content
-     * @return the document, null if the document does not contain any word
+     * The characters of an article in lower case and the start and the end
+     * of each of its tokens.
      */
-    private ArrayList<Integer> tokenizeDocument(String content) {
-        ArrayList<Integer> document = new ArrayList<Integer>();
-        char[] cs = Strings.toCharArray(content);
-        Tokenizer tokenizer = mTokenizerFactory.tokenizer(cs, 0, cs.length);
-        for (String token : tokenizer) {
-            int id = mSymbolTable.symbolToID(token);
-            if (id >= 0) {
-                document.add(id);
-            }
-        }
+    static final class Article {
+        final char[] chars;
+        final IntList tokens;
 
-        return document;
+        Article(char[] chars, IntList tokens) {
+            this.chars = chars;
+            this.tokens = tokens;
+        }
     }
 
     /**
-     * Tokenizer factory.
+     * Counts the stems of the tokens of the corpus.
      * <p>
-     * This tokenizer stems every word using Porter stemmer.
+     * A surface form is stemmed using Porter stemmer the first time it
+     * appears, and the id of its stem (-1 for a stop word) is cached by the id
+     * of the surface form. The counter is used by the calling thread only (a
+     * stemmer keeps the word it stems in a buffer, so it cannot be shared).
      */
-    static final class StemmingTokenizerFactory extends
-            ModifyTokenTokenizerFactory {
-        static final long serialVersionUID = -3401639068551227864L;
-        static final EnglishStemmer stemmer = new EnglishStemmer();
+    static final class StemCounter {
         static final int MIN_WORD_LENGTH = 2;
         static final int MAX_WORD_LENGTH = 40;
 
-        static TokenizerFactory instance = new StemmingTokenizerFactory();
+        final Set<String> stopStems;
+        final EnglishStemmer stemmer = new EnglishStemmer();
+        // the surface forms and the id of the stem of each
+        final CharSymbolTable surfaces = new CharSymbolTable();
+        final IntList stemOf = new IntList();
+        // the stems and their counts
+        final CharSymbolTable stems = new CharSymbolTable();
+        final IntList counts = new IntList();
+
+        StemCounter(Set<String> stopStems) {
+            this.stopStems = stopStems;
+        }
 
-        private StemmingTokenizerFactory() {
-            super(new LowerCaseTokenizerFactory(new RegExTokenizerFactory(
-                    "[$a-zA-Z_]+")));
+        /**
+         * Counts the stems of the tokens of an article and returns their ids
+         * (without the stop words).
+         */
+        int[] count(char[] cs, IntList tokens) {
+            IntList ids = new IntList(tokens.size() / 2);
+            for (int n = 0; n < tokens.size(); n += 2) {
+                int start = tokens.get(n);
+                int length = tokens.get(n + 1) - start;
+                int surface = surfaces.getOrAdd(cs, start, length);
+                if (surface == stemOf.size()) {
+                    stemOf.add(stemId(new String(cs, start, length)));
+                }
+                int stem = stemOf.get(surface);
+                if (stem >= 0) {
+                    counts.set(stem, counts.get(stem) + 1);
+                    ids.add(stem);
+                }
+            }
+            return ids.toArray();
         }
 
-        @Override
-        public String modifyToken(String token) {
-            token = stemmer.getStem(token);
-            return stop(token) ? null : token;
+        private int stemId(String token) {
+            String stem = stemmer.getStem(token);
+            if (stop(stem) || stopStems.contains(stem)) {
+                return -1;
+            }
+            int id = stems.getOrAdd(stem);
+            if (id == counts.size()) {
+                counts.add(0);
+            }
+            return id;
         }
 
-        boolean stop(String token) {
+        static boolean stop(String token) {
             if (token.length() <= MIN_WORD_LENGTH
                     || token.length() >= MAX_WORD_LENGTH)
                 return true;
@@ -285,11 +423,5 @@ public class CorpusParser {
                     return false;
             return true;
         }
-
-        static TokenizerFactory getInstance(List<String> stopStems) {
-            HashSet<String> stems = new HashSet<String>();
-            stems.addAll(stopStems);
-            return new StopTokenizerFactory(instance, stems);
-        }
     }
 }
@@ -3,7 +3,13 @@ package com.nicta.topicmodels;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.aliasi.symbol.SymbolTable;
 
@@ -17,6 +23,14 @@ import edu.kaist.uilab.asc.util.Utils;
  * 
  */
 public class GibbsSampler {
+    /** Samples each token from the dense full conditional over all topics. */
+    public static final int DENSE_SAMPLING = 0;
+    /**
+     * Samples each token with Metropolis-Hastings steps using stale per-word
+     * alias tables and document proposals (AliasLDA, LightLDA).
+     */
+    public static final int ALIAS_MH_SAMPLING = 1;
+
     private int numTopics; // T = numTopics
     private int vocabularySize; // V = vocabularySize
     private int numDocuments; // D = number of documents
@@ -42,6 +56,23 @@ public class GibbsSampler {
     private double phi[][];
     SymbolTable symbolTable;
     String outputDir;
+    private long seed = RandomGenerator.newSeed();
+    private RandomGenerator random;
+
+    private int samplingMethod = DENSE_SAMPLING;
+    // number of Metropolis-Hastings steps per token (word and document
+    // proposals alternate)
+    private int numMHSteps = 2;
+    // wordTables[i] = stale alias table of the word proposal of word i
+    private AliasTable[] wordTables;
+    // work arrays for building alias tables
+    private double[] weights, scaled;
+    private int[] small, large;
+    // stops the run when the log-likelihood has converged (null = never)
+    private ConvergenceMonitor convergence;
+    // whether theta and phi are also written as .npy files
+    private boolean npyExport;
+    private boolean npyFloat32;
 
     /**
      * Constructs a new GibbsSampler with given model parameters.
@@ -89,6 +120,11 @@ public class GibbsSampler {
         String experimentOutput = String.format("%s/T%d-Alpha%.3f-Beta%.3f-useAbstract=%s",
                 outputDir, numTopics, alpha, beta, useAbstract);
         sampler.setSamplerSettings(3000, 500, experimentOutput);
+        // -Dseed=<seed> reproduces a run (its seed is written to seed.txt)
+        sampler.setSeed(Long.getLong("seed", sampler.getSeed()));
+        if (numTopics >= 500) {
+            sampler.setSamplingMethod(ALIAS_MH_SAMPLING, 2);
+        }
         sampler.run(200);
     }
 
@@ -108,12 +144,124 @@ public class GibbsSampler {
         this.outputDir = outputDir;
     }
 
+    /**
+     * Sets the method used to sample the topic of each token.
+     *
+     * <p>
+     * With {@link #ALIAS_MH_SAMPLING}, each token takes
+     * <code>numMHSteps</code> Metropolis-Hastings steps, alternating between a
+     * word proposal drawn from a stale alias table of
+     * <code>(cwt[i][k] + beta) / (cwtsum[k] + vBeta)</code> and a document
+     * proposal <code>cdt[m][k] + alpha</code> drawn in O(1) from the topic
+     * assignments of the document. A word's alias table is rebuilt after it
+     * has been used <code>numTopics</code> times, so the amortized cost per
+     * token does not depend on the number of topics. The alias tables take
+     * about 3 times the memory of <code>cwt</code> (a float probability, an
+     * int alias and a float proposal probability per word and topic); the
+     * work arrays used to build them are shared.
+     *
+     * @param samplingMethod
+     *            {@link #DENSE_SAMPLING} (default value) or
+     *            {@link #ALIAS_MH_SAMPLING}
+     * @param numMHSteps
+     *            the number of Metropolis-Hastings steps per token (ignored
+     *            for dense sampling, must be at least 1, default value is 2)
+     */
+    public void setSamplingMethod(int samplingMethod, int numMHSteps) {
+        this.samplingMethod = samplingMethod == ALIAS_MH_SAMPLING ? ALIAS_MH_SAMPLING
+                : DENSE_SAMPLING;
+        this.numMHSteps = numMHSteps > 0 ? numMHSteps : 1;
+    }
+
+    /**
+     * Stops the run as soon as the log-likelihood has converged.
+     *
+     * <p>
+     * The log-likelihood is evaluated every <code>interval</code> iterations.
+     * When its relative change has stayed below <code>threshold</code> for
+     * <code>window</code> evaluations in a row, the current state is reported
+     * and the run stops instead of going on until the maximum number of
+     * iterations.
+     *
+     * @param interval
+     *            the number of iterations between two evaluations
+     * @param threshold
+     *            the maximum relative change of a converged log-likelihood
+     * @param window
+     *            the number of evaluations in a row whose change must be
+     *            below the threshold
+     */
+    public void setConvergence(int interval, double threshold, int window) {
+        convergence = new ConvergenceMonitor(interval, threshold, window);
+    }
+
+    /**
+     * Also writes theta and phi of each report in the NumPy .npy format (see
+     * {@link NpyFile}) next to the csv files.
+     *
+     * <p>
+     * <code>theta.npy</code> is a D x K matrix and <code>phi.npy</code> a K x
+     * V matrix (phi.csv has one row per word).
+     *
+     * @param npyExport
+     *            true to write the .npy files (default value is false)
+     * @param float32
+     *            true to store the values as float32 instead of float64
+     */
+    public void setNpyExport(boolean npyExport, boolean float32) {
+        this.npyExport = npyExport;
+        this.npyFloat32 = float32;
+    }
+
+    /**
+     * Sets the seed of the random generator.
+     *
+     * <p>
+     * Two runs with the same seed and settings give the same samples. The seed
+     * of a run is written to the file <code>seed.txt</code> of the output
+     * directory.
+     *
+     * @param seed
+     *            the seed (by default, a different seed is used for each
+     *            sampler)
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the seed of the random generator.
+     *
+     * @return
+     */
+    public long getSeed() {
+        return seed;
+    }
+
     /**
      * Runs the Gibbs sampler and report every <code>reportPeriod</code>
      * iterations (after burn-in).
      */
     public void run(int reportPeriod) {
-        initialize();
+        new File(outputDir).mkdirs();
+        try {
+            PrintWriter out = new PrintWriter(outputDir + "/seed.txt");
+            out.println(seed);
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error writing seed!");
+            e.printStackTrace();
+        }
+        initializeModel();
+        long numTokens = 0;
+        for (int m = 0; m < numDocuments; m++) {
+            numTokens += documents[m].length;
+        }
+        long sweepTime = 0;
+        int numSweeps = 0;
+        if (convergence != null) {
+            convergence.reset();
+        }
         for (int iter = 0; iter <= numIterations; iter++) {
             System.out.print(iter + " ");
             if (iter % 100 == 0) {
@@ -121,11 +269,22 @@ public class GibbsSampler {
             }
 
             // sampling each hidden variable z_i
-            for (int m = 0; m < numDocuments; m++) {
-                for (int n = 0; n < documents[m].length; n++) {
-                    z[m][n] = sampleTopicForWord(m, n);
+            long start = System.nanoTime();
+            if (samplingMethod == ALIAS_MH_SAMPLING) {
+                for (int m = 0; m < numDocuments; m++) {
+                    for (int n = 0; n < documents[m].length; n++) {
+                        z[m][n] = sampleTopicForWordMH(m, n);
+                    }
+                }
+            } else {
+                for (int m = 0; m < numDocuments; m++) {
+                    for (int n = 0; n < documents[m].length; n++) {
+                        z[m][n] = sampleTopicForWord(m, n);
+                    }
                 }
             }
+            sweepTime += System.nanoTime() - start;
+            numSweeps++;
 
             // after burn-in & some sample lags we can collect a sample
             // note that we are not saving z[m][n] for now
@@ -133,8 +292,25 @@ public class GibbsSampler {
                 updateParams();
                 System.err.printf("Periodic report written to %s/%d.\n",
                         outputDir, iter);
+                System.err.printf("%.0f tokens/sec (%d topics)\n", numTokens
+                        * numSweeps / (sweepTime / 1e9), numTopics);
+                sweepTime = 0;
+                numSweeps = 0;
                 report(iter);
             }
+
+            // stop once the log-likelihood has converged
+            if (convergence != null && convergence.isDue(iter)) {
+                double log = logLikelihood();
+                System.err.printf("\nlog likelihood at iteration %d: %f\n",
+                        iter, log);
+                if (convergence.update(log)) {
+                    System.err.printf("Converged at iteration %d\n", iter);
+                    updateParams();
+                    report(iter);
+                    break;
+                }
+            }
         }
 
     }
@@ -151,12 +327,92 @@ public class GibbsSampler {
             writeDocumentTopic(dir + "/theta.csv", theta);
             writeTopicWord(dir + "/phi.csv", phi);
             writeTopWords(dir + "/topWords.csv", phi, 100);
+            if (npyExport) {
+                NpyFile.write(new File(dir, "theta.npy"), theta, npyFloat32);
+                NpyFile.write(new File(dir, "phi.npy"), phi, npyFloat32);
+            }
         } catch (IOException e) {
             System.err.println("Error writing report!");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Returns the log likelihood of the corpus given the current point
+     * estimate of theta and phi.
+     *
+     * <p>
+     * The documents are split into ranges which are evaluated in parallel;
+     * theta of each document is computed once for all of its words.
+     *
+     * @return
+     */
+    public double logLikelihood() {
+        final double[] inverseTopicSum = new double[numTopics];
+        double vBeta = vocabularySize * beta;
+        for (int k = 0; k < numTopics; k++) {
+            inverseTopicSum[k] = 1.0 / (cwtsum[k] + vBeta);
+        }
+        int numThreads = Math.min(numDocuments, Runtime.getRuntime()
+                .availableProcessors());
+        if (numThreads <= 1) {
+            return logLikelihood(0, numDocuments, inverseTopicSum);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<Double>> futures = new ArrayList<Future<Double>>();
+        for (int p = 0; p < numThreads; p++) {
+            final int from = (int) ((long) numDocuments * p / numThreads);
+            final int to = (int) ((long) numDocuments * (p + 1) / numThreads);
+            futures.add(executor.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return logLikelihood(from, to, inverseTopicSum);
+                }
+            }));
+        }
+        double log = 0.0;
+        try {
+            for (Future<Double> future : futures) {
+                log += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Likelihood evaluation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Likelihood evaluation failed",
+                    e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        return log;
+    }
+
+    /**
+     * Returns the log likelihood of documents [from, to).
+     */
+    private double logLikelihood(int from, int to, double[] inverseTopicSum) {
+        double tAlpha = numTopics * alpha;
+        double[] theta = new double[numTopics];
+        double log = 0.0;
+        for (int m = from; m < to; m++) {
+            for (int k = 0; k < numTopics; k++) {
+                theta[k] = (cdt[m][k] + alpha) / (cdtsum[m] + tAlpha)
+                        * inverseTopicSum[k];
+            }
+            for (int word : documents[m]) {
+                double p = 0.0;
+                int[] counts = cwt[word];
+                for (int k = 0; k < numTopics; k++) {
+                    p += theta[k] * (counts[k] + beta);
+                }
+                log += Math.log(p);
+            }
+        }
+
+        return log;
+    }
+
     /**
      * Returns the estimated theta values of this sampler.
      * 
@@ -248,6 +504,18 @@ public class GibbsSampler {
         out.close();
     }
 
+    /**
+     * Creates the random generator and initializes the model and the alias
+     * tables of the sampling method.
+     */
+    void initializeModel() {
+        random = new RandomGenerator(seed);
+        initialize();
+        if (samplingMethod == ALIAS_MH_SAMPLING) {
+            initAliasTables();
+        }
+    }
+
     /**
      * Initializes the model (assign random values to hidden variables -- the
      * topics z).
@@ -268,7 +536,7 @@ public class GibbsSampler {
             z[m] = new int[N];
             cdtsum[m] = N; // cdtsum[m] = number of words in document m
             for (int n = 0; n < N; n++) {
-                k = (int) (Math.random() * numTopics);
+                k = random.nextInt(numTopics);
                 z[m][n] = k;
                 cwt[documents[m][n]][k]++; // word i assigned to topic k
                 cdt[m][k]++; // word i in document m assigned to topic k
@@ -331,6 +599,143 @@ public class GibbsSampler {
         return topic;
     }
 
+    /**
+     * Creates the alias tables of the word proposals.
+     */
+    private void initAliasTables() {
+        wordTables = new AliasTable[vocabularySize];
+        weights = new double[numTopics];
+        scaled = new double[numTopics];
+        small = new int[numTopics];
+        large = new int[numTopics];
+    }
+
+    /**
+     * Returns the alias table of the word proposal of <code>word</code>,
+     * (re)building it when it has not been built or has been used
+     * <code>numTopics</code> times.
+     */
+    private AliasTable getWordTable(int word) {
+        AliasTable table = wordTables[word];
+        if (table == null) {
+            table = new AliasTable(numTopics);
+            wordTables[word] = table;
+        } else if (table.getNumDraws() < numTopics) {
+            return table;
+        }
+        double vBeta = vocabularySize * beta;
+        for (int k = 0; k < numTopics; k++) {
+            weights[k] = (cwt[word][k] + beta) / (cwtsum[k] + vBeta);
+        }
+        table.build(weights, scaled, small, large);
+
+        return table;
+    }
+
+    /**
+     * Samples a topic for the n_th word in document m using
+     * Metropolis-Hastings steps with alternating word and document proposals.
+     *
+     * @param m
+     *            the document
+     * @param n
+     *            the index (position) of the word in this document
+     *
+     * @return the topic
+     */
+    int sampleTopicForWordMH(int m, int n) {
+        int word = documents[m][n];
+        int oldTopic = z[m][n];
+        // not counting i_th word
+        cwt[word][oldTopic]--;
+        cdt[m][oldTopic]--;
+        cwtsum[oldTopic]--;
+        cdtsum[m]--;
+
+        double vBeta = vocabularySize * beta;
+        int length = documents[m].length;
+        double docProb = length / (length + numTopics * alpha);
+        int topic = oldTopic, proposal;
+        double acceptance;
+        for (int step = 0; step < numMHSteps; step++) {
+            if (step % 2 == 0) {
+                // word proposal q(k) from the stale alias table
+                AliasTable table = getWordTable(word);
+                proposal = table.sample(random);
+                if (proposal == topic) {
+                    continue;
+                }
+                acceptance = (cdt[m][proposal] + alpha)
+                        * (cwt[word][proposal] + beta)
+                        / (cwtsum[proposal] + vBeta)
+                        * table.probability(topic)
+                        / ((cdt[m][topic] + alpha) * (cwt[word][topic] + beta)
+                                / (cwtsum[topic] + vBeta) * table
+                                .probability(proposal));
+            } else {
+                // document proposal q(k) ~ cdt[m][k] + alpha, where cdt[m]
+                // still counts the old topic of this word
+                if (random.nextDouble() < docProb) {
+                    proposal = z[m][random.nextInt(length)];
+                } else {
+                    proposal = random.nextInt(numTopics);
+                }
+                if (proposal == topic) {
+                    continue;
+                }
+                int ownProposal = proposal == oldTopic ? 1 : 0;
+                int ownTopic = topic == oldTopic ? 1 : 0;
+                acceptance = (cdt[m][proposal] + alpha)
+                        * (cwt[word][proposal] + beta)
+                        / (cwtsum[proposal] + vBeta)
+                        * (cdt[m][topic] + ownTopic + alpha)
+                        / ((cdt[m][topic] + alpha) * (cwt[word][topic] + beta)
+                                / (cwtsum[topic] + vBeta) * (cdt[m][proposal]
+                                + ownProposal + alpha));
+            }
+            if (acceptance >= 1.0 || random.nextDouble() < acceptance) {
+                topic = proposal;
+            }
+        }
+
+        // assign new topic to the i_th word
+        z[m][n] = topic;
+        cwt[word][topic]++;
+        cdt[m][topic]++;
+        cwtsum[topic]++;
+        cdtsum[m]++;
+
+        return topic;
+    }
+
+    /**
+     * Returns the normalized full conditional of the n_th word in document m
+     * given all other topic assignments -- for testing purpose only.
+     *
+     * @param m
+     * @param n
+     * @return
+     */
+    double[] fullConditional(int m, int n) {
+        int word = documents[m][n];
+        int topic = z[m][n];
+        double vBeta = vocabularySize * beta;
+        double[] p = new double[numTopics];
+        double sum = 0.0;
+        int own;
+        for (int k = 0; k < numTopics; k++) {
+            own = k == topic ? 1 : 0;
+            p[k] = (cwt[word][k] - own + beta) / (cwtsum[k] - own + vBeta)
+                    * (cdt[m][k] - own + alpha);
+            sum += p[k];
+        }
+        for (int k = 0; k < numTopics; k++) {
+            p[k] /= sum;
+        }
+
+        return p;
+    }
+
     /**
      * Samples a topic by sampling a value from a discrete distribution.
      */
@@ -345,7 +750,7 @@ public class GibbsSampler {
             if (k > 0)
                 p[k] += p[k - 1];
         }
-        double u = Math.random() * p[numTopics - 1];
+        double u = random.nextDouble() * p[numTopics - 1];
         // find the interval which contains u
         for (int topic = 0; topic < numTopics; topic++) {
             if (u < p[topic]) {
@@ -0,0 +1,80 @@
+package com.nicta.topicmodels;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of {@code int} values, which holds them in an array instead
+ * of boxing each of them as a {@code List<Integer>} does.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class IntList {
+    private int[] values;
+    private int size;
+
+    /**
+     * Constructs an empty list.
+     */
+    public IntList() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty list which holds {@code capacity} values before it
+     * grows.
+     */
+    public IntList(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Returns the number of values in this list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a value to this list.
+     */
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Returns the value at position {@code i}.
+     */
+    public int get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException(i + " >= " + size);
+        }
+        return values[i];
+    }
+
+    /**
+     * Replaces the value at position {@code i}.
+     */
+    public void set(int i, int value) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException(i + " >= " + size);
+        }
+        values[i] = value;
+    }
+
+    /**
+     * Removes all values of this list (keeping its capacity).
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the values of this list in a new array.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
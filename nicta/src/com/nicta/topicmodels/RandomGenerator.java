@@ -0,0 +1,88 @@
+package com.nicta.topicmodels;
+
+/**
+ * A fast (non-synchronized) pseudo random number generator: xoroshiro128+
+ * (Blackman and Vigna, 2018) whose state is expanded from a 64-bit seed with
+ * SplitMix64.
+ *
+ * <p>
+ * Unlike {@link Math#random()}, which shares one synchronized
+ * {@link java.util.Random} among all threads, a generator is owned by one
+ * sampler (or thread), and a run is reproducible from its seed. Instances are
+ * not thread-safe.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class RandomGenerator {
+    private long s0;
+    private long s1;
+
+    /**
+     * Constructs a new generator with the given <code>seed</code>.
+     *
+     * @param seed
+     */
+    public RandomGenerator(long seed) {
+        s0 = splitMix(seed += 0x9e3779b97f4a7c15L);
+        s1 = splitMix(seed += 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * Returns a seed which differs between runs.
+     *
+     * @return
+     */
+    public static long newSeed() {
+        return splitMix(System.nanoTime() ^ System.currentTimeMillis() << 20);
+    }
+
+    private static long splitMix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the next pseudo random 64-bit value.
+     *
+     * @return
+     */
+    public long nextLong() {
+        final long x = s0;
+        long y = s1;
+        final long result = x + y;
+        y ^= x;
+        s0 = Long.rotateLeft(x, 24) ^ y ^ (y << 16);
+        s1 = Long.rotateLeft(y, 37);
+        return result;
+    }
+
+    /**
+     * Returns a pseudo random value uniformly distributed in [0, 1).
+     *
+     * @return
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a pseudo random value uniformly distributed in [0, n).
+     *
+     * @param n
+     * @return
+     */
+    public int nextInt(int n) {
+        return (int) (nextDouble() * n);
+    }
+
+    /**
+     * Returns a new generator whose sequence is independent of this generator
+     * (for another thread), advancing this generator.
+     *
+     * @return
+     */
+    public RandomGenerator split() {
+        return new RandomGenerator(nextLong());
+    }
+}
@@ -0,0 +1,54 @@
+package com.nicta.topicmodels;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link AliasTable}.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class TestAliasTable extends TestCase {
+    // the 0.999 quantile of the chi-square distribution with 7 degrees of
+    // freedom
+    private static final double CHI_SQUARE_7 = 24.32;
+
+    /**
+     * Tests if the samples of a table follow its weights, also after the
+     * table is rebuilt in place with other weights.
+     */
+    public void testSamplesFollowWeights() {
+        double[][] weights = { { 1, 0, 3, 6, 0.5, 2, 2, 4, 1 },
+                { 5, 1, 0, 0.2, 3, 3, 1, 7, 2 } };
+        AliasTable table = new AliasTable(9);
+        double[] scaled = new double[9];
+        int[] small = new int[9], large = new int[9];
+        RandomGenerator random = new RandomGenerator(1);
+        for (double[] w : weights) {
+            table.build(w, scaled, small, large);
+            assertEquals(0, table.getNumDraws());
+            double sum = 0.0;
+            for (double x : w) {
+                sum += x;
+            }
+            int numSamples = 100000;
+            int[] counts = new int[w.length];
+            for (int i = 0; i < numSamples; i++) {
+                counts[table.sample(random)]++;
+            }
+            assertEquals(numSamples, table.getNumDraws());
+            double chiSquare = 0.0;
+            for (int k = 0; k < w.length; k++) {
+                assertEquals(w[k] / sum, table.probability(k), 1e-6);
+                if (w[k] == 0) {
+                    assertEquals(0, counts[k]);
+                } else {
+                    double expected = numSamples * w[k] / sum;
+                    chiSquare += (counts[k] - expected) * (counts[k] - expected)
+                            / expected;
+                }
+            }
+            // 8 outcomes with a positive weight
+            assertTrue("chi-square = " + chiSquare, chiSquare < CHI_SQUARE_7);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.nicta.topicmodels;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.aliasi.tokenizer.LowerCaseTokenizerFactory;
+import com.aliasi.tokenizer.RegExTokenizerFactory;
+import com.aliasi.tokenizer.TokenizerFactory;
+
+/**
+ * Tests for {@link CharTokenizer}.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class TestCharTokenizer extends TestCase {
+
+    /**
+     * Tests if the tokens are those of the lingpipe tokenizer the parser used
+     * before.
+     */
+    public void testSameTokensAsLingpipe() {
+        TokenizerFactory factory = new LowerCaseTokenizerFactory(
+                new RegExTokenizerFactory("[$a-zA-Z_]+"));
+        CharTokenizer tokenizer = new CharTokenizer();
+        String[] texts = { "", "  ", "The Gibbs-sampler's $cost_x2 IS low.",
+                "caf\u00e9 na\u00efve DNA2RNA", "end" };
+        for (String text : texts) {
+            List<String> expected = new ArrayList<String>();
+            char[] cs = text.toCharArray();
+            for (String token : factory.tokenizer(cs, 0, cs.length)) {
+                expected.add(token);
+            }
+            IntList ranges = new IntList();
+            char[] lower = tokenizer.tokenize(text, ranges);
+            List<String> tokens = new ArrayList<String>();
+            for (int n = 0; n < ranges.size(); n += 2) {
+                tokens.add(new String(lower, ranges.get(n), ranges.get(n + 1)
+                        - ranges.get(n)));
+            }
+            assertEquals(expected, tokens);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.nicta.topicmodels;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.aliasi.symbol.MapSymbolTable;
+
+/**
+ * Tests for {@link GibbsSampler}.
+ *
+ * @author trung (trung.ngvan@gmail.com)
+ */
+public class TestGibbsSampler extends TestCase {
+    private static final int[][] documents = {
+            { 1, 4, 3, 2, 3, 1, 4, 3, 2, 3, 1, 4, 3, 2, 3, 6 },
+            { 2, 2, 4, 2, 4, 2, 2, 2, 2, 4, 2, 2 },
+            { 1, 6, 5, 6, 0, 1, 6, 5, 6, 0, 1, 6, 5, 6, 0, 0 },
+            { 5, 6, 6, 2, 3, 3, 6, 5, 6, 2, 2, 6, 5, 6, 6, 6, 0 } };
+
+    /**
+     * Tests if the alias/Metropolis-Hastings kernel samples a topic from the
+     * full conditional.
+     *
+     * <p>
+     * The other topics are fixed, so resampling a word again and again is a
+     * Markov chain whose stationary distribution is the full conditional of
+     * the word; the frequencies of its topics must converge to it.
+     */
+    public void testAliasMHSampling() {
+        MapSymbolTable table = new MapSymbolTable();
+        for (int i = 0; i < 7; i++) {
+            table.getOrAddSymbol("w" + i);
+        }
+        for (int numMHSteps = 1; numMHSteps <= 2; numMHSteps++) {
+            GibbsSampler sampler = new GibbsSampler(documents, table, 5, 0.5,
+                    0.1);
+            sampler.setSamplingMethod(GibbsSampler.ALIAS_MH_SAMPLING,
+                    numMHSteps);
+            sampler.setSeed(17);
+            sampler.initializeModel();
+            final int m = 2, n = 3;
+            final double[] p = sampler.fullConditional(m, n);
+            final int[] sampleCounts = new int[p.length];
+            final int numSamples = 200000;
+            for (int i = 0; i < numSamples; i++) {
+                sampleCounts[sampler.sampleTopicForWordMH(m, n)]++;
+            }
+            // the other topics have not changed
+            assertTrue(Arrays.equals(p, sampler.fullConditional(m, n)));
+            for (int k = 0; k < p.length; k++) {
+                double difference = Math.abs(((double) sampleCounts[k])
+                        / numSamples - p[k]);
+                assertTrue("topic " + k + ": " + difference, difference < 0.01);
+            }
+        }
+    }
+}
@@ -5,26 +5,20 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
-import com.aliasi.symbol.MapSymbolTable;
 import com.aliasi.symbol.SymbolTable;
-import com.aliasi.tokenizer.EnglishStopTokenizerFactory;
-import com.aliasi.tokenizer.LowerCaseTokenizerFactory;
-import com.aliasi.tokenizer.ModifyTokenTokenizerFactory;
-import com.aliasi.tokenizer.RegExTokenizerFactory;
-import com.aliasi.tokenizer.StopTokenizerFactory;
-import com.aliasi.tokenizer.Tokenizer;
-import com.aliasi.tokenizer.TokenizerFactory;
-import com.aliasi.util.Counter;
 import com.aliasi.util.ObjectToCounterMap;
-import com.aliasi.util.Strings;
 
+import edu.kaist.uilab.plda.data.CharTokenizer;
+import edu.kaist.uilab.plda.data.DocumentPipeline;
+import edu.kaist.uilab.plda.data.EntityCache;
+import edu.kaist.uilab.plda.data.TokenStage;
 import edu.kaist.uilab.plda.file.DocumentReader;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.RandomGenerator;
 
 /**
  * A class that prepares data for the model.
@@ -37,7 +31,6 @@ public class CorpusProcessor {
   private DocumentReader reader;
   private SymbolTable symbolTable;
   private ArrayList<Entity> entityTable;
-  private TokenizerFactory tokenizerFactory;
   // to maintain the same order of documents in the corpus
   private ArrayList<String> docNames;
   private int minTokenCount;
@@ -46,8 +39,14 @@ public class CorpusProcessor {
   private int topDocumentTokens;
   private int[][] documentTokens;
   private Entity[][] documentEntities;
-  private CharSequence[] cSeqs;
+  // the counts of all tokens of the corpus (before pruning)
+  private ObjectToCounterMap<String> tokenCounter;
+  private long numTokens;
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+  private EntityCache entityCache;
   private Set<String> stopWords;
+  private long seed = RandomGenerator.newSeed();
+  private Metrics metrics;
 
   /**
    * Constructor
@@ -80,6 +79,56 @@ public class CorpusProcessor {
     this.stopWords = new HashSet<String>(Arrays.asList(stopwordList));
   }
 
+  /**
+   * Sets the seed of the random generator used to choose the documents of the
+   * corpus.
+   * 
+   * @param seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Returns the seed of the random generator used to choose the documents of
+   * the corpus.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Sets the metrics to which the processed documents are recorded.
+   * 
+   * @param metrics
+   *       the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sets the number of threads which parse the entities and tokenize the
+   * documents (see {@link DocumentPipeline}).
+   * 
+   * @param numThreads
+   *       the number of threads (default value is the number of processors)
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Sets the cache of the entities of each document, so that the documents
+   * which have been parsed before are not classified again.
+   * 
+   * @param entityCache
+   *       the cache (null for none, the default value)
+   */
+  public void setEntityCache(EntityCache entityCache) {
+    this.entityCache = entityCache;
+  }
+
   /**
    * Processes data in this corpus.
    * 
@@ -95,32 +144,43 @@ public class CorpusProcessor {
         docNames.add(file.getName());
       }
     }
+    // the order of listFiles() is not specified
+    Collections.sort(docNames);
+    RandomGenerator random = RandomGenerator.newInstance(seed);
     // TODO(trung): remove after testing
     int test = 5000;
     ArrayList<String> holder = new ArrayList<String>(test);
     for (int i = 0; i < test; i++) {
-      holder.add(docNames.get((int) (Math.random() * docNames.size())));
+      holder.add(docNames.get(random.nextInt(docNames.size())));
     }
     docNames = holder;
     
 //    docNames = new ArrayList<String>(docNames.subList(0, 1000));
 
-    System.out.println("\nParsing the corpus for entities...");
+    System.out.println("\nParsing the corpus for entities and tokens...");
     EntityParser parser = new EntityParser(corpusDir, reader, docNames,
         minEntityCount);
     parser.setAcceptedEntityType(true, false, true);
-    parser.parseCorpus();
+    parser.setEntityCache(entityCache);
+    TokenStage tokenStage = new TokenStage(new CharTokenizer(stopWords, true),
+        docNames.size(), minTokenCount, topStopWords, topDocumentTokens);
+    DocumentPipeline pipeline = new DocumentPipeline(corpusDir, reader);
+    pipeline.setNumThreads(2, numThreads);
+    pipeline.setMetrics(metrics);
+    pipeline.addStage(parser.newStage());
+    pipeline.addStage(tokenStage);
+    pipeline.run(docNames);
+    tokenCounter = tokenStage.getTokenCounter();
+    numTokens = tokenStage.getNumTokens();
+    symbolTable = tokenStage.getSymbolTable();
+    documentTokens = tokenStage.getDocumentTokens();
     documentEntities = parser.getDocumentEntities();
     entityTable = parser.getEntityList();
-    System.out.println("\nParsing entities done!");
-    tokenizerFactory = customTokenizerFactory();
-    symbolTable = new MapSymbolTable();
-
-    System.out.println("Tokenizing the corpus to tokens...");
-    cSeqs = readCorpus(docNames);
-    documentTokens = tokenizeDocuments(cSeqs, tokenizerFactory, symbolTable,
-        minTokenCount);
-    System.out.println("Tokenizing done!");
+    System.out.println(pipeline.statistics());
+    if (entityCache != null) {
+      System.out.println(entityCache.statistics());
+    }
+    System.out.println("Parsing done!");
   }
 
   /**
@@ -212,15 +272,6 @@ public class CorpusProcessor {
   private void writeCorpus(String file) throws IOException {
     PrintWriter out = new PrintWriter(file);
     out.printf("Corpus directory: %s\n", corpusDir);
-    ObjectToCounterMap<String> tokenCounter = new ObjectToCounterMap<String>();
-    int numTokens = 0;
-    for (CharSequence cSeq : cSeqs) {
-      char[] cs = cSeq.toString().toCharArray();
-      for (String token : tokenizerFactory.tokenizer(cs, 0, cs.length)) {
-        tokenCounter.increment(token);
-        numTokens++;
-      }
-    }
     out.printf("# tokens: %d\n", numTokens);
     out.printf("# unique tokens: %d (minTokenCount = %d)\n",
         getVocabularySize(), minTokenCount);
@@ -268,191 +319,4 @@ public class CorpusProcessor {
     }
     out.close();
   }
-
-  /**
-   * Reads the entire corpus for training the model.
-   * 
-   * @param directory
-   * @return
-   * @throws IOException
-   */
-  private CharSequence[] readCorpus(ArrayList<String> docNames) {
-    ArrayList<CharSequence> documents = new ArrayList<CharSequence>(
-        docNames.size());
-    try {
-      for (String doc : docNames) {
-        documents.add(reader.readDocument(corpusDir + "/" + doc));
-      }
-    } catch (IOException e) {
-      // do nothing to continue reading other docs
-    }
-
-    return documents.<CharSequence> toArray(new CharSequence[documents.size()]);
-  }
-
-  /**
-   * Tokenize an array of text documents represented as character sequences into
-   * a form usable by LDA, using the specified tokenizer factory and symbol
-   * table. The symbol table should be constructed fresh for this application,
-   * but may be used after this method is called for further token to symbol
-   * conversions. Only tokens whose count is equal to or larger the specified
-   * minimum count are included. Only tokens whose count exceeds the minimum are
-   * added to the symbol table, thus producing a compact set of symbol
-   * assignments to tokens for downstream processing.
-   * 
-   * <p>
-   * <i>Warning</i>: With some tokenizer factories and or minimum count
-   * thresholds, there may be documents with no tokens in them.
-   * 
-   * @param texts
-   *          The text corpus.
-   * @param tokenizerFactory
-   *          A tokenizer factory for tokenizing the texts.
-   * @param symbolTable
-   *          Symbol table used to convert tokens to identifiers.
-   * @param minCount
-   *          Minimum count for a token to be included in a document's
-   *          representation.
-   * @return The tokenized form of a document suitable for input to LDA.
-   */
-  private int[][] tokenizeDocuments(CharSequence[] texts,
-      TokenizerFactory tokenizerFactory, SymbolTable symbolTable, int minCount) {
-    ObjectToCounterMap<String> tokenCounter = new ObjectToCounterMap<String>();
-    // count #(a token appears in a document)
-    ObjectToCounterMap<String> tokDocumentCounter = new ObjectToCounterMap<String>();
-    for (CharSequence text : texts) {
-      HashSet<String> uniqueDocTokens = new HashSet<String>();
-      char[] cs = Strings.toCharArray(text);
-      Tokenizer tokenizer = tokenizerFactory.tokenizer(cs, 0, cs.length);
-      for (String token : tokenizer) {
-        tokenCounter.increment(token);
-        if (uniqueDocTokens.add(token)) {
-          tokDocumentCounter.increment(token);
-        }
-      }  
-    }
-    tokenCounter.prune(minCount);
-    pruneTopWords(tokenCounter, topStopWords);
-    pruneTopDocumentTokens(tokDocumentCounter, topDocumentTokens);
-    Set<String> tokenSet = tokenCounter.keySet();
-    for (String token : tokenSet)
-      symbolTable.getOrAddSymbol(token);
-
-    int[][] docTokenId = new int[texts.length][];
-    for (int i = 0; i < docTokenId.length; ++i) {
-      docTokenId[i] = tokenizeDocument(texts[i], tokenizerFactory, symbolTable);
-    }
-    return docTokenId;
-  }
-
-  /**
-   * Prunes the tokens that appear in more than a specified number of documents.
-   * 
-   * @param counter
-   * @param percent
-   */
-  private void pruneTopDocumentTokens(ObjectToCounterMap<String> counter,
-      int percent) {
-    int threshold = percent * docNames.size() / 100;
-    int count = 0;
-    Iterator<Map.Entry<String, Counter>> iter = counter.entrySet().iterator();
-    while (iter.hasNext()) {
-      if (iter.next().getValue().intValue() > threshold) {
-        iter.remove();
-        count++;
-      }
-    }
-    System.err.printf("%d words pruned.\n", count);
-  }
-  
-  /**
-   * Prunes the top {@code num} tokens from the vocabulary set.
-   * 
-   * @param tokenCounter
-   * @param num
-   */
-  private void pruneTopWords(ObjectToCounterMap<String> tokenCounter, int num) {
-    HashSet<String> topKeys = new HashSet<String>(
-        tokenCounter.keysOrderedByCountList().subList(0, num));
-    Iterator<Map.Entry<String, Counter>> iter = tokenCounter.entrySet().iterator();
-    int count = 0;
-    while (iter.hasNext()) {
-      if (topKeys.contains(iter.next().getKey())) {
-        iter.remove();
-        count++;
-      }
-    }
-    System.err.printf("%d stop words pruned.\n", count);
-  }
-
-  /**
-   * Tokenizes the specified text document using the specified tokenizer factory
-   * returning only tokens that exist in the symbol table. This method is useful
-   * within a given LDA model for tokenizing new documents into lists of words.
-   * 
-   * @param text
-   *          Character sequence to tokenize.
-   * @param tokenizerFactory
-   *          Tokenizer factory for tokenization.
-   * @param symbolTable
-   *          Symbol table to use for converting tokens to symbols.
-   * @return The array of integer symbols for tokens that exist in the symbol
-   *         table.
-   */
-  private int[] tokenizeDocument(CharSequence text,
-      TokenizerFactory tokenizerFactory, SymbolTable symbolTable) {
-    char[] cs = Strings.toCharArray(text);
-    Tokenizer tokenizer = tokenizerFactory.tokenizer(cs, 0, cs.length);
-    List<Integer> idList = new ArrayList<Integer>();
-    for (String token : tokenizer) {
-      int id = symbolTable.symbolToID(token);
-      if (id >= 0)
-        idList.add(id);
-    }
-    int[] tokenIds = new int[idList.size()];
-    for (int i = 0; i < tokenIds.length; ++i)
-      tokenIds[i] = idList.get(i);
-
-    return tokenIds;
-  }
-
-  /**
-   * Returns the custom tokenizer factory used for this corpus.
-   * 
-   * @return
-   */
-  private TokenizerFactory customTokenizerFactory() {
-    TokenizerFactory factory = new RegExTokenizerFactory("[$a-zA-Z0-9]+");
-    factory = new NonAlphaStopTokenizerFactory(factory);
-    factory = new LowerCaseTokenizerFactory(factory);
-    factory = new EnglishStopTokenizerFactory(factory);
-    factory = new StopTokenizerFactory(factory, stopWords);
-
-    return factory;
-  }
-
-  /**
-   * Tokenizer that only accepts token that contains letters.
-   */
-  static final class NonAlphaStopTokenizerFactory extends
-      ModifyTokenTokenizerFactory {
-    static final long serialVersionUID = -3401639068551227864L;
-
-    public NonAlphaStopTokenizerFactory(TokenizerFactory factory) {
-      super(factory);
-    }
-
-    public String modifyToken(String token) {
-      return stop(token) ? null : token;
-    }
-
-    public boolean stop(String token) {
-      if (token.length() < 2)
-        return true;
-      for (int i = 0; i < token.length(); ++i)
-        if (Character.isLetter(token.charAt(i)))
-          return false;
-      return true;
-    }
-  }
 }
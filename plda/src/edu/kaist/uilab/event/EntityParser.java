@@ -4,13 +4,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import com.aliasi.util.ObjectToCounterMap;
 
+import edu.kaist.uilab.plda.data.DocumentPipeline;
+import edu.kaist.uilab.plda.data.EntityCache;
+import edu.kaist.uilab.plda.data.MentionIndex;
 import edu.kaist.uilab.plda.file.DefaultDocumentReader;
 import edu.kaist.uilab.plda.file.DocumentReader;
+import edu.kaist.uilab.plda.util.Metrics;
 import edu.stanford.nlp.ie.AbstractSequenceClassifier;
 import edu.stanford.nlp.ie.crf.CRFClassifier;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
@@ -24,8 +29,6 @@ import edu.stanford.nlp.ling.CoreLabel;
 public class EntityParser {
   
   private static final String serializedClassifier = "classifiers/ner-eng-ie.crf-3-all2008-distsim.ser.gz";
-  private static final AbstractSequenceClassifier classifier = CRFClassifier
-      .getClassifierNoExceptions(serializedClassifier);
   private static final String PERSON = "PERSON";
   private static final String LOCATION = "LOCATION";
   private static final String ORGANIZATION = "ORGANIZATION";
@@ -40,6 +43,15 @@ public class EntityParser {
   private boolean acceptPerson = true;
   private boolean acceptLocation = true;
   private boolean acceptOrganization = true;
+  private Metrics metrics;
+  private EntityCache cache;
+
+  // loads the NER model when a document is first classified, so that a
+  // corpus whose entities are all cached does not load it
+  private static class ClassifierHolder {
+    static final AbstractSequenceClassifier classifier = CRFClassifier
+        .getClassifierNoExceptions(serializedClassifier);
+  }
 
   /**
    * Initializes an entity parser for all documents of a corpus.
@@ -73,6 +85,27 @@ public class EntityParser {
     acceptLocation = location;
     acceptOrganization = organization;
   }
+
+  /**
+   * Sets the metrics to which the parsed documents are recorded.
+   * 
+   * @param metrics
+   *       the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+  
+  /**
+   * Sets the cache of the entities of each document, so that the documents
+   * which are in the cache are not classified again.
+   * 
+   * @param cache
+   *       the cache (null for none, the default value)
+   */
+  public void setEntityCache(EntityCache cache) {
+    this.cache = cache;
+  }
   
   /**
    * Returns the directory where the corpus resides.
@@ -118,36 +151,62 @@ public class EntityParser {
    * Parses the corpus to get entities for each document.
    */
   public void parseCorpus() {
-    ArrayList<ArrayList<Entity>> docEntity = new ArrayList<ArrayList<Entity>>(
-        documentNames.size());
-    ObjectToCounterMap<Entity> counter = new ObjectToCounterMap<Entity>();
+    DocumentPipeline pipeline = new DocumentPipeline(corpusDir, reader);
+    pipeline.addStage(newStage());
+    pipeline.setMetrics(metrics);
     try {
-      ArrayList<Entity> list;
-      for (String doc : documentNames) {
-        String content = reader.readDocument(corpusDir + "/" + doc);
-        list = classifyDocument(content);
-        docEntity.add(list);
+      pipeline.run(documentNames);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    System.out.println(pipeline.statistics());
+    if (cache != null) {
+      System.out.println(cache.statistics());
+    }
+  }
+
+  /**
+   * Returns a stage of a {@link DocumentPipeline} which parses the entities
+   * of the documents, e.g., to parse them while the documents are tokenized.
+   * The entities of the corpus are set when the pipeline has finished.
+   */
+  DocumentPipeline.Stage newStage() {
+    final int numDocuments = documentNames.size();
+    final ArrayList<ArrayList<Entity>> docEntity =
+        new ArrayList<ArrayList<Entity>>(Collections
+            .<ArrayList<Entity>> nCopies(numDocuments, null));
+    final ObjectToCounterMap<Entity> counter = new ObjectToCounterMap<Entity>();
+    final String identity = cacheIdentity();
+    return new DocumentPipeline.Stage("entities") {
+      @Override
+      public void process(int document, String content) throws IOException {
+        docEntity.set(document, parseDocument(identity, content));
+      }
+
+      @Override
+      public void collect(int document) {
 //        HashSet<Entity> countedSet = new HashSet<Entity>();
-        for (Entity entity : list) {
+        for (Entity entity : docEntity.get(document)) {
 //          if (countedSet.add(entity)) {
             counter.increment(entity);
 //          }  
         }
       }
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
 
-    // convert data to desirable form by LDA model
-    // TODO(trung): this prunes entity based on count of the entire corpus
-    // perhaps it is better to prune based on count of entity in documents
-    counter.prune(minEntityCount);
-    entityList = new ArrayList<Entity>(counter.keySet());
-    HashMap<Entity, Integer> map = new HashMap<Entity, Integer>();
-    for (int idx = 0; idx < entityList.size(); idx++) {
-      map.put(entityList.get(idx), idx);
-    }
-    documentEntities = pruneEntityFromDocument(counter, map, docEntity);
+      @Override
+      public void finish() {
+        // convert data to desirable form by LDA model
+        // TODO(trung): this prunes entity based on count of the entire corpus
+        // perhaps it is better to prune based on count of entity in documents
+        counter.prune(minEntityCount);
+        entityList = new ArrayList<Entity>(counter.keySet());
+        HashMap<Entity, Integer> map = new HashMap<Entity, Integer>();
+        for (int idx = 0; idx < entityList.size(); idx++) {
+          map.put(entityList.get(idx), idx);
+        }
+        documentEntities = pruneEntityFromDocument(counter, map, docEntity);
+      }
+    };
   }
 
   /**
@@ -175,6 +234,44 @@ public class EntityParser {
     return res;
   }
   
+  /**
+   * Returns the identity of the entities of a document in the cache: the
+   * classifier, this parser and the accepted entity types.
+   */
+  private String cacheIdentity() {
+    return EntityCache.fileIdentity(serializedClassifier) + " "
+        + getClass().getName() + " " + acceptPerson + " " + acceptLocation
+        + " " + acceptOrganization;
+  }
+
+  /**
+   * Returns the entities of a document from the cache, or classifies the
+   * document (and adds its entities to the cache).
+   */
+  ArrayList<Entity> parseDocument(String identity, String content)
+      throws IOException {
+    if (cache == null) {
+      return classifyDocument(content);
+    }
+    List<EntityCache.Record> records = cache.get(identity, content);
+    ArrayList<Entity> entities;
+    if (records != null) {
+      // a record is kept for every mention of the document (with count 1)
+      entities = new ArrayList<Entity>(records.size());
+      for (EntityCache.Record record : records) {
+        entities.add(new Entity(record.value, record.type));
+      }
+    } else {
+      entities = classifyDocument(content);
+      records = new ArrayList<EntityCache.Record>(entities.size());
+      for (Entity entity : entities) {
+        records.add(new EntityCache.Record(entity.value, entity.type, 1));
+      }
+      cache.put(identity, content, records);
+    }
+    return entities;
+  }
+
   /**
    * Classifies the content of a document.
    * 
@@ -184,7 +281,11 @@ public class EntityParser {
    */
   public ArrayList<Entity> classifyDocument(String content) {
     ArrayList<Entity> entities = new ArrayList<Entity>();
-    List<List<CoreLabel>> out = classifier.classify(content);
+    List<List<CoreLabel>> out;
+    // the classifier is not thread-safe
+    synchronized (ClassifierHolder.classifier) {
+      out = ClassifierHolder.classifier.classify(content);
+    }
     String prevAnnotation = "", annotation;
     // get all entities for document (without considering variance)
     for (List<CoreLabel> sentence : out) {
@@ -224,6 +325,42 @@ public class EntityParser {
 
   // make the entities of a document distinctive
   ArrayList<Entity> getDistinctEntities(ArrayList<Entity> entity) {
+    String[] values = new String[entity.size()];
+    for (int i = 0; i < entity.size(); i++) {
+      values[i] = entity.get(i).value;
+    }
+    MentionIndex index = new MentionIndex(values, null);
+    HashMap<Integer, Entity> map = new HashMap<Integer, Entity>();
+    for (int i = 0; i < entity.size(); i++) {
+      // find the longest representation for each entity among the mentions
+      // which may enclose it, in the same order as all mentions
+      int longest = i;
+      int[] candidates = index.candidates(i);
+      int k = 0;
+      while (k < candidates.length) {
+        int j = candidates[k++];
+        String s1 = entity.get(longest).value;
+        String s2 = entity.get(j).value;
+        if (Entity.encloses(s2, s1)) {
+          longest = j;
+          candidates = index.candidates(j);
+          k = MentionIndex.next(candidates, j);
+        }
+      }
+      map.put(i, entity.get(longest));
+    }
+    
+    // copy the list to return, replacing each entity with its longest form
+    ArrayList<Entity> res = new ArrayList<Entity>(entity.size());
+    for (int i = 0; i < entity.size(); i++) {
+      res.add(map.get(i));
+    }
+    
+    return res;
+  }
+
+  // compares every pair of mentions, see getDistinctEntities()
+  ArrayList<Entity> getDistinctEntitiesPairwise(ArrayList<Entity> entity) {
     HashMap<Integer, Entity> map = new HashMap<Integer, Entity>();
     for (int i = 0; i < entity.size(); i++) {
       // find the longest representation for each entity
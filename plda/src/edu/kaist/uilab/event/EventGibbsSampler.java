@@ -1,20 +1,26 @@
 package edu.kaist.uilab.event;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.aliasi.symbol.SymbolTable;
-import com.aliasi.util.ObjectToCounterMap;
+
+import edu.kaist.uilab.plda.util.Checkpoint;
+import edu.kaist.uilab.plda.util.CountMatrix;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.NpyFile;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+import edu.kaist.uilab.plda.util.ReportWriter;
+import edu.kaist.uilab.plda.util.TopK;
 
 /**
  * Implementation of the event model using Gibbs sampler.
@@ -22,6 +28,10 @@ import com.aliasi.util.ObjectToCounterMap;
  * @author Trung Nguyen (trung.ngvan@gmail.com)
  */
 public class EventGibbsSampler {
+  // the model name stored in checkpoints
+  private static final String MODEL_NAME = "Event";
+  // maximum number of report files waiting to be written
+  private static final int MAX_PENDING_REPORTS = 16;
 
   private int numEvents; // V = numEvents
   private int vocabularySize; // W = vocabularySize
@@ -34,6 +44,12 @@ public class EventGibbsSampler {
   private SymbolTable symbolTable;
   private ArrayList<Entity> entityTable;
   private Model model;
+  // wordCounts[i] = # times word i appears in the corpus, entityCounts[e] =
+  // # documents of entity e
+  private int[] wordCounts;
+  private int[] entityCounts;
+  private long seed = RandomGenerator.newSeed();
+  private RandomGenerator random;
 
   // hyper-parameters
   private double alpha = 0.1;
@@ -46,9 +62,17 @@ public class EventGibbsSampler {
   private int sampleLags = 20; // number of sample lags (to prevent correlation)
   // (default = 50)
   private int numSamples = 1; // number of samples to take (default = 1)
+  // per-iteration metrics (null = none)
+  private Metrics metrics;
 
   // output parameters
   private String outputDir;
+  // writes the reports in the background
+  private ReportWriter reportWriter;
+  private int numReportThreads = 2;
+  // whether theta, phi and psi are also written as .npy files
+  private boolean npyExport;
+  private boolean npyFloat32;
   private int maxWordsPerEvent;
   private int maxEventsPerDoc;
   private int maxEntitiesPerEvent;
@@ -57,25 +81,25 @@ public class EventGibbsSampler {
    * Stores the current model parameters for sampling.
    */
   static class Model implements Serializable {
-    private static final long serialVersionUID = 7107787670680110327L;
+    private static final long serialVersionUID = -6176035823380424532L;
 
     // event assignment for each word    
     int[][] wordEvent;
     // word and event related counts
     // W x V: word-event count
-    int wordEventCount[][];
+    CountMatrix wordEventCount;
     // D x V: document-event count (words of document m assigned to event v)
-    int docEventByWordCount[][];
+    CountMatrix docEventByWordCount;
     // V: #words assigned to event v
     int wordEventSum[];
     
     // event assignment for each entity
     int[][] entityEvent;
     // E x V : entity-event count
-    int entityEventCount[][];
+    CountMatrix entityEventCount;
     // TODO(trung): unequal weight b.w words and entities?
     // D x V : document-event count (entities of document m assigned to event v)
-    int docEventByEntityCount[][];
+    CountMatrix docEventByEntityCount;
     // V: #entities assigned to event v
     int entityEventSum[];
     
@@ -147,6 +171,74 @@ public class EventGibbsSampler {
     this.numSamples = numSamples;
   }
 
+  /**
+   * Sets the seed of the random generator.
+   * 
+   * <p> Two runs with the same seed and parameters give the same samples. The
+   * seed of a run is written to the file {@link RandomGenerator#SEED_FILE} of
+   * the output directory.
+   * 
+   * @param seed
+   *          the seed (by default, a different seed is used for each sampler)
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Returns the seed of the random generator.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Sets the number of threads which write the reports of the collected
+   * samples while the sampler goes on.
+   * 
+   * @param numReportThreads
+   *          the number of threads (default value is 2; 0 writes the reports
+   *          in the sampling thread)
+   */
+  public void setNumReportThreads(int numReportThreads) {
+    this.numReportThreads = Math.max(0, numReportThreads);
+  }
+
+  /**
+   * Sets the metrics to which the sweeps and reports of the sampler are
+   * recorded.
+   * 
+   * @param metrics
+   *          the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the number of threads which select the top words, entities and
+   * events of a report: all processors when the reports are written in the
+   * sampling thread, otherwise only the report writer's thread.
+   */
+  private int reportThreads() {
+    return numReportThreads == 0 ? Runtime.getRuntime().availableProcessors()
+        : 1;
+  }
+
+  /**
+   * Also writes the theta, phi and psi matrices of each report in the NumPy .npy format
+   * (see {@link NpyFile}) next to the csv files.
+   * 
+   * @param npyExport
+   *          true to write the .npy files (default value is false)
+   * @param float32
+   *          true to store the values as float32 instead of float64
+   */
+  public void setNpyExport(boolean npyExport, boolean float32) {
+    this.npyExport = npyExport;
+    this.npyFloat32 = float32;
+  }
+
   /**
    * Sets parameters for reporting output.
    * 
@@ -170,6 +262,10 @@ public class EventGibbsSampler {
    */
   public void doGibbsSampling(boolean loadPastTraining) throws IOException {
     int iter = 0;
+    random = RandomGenerator.newInstance(seed);
+    if (outputDir != null) {
+      RandomGenerator.writeSeed(outputDir, seed);
+    }
     if (!loadPastTraining) {
       System.out.print("Initializing parameters...");
       initialize();
@@ -177,68 +273,309 @@ public class EventGibbsSampler {
     } else {
       iter = loadLastIter();
     }
+    System.out.println(model.wordEventCount.memoryReport("wordEventCount"));
+    System.out.println(model.docEventByWordCount
+        .memoryReport("docEventByWordCount"));
+    System.out.println(model.entityEventCount.memoryReport("entityEventCount"));
+    System.out.println(model.docEventByEntityCount
+        .memoryReport("docEventByEntityCount"));
+    // the words and entities sampled by a sweep
+    long numTokens = 0;
+    for (int m = 0; m < numDocuments; m++) {
+      numTokens += term[m].length + entity[m].length;
+    }
+    if (metrics != null) {
+      metrics.setCountMatrixBytes(model.wordEventCount.memorySize()
+          + model.docEventByWordCount.memorySize()
+          + model.entityEventCount.memorySize()
+          + model.docEventByEntityCount.memorySize());
+    }
 
     int samplesCollected = 0;
+    reportWriter = new ReportWriter(numReportThreads, MAX_PENDING_REPORTS);
     System.out.println("Burning in period...");
-    for (; iter < numIterations; iter++) {
-      if (iter < burnIn) {
-        System.out.print(iter + " ");
-        if (iter % 100 == 99) {
-          System.out.println();
+    // false if the sampling fails
+    boolean sampled = false;
+    try {
+      for (; iter < numIterations; iter++) {
+        if (iter < burnIn) {
+          System.out.print(iter + " ");
+          if (iter % 100 == 99) {
+            System.out.println();
+          }
+        } else if (iter == burnIn) {
+          System.out.println("\nBurning in done");
         }
-      } else if (iter == burnIn) {
-        System.out.println("\nBurning in done");
-      }
 
-      for (int m = 0; m < numDocuments; m++) {
-        // sample event for word
-        for (int n = 0; n < term[m].length; n++) {
-          model.wordEvent[m][n] = sampleEventForWord(m, n); 
+        if (metrics != null) {
+          metrics.startSweep();
         }
-        // sample event for entity
-        for (int e = 0; e < entity[m].length; e++) {
-          model.entityEvent[m][e] = sampleEventForEntity(m, e);
+        for (int m = 0; m < numDocuments; m++) {
+          // sample event for word
+          for (int n = 0; n < term[m].length; n++) {
+            model.wordEvent[m][n] = sampleEventForWord(m, n); 
+          }
+          // sample event for entity
+          for (int e = 0; e < entity[m].length; e++) {
+            model.entityEvent[m][e] = sampleEventForEntity(m, e);
+          }
+        }
+        if (metrics != null) {
+          metrics.endSweep(iter, numTokens);
         }
-      }
 
-      // after burn-in & some sample lags we can collect a sample
-      if (iter >= burnIn && (iter - burnIn) % sampleLags == 0) {
-        System.out.printf("Collected a sample at iteration %d\n", iter);
-        updateParams();
-        samplesCollected++;
-        report(iter);
-        if (samplesCollected == numSamples) {
-          return; // enough samples has been collected
+        // after burn-in & some sample lags we can collect a sample
+        if (iter >= burnIn && (iter - burnIn) % sampleLags == 0) {
+          System.out.printf("Collected a sample at iteration %d\n", iter);
+          updateParams();
+          samplesCollected++;
+          long reportStart = System.nanoTime();
+          report(iter);
+          if (metrics != null) {
+            metrics.addReport(iter, System.nanoTime() - reportStart);
+          }
+          if (samplesCollected == numSamples) {
+            sampled = true;
+            return; // enough samples has been collected
+          }
         }
       }
+      sampled = true;
+    } finally {
+      // wait for the reports of the last samples; a failed report must not
+      // hide the failure of the sampling
+      if (sampled) {
+        reportWriter.close();
+      } else {
+        reportWriter.closeAfterFailure();
+      }
+      System.out.println(reportWriter.statistics());
     }
   }
 
   /**
-   * Loads the last iteration to continue previous training.
+   * Loads the last iteration which has a complete checkpoint to continue
+   * previous training.
+   * 
+   * <p> The newest iterations of a run which was killed while reporting may
+   * have no checkpoint (or one that cannot be read); they are skipped.
    * 
    * @return
    * @throws IOException
    */
   private int loadLastIter() throws IOException {
-    File dir = new File(outputDir);
-    SortedSet<Integer> set = new TreeSet<Integer>();
-    for (File file : dir.listFiles()) {
-      if (file.isDirectory()) {
-        set.add(Integer.parseInt(file.getName()));
+    List<File> dirs = Checkpoint.listIterationDirs(outputDir);
+    ExecutorService executor = newExecutor();
+    try {
+      for (File dir : dirs) {
+        File file = new File(dir, Checkpoint.FILE_NAME);
+        if (file.exists()) {
+          long start = System.nanoTime();
+          Checkpoint checkpoint;
+          try {
+            checkpoint = Checkpoint.read(file, executor);
+          } catch (IOException e) {
+            System.err.printf("Skipping checkpoint %s: %s\n", file, e);
+            continue;
+          }
+          return loadCheckpoint(file, checkpoint, start, executor);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // the serialized model of older versions has another layout of Model
+    for (File dir : dirs) {
+      if (new File(dir, "model.gz").exists()) {
+        throw new IOException("No complete checkpoint in " + outputDir
+            + " (the model.gz of older versions cannot be resumed)");
       }
     }
+    throw new IOException("No complete checkpoint in " + outputDir);
+  }
 
-    ObjectInputStream is = new ObjectInputStream(new FileInputStream(outputDir
-        + "/" + set.last() + "/model.gz"));
-    try {
-      model = (Model) is.readObject();
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
+  /**
+   * Restores the assignments from a checkpoint read from {@code file} since
+   * {@code start} (ns), rebuilds the counts and returns the number of
+   * finished iterations.
+   */
+  private int loadCheckpoint(File file, Checkpoint checkpoint, long start,
+      ExecutorService executor) throws IOException {
+    checkpoint.check(MODEL_NAME, checkpointDimensions(), checkpointPriors());
+    long readTime = System.nanoTime() - start;
+    newModel();
+    model.wordEvent = checkpoint.getVariable(0);
+    model.entityEvent = checkpoint.getVariable(1);
+    for (int m = 0; m < numDocuments; m++) {
+      if (model.wordEvent[m].length != term[m].length
+          || model.entityEvent[m].length != entity[m].length) {
+        throw new IOException("Checkpoint " + file
+            + " does not match document " + m);
+      }
+      for (int event : model.wordEvent[m]) {
+        checkEvent(file, m, event);
+      }
+      for (int event : model.entityEvent[m]) {
+        checkEvent(file, m, event);
+      }
     }
-    is.close();
+    rebuildCounts(executor);
+    System.out.printf("Loaded checkpoint %s (%s) in %d ms, counts rebuilt "
+        + "in %d ms\n", file, CountMatrix.formatBytes(file.length()),
+        readTime / 1000000, (System.nanoTime() - start - readTime) / 1000000);
 
-    return set.last();
+    return checkpoint.getIteration();
+  }
+
+  private void checkEvent(File file, int m, int event) throws IOException {
+    if (event >= numEvents) {
+      throw new IOException("Checkpoint " + file
+          + " has an invalid event in document " + m);
+    }
+  }
+
+  /**
+   * Writes the assignments of {@code model} after iteration {@code iter} to
+   * a checkpoint.
+   */
+  private void writeCheckpoint(Model model, int iter) throws IOException {
+    long start = System.nanoTime();
+    File file = new File(outputDir + "/" + iter, Checkpoint.FILE_NAME);
+    // written by a report thread while the sampler goes on
+    long size = new Checkpoint(MODEL_NAME, iter + 1, checkpointDimensions(),
+        checkpointPriors(), model.wordEvent, model.entityEvent).write(file,
+        null);
+    long numTokens = 0;
+    for (int m = 0; m < numDocuments; m++) {
+      numTokens += term[m].length + entity[m].length;
+    }
+    System.out.printf("Checkpoint %s: %s (%.2f bits/token) written in %d ms\n",
+        file, CountMatrix.formatBytes(size), 8.0 * size / Math.max(1, numTokens),
+        (System.nanoTime() - start) / 1000000);
+  }
+
+  /**
+   * Returns the dimensions stored in a checkpoint.
+   */
+  private int[] checkpointDimensions() {
+    return new int[] { numDocuments, vocabularySize, numEvents, numEntities };
+  }
+
+  /**
+   * Returns the priors stored in a checkpoint.
+   */
+  private double[] checkpointPriors() {
+    return new double[] { alpha, beta, gamma };
+  }
+
+  /**
+   * Returns a thread pool with one thread per processor for loading
+   * checkpoints.
+   */
+  private ExecutorService newExecutor() {
+    return Executors.newFixedThreadPool(Runtime.getRuntime()
+        .availableProcessors());
+  }
+
+  /**
+   * Rebuilds the counts of the (zero) model from the assignments.
+   * 
+   * <p> Each thread counts a range of documents: the document-event counts
+   * are updated directly and the counts shared between documents in a local
+   * copy; the local copies are then added to the model by ranges of rows.
+   */
+  private void rebuildCounts(ExecutorService executor) throws IOException {
+    final int numThreads = Math.max(1, Math.min(numDocuments, Runtime
+        .getRuntime().availableProcessors()));
+    final Model[] local = new Model[numThreads];
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    for (int p = 0; p < numThreads; p++) {
+      final int from = (int) ((long) numDocuments * p / numThreads);
+      final int to = (int) ((long) numDocuments * (p + 1) / numThreads);
+      final int thread = p;
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          Model counts = new Model();
+          counts.wordEventCount = CountMatrix.newInstance(vocabularySize,
+              numEvents, wordCounts);
+          counts.wordEventSum = new int[numEvents];
+          counts.entityEventCount = CountMatrix.newInstance(numEntities,
+              numEvents, entityCounts);
+          counts.entityEventSum = new int[numEvents];
+          counts.docEventByWordCount = model.docEventByWordCount;
+          counts.docEventByEntityCount = model.docEventByEntityCount;
+          countDocuments(counts, from, to);
+          local[thread] = counts;
+          return null;
+        }
+      }));
+    }
+    waitFor(futures);
+
+    futures.clear();
+    for (int p = 0; p < numThreads; p++) {
+      final int wordFrom = (int) ((long) vocabularySize * p / numThreads);
+      final int wordTo = (int) ((long) vocabularySize * (p + 1) / numThreads);
+      final int entityFrom = (int) ((long) numEntities * p / numThreads);
+      final int entityTo = (int) ((long) numEntities * (p + 1) / numThreads);
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          for (Model counts : local) {
+            model.wordEventCount.addRows(counts.wordEventCount, wordFrom,
+                wordTo);
+            model.entityEventCount.addRows(counts.entityEventCount,
+                entityFrom, entityTo);
+          }
+          return null;
+        }
+      }));
+    }
+    waitFor(futures);
+    for (Model counts : local) {
+      for (int v = 0; v < numEvents; v++) {
+        model.wordEventSum[v] += counts.wordEventSum[v];
+        model.entityEventSum[v] += counts.entityEventSum[v];
+      }
+    }
+  }
+
+  /**
+   * Adds the assignments of documents [from, to) to the counts of
+   * {@code counts}.
+   */
+  private void countDocuments(Model counts, int from, int to) {
+    for (int m = from; m < to; m++) {
+      for (int n = 0; n < term[m].length; n++) {
+        int event = model.wordEvent[m][n];
+        counts.wordEventCount.increment(term[m][n], event);
+        counts.wordEventSum[event]++;
+        counts.docEventByWordCount.increment(m, event);
+      }
+      for (int e = 0; e < entity[m].length; e++) {
+        int event = model.entityEvent[m][e];
+        counts.entityEventCount.increment(entity[m][e].getId(), event);
+        counts.entityEventSum[event]++;
+        counts.docEventByEntityCount.increment(m, event);
+      }
+    }
+  }
+
+  /**
+   * Waits for all tasks to finish.
+   */
+  private static void waitFor(List<Future<Object>> futures) throws IOException {
+    try {
+      for (Future<Object> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Loading interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Loading failed", e.getCause());
+    }
   }
   
   /**
@@ -248,8 +585,8 @@ public class EventGibbsSampler {
    * @param file
    * @throws IOException
    */
-  void printEventTerms(String file) throws IOException {
-    PrintWriter out = new PrintWriter(file);
+  void printEventTerms(Model model, String file) throws IOException {
+    PrintWriter out = ReportWriter.newPrintWriter(file);
     for (int v = 0; v < numEvents; v++) {
       for (int i = 0; i < vocabularySize; i++) {
         out.printf("%.10f,", model.phi[v][i]);
@@ -265,8 +602,8 @@ public class EventGibbsSampler {
    * @param file
    * @throws IOException
    */
-  void printEventEntities(String file) throws IOException {
-    PrintWriter out = new PrintWriter(file);
+  void printEventEntities(Model model, String file) throws IOException {
+    PrintWriter out = ReportWriter.newPrintWriter(file);
     for (int v = 0; v < numEvents; v++) {
       for (int e = 0; e < numEntities; e++) {
         out.printf("%.10f,", model.psi[v][e]);
@@ -282,8 +619,8 @@ public class EventGibbsSampler {
    * @param file
    * @throws IOException
    */
-  void printDocumentEvents(String file) throws IOException {
-    PrintWriter out = new PrintWriter(file);
+  void printDocumentEvents(Model model, String file) throws IOException {
+    PrintWriter out = ReportWriter.newPrintWriter(file);
     for (int m = 0; m < term.length; m++) {
       for (int v = 0; v < numEvents; v++) {
         out.printf("%.10f,", model.theta[m][v]);
@@ -299,37 +636,29 @@ public class EventGibbsSampler {
    * @param file
    * @throws IOException
    */
-  void printTopEventWords(String file) throws IOException {
-    PrintWriter writer = new PrintWriter(file);
+  void printTopEventWords(Model model, String file) throws IOException {
+    PrintWriter writer = ReportWriter.newPrintWriter(file);
+    int[][] top = TopK.selectInColumns(model.wordEventCount, maxWordsPerEvent,
+        reportThreads());
     for (int event = 0; event < numEvents; ++event) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-      for (int i = 0; i < vocabularySize; ++i) {
-        counter.set(i, model.wordEventCount[i][event]);
-      }  
-      List<Integer> top = counter.keysOrderedByCountList();
       writer.printf("\nEVENT %d (count=%d)\n", event, model.wordEventSum[event]);
-      for (int rank = 0; rank < maxWordsPerEvent && rank < top.size(); rank++) {
-        int i = top.get(rank);
+      for (int i : top[event]) {
         writer.printf("%15s(%d)\n", symbolTable.idToSymbol(i),
-            model.wordEventCount[i][event]);
+            model.wordEventCount.get(i, event));
       }
     }
     writer.close();
   }
 
-  void printTopEventEntities(String file) throws IOException {
-    PrintWriter out = new PrintWriter(file);
+  void printTopEventEntities(Model model, String file) throws IOException {
+    PrintWriter out = ReportWriter.newPrintWriter(file);
+    int[][] top = TopK.selectInColumns(model.entityEventCount,
+        maxEntitiesPerEvent, reportThreads());
     for (int v = 0; v < numEvents; v++) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-      for (int e = 0; e < numEntities; e++) {
-        counter.set(e, model.entityEventCount[e][v]);
-      }
-      List<Integer> top = counter.keysOrderedByCountList();
       out.printf("\nEVENT %d (count=%d)\n", v, model.entityEventSum[v]);
-      for (int rank = 0; rank < maxEntitiesPerEvent && rank < top.size(); rank++) {
-        int e = top.get(rank);
+      for (int e : top[v]) {
         out.printf("%15s(%d)\n", entityTable.get(e).getValue(),
-            model.entityEventCount[e][v]);
+            model.entityEventCount.get(e, v));
       }
     }
     out.close();
@@ -341,21 +670,19 @@ public class EventGibbsSampler {
    * @param file
    * @throws IOException
    */
-  void printTopDocEvents(String file) throws IOException {
-    PrintWriter writer = new PrintWriter(file);
+  void printTopDocEvents(Model model, String file) throws IOException {
+    PrintWriter writer = ReportWriter.newPrintWriter(file);
+    TopK topEvents = new TopK(maxEventsPerDoc);
     for (int doc = 0; doc < numDocuments; ++doc) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
       for (int event = 0; event < numEvents; ++event)
-        counter.set(event, model.docEventByEntityCount[doc][event] +
-            model.docEventByWordCount[doc][event]);
-      List<Integer> topEvents = counter.keysOrderedByCountList();
+        topEvents.add(event, model.docEventByEntityCount.get(doc, event) +
+            model.docEventByWordCount.get(doc, event));
       writer.println("\nDOC " + doc);
       writer.println("EVENT    COUNT    PROB");
       writer.println("----------------------");
-      for (int rank = 0; rank < topEvents.size() && rank < maxEventsPerDoc; ++rank) {
-        int event = topEvents.get(rank);
-        writer.printf("%5d  %7d   %4.3f\n", event, model.docEventByEntityCount[doc][event] +
-            model.docEventByWordCount[doc][event], model.theta[doc][event]);
+      for (int event : topEvents.indices()) {
+        writer.printf("%5d  %7d   %4.3f\n", event, model.docEventByEntityCount.get(doc, event) +
+            model.docEventByWordCount.get(doc, event), model.theta[doc][event]);
       }
       writer.println();
     }
@@ -375,21 +702,105 @@ public class EventGibbsSampler {
   /**
    * Reports samples collected so far.
    * 
+   * <p> The files are written from a snapshot of the model by the report
+   * writer while the sampler goes on.
+   * 
    * @param iter
    * @throws IOException
    */
-  private void report(int iter) throws IOException {
-    (new File(outputDir + "/" + iter)).mkdir();
-    printDocumentEvents(outputDir + "/" + iter + "/documentEvents.csv");
-    printEventTerms(outputDir + "/" + iter + "/eventTerms.csv");
-    printEventEntities(outputDir + "/" + iter + "/eventEntities.csv");
-    printTopEventWords(outputDir + "/" + iter + "/topEventWords.txt");
-    printTopEventEntities(outputDir + "/" + iter + "/topEventEntities.txt");
-    printTopDocEvents(outputDir + "/" + iter + "/topDocEvents.txt");
-    ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(
-        outputDir + "/" + iter + "/model.gz"));
-    out.writeObject(model);
-    out.close();
+  private void report(final int iter) throws IOException {
+    final Model snapshot = snapshot();
+    final String dir = outputDir + "/" + iter;
+    (new File(dir)).mkdir();
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printDocumentEvents(snapshot, dir + "/documentEvents.csv");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printEventTerms(snapshot, dir + "/eventTerms.csv");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printEventEntities(snapshot, dir + "/eventEntities.csv");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printTopEventWords(snapshot, dir + "/topEventWords.txt");
+        printTopEventEntities(snapshot, dir + "/topEventEntities.txt");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printTopDocEvents(snapshot, dir + "/topDocEvents.txt");
+      }
+    });
+    if (npyExport) {
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          NpyFile.write(new File(dir, "documentEvents.npy"), snapshot.theta, npyFloat32);
+        }
+      });
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          NpyFile.write(new File(dir, "eventTerms.npy"), snapshot.phi, npyFloat32);
+        }
+      });
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          NpyFile.write(new File(dir, "eventEntities.npy"), snapshot.psi, npyFloat32);
+        }
+      });
+    }
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        writeCheckpoint(snapshot, iter);
+      }
+    });
+  }
+
+  /**
+   * Returns a snapshot of the model for reporting.
+   * 
+   * <p> The parameters are handed over to the snapshot (the next call to
+   * {@link #updateParams()} allocates new arrays) and the counts and
+   * assignments are copied, so the snapshot does not change while the
+   * sampler goes on.
+   */
+  private Model snapshot() {
+    Model snapshot = new Model();
+    snapshot.phi = model.phi;
+    snapshot.theta = model.theta;
+    snapshot.psi = model.psi;
+    model.phi = null;
+    model.theta = null;
+    model.psi = null;
+    snapshot.wordEventCount = model.wordEventCount.copy();
+    snapshot.docEventByWordCount = model.docEventByWordCount.copy();
+    snapshot.wordEventSum = model.wordEventSum.clone();
+    snapshot.entityEventCount = model.entityEventCount.copy();
+    snapshot.docEventByEntityCount = model.docEventByEntityCount.copy();
+    snapshot.entityEventSum = model.entityEventSum.clone();
+    snapshot.wordEvent = new int[numDocuments][];
+    snapshot.entityEvent = new int[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      snapshot.wordEvent[m] = model.wordEvent[m].clone();
+      snapshot.entityEvent[m] = model.entityEvent[m].clone();
+    }
+
+    return snapshot;
   }
 
   /**
@@ -398,34 +809,59 @@ public class EventGibbsSampler {
    */
   private void initialize() {
     // initialize count variables
-    model = new Model();
-    model.wordEventCount = new int[vocabularySize][numEvents];
-    model.wordEventSum = new int[numEvents];
-    model.docEventByWordCount = new int[numDocuments][numEvents];
-    model.entityEventCount = new int[numEntities][numEvents];
-    model.entityEventSum = new int[numEvents];
-    model.docEventByEntityCount = new int[numDocuments][numEvents];
-
+    newModel();
     model.wordEvent = new int[numDocuments][];
     model.entityEvent = new int[numDocuments][];
     for (int m = 0; m < numDocuments; m++) {
       model.wordEvent[m] = new int[term[m].length];
       model.entityEvent[m] = new int[entity[m].length];
       for (int n = 0; n < term[m].length; n++) {
-        int event = (int) (Math.random() * numEvents);
+        int event = random.nextInt(numEvents);
         model.wordEvent[m][n] = event;
-        model.wordEventCount[term[m][n]][event]++;
+        model.wordEventCount.increment(term[m][n], event);
         model.wordEventSum[event]++;
-        model.docEventByWordCount[m][event]++;
+        model.docEventByWordCount.increment(m, event);
       }
       for (int e = 0; e < entity[m].length; e++) {
-        int event = (int) (Math.random() * numEvents);
+        int event = random.nextInt(numEvents);
         model.entityEvent[m][e] = event;
-        model.entityEventCount[entity[m][e].getId()][event]++;
+        model.entityEventCount.increment(entity[m][e].getId(), event);
         model.entityEventSum[event]++;
-        model.docEventByEntityCount[m][event]++;
+        model.docEventByEntityCount.increment(m, event);
       }
     }
+  }
+
+  /**
+   * Creates a model with zero counts.
+   */
+  private void newModel() {
+    model = new Model();
+    // maximum total count of each row
+    wordCounts = new int[vocabularySize];
+    entityCounts = new int[numEntities];
+    int[] documentLength = new int[numDocuments];
+    int[] documentEntities = new int[numDocuments];
+    for (int m = 0; m < numDocuments; m++) {
+      documentLength[m] = term[m].length;
+      for (int n = 0; n < term[m].length; n++) {
+        wordCounts[term[m][n]]++;
+      }
+      documentEntities[m] = entity[m].length;
+      for (int e = 0; e < entity[m].length; e++) {
+        entityCounts[entity[m][e].getId()]++;
+      }
+    }
+    model.wordEventCount = CountMatrix.newInstance(vocabularySize, numEvents,
+        wordCounts);
+    model.wordEventSum = new int[numEvents];
+    model.docEventByWordCount = CountMatrix.newInstance(numDocuments,
+        numEvents, documentLength);
+    model.entityEventCount = CountMatrix.newInstance(numEntities, numEvents,
+        entityCounts);
+    model.entityEventSum = new int[numEvents];
+    model.docEventByEntityCount = CountMatrix.newInstance(numDocuments,
+        numEvents, documentEntities);
 
     model.phi = new double[numEvents][vocabularySize];
     model.theta = new double[numDocuments][numEvents];
@@ -436,11 +872,17 @@ public class EventGibbsSampler {
    * Updates the parameters for the newly collected sample.
    */
   private void updateParams() {
+    if (model.phi == null) {
+      // the last parameters were handed over to a snapshot
+      model.phi = new double[numEvents][vocabularySize];
+      model.theta = new double[numDocuments][numEvents];
+      model.psi = new double[numEvents][numEntities];
+    }
     // theta[][] (D x K)
     double vAlpha = numEvents * alpha;
     for (int m = 0; m < numDocuments; m++) {
       for (int v = 0; v < numEvents; v++) {
-        model.theta[m][v] = (model.docEventByWordCount[m][v] + model.docEventByEntityCount[m][v] + alpha)
+        model.theta[m][v] = (model.docEventByWordCount.get(m, v) + model.docEventByEntityCount.get(m, v) + alpha)
             / (term[m].length + entity[m].length + vAlpha);
       }
     }
@@ -449,7 +891,7 @@ public class EventGibbsSampler {
     double eGamma = numEntities * gamma;
     for (int v = 0; v < numEvents; v++) {
       for (int e = 0; e < numEntities; e++) {
-        model.psi[v][e] = (model.entityEventCount[e][v] + gamma)
+        model.psi[v][e] = (model.entityEventCount.get(e, v) + gamma)
             / (model.entityEventSum[v] + eGamma);
       }
     }
@@ -458,7 +900,7 @@ public class EventGibbsSampler {
     double wBeta = vocabularySize * beta;
     for (int v = 0; v < numEvents; v++) {
       for (int i = 0; i < vocabularySize; i++) {
-        model.phi[v][i] = (model.wordEventCount[i][v] + beta)
+        model.phi[v][i] = (model.wordEventCount.get(i, v) + beta)
             / (model.wordEventSum[v] + wBeta);
       }
     }
@@ -478,23 +920,23 @@ public class EventGibbsSampler {
     int i = term[m][n];
     int event = model.wordEvent[m][n];
     // the i_th word was assigned a topic of document m
-    model.wordEventCount[i][event]--;
+    model.wordEventCount.decrement(i, event);
     model.wordEventSum[event]--;
-    model.docEventByWordCount[m][event]--;
+    model.docEventByWordCount.decrement(m, event);
 
     double wBeta = vocabularySize * beta;
     double[] p = new double[numEvents];
     for (int v = 0; v < numEvents; v++) {
       // p(word | event) * p(event | doc)
-      p[v] = ((model.wordEventCount[i][v] + beta) / (model.wordEventSum[v] + wBeta))
-          * (model.docEventByWordCount[m][v] + alpha);
+      p[v] = ((model.wordEventCount.get(i, v) + beta) / (model.wordEventSum[v] + wBeta))
+          * (model.docEventByWordCount.get(m, v) + alpha);
     }
     event = sample(p);
 
     // assign new sample set to the i_th word
-    model.wordEventCount[i][event]++;
+    model.wordEventCount.increment(i, event);
     model.wordEventSum[event]++;
-    model.docEventByWordCount[m][event]++;
+    model.docEventByWordCount.increment(m, event);
 
     return event;
   }
@@ -512,22 +954,22 @@ public class EventGibbsSampler {
   private int sampleEventForEntity(int m, int e) {
     int event = model.entityEvent[m][e];
     int ent = entity[m][e].getId();
-    model.entityEventCount[ent][event]--;
+    model.entityEventCount.decrement(ent, event);
     model.entityEventSum[event]--;
-    model.docEventByEntityCount[m][event]--;
+    model.docEventByEntityCount.decrement(m, event);
 
     double eGamma = numEntities * gamma;
     double[] p = new double[numEvents];
     for (int v = 0; v < numEvents; v++) {
       // p(entity | event) * p(event | doc)
-      p[v] = ((model.entityEventCount[ent][v] + gamma) / (model.entityEventSum[v] + eGamma))
-          * (model.docEventByEntityCount[m][v] + alpha);
+      p[v] = ((model.entityEventCount.get(ent, v) + gamma) / (model.entityEventSum[v] + eGamma))
+          * (model.docEventByEntityCount.get(m, v) + alpha);
     }
     event = sample(p);
 
-    model.entityEventCount[ent][event]++;
+    model.entityEventCount.increment(ent, event);
     model.entityEventSum[event]++;
-    model.docEventByEntityCount[m][event]++;
+    model.docEventByEntityCount.increment(m, event);
 
     return event;
   }
@@ -552,7 +994,7 @@ public class EventGibbsSampler {
     }
 
     // scaled sample because of unnormalized p
-    double u = Math.random() * p[T - 1];
+    double u = random.nextDouble() * p[T - 1];
     // find the interval which contains u
     for (topic = 0; topic < T; topic++) {
       if (u < p[topic]) {
@@ -5,7 +5,10 @@ import java.io.IOException;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import edu.kaist.uilab.plda.data.EntityCache;
 import edu.kaist.uilab.plda.file.NYTimesDocumentReader;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.RandomGenerator;
 import edu.kaist.uilab.plda.util.TextFiles;
 
 public class EventModelRunner {
@@ -173,13 +176,28 @@ public class EventModelRunner {
     double alpha = 0.1;
     double beta = 0.01;
     double gamma = 0.01;
+    // -Dseed=<seed> reproduces a run (its seed is written to seed.txt)
+    long seed = Long.getLong("seed", RandomGenerator.newSeed());
     CorpusProcessor corpus = new CorpusProcessor("D:/workspace/util/nytimes/general",
         new NYTimesDocumentReader(), minTokenCount, minEntityCount,
         topStopWords, stopword, maxDocumentCount);
 //    CorpusProcessor corpus = new CorpusProcessor("C:/datasets/bbchistory",
 //        new DefaultDocumentReader(), minTokenCount, minEntityCount,
 //        topStopWords, stopword, maxDocumentCount);
+    corpus.setSeed(seed);
+    corpus.setMetrics(Metrics.register("corpus"));
+    // -DentityCache=<dir> keeps the entities of each document, so that a rerun
+    // on the same documents does not classify them again
+    String cacheDir = System.getProperty("entityCache");
+    EntityCache entityCache = null;
+    if (cacheDir != null) {
+      entityCache = new EntityCache(new File(cacheDir));
+      corpus.setEntityCache(entityCache);
+    }
     corpus.process();
+    if (entityCache != null) {
+      entityCache.close();
+    }
 
     List<String> lines = TextFiles.readLines("nytimesruns.txt");
 //    List<String> lines = TextFiles.readLines("bbcruns.txt");
@@ -213,10 +231,15 @@ public class EventModelRunner {
             corpus.getDocumentEntities());
         sampler.setPriors(alpha, beta, gamma);
         sampler.setSamplerParameters(5000, 400, 50, 10);
+        sampler.setSeed(seed);
         sampler.setOutputParameters(corpus.getSymbolTable(),
             corpus.getEntityTable(), outputDir, 30, 10, 10);
+        Metrics metrics = Metrics.register("events");
+        metrics.setJsonOutput(new File(outputDir, Metrics.JSON_FILE));
+        sampler.setMetrics(metrics);
         System.out.println("Latent Dirichlet Allocation using Gibbs Sampling.");
         sampler.doGibbsSampling(false);
+        metrics.close();
       }
     }
   }
@@ -0,0 +1,409 @@
+package edu.kaist.uilab.lda;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aliasi.symbol.SymbolTable;
+
+import edu.kaist.uilab.plda.data.CorpusBundle;
+import edu.kaist.uilab.plda.data.SyntheticCorpus;
+import edu.kaist.uilab.plda.util.CountMatrix;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * A worker of the distributed Gibbs sampler for LDA.
+ *
+ * <p> Each worker (usually a separate process) owns a shard of the documents
+ * and their topic assignments; the word-topic counts are owned by the
+ * {@link ParameterServer}s. An iteration of a worker pulls the counts from
+ * the servers, samples the words of its documents against this copy (updated
+ * by its own changes) and pushes the changes back in one batch; the push is
+ * the clock of the worker.
+ *
+ * <p> The copy may miss the changes of the other workers in their latest
+ * iterations: a worker starting its iteration c only waits until every
+ * worker has pushed the changes of iteration c - staleness. With staleness 0,
+ * every iteration sees all changes of the previous iteration of all workers,
+ * like the approximate distributed LDA of Newman et al. (2009); a larger
+ * staleness lets fast workers run ahead of slow ones.
+ *
+ * <p> Usage (one process per worker): DistributedGibbsSampler worker
+ * numWorkers host:port[,host:port...] [numDocuments] [numTopics]
+ * [numIterations] [staleness]; the worker samples its shard of a synthetic
+ * corpus and prints its throughput (see {@link ParameterServerLauncher}).
+ * With -DcorpusBundle=<i>file</i>, the workers sample the documents of a
+ * {@link CorpusBundle} instead (numDocuments is ignored, and the servers
+ * split the vocabulary of the bundle), average phi over the second half of
+ * the iterations and worker 0 writes phi.csv and vocabulary.txt to
+ * -DoutputDir=<i>dir</i> (default: the current directory).
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class DistributedGibbsSampler {
+  private int numTopics; // T = numTopics
+  private int vocabularySize; // V = vocabularySize
+  private int numDocuments; // D = number of documents of this worker
+  private int[][] documents; // documents[m][n] = index of the n_th word of m
+  private List<InetSocketAddress> servers;
+  private int worker;
+
+  // hyper-parameters
+  private double alpha;
+  private double beta;
+
+  // sampling parameters and variables
+  private int numIterations = 1000;
+  private int burnIn = 200;
+  private int sampleLags = 20;
+  private int numSamples = 1;
+  private int staleness = 0;
+  private int[][] z; // topic assignment for each word z[document][word]
+  // the copy of the word-topic counts (V x K) pulled from the servers; it is
+  // dense because the counts of the other workers are not known in advance
+  private int[][] cwt;
+  private int[] cwtsum; // cwtsum[k] = # words assigned to topic k
+  private CountMatrix cdt; // cdt[m][k] = # words in document m assigned to k
+  private int clock; // number of pushes of this worker
+  private long seed = RandomGenerator.newSeed();
+  private RandomGenerator random;
+
+  private double[][] thetasum; // D x K : sum of samples
+  private double[][] phisum; // K x V : sum of samples
+  private int numCollected;
+  private long numSampledTokens;
+  private long samplingTime; // ns, including the waits for the servers
+
+  /**
+   * Constructs a worker.
+   *
+   * @param documents
+   *          the documents of this worker
+   * @param servers
+   *          the addresses of the servers, in the order of their vocabulary
+   *          ranges (see {@link ParameterServer#rangeStart(int, int, int)})
+   * @param worker
+   *          the id of this worker in [0, numWorkers)
+   */
+  public DistributedGibbsSampler(int numTopics, int vocabularySize,
+      int[][] documents, double alpha, double beta,
+      List<InetSocketAddress> servers, int worker) {
+    this.numTopics = numTopics;
+    this.vocabularySize = vocabularySize;
+    this.documents = documents;
+    this.numDocuments = documents.length;
+    this.alpha = alpha;
+    this.beta = beta;
+    this.servers = servers;
+    this.worker = worker;
+  }
+
+  public static void main(String args[]) throws IOException {
+    if (args.length < 3) {
+      System.err.println("Usage: DistributedGibbsSampler worker numWorkers "
+          + "host:port[,host:port...] [numDocuments] [numTopics] "
+          + "[numIterations] [staleness]");
+      System.exit(1);
+    }
+    int worker = Integer.parseInt(args[0]);
+    int numWorkers = Integer.parseInt(args[1]);
+    List<InetSocketAddress> servers = parseServers(args[2]);
+    int numDocuments = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+    int numTopics = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+    int numIterations = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+    int staleness = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+    String bundleFile = System.getProperty("corpusBundle");
+    if (bundleFile != null) {
+      train(CorpusBundle.read(new File(bundleFile)), worker, numWorkers,
+          servers, numTopics, numIterations, staleness, System.getProperty(
+              "outputDir", "."));
+      return;
+    }
+    // every worker generates the same corpus and keeps its shard
+    SyntheticCorpus corpus = new SyntheticCorpus(numDocuments, 5000, 150, 200,
+        4, 1);
+    int[][] documents = shard(corpus.getDocumentTokens(), worker, numWorkers);
+    DistributedGibbsSampler sampler = new DistributedGibbsSampler(numTopics,
+        corpus.getVocabularySize(), documents, 0.1, 0.01, servers, worker);
+    // burn-in is never over so that the run only measures sampling
+    sampler.setSamplerParameters(numIterations, numIterations, 1, 1);
+    sampler.setStaleness(staleness);
+    sampler.setSeed(worker + 1);
+    sampler.doGibbsSampling();
+    System.out.printf("THROUGHPUT %d %d\n", sampler.getNumSampledTokens(),
+        sampler.getSamplingTime());
+  }
+
+  /**
+   * Trains the model of the documents of a corpus bundle (worker 0 writes
+   * phi and the vocabulary to {@code outputDir}).
+   */
+  static void train(CorpusBundle bundle, int worker, int numWorkers,
+      List<InetSocketAddress> servers, int numTopics, int numIterations,
+      int staleness, String outputDir) throws IOException {
+    SymbolTable symbolTable = bundle.getSymbolTable();
+    int vocabularySize = symbolTable.numSymbols();
+    System.out.printf("Worker %d: %d documents, vocabulary size %d\n", worker,
+        bundle.getDocumentTokens().length, vocabularySize);
+    DistributedGibbsSampler sampler = new DistributedGibbsSampler(numTopics,
+        vocabularySize, shard(bundle.getDocumentTokens(), worker, numWorkers),
+        50.0 / numTopics, 0.01, servers, worker);
+    // every iteration of the second half is a sample
+    sampler.setSamplerParameters(numIterations, numIterations / 2, 1,
+        numIterations);
+    sampler.setStaleness(staleness);
+    sampler.setSeed(Long.getLong("seed", RandomGenerator.newSeed()) + worker);
+    sampler.doGibbsSampling();
+    if (worker == 0) {
+      new File(outputDir).mkdirs();
+      Inferencer.writePhi(sampler.getPhi(), outputDir + "/phi.csv");
+      PrintWriter out = new PrintWriter(outputDir + "/vocabulary.txt");
+      for (int i = 0; i < vocabularySize; i++) {
+        out.println(symbolTable.idToSymbol(i));
+      }
+      out.close();
+    }
+  }
+
+  /**
+   * Parses a list of servers of the form host:port[,host:port...].
+   */
+  public static List<InetSocketAddress> parseServers(String list) {
+    List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+    for (String server : list.split(",")) {
+      int colon = server.lastIndexOf(':');
+      servers.add(new InetSocketAddress(server.substring(0, colon),
+          Integer.parseInt(server.substring(colon + 1))));
+    }
+    return servers;
+  }
+
+  /**
+   * Returns the documents m of the corpus with m mod numWorkers = worker.
+   */
+  public static int[][] shard(int[][] documents, int worker, int numWorkers) {
+    int[][] shard = new int[(documents.length - worker + numWorkers - 1)
+        / numWorkers][];
+    for (int m = worker, j = 0; m < documents.length; m += numWorkers, j++) {
+      shard[j] = documents[m];
+    }
+    return shard;
+  }
+
+  /**
+   * Sets the parameters of the sampler (see
+   * {@link GibbsSampler#setSamplerParameters(int, int, int, int)}).
+   *
+   * <p> All workers must use the same parameters: a worker which stops early
+   * would block the others.
+   */
+  public void setSamplerParameters(int maxIterations, int burnIn,
+      int sampleLags, int numSamples) {
+    this.numIterations = maxIterations;
+    this.burnIn = burnIn;
+    this.sampleLags = sampleLags > 0 ? sampleLags : 1;
+    this.numSamples = numSamples > 0 ? numSamples : 1;
+  }
+
+  /**
+   * Sets the maximum number of iterations by which the counts seen by this
+   * worker can be behind the other workers.
+   *
+   * @param staleness
+   *          the staleness (default value is 0)
+   */
+  public void setStaleness(int staleness) {
+    this.staleness = staleness > 0 ? staleness : 0;
+  }
+
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Runs the worker until all iterations are done and says goodbye to the
+   * servers. If the worker fails, it tells the servers, which then fail the
+   * other workers.
+   */
+  public void doGibbsSampling() throws IOException {
+    ParameterClient client = new ParameterClient(servers, worker,
+        vocabularySize, numTopics);
+    boolean done = false;
+    try {
+      initialize(client);
+      long start = System.nanoTime();
+      runIterations(client);
+      samplingTime = System.nanoTime() - start;
+      // the final counts of all workers
+      client.pull(clock, cwt, cwtsum);
+      done = true;
+    } finally {
+      if (done) {
+        client.close();
+      } else {
+        client.abort();
+      }
+    }
+  }
+
+  /**
+   * Assigns random topics to the words and pushes the counts.
+   */
+  private void initialize(ParameterClient client) throws IOException {
+    random = RandomGenerator.newInstance(seed);
+    cwt = new int[vocabularySize][numTopics];
+    cwtsum = new int[numTopics];
+    int[] documentLength = new int[numDocuments];
+    for (int m = 0; m < numDocuments; m++) {
+      documentLength[m] = documents[m].length;
+    }
+    cdt = CountMatrix.newInstance(numDocuments, numTopics, documentLength);
+    z = new int[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      z[m] = new int[documents[m].length];
+      for (int n = 0; n < documents[m].length; n++) {
+        int k = random.nextInt(numTopics);
+        z[m][n] = k;
+        cdt.increment(m, k);
+        client.add(documents[m][n], k, 1);
+      }
+    }
+    thetasum = new double[numDocuments][numTopics];
+    phisum = new double[numTopics][vocabularySize];
+    numCollected = 0;
+    numSampledTokens = 0;
+    clock = 1;
+    client.push(clock);
+  }
+
+  /**
+   * Runs the sampling iterations; the samples are collected as in
+   * {@link GibbsSampler}.
+   */
+  private void runIterations(ParameterClient client) throws IOException {
+    int samplesCollected = 0;
+    for (int iter = 0; iter < numIterations; iter++) {
+      // the counts must include the initial counts of all workers
+      client.pull(Math.max(1, clock - staleness), cwt, cwtsum);
+      for (int m = 0; m < numDocuments; m++) {
+        sampleDocument(m, client);
+        numSampledTokens += documents[m].length;
+      }
+      client.push(++clock);
+
+      if (iter > burnIn && iter % sampleLags == 0) {
+        updateParams();
+        samplesCollected++;
+        if (samplesCollected >= numSamples) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Samples the topics of the words of document m (package-private for
+   * testing purpose only).
+   */
+  void sampleDocument(int m, ParameterClient client) {
+    double[] p = new double[numTopics];
+    double vBeta = vocabularySize * beta;
+    int[] document = documents[m];
+    for (int n = 0; n < document.length; n++) {
+      int i = document[n];
+      int topic = z[m][n];
+      cwt[i][topic]--;
+      cdt.decrement(m, topic);
+      cwtsum[topic]--;
+      for (int k = 0; k < numTopics; k++) {
+        p[k] = (cwt[i][k] + beta) / (cwtsum[k] + vBeta)
+            * (cdt.get(m, k) + alpha);
+      }
+      int newTopic = GibbsSampler.sample(p, random);
+      z[m][n] = newTopic;
+      cwt[i][newTopic]++;
+      cdt.increment(m, newTopic);
+      cwtsum[newTopic]++;
+      if (newTopic != topic) {
+        client.add(i, topic, -1);
+        client.add(i, newTopic, 1);
+      }
+    }
+  }
+
+  /**
+   * Updates the parameters when a new sample is collected.
+   */
+  private void updateParams() {
+    double tAlpha = numTopics * alpha;
+    for (int m = 0; m < numDocuments; m++) {
+      for (int k = 0; k < numTopics; k++) {
+        thetasum[m][k] += (cdt.get(m, k) + alpha)
+            / (documents[m].length + tAlpha);
+      }
+    }
+    double vBeta = vocabularySize * beta;
+    for (int k = 0; k < numTopics; k++) {
+      for (int i = 0; i < vocabularySize; i++) {
+        phisum[k][i] += (cwt[i][k] + beta) / (cwtsum[k] + vBeta);
+      }
+    }
+    numCollected++;
+  }
+
+  /**
+   * Returns the estimated theta values of the documents of this worker (the
+   * average of the samples collected).
+   */
+  public double[][] getTheta() {
+    double[][] theta = new double[numDocuments][numTopics];
+    for (int m = 0; m < numDocuments; m++) {
+      for (int k = 0; k < numTopics; k++) {
+        theta[m][k] = thetasum[m][k] / Math.max(1, numCollected);
+      }
+    }
+    return theta;
+  }
+
+  /**
+   * Returns the estimated phi values (the average of the samples collected
+   * by this worker from its copies of the counts).
+   */
+  public double[][] getPhi() {
+    double[][] phi = new double[numTopics][vocabularySize];
+    for (int k = 0; k < numTopics; k++) {
+      for (int i = 0; i < vocabularySize; i++) {
+        phi[k][i] = phisum[k][i] / Math.max(1, numCollected);
+      }
+    }
+    return phi;
+  }
+
+  /**
+   * Returns the word-topic counts of all workers at the end of the sampling.
+   */
+  public int[][] getWordTopicCounts() {
+    return cwt;
+  }
+
+  /**
+   * Returns the number of tokens sampled by this worker.
+   */
+  public long getNumSampledTokens() {
+    return numSampledTokens;
+  }
+
+  /**
+   * Returns the time spent sampling and waiting for the servers (ns).
+   */
+  public long getSamplingTime() {
+    return samplingTime;
+  }
+}
@@ -1,11 +1,31 @@
 package edu.kaist.uilab.lda;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.kaist.uilab.plda.util.ConvergenceMonitor;
+import edu.kaist.uilab.plda.util.CountMatrix;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
 /**
  * A naive implementation of Gibbs sampler for LDA.
  * 
  * @author trung nguyen (trung.ngvan@gmail.com)
  */
 public class GibbsSampler {
+  /** Samples each token from the dense full conditional over all topics. */
+  public static final int DENSE_SAMPLING = 0;
+  /** Samples each token using the SparseLDA bucket decomposition. */
+  public static final int SPARSE_SAMPLING = 1;
+
   private int numTopics; // T = numTopics
   private int vocabularySize; // V = vocabularySize
   private int numDocuments; // D = number of documents
@@ -22,8 +42,8 @@ public class GibbsSampler {
   // (default = 50)
   private int numSamples = 1; // number of samples to take (default = 1)
   private int[][] z; // topic assignment for each word z[document][word]
-  private int cwt[][]; // word-topic count = cwt[i][k] word i to topic k
-  private int cdt[][]; // document-topic count = cdt[m][k] words in document m
+  private CountMatrix cwt; // word-topic count = cwt[i][k] word i to topic k
+  private CountMatrix cdt; // document-topic count = cdt[m][k] words in document m
   // to topic k
   private int cwtsum[]; // cwtsum[k] = # words assigned to topic k
   private int cdtsum[]; // cdtsum[m] = # words in document m
@@ -31,8 +51,50 @@ public class GibbsSampler {
   private double thetasum[][]; // D x K : sum of samples (to return the average
   // sample)
   private double phisum[][]; // K X V : sum of samples (to return the average
-
   // sample)
+  private int numCollected; // number of samples in thetasum and phisum
+  private long seed = RandomGenerator.newSeed();
+  private RandomGenerator random = RandomGenerator.newInstance(seed);
+
+  private int samplingMethod = DENSE_SAMPLING;
+  // sparse sampling state (only allocated for SPARSE_SAMPLING)
+  // wordTopics[i][0..wordTopicSize[i]) = topics k with cwt[i][k] > 0
+  private int wordTopics[][];
+  private int wordTopicSize[];
+  // docTopics[m][0..docTopicSize[m]) = topics k with cdt[m][k] > 0
+  private int docTopics[][];
+  private int docTopicSize[];
+  // coef[k] = (cdt[m][k] + alpha) / (cwtsum[k] + vBeta) for the current
+  // document m, alpha / (cwtsum[k] + vBeta) outside of a document
+  private double coef[];
+  // smoothingMass = sum_k alpha * beta / (cwtsum[k] + vBeta)
+  private double smoothingMass;
+  // docMass = sum_k cdt[m][k] * beta / (cwtsum[k] + vBeta) for the current document
+  private double docMass;
+  // wordMass[j] = coef[k] * cwt[i][k] for k = wordTopics[i][j]
+  private double wordMass[];
+
+  // block-scheduled parallel sampling state (only used with numThreads > 1)
+  private int numThreads = 1;
+  // docBlock[m] = block of document m, wordBlock[i] = block of word i
+  private int docBlock[];
+  private int wordBlock[];
+  // documents of each document block
+  private int blockDocuments[][];
+  // blockTokens[m] = positions of the words of document m grouped by the block
+  // of the word; the words of block b are at
+  // blockTokens[m][blockOffset[m][b]..blockOffset[m][b + 1])
+  private int blockTokens[][];
+  private int blockOffset[][];
+  // blockRandom[b] = random generator of the thread sampling document block b
+  private RandomGenerator blockRandom[];
+  // visits[m][n] = number of times the parallel sampler has sampled word n of
+  // document m (null unless a test counts them)
+  int visits[][];
+  // ends the burn-in when the log-likelihood has converged (null = never)
+  private ConvergenceMonitor convergence;
+  // per-iteration metrics (null = none)
+  private Metrics metrics;
 
   /**
    * Default constructor -- for testing purpose only.
@@ -121,47 +183,293 @@ public class GibbsSampler {
     this.numSamples = numSamples > 0 ? numSamples : 1;
   }
   
+  /**
+   * Sets the method used to sample the topic of each token.
+   * 
+   * <p> {@link #SPARSE_SAMPLING} splits the full conditional into a smoothing,
+   * a document and a word bucket (Yao et al., 2009) so that the cost of
+   * sampling a token depends on the number of non-zero topics of its document
+   * and word instead of the number of topics. Both methods sample from the
+   * same distribution.
+   * 
+   * @param samplingMethod
+   *       {@link #DENSE_SAMPLING} (default value) or {@link #SPARSE_SAMPLING}
+   */
+  public void setSamplingMethod(int samplingMethod) {
+    this.samplingMethod = samplingMethod == SPARSE_SAMPLING ? SPARSE_SAMPLING
+        : DENSE_SAMPLING;
+  }
+
+  /**
+   * Sets the number of threads used for sampling.
+   * 
+   * <p> With P > 1 threads, documents and words are each split into P blocks
+   * of about the same number of tokens. An iteration consists of P rounds; in
+   * round r, thread p samples the words of block (p + r) mod P in the
+   * documents of block p. No two threads touch the same row of cwt or cdt at
+   * the same time, so these counts are always exact. Only cwtsum is shared: each
+   * thread updates a private copy during a round and the changes are added to
+   * cwtsum after the round. An iteration therefore visits every token once,
+   * like a serial sweep in a different token order.
+   * 
+   * <p> The parallel sampler always uses the dense full conditional.
+   * 
+   * @param numThreads
+   *       the number of threads (default value is 1)
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads > 0 ? numThreads : 1;
+  }
+
+  /**
+   * Ends the burn-in period as soon as the log-likelihood has converged.
+   * 
+   * <p> During burn-in, the log-likelihood is evaluated every
+   * {@code interval} iterations. When its relative change has stayed below
+   * {@code threshold} for {@code window} evaluations in a row, the burn-in
+   * period ends and the samples are collected from then on.
+   * 
+   * @param interval
+   *       the number of iterations between two evaluations
+   * @param threshold
+   *       the maximum relative change of a converged log-likelihood
+   * @param window
+   *       the number of evaluations in a row whose change must be below the
+   *       threshold
+   */
+  public void setConvergence(int interval, double threshold, int window) {
+    convergence = new ConvergenceMonitor(interval, threshold, window);
+  }
+
+  /**
+   * Sets the metrics to which the sweeps and log-likelihoods of the sampler
+   * are recorded.
+   * 
+   * @param metrics
+   *       the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sets the seed of the random generator.
+   * 
+   * <p> Two runs with the same seed, parameters and number of threads give the
+   * same samples.
+   * 
+   * @param seed
+   *       the seed (by default, a different seed is used for each sampler)
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+    random = RandomGenerator.newInstance(seed);
+  }
+
+  /**
+   * Returns the seed of the random generator.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
   /**
    * Runs the Gibbs sampler.
    */
   public void doGibbsSampling() {
     System.out.print("Initializing parameters...");
     initialize();
+    ExecutorService executor = null;
+    if (numThreads > 1) {
+      initBlocks();
+      executor = Executors.newFixedThreadPool(numThreads);
+    } else if (samplingMethod == SPARSE_SAMPLING) {
+      initSparseBuckets();
+    }
     System.out.println("done");
+    System.out.println(cwt.memoryReport("cwt"));
+    System.out.println(cdt.memoryReport("cdt"));
+    if (metrics != null) {
+      metrics.setCountMatrixBytes(cwt.memorySize() + cdt.memorySize());
+    }
+    try {
+      runIterations(executor);
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
 
+  /**
+   * Runs the sampling iterations.
+   * 
+   * @param executor
+   *          the threads for parallel sampling (null for serial sampling)
+   */
+  private void runIterations(ExecutorService executor) {
     int samplesCollected = 0;
+    int burnInEnd = burnIn;
+    long numTokens = 0;
+    for (int m = 0; m < numDocuments; m++) {
+      numTokens += documents[m].length;
+    }
+    if (convergence != null) {
+      convergence.reset();
+    }
     System.out.println("Burning in period...");
     for (int iter = 0; iter < numIterations; iter++) {
-      if (iter < burnIn) {
+      if (iter < burnInEnd) {
         System.out.print(iter + " ");
         if (iter % 100 == 0) {
           System.out.println();
         }
-      } else if (iter == burnIn) {
+      } else if (iter == burnInEnd) {
         System.out.println("\nBurning in done");
       } 
 
       // sampling each hidden variable z_i
-      for (int m = 0; m < numDocuments; m++) {
-        for (int n = 0; n < documents[m].length; n++) {
-          z[m][n] = sampleFullConditional(m, n);
+      if (metrics != null) {
+        metrics.startSweep();
+      }
+      if (executor != null) {
+        sampleBlocks(executor);
+      } else {
+        sweep();
+      }
+      if (metrics != null) {
+        metrics.endSweep(iter, numTokens);
+      }
+
+      // end the burn-in once the log-likelihood has converged
+      if (convergence != null && iter < burnInEnd && convergence.isDue(iter)) {
+        double log = logLikelihood(executor);
+        System.out.printf("\nlog likelihood at iteration %d: %f\n", iter, log);
+        if (metrics != null) {
+          metrics.setLogLikelihood(iter, log);
+        }
+        if (convergence.update(log)) {
+          System.out.printf("Converged at iteration %d, burning in done\n",
+              iter);
+          burnInEnd = iter;
         }
       }
 
       // after burn-in & some sample lags we can collect a sample
       // note that we are not saving z[m][n] for now
-      if (iter > burnIn && iter % sampleLags == 0) {
+      if (iter > burnInEnd && iter % sampleLags == 0) {
         System.out.println(String.format("Collected a sample at iteration %d",
             iter));
         updateParams();
         samplesCollected++;
-        if (samplesCollected > numSamples) {
+        if (samplesCollected >= numSamples) {
           return; // enough samples has been collected
         }
       }
     }
   }
 
+  /**
+   * Samples the topic of every word once in the calling thread (with the
+   * sampling method of this sampler).
+   */
+  void sweep() {
+    if (samplingMethod == SPARSE_SAMPLING) {
+      updateSmoothingMass();
+      for (int m = 0; m < numDocuments; m++) {
+        sampleDocumentSparse(m);
+      }
+    } else {
+      for (int m = 0; m < numDocuments; m++) {
+        for (int n = 0; n < documents[m].length; n++) {
+          z[m][n] = sampleFullConditional(m, n);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the log likelihood of the corpus given the current point estimate
+   * of theta and phi.
+   * 
+   * @return
+   */
+  public double logLikelihood() {
+    if (numThreads == 1) {
+      return logLikelihood(null);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      return logLikelihood(executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Returns the log likelihood, summed over ranges of documents by the
+   * threads of {@code executor} (can be null).
+   */
+  private double logLikelihood(ExecutorService executor) {
+    double vBeta = vocabularySize * beta;
+    final double[] inverseTopicSum = new double[numTopics];
+    for (int k = 0; k < numTopics; k++) {
+      inverseTopicSum[k] = 1.0 / (cwtsum[k] + vBeta);
+    }
+    if (executor == null) {
+      return logLikelihood(0, numDocuments, inverseTopicSum);
+    }
+    List<Future<Double>> futures = new ArrayList<Future<Double>>(numThreads);
+    for (int p = 0; p < numThreads; p++) {
+      final int from = (int) ((long) numDocuments * p / numThreads);
+      final int to = (int) ((long) numDocuments * (p + 1) / numThreads);
+      futures.add(executor.submit(new Callable<Double>() {
+        @Override
+        public Double call() {
+          return logLikelihood(from, to, inverseTopicSum);
+        }
+      }));
+    }
+    double log = 0.0;
+    try {
+      for (Future<Double> future : futures) {
+        log += future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Likelihood evaluation interrupted", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Likelihood evaluation failed", e.getCause());
+    }
+
+    return log;
+  }
+
+  /**
+   * Returns the log likelihood of documents [from, to); theta of each
+   * document is computed once for all of its words.
+   */
+  private double logLikelihood(int from, int to, double[] inverseTopicSum) {
+    double tAlpha = numTopics * alpha;
+    double[] theta = new double[numTopics];
+    double log = 0.0;
+    for (int m = from; m < to; m++) {
+      for (int k = 0; k < numTopics; k++) {
+        theta[k] = (cdt.get(m, k) + alpha) / (documents[m].length + tAlpha)
+            * inverseTopicSum[k];
+      }
+      for (int i : documents[m]) {
+        double p = 0.0;
+        for (int k = 0; k < numTopics; k++) {
+          p += theta[k] * (cwt.get(i, k) + beta);
+        }
+        log += Math.log(p);
+      }
+    }
+
+    return log;
+  }
+
   /**
    * Returns the estimated theta values of this sampler.
    * 
@@ -175,7 +483,7 @@ public class GibbsSampler {
     double[][] theta = new double[numDocuments][numTopics];
     for (int m = 0; m < numDocuments; m++) {
       for (int k = 0; k < numTopics; k++) {
-        theta[m][k] = thetasum[m][k] / numSamples;
+        theta[m][k] = thetasum[m][k] / Math.max(1, numCollected);
       }
     }
 
@@ -195,22 +503,52 @@ public class GibbsSampler {
     double[][] phi = new double[numTopics][vocabularySize];
     for (int k = 0; k < numTopics; k++) {
       for (int i = 0; i < vocabularySize; i++) {
-        phi[k][i] = phisum[k][i] / numSamples;
+        phi[k][i] = phisum[k][i] / Math.max(1, numCollected);
       }
     }
 
     return phi;
   }
 
+  /**
+   * Returns the topic assignments -- for testing purpose only.
+   */
+  int[][] getAssignments() {
+    return z;
+  }
+
+  /**
+   * Returns the word-topic counts -- for testing purpose only.
+   */
+  CountMatrix getWordTopicCounts() {
+    return cwt;
+  }
+
+  /**
+   * Returns the document-topic counts -- for testing purpose only.
+   */
+  CountMatrix getDocumentTopicCounts() {
+    return cdt;
+  }
+
+  /**
+   * Returns the number of words assigned to each topic -- for testing purpose
+   * only.
+   */
+  int[] getTopicCounts() {
+    return cwtsum;
+  }
+
   /**
    * Initializes the model (assign random values to hidden variables -- the
    * topics z).
    */
-  private void initialize() {
+  void initialize() {
+    random = RandomGenerator.newInstance(seed);
     // initialize count variables
-    cwt = new int[vocabularySize][numTopics];
+    cwt = CountMatrix.newInstance(vocabularySize, numTopics, wordCounts());
     cwtsum = new int[numTopics];
-    cdt = new int[numDocuments][numTopics];
+    cdt = CountMatrix.newInstance(numDocuments, numTopics, documentLengths());
     cdtsum = new int[numDocuments];
 
     // sample values of z_i randomly ([1..numTopics] as the initial state of the
@@ -222,16 +560,17 @@ public class GibbsSampler {
       z[m] = new int[N];
       cdtsum[m] = N; // cdtsum[m] = number of words in document m
       for (int n = 0; n < N; n++) {
-        k = (int) (Math.random() * numTopics);
+        k = random.nextInt(numTopics);
         z[m][n] = k;
-        cwt[documents[m][n]][k]++; // word i assigned to topic k
-        cdt[m][k]++; // word i in document m assigned to topic k
+        cwt.increment(documents[m][n], k); // word i assigned to topic k
+        cdt.increment(m, k); // word i in document m assigned to topic k
         cwtsum[k]++; // total number of words assigned to topic k
       }
     }
 
     thetasum = new double[numDocuments][numTopics];
     phisum = new double[numTopics][vocabularySize];
+    numCollected = 0;
   }
 
   /**
@@ -242,7 +581,7 @@ public class GibbsSampler {
     double tAlpha = numTopics * alpha;
     for (int m = 0; m < numDocuments; m++) {
       for (int k = 0; k < numTopics; k++) {
-        thetasum[m][k] += (cdt[m][k] + alpha) / (cdtsum[m] + tAlpha);
+        thetasum[m][k] += (cdt.get(m, k) + alpha) / (cdtsum[m] + tAlpha);
       }
     }
 
@@ -250,9 +589,10 @@ public class GibbsSampler {
     double vBeta = vocabularySize * beta;
     for (int k = 0; k < numTopics; k++) {
       for (int i = 0; i < vocabularySize; i++) {
-        phisum[k][i] += (cwt[i][k] + beta) / (cwtsum[k] + vBeta);
+        phisum[k][i] += (cwt.get(i, k) + beta) / (cwtsum[k] + vBeta);
       }
     }
+    numCollected++;
   }
 
   /**
@@ -270,8 +610,8 @@ public class GibbsSampler {
     i = documents[m][n];
     topic = z[m][n];
     // not counting i_th word
-    cwt[i][topic]--;
-    cdt[m][topic]--;
+    cwt.decrement(i, topic);
+    cdt.decrement(m, topic);
     cwtsum[topic]--;
     cdtsum[m]--;
 
@@ -279,20 +619,491 @@ public class GibbsSampler {
     double vBeta = vocabularySize * beta;
     double tAlpha = numTopics * alpha;
     for (int k = 0; k < numTopics; k++) {
-      p[k] = (cwt[i][k] + beta) / (cwtsum[k] + vBeta) * (cdt[m][k] + alpha) / (cdtsum[m] + tAlpha);
+      p[k] = (cwt.get(i, k) + beta) / (cwtsum[k] + vBeta) * (cdt.get(m, k) + alpha) / (cdtsum[m] + tAlpha);
     }
     topic = sample(p);
 
     // assign new topic to the i_th word
     z[m][n] = topic;
-    cwt[i][topic]++;
-    cdt[m][topic]++;
+    cwt.increment(i, topic);
+    cdt.increment(m, topic);
     cwtsum[topic]++;
     cdtsum[m]++;
 
     return topic;
   }
 
+  /**
+   * Returns the normalized full conditional of the n_th word in document m
+   * given all other topic assignments -- for testing purpose only.
+   */
+  double[] fullConditional(int m, int n) {
+    int i = documents[m][n];
+    int topic = z[m][n];
+    double vBeta = vocabularySize * beta;
+    double[] p = new double[numTopics];
+    double sum = 0.0;
+    int own;
+    for (int k = 0; k < numTopics; k++) {
+      own = k == topic ? 1 : 0;
+      p[k] = (cwt.get(i, k) - own + beta) / (cwtsum[k] - own + vBeta)
+          * (cdt.get(m, k) - own + alpha);
+      sum += p[k];
+    }
+    for (int k = 0; k < numTopics; k++) {
+      p[k] /= sum;
+    }
+
+    return p;
+  }
+
+  /**
+   * Returns the number of words of each document.
+   */
+  private int[] documentLengths() {
+    int[] documentLength = new int[numDocuments];
+    for (int m = 0; m < numDocuments; m++) {
+      documentLength[m] = documents[m].length;
+    }
+
+    return documentLength;
+  }
+
+  /**
+   * Returns the number of times each word appears in the corpus.
+   */
+  private int[] wordCounts() {
+    int[] wordCount = new int[vocabularySize];
+    for (int m = 0; m < numDocuments; m++) {
+      for (int n = 0; n < documents[m].length; n++) {
+        wordCount[documents[m][n]]++;
+      }
+    }
+
+    return wordCount;
+  }
+
+  /**
+   * Splits documents and words into {@code numThreads} blocks and groups the
+   * words of each document by their block.
+   */
+  void initBlocks() {
+    docBlock = balanceBlocks(documentLengths(), numThreads);
+    wordBlock = balanceBlocks(wordCounts(), numThreads);
+    blockRandom = new RandomGenerator[numThreads];
+    for (int b = 0; b < numThreads; b++) {
+      blockRandom[b] = random.split();
+    }
+
+    int[] blockSize = new int[numThreads];
+    for (int m = 0; m < numDocuments; m++) {
+      blockSize[docBlock[m]]++;
+    }
+    blockDocuments = new int[numThreads][];
+    for (int b = 0; b < numThreads; b++) {
+      blockDocuments[b] = new int[blockSize[b]];
+      blockSize[b] = 0;
+    }
+    for (int m = 0; m < numDocuments; m++) {
+      blockDocuments[docBlock[m]][blockSize[docBlock[m]]++] = m;
+    }
+
+    // counting sort of the positions of each document by word block
+    blockTokens = new int[numDocuments][];
+    blockOffset = new int[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      int[] offset = new int[numThreads + 1];
+      for (int n = 0; n < documents[m].length; n++) {
+        offset[wordBlock[documents[m][n]] + 1]++;
+      }
+      for (int b = 0; b < numThreads; b++) {
+        offset[b + 1] += offset[b];
+      }
+      int[] next = offset.clone();
+      blockTokens[m] = new int[documents[m].length];
+      for (int n = 0; n < documents[m].length; n++) {
+        blockTokens[m][next[wordBlock[documents[m][n]]]++] = n;
+      }
+      blockOffset[m] = offset;
+    }
+  }
+
+  /**
+   * Assigns each item to one of {@code numBlocks} blocks so that the total
+   * weight of the blocks is about the same (largest items first, each to the
+   * currently lightest block).
+   * 
+   * @param weight
+   *          the weight (number of tokens) of each item
+   * @return the block of each item
+   */
+  static int[] balanceBlocks(int[] weight, int numBlocks) {
+    Integer[] order = new Integer[weight.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    final int[] w = weight;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return w[i2] - w[i1];
+      }
+    });
+    long[] load = new long[numBlocks];
+    int[] block = new int[weight.length];
+    for (Integer i : order) {
+      int lightest = 0;
+      for (int b = 1; b < numBlocks; b++) {
+        if (load[b] < load[lightest]) {
+          lightest = b;
+        }
+      }
+      block[i] = lightest;
+      load[lightest] += weight[i];
+    }
+
+    return block;
+  }
+
+  /**
+   * Performs one iteration of the block-scheduled parallel sampler.
+   */
+  void sampleBlocks(ExecutorService executor) {
+    final int[][] localSum = new int[numThreads][];
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(numThreads);
+    for (int round = 0; round < numThreads; round++) {
+      futures.clear();
+      for (int p = 0; p < numThreads; p++) {
+        final int thread = p;
+        final int wordBlock = (p + round) % numThreads;
+        localSum[p] = cwtsum.clone();
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() {
+            sampleBlock(thread, wordBlock, localSum[thread]);
+            return null;
+          }
+        }));
+      }
+      try {
+        for (Future<Object> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Sampling interrupted", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Sampling failed", e.getCause());
+      }
+      // reconcile cwtsum with the changes of all threads
+      int[] sum = cwtsum.clone();
+      for (int p = 0; p < numThreads; p++) {
+        for (int k = 0; k < numTopics; k++) {
+          sum[k] += localSum[p][k] - cwtsum[k];
+        }
+      }
+      cwtsum = sum;
+    }
+  }
+
+  /**
+   * Samples the words of the given word block in all documents of the given
+   * document block.
+   * 
+   * @param documentBlock
+   * @param wordBlock
+   * @param localSum
+   *          the copy of cwtsum used (and updated) by this thread
+   */
+  private void sampleBlock(int documentBlock, int wordBlock, int[] localSum) {
+    RandomGenerator random = blockRandom[documentBlock];
+    int[][] visits = this.visits;
+    double[] p = new double[numTopics];
+    double vBeta = vocabularySize * beta;
+    int i, topic;
+    for (int m : blockDocuments[documentBlock]) {
+      int[] positions = blockTokens[m];
+      for (int j = blockOffset[m][wordBlock]; j < blockOffset[m][wordBlock + 1]; j++) {
+        int n = positions[j];
+        if (visits != null) {
+          visits[m][n]++;
+        }
+        i = documents[m][n];
+        topic = z[m][n];
+        cwt.decrement(i, topic);
+        cdt.decrement(m, topic);
+        localSum[topic]--;
+
+        for (int k = 0; k < numTopics; k++) {
+          p[k] = (cwt.get(i, k) + beta) / (localSum[k] + vBeta) * (cdt.get(m, k) + alpha);
+        }
+        topic = sample(p, random);
+
+        z[m][n] = topic;
+        cwt.increment(i, topic);
+        cdt.increment(m, topic);
+        localSum[topic]++;
+      }
+    }
+  }
+
+  /**
+   * Builds the lists of non-zero topics of each word and each document from
+   * the current counts.
+   */
+  void initSparseBuckets() {
+    wordTopics = new int[vocabularySize][];
+    wordTopicSize = new int[vocabularySize];
+    for (int i = 0; i < vocabularySize; i++) {
+      wordTopics[i] = nonZeroTopics(cwt, i);
+      wordTopicSize[i] = wordTopics[i].length;
+    }
+    docTopics = new int[numDocuments][];
+    docTopicSize = new int[numDocuments];
+    for (int m = 0; m < numDocuments; m++) {
+      docTopics[m] = nonZeroTopics(cdt, m);
+      docTopicSize[m] = docTopics[m].length;
+    }
+    double vBeta = vocabularySize * beta;
+    coef = new double[numTopics];
+    for (int k = 0; k < numTopics; k++) {
+      coef[k] = alpha / (cwtsum[k] + vBeta);
+    }
+    wordMass = new double[numTopics];
+  }
+
+  /**
+   * Returns the topics which have non-zero count in the given row of
+   * {@code counts}.
+   */
+  private int[] nonZeroTopics(CountMatrix counts, int row) {
+    int size = 0;
+    for (int k = 0; k < numTopics; k++) {
+      if (counts.get(row, k) > 0) {
+        size++;
+      }
+    }
+    int[] topics = new int[size];
+    size = 0;
+    for (int k = 0; k < numTopics; k++) {
+      if (counts.get(row, k) > 0) {
+        topics[size++] = k;
+      }
+    }
+
+    return topics;
+  }
+
+  /**
+   * Recomputes the smoothing bucket from scratch (to prevent round-off errors
+   * of the incremental updates from accumulating).
+   */
+  void updateSmoothingMass() {
+    double vBeta = vocabularySize * beta;
+    smoothingMass = 0.0;
+    for (int k = 0; k < numTopics; k++) {
+      smoothingMass += alpha * beta / (cwtsum[k] + vBeta);
+    }
+  }
+
+  /**
+   * Samples topics for all words in document m using the sparse buckets.
+   * 
+   * @param m
+   *          the document
+   */
+  private void sampleDocumentSparse(int m) {
+    beginDocumentSparse(m);
+    for (int n = 0; n < documents[m].length; n++) {
+      z[m][n] = sampleFullConditionalSparse(m, n);
+    }
+    endDocumentSparse(m);
+  }
+
+  /**
+   * Sets up the document bucket and the coefficients of the word bucket for
+   * document m.
+   */
+  void beginDocumentSparse(int m) {
+    double vBeta = vocabularySize * beta;
+    docMass = 0.0;
+    int k;
+    for (int j = 0; j < docTopicSize[m]; j++) {
+      k = docTopics[m][j];
+      docMass += cdt.get(m, k) * beta / (cwtsum[k] + vBeta);
+      coef[k] = (cdt.get(m, k) + alpha) / (cwtsum[k] + vBeta);
+    }
+  }
+
+  /**
+   * Restores the coefficients changed by {@link #beginDocumentSparse(int)} to
+   * their document independent values.
+   */
+  void endDocumentSparse(int m) {
+    double vBeta = vocabularySize * beta;
+    int k;
+    for (int j = 0; j < docTopicSize[m]; j++) {
+      k = docTopics[m][j];
+      coef[k] = alpha / (cwtsum[k] + vBeta);
+    }
+  }
+
+  /**
+   * Samples a topic for the n_th word in document m using the sparse buckets.
+   * 
+   * <p> The (unnormalized) full conditional is decomposed as
+   * <pre>
+   * (cwt[i][k] + beta) (cdt[m][k] + alpha) / (cwtsum[k] + vBeta)
+   *     = alpha * beta / (cwtsum[k] + vBeta)               (smoothing bucket)
+   *     + cdt[m][k] * beta / (cwtsum[k] + vBeta)           (document bucket)
+   *     + cwt[i][k] * (cdt[m][k] + alpha) / (cwtsum[k] + vBeta) (word bucket)
+   * </pre>
+   * Only the word bucket has to be computed for each token; the other two are
+   * maintained incrementally.
+   * 
+   * @param m
+   *          the document
+   * @param n
+   *          the index (position) of the word in this document
+   * 
+   * @return the topic
+   */
+  int sampleFullConditionalSparse(int m, int n) {
+    int i = documents[m][n];
+    int topic = z[m][n];
+    // not counting i_th word
+    updateCounts(m, i, topic, -1);
+
+    // word bucket
+    double wordBucket = 0.0;
+    int[] topics = wordTopics[i];
+    int size = wordTopicSize[i];
+    for (int j = 0; j < size; j++) {
+      wordMass[j] = coef[topics[j]] * cwt.get(i, topics[j]);
+      wordBucket += wordMass[j];
+    }
+
+    double u = random.nextDouble() * (smoothingMass + docMass + wordBucket);
+    topic = -1;
+    if (u < wordBucket) {
+      for (int j = 0; j < size; j++) {
+        u -= wordMass[j];
+        if (u < 0) {
+          topic = topics[j];
+          break;
+        }
+      }
+      if (topic < 0) {
+        topic = topics[size - 1];
+      }
+    } else {
+      double vBeta = vocabularySize * beta;
+      u -= wordBucket;
+      if (u < docMass) {
+        topics = docTopics[m];
+        size = docTopicSize[m];
+        for (int j = 0; j < size; j++) {
+          u -= cdt.get(m, topics[j]) * beta / (cwtsum[topics[j]] + vBeta);
+          if (u < 0) {
+            topic = topics[j];
+            break;
+          }
+        }
+        if (topic < 0) {
+          topic = topics[size - 1];
+        }
+      } else {
+        u -= docMass;
+        for (int k = 0; k < numTopics; k++) {
+          u -= alpha * beta / (cwtsum[k] + vBeta);
+          if (u < 0) {
+            topic = k;
+            break;
+          }
+        }
+        if (topic < 0) {
+          topic = numTopics - 1;
+        }
+      }
+    }
+
+    // assign new topic to the i_th word
+    z[m][n] = topic;
+    updateCounts(m, i, topic, 1);
+
+    return topic;
+  }
+
+  /**
+   * Adds {@code delta} (1 or -1) to the counts of word i in document m for
+   * the given topic and updates the sparse buckets accordingly.
+   */
+  private void updateCounts(int m, int i, int topic, int delta) {
+    double vBeta = vocabularySize * beta;
+    double denominator = cwtsum[topic] + vBeta;
+    smoothingMass -= alpha * beta / denominator;
+    docMass -= cdt.get(m, topic) * beta / denominator;
+
+    cwt.add(i, topic, delta);
+    cdt.add(m, topic, delta);
+    cwtsum[topic] += delta;
+    cdtsum[m] += delta;
+    if (delta < 0) {
+      if (cwt.get(i, topic) == 0) {
+        wordTopicSize[i] = removeTopic(wordTopics[i], wordTopicSize[i], topic);
+      }
+      if (cdt.get(m, topic) == 0) {
+        docTopicSize[m] = removeTopic(docTopics[m], docTopicSize[m], topic);
+      }
+    } else {
+      if (cwt.get(i, topic) == 1) {
+        wordTopics[i] = addTopic(wordTopics[i], wordTopicSize[i], topic);
+        wordTopicSize[i]++;
+      }
+      if (cdt.get(m, topic) == 1) {
+        docTopics[m] = addTopic(docTopics[m], docTopicSize[m], topic);
+        docTopicSize[m]++;
+      }
+    }
+
+    denominator = cwtsum[topic] + vBeta;
+    smoothingMass += alpha * beta / denominator;
+    docMass += cdt.get(m, topic) * beta / denominator;
+    coef[topic] = (cdt.get(m, topic) + alpha) / denominator;
+  }
+
+  /**
+   * Removes {@code topic} from the first {@code size} elements of
+   * {@code topics} and returns the new size.
+   */
+  private static int removeTopic(int[] topics, int size, int topic) {
+    for (int j = 0; j < size; j++) {
+      if (topics[j] == topic) {
+        topics[j] = topics[size - 1];
+        return size - 1;
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Appends {@code topic} after the first {@code size} elements of
+   * {@code topics}, growing the array if it is full.
+   * 
+   * @return the (possibly new) array of topics
+   */
+  private int[] addTopic(int[] topics, int size, int topic) {
+    if (size == topics.length) {
+      int[] newTopics = new int[Math.min(numTopics, Math.max(4, size * 2))];
+      System.arraycopy(topics, 0, newTopics, 0, size);
+      topics = newTopics;
+    }
+    topics[size] = topic;
+
+    return topics;
+  }
+
   /**
    * Samples a value from a discrete distribution.
    * 
@@ -304,6 +1115,18 @@ public class GibbsSampler {
    *          the unnormalized distribution
    */
   int sample(double p[]) {
+    return sample(p, random);
+  }
+
+  /**
+   * Samples a value from a discrete distribution using the given random
+   * generator.
+   * 
+   * @param p
+   *          the unnormalized distribution
+   * @param random
+   */
+  static int sample(double p[], RandomGenerator random) {
     int T = p.length;
     int topic; // the sample
 
@@ -313,7 +1136,7 @@ public class GibbsSampler {
     }
 
     // scaled sample because of unnormalized p
-    double u = Math.random() * p[T - 1];
+    double u = random.nextDouble() * p[T - 1];
     // find the interval which contains u
     for (topic = 0; topic < T; topic++) {
       if (u < p[topic]) {
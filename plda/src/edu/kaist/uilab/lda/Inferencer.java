@@ -0,0 +1,449 @@
+package edu.kaist.uilab.lda;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.aliasi.symbol.SymbolTable;
+
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * Infers the topic proportions (theta) of unseen documents given the topics
+ * (phi) of a trained model.
+ *
+ * <p> Each document is folded in independently: its words are sampled by a
+ * short Gibbs sampler in which phi is fixed, so only the document-topic counts
+ * change. As in SparseLDA (Yao et al., 2009), the full conditional
+ * phi[k][i] * (ndt[k] + alpha) is split into a smoothing bucket
+ * alpha * phi[k][i], which is the same for every document and is sampled by a
+ * binary search, and a document bucket over the topics of the document only.
+ * The documents must be converted to word ids with the tokenizer and
+ * symbol table used for training (see
+ * {@link edu.kaist.uilab.plda.data.CorpusProcessor#tokenize(CharSequence)});
+ * words that are not in the model are ignored.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class Inferencer {
+  // number of documents in a task of the thread pool
+  private static final int DOCUMENTS_PER_TASK = 64;
+
+  private int numTopics; // K = numTopics
+  private int vocabularySize; // V = vocabularySize
+  // wordTopic[i][k] = phi[k][i], or null if word i has zero probability in all
+  // topics
+  private double[][] wordTopic;
+  // wordCumulative[i][k] = phi[0][i] + ... + phi[k][i]
+  private double[][] wordCumulative;
+  private double alpha;
+
+  // sampling parameters
+  private int numIterations = 50;
+  private int burnIn = 20;
+  private int numThreads = 1;
+  private long seed = RandomGenerator.newSeed();
+
+  // latencies[m] = time to infer the m_th document of the last batch (ns)
+  private long[] latencies;
+  private long batchTime;
+
+  /**
+   * Constructs an inferencer for the topics {@code phi}.
+   *
+   * @param phi
+   *          phi[k][i] = probability of word i in topic k
+   * @param alpha
+   *          the topic prior used for the new documents
+   */
+  public Inferencer(double[][] phi, double alpha) {
+    this.numTopics = phi.length;
+    this.vocabularySize = phi[0].length;
+    this.alpha = alpha;
+    wordTopic = new double[vocabularySize][];
+    wordCumulative = new double[vocabularySize][];
+    for (int i = 0; i < vocabularySize; i++) {
+      double[] p = new double[numTopics];
+      double[] cumulative = new double[numTopics];
+      double sum = 0.0;
+      for (int k = 0; k < numTopics; k++) {
+        p[k] = phi[k][i];
+        sum += p[k];
+        cumulative[k] = sum;
+      }
+      if (sum > 0) {
+        wordTopic[i] = p;
+        wordCumulative[i] = cumulative;
+      }
+    }
+  }
+
+  /**
+   * Reads phi from a file with one topic per line and the probabilities of
+   * the words separated by commas, i.e., a file written by
+   * {@link #writePhi(double[][], String)}. The phi.csv file of the nicta
+   * sampler is read by {@link #readTopicWord(String, SymbolTable)}.
+   */
+  public static double[][] readPhi(String file) throws IOException {
+    List<double[]> topics = new ArrayList<double[]>();
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.trim().length() == 0) {
+          continue;
+        }
+        String[] values = line.split(",");
+        double[] topic = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+          topic[i] = Double.parseDouble(values[i]);
+        }
+        if (!topics.isEmpty() && topic.length != topics.get(0).length) {
+          throw new IOException("Topic " + topics.size() + " of " + file
+              + " has " + topic.length + " words instead of "
+              + topics.get(0).length);
+        }
+        topics.add(topic);
+      }
+    } finally {
+      in.close();
+    }
+
+    return topics.toArray(new double[topics.size()][]);
+  }
+
+  /**
+   * Reads phi from the phi.csv file written by the nicta sampler, which has a
+   * header line {@code ,topic 0,topic 1,...} and then a line
+   * {@code word,p0,p1,...} per word (i.e., it is the transpose of phi).
+   *
+   * <p> The words are mapped to their ids in {@code symbolTable}, which should
+   * be the symbol table of the documents to infer; words of the file which are
+   * not in the symbol table are ignored, and words of the symbol table which
+   * are not in the file have zero probability in all topics.
+   *
+   * @return phi[k][i] = probability of word i (of the symbol table) in topic k
+   */
+  public static double[][] readTopicWord(String file, SymbolTable symbolTable)
+      throws IOException {
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line = in.readLine();
+      if (line == null) {
+        throw new IOException("No header in " + file);
+      }
+      // the header has an empty first column and a column per topic
+      int numTopics = line.split(",").length - 1;
+      if (numTopics <= 0) {
+        throw new IOException("No topics in the header of " + file);
+      }
+      double[][] phi = new double[numTopics][symbolTable.numSymbols()];
+      int lineNumber = 1;
+      while ((line = in.readLine()) != null) {
+        lineNumber++;
+        if (line.trim().length() == 0) {
+          continue;
+        }
+        String[] values = line.split(",");
+        if (values.length != numTopics + 1) {
+          throw new IOException("Line " + lineNumber + " of " + file + " has "
+              + (values.length - 1) + " topics instead of " + numTopics);
+        }
+        int i = symbolTable.symbolToID(values[0]);
+        if (i < 0) {
+          continue;
+        }
+        for (int k = 0; k < numTopics; k++) {
+          phi[k][i] = Double.parseDouble(values[k + 1]);
+        }
+      }
+      return phi;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes phi (e.g., {@link GibbsSampler#getPhi()}) to a file which can be
+   * read by {@link #readPhi(String)}.
+   */
+  public static void writePhi(double[][] phi, String file) throws IOException {
+    PrintWriter out = new PrintWriter(file);
+    for (int k = 0; k < phi.length; k++) {
+      for (int i = 0; i < phi[k].length; i++) {
+        out.printf("%.10f,", phi[k][i]);
+      }
+      out.println();
+    }
+    out.close();
+  }
+
+  /**
+   * Sets the parameters of the sampler.
+   *
+   * @param numIterations
+   *          the number of iterations for each document
+   * @param burnIn
+   *          the number of iterations before the samples of theta are
+   *          averaged
+   */
+  public void setSamplerParameters(int numIterations, int burnIn) {
+    if (burnIn >= numIterations) {
+      throw new IllegalArgumentException("burnIn must be less than numIterations");
+    }
+    this.numIterations = numIterations;
+    this.burnIn = burnIn;
+  }
+
+  /**
+   * Sets the number of threads used by {@link #infer(int[][])}.
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads > 0 ? numThreads : 1;
+  }
+
+  /**
+   * Sets the seed of the random generator.
+   *
+   * <p> The theta of a document only depends on the seed, the document and its
+   * index in the batch, not on the number of threads.
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Returns the seed of the random generator.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Returns the number of topics.
+   */
+  public int getNumTopics() {
+    return numTopics;
+  }
+
+  /**
+   * Infers theta of each document using the thread pool.
+   *
+   * @param documents
+   *          documents[m][n] = the id of the n_th word in document m
+   * @return theta[m][k] = the proportion of topic k in document m
+   */
+  public double[][] infer(final int[][] documents) {
+    final double[][] theta = new double[documents.length][];
+    latencies = new long[documents.length];
+    long start = System.nanoTime();
+    if (numThreads == 1) {
+      inferDocuments(documents, theta, 0, documents.length);
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      List<Future<Object>> futures = new ArrayList<Future<Object>>();
+      for (int m = 0; m < documents.length; m += DOCUMENTS_PER_TASK) {
+        final int from = m;
+        final int to = Math.min(documents.length, m + DOCUMENTS_PER_TASK);
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() {
+            inferDocuments(documents, theta, from, to);
+            return null;
+          }
+        }));
+      }
+      try {
+        for (Future<Object> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Inference interrupted", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Inference failed", e.getCause());
+      } finally {
+        executor.shutdown();
+      }
+    }
+    batchTime = System.nanoTime() - start;
+
+    return theta;
+  }
+
+  /**
+   * Infers theta of documents [from, to).
+   */
+  private void inferDocuments(int[][] documents, double[][] theta, int from,
+      int to) {
+    double[] p = new double[numTopics];
+    int[] ndt = new int[numTopics];
+    int[] topics = new int[numTopics];
+    int[] topicIndex = new int[numTopics];
+    for (int m = from; m < to; m++) {
+      long start = System.nanoTime();
+      RandomGenerator random = RandomGenerator.newInstance(seed + m);
+      theta[m] = infer(documents[m], random, p, ndt, topics, topicIndex);
+      latencies[m] = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Infers theta of one document.
+   *
+   * @param document
+   *          the word ids of the document
+   * @param random
+   *          the random generator
+   * @return theta[k] = the proportion of topic k in the document
+   */
+  public double[] infer(int[] document, RandomGenerator random) {
+    return infer(document, random, new double[numTopics], new int[numTopics],
+        new int[numTopics], new int[numTopics]);
+  }
+
+  /**
+   * Infers theta of one document using the given work arrays.
+   *
+   * @param p
+   *          the cumulative masses of the document bucket
+   * @param ndt
+   *          ndt[k] = # words of the document assigned to topic k
+   * @param topics
+   *          topics[0..numDocTopics) = topics k with ndt[k] > 0
+   * @param topicIndex
+   *          topicIndex[k] = position of topic k in {@code topics}
+   */
+  private double[] infer(int[] document, RandomGenerator random, double[] p,
+      int[] ndt, int[] topics, int[] topicIndex) {
+    // the known words of the document
+    int[] words = new int[document.length];
+    int length = 0;
+    for (int i : document) {
+      if (i >= 0 && i < vocabularySize && wordTopic[i] != null) {
+        words[length++] = i;
+      }
+    }
+    double[] theta = new double[numTopics];
+    if (length == 0) {
+      Arrays.fill(theta, 1.0 / numTopics);
+      return theta;
+    }
+
+    // random initial assignments
+    Arrays.fill(ndt, 0);
+    int numDocTopics = 0;
+    int[] z = new int[length];
+    for (int n = 0; n < length; n++) {
+      int topic = random.nextInt(numTopics);
+      z[n] = topic;
+      if (ndt[topic]++ == 0) {
+        topicIndex[topic] = numDocTopics;
+        topics[numDocTopics++] = topic;
+      }
+    }
+    double tAlpha = numTopics * alpha;
+    for (int iter = 0; iter < numIterations; iter++) {
+      for (int n = 0; n < length; n++) {
+        double[] phi = wordTopic[words[n]];
+        double[] cumulative = wordCumulative[words[n]];
+        int topic = z[n];
+        if (--ndt[topic] == 0) {
+          // remove the topic from the topics of the document
+          int last = topics[--numDocTopics];
+          topics[topicIndex[topic]] = last;
+          topicIndex[last] = topicIndex[topic];
+        }
+        double docMass = 0.0;
+        for (int j = 0; j < numDocTopics; j++) {
+          int k = topics[j];
+          docMass += phi[k] * ndt[k];
+          p[j] = docMass;
+        }
+        double u = random.nextDouble()
+            * (docMass + alpha * cumulative[numTopics - 1]);
+        if (u < docMass) {
+          int j = 0;
+          while (j < numDocTopics - 1 && u >= p[j]) {
+            j++;
+          }
+          topic = topics[j];
+        } else {
+          topic = search(cumulative, (u - docMass) / alpha);
+        }
+        z[n] = topic;
+        if (ndt[topic]++ == 0) {
+          topicIndex[topic] = numDocTopics;
+          topics[numDocTopics++] = topic;
+        }
+      }
+      if (iter >= burnIn) {
+        for (int k = 0; k < numTopics; k++) {
+          theta[k] += (ndt[k] + alpha) / (length + tAlpha);
+        }
+      }
+    }
+    for (int k = 0; k < numTopics; k++) {
+      theta[k] /= numIterations - burnIn;
+    }
+
+    return theta;
+  }
+
+  /**
+   * Returns the first k with u < cumulative[k] (or the last topic because of
+   * round-off errors).
+   */
+  private static int search(double[] cumulative, double u) {
+    int low = 0, high = cumulative.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (u < cumulative[mid]) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Returns the time (in nanoseconds) used to infer each document of the last
+   * batch.
+   */
+  public long[] getLatencies() {
+    return latencies;
+  }
+
+  /**
+   * Returns the throughput and latencies of the last batch.
+   */
+  public String latencyReport() {
+    if (latencies == null || latencies.length == 0) {
+      return "no documents";
+    }
+    long[] sorted = latencies.clone();
+    Arrays.sort(sorted);
+    double total = 0.0;
+    for (long latency : sorted) {
+      total += latency;
+    }
+    return String.format(
+        "%d documents, %.1f documents/s, latency (ms) mean %.3f, "
+            + "median %.3f, 99%% %.3f, max %.3f", sorted.length,
+        sorted.length / (batchTime / 1e9), total / sorted.length / 1e6,
+        sorted[sorted.length / 2] / 1e6,
+        sorted[(int) (0.99 * (sorted.length - 1))] / 1e6,
+        sorted[sorted.length - 1] / 1e6);
+  }
+}
@@ -0,0 +1,108 @@
+package edu.kaist.uilab.lda;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.kaist.uilab.plda.util.MicroBenchmark;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * The benchmark cases of the LDA sampler (see {@link MicroBenchmark}).
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class LdaBenchmarks {
+  // the number of samples drawn by a run of the sample case
+  private static final int SAMPLES_PER_RUN = 1000;
+
+  /**
+   * Returns the cases for the given model and corpus:
+   * <ul>
+   * <li> lda.sample: {@link GibbsSampler#sample(double[], RandomGenerator)}
+   * from a distribution over {@code numTopics} topics (per sample)
+   * <li> lda.sweep.dense, lda.sweep.sparse: a sweep over the corpus with the
+   * dense and the sparse sampling method (per token)
+   * </ul>
+   */
+  public static List<MicroBenchmark.Case> cases(final int numTopics,
+      final int vocabularySize, final int[][] documents) {
+    String parameters = "K=" + numTopics + " V=" + vocabularySize;
+    List<MicroBenchmark.Case> cases = new ArrayList<MicroBenchmark.Case>();
+    cases.add(new MicroBenchmark.Case("lda.sample", parameters) {
+      private RandomGenerator random;
+      private double[] distribution;
+      private double[] p;
+
+      @Override
+      public void setUp() {
+        random = RandomGenerator.newInstance(1);
+        distribution = new double[numTopics];
+        p = new double[numTopics];
+        for (int k = 0; k < numTopics; k++) {
+          distribution[k] = random.nextDouble();
+        }
+      }
+
+      @Override
+      public long run() {
+        long sum = 0;
+        for (int s = 0; s < SAMPLES_PER_RUN; s++) {
+          System.arraycopy(distribution, 0, p, 0, numTopics);
+          sum += GibbsSampler.sample(p, random);
+        }
+        return sum;
+      }
+
+      @Override
+      public long getOperations() {
+        return SAMPLES_PER_RUN;
+      }
+    });
+    cases.add(new SweepCase("lda.sweep.dense", parameters, numTopics,
+        vocabularySize, documents, GibbsSampler.DENSE_SAMPLING));
+    cases.add(new SweepCase("lda.sweep.sparse", parameters, numTopics,
+        vocabularySize, documents, GibbsSampler.SPARSE_SAMPLING));
+    return cases;
+  }
+
+  /**
+   * A sweep of the LDA sampler over the corpus.
+   */
+  private static class SweepCase extends MicroBenchmark.Case {
+    private final GibbsSampler sampler;
+    private final int samplingMethod;
+    private long numTokens;
+
+    SweepCase(String name, String parameters, int numTopics,
+        int vocabularySize, int[][] documents, int samplingMethod) {
+      super(name, parameters);
+      sampler = new GibbsSampler(numTopics, vocabularySize, documents, 0.1,
+          0.01);
+      sampler.setSeed(1);
+      sampler.setSamplingMethod(samplingMethod);
+      this.samplingMethod = samplingMethod;
+      for (int[] document : documents) {
+        numTokens += document.length;
+      }
+    }
+
+    @Override
+    public void setUp() {
+      sampler.initialize();
+      if (samplingMethod == GibbsSampler.SPARSE_SAMPLING) {
+        sampler.initSparseBuckets();
+      }
+    }
+
+    @Override
+    public long run() {
+      sampler.sweep();
+      return numTokens;
+    }
+
+    @Override
+    public long getOperations() {
+      return numTokens;
+    }
+  }
+}
@@ -1,13 +1,13 @@
 package edu.kaist.uilab.lda;
 
 import java.io.PrintWriter;
-import java.util.List;
 
 import com.aliasi.cluster.LatentDirichletAllocation;
 import com.aliasi.cluster.LatentDirichletAllocation.GibbsSample;
 import com.aliasi.corpus.ObjectHandler;
 import com.aliasi.symbol.SymbolTable;
-import com.aliasi.util.ObjectToCounterMap;
+
+import edu.kaist.uilab.plda.util.TopK;
 
 public class LdaReportingHandler implements
     ObjectHandler<LatentDirichletAllocation.GibbsSample> {
@@ -53,19 +53,20 @@ public class LdaReportingHandler implements
       writer.println("numWords=" + numWords);
       writer.println("numTopics=" + numTopics);
 
+      // one pass over the words for all topics
+      TopK[] topWords = new TopK[numTopics];
+      for (int topic = 0; topic < numTopics; ++topic)
+        topWords[topic] = new TopK(maxWordsPerTopic);
+      for (int word = 0; word < numWords; ++word)
+        for (int topic = 0; topic < numTopics; ++topic)
+          topWords[topic].add(word, sample.topicWordCount(topic, word));
       for (int topic = 0; topic < numTopics; ++topic) {
         int topicCount = sample.topicCount(topic);
-        ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-        for (int word = 0; word < numWords; ++word)
-          counter
-              .set(Integer.valueOf(word), sample.topicWordCount(topic, word));
-        List<Integer> topWords = counter.keysOrderedByCountList();
         writer.println("\nTOPIC " + topic + "  (total count=" + topicCount
             + ")");
         writer.println("SYMBOL             WORD    COUNT   PROB          Z");
         writer.println("--------------------------------------------------");
-        for (int rank = 0; rank < maxWordsPerTopic && rank < topWords.size(); ++rank) {
-          int wordId = topWords.get(rank);
+        for (int wordId : topWords[topic].indices()) {
           String word = mSymbolTable.idToSymbol(wordId);
           int wordCount = sample.wordCount(wordId);
           int topicWordCount = sample.topicWordCount(topic, wordId);
@@ -76,20 +77,18 @@ public class LdaReportingHandler implements
         }
       }
 
+      TopK topTopics = new TopK(maxTopicsPerDoc);
       for (int doc = 0; doc < numDocs; ++doc) {
         int docCount = 0;
-        for (int topic = 0; topic < numTopics; ++topic)
-          docCount += sample.documentTopicCount(doc, topic);
-        ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-        for (int topic = 0; topic < numTopics; ++topic)
-          counter.set(Integer.valueOf(topic),
-              sample.documentTopicCount(doc, topic));
-        List<Integer> topTopics = counter.keysOrderedByCountList();
+        for (int topic = 0; topic < numTopics; ++topic) {
+          int count = sample.documentTopicCount(doc, topic);
+          docCount += count;
+          topTopics.add(topic, count);
+        }
         writer.println("\nDOC " + doc);
         writer.println("TOPIC    COUNT    PROB");
         writer.println("----------------------");
-        for (int rank = 0; rank < topTopics.size() && rank < maxTopicsPerDoc; ++rank) {
-          int topic = topTopics.get(rank);
+        for (int topic : topTopics.indices()) {
           int docTopicCount = sample.documentTopicCount(doc, topic);
           double docTopicPrior = sample.documentTopicPrior();
           double docTopicProb = (sample.documentTopicCount(doc, topic) + docTopicPrior)
@@ -12,16 +12,12 @@ import java.util.StringTokenizer;
 import com.aliasi.cluster.LatentDirichletAllocation;
 import com.aliasi.symbol.MapSymbolTable;
 import com.aliasi.symbol.SymbolTable;
-import com.aliasi.tokenizer.EnglishStopTokenizerFactory;
-import com.aliasi.tokenizer.LowerCaseTokenizerFactory;
-import com.aliasi.tokenizer.RegExTokenizerFactory;
-import com.aliasi.tokenizer.StopTokenizerFactory;
-import com.aliasi.tokenizer.Tokenizer;
-import com.aliasi.tokenizer.TokenizerFactory;
 import com.aliasi.util.Counter;
 import com.aliasi.util.ObjectToCounterMap;
-import com.aliasi.util.Strings;
 
+import edu.kaist.uilab.plda.data.CharTokenizer;
+import edu.kaist.uilab.plda.util.CharSymbolTable;
+import edu.kaist.uilab.plda.util.IntList;
 import edu.kaist.uilab.plda.util.TextFiles;
 
 public class LdaTest {
@@ -94,7 +90,7 @@ public class LdaTest {
     final Random random = new Random(2321);
     // parse the corpus
     final int[][] docWords = tokenizeDocuments(parseCorpus(corpusFile),
-        customTokenizerFactory(), symbolTable, minCount);
+        customTokenizer(), symbolTable, minCount);
     System.out.println("Documents tokenized.");
     final LdaReportingHandler handler = new LdaReportingHandler(symbolTable);
     final LatentDirichletAllocation.GibbsSample sample = LatentDirichletAllocation
@@ -105,24 +101,20 @@ public class LdaTest {
   }
   
   /**
-   * Returns the custom tokenizer factory used for this corpus.
+   * Returns the custom tokenizer used for this corpus (the tokens of lingpipe's
+   * regex, lowercase, English stop and stop tokenizer factories, keeping
+   * tokens without letters).
    * 
    * @return
    */
-  TokenizerFactory customTokenizerFactory() {
-    TokenizerFactory factory = new RegExTokenizerFactory("[$a-zA-Z0-9]+");
-//    factory = new NonAlphaStopTokenizerFactory(factory);
-    factory = new LowerCaseTokenizerFactory(factory);
-    factory = new EnglishStopTokenizerFactory(factory);
-    factory = new StopTokenizerFactory(factory,
-        new HashSet<String>(Arrays.asList(stopWords)));
-
-    return factory;
+  CharTokenizer customTokenizer() {
+    return new CharTokenizer(new HashSet<String>(Arrays.asList(stopWords)),
+        false);
   }
   
   /**
    * Tokenize an array of text documents represented as character sequences into
-   * a form usable by LDA, using the specified tokenizer factory and symbol
+   * a form usable by LDA, using the specified tokenizer and symbol
    * table. The symbol table should be constructed fresh for this application,
    * but may be used after this method is called for further token to symbol
    * conversions. Only tokens whose count is equal to or larger the specified
@@ -136,8 +128,8 @@ public class LdaTest {
    * 
    * @param texts
    *          The text corpus.
-   * @param tokenizerFactory
-   *          A tokenizer factory for tokenizing the texts.
+   * @param tokenizer
+   *          A tokenizer for tokenizing the texts.
    * @param symbolTable
    *          Symbol table used to convert tokens to identifiers.
    * @param minCount
@@ -146,31 +138,40 @@ public class LdaTest {
    * @return The tokenized form of a document suitable for input to LDA.
    */
   private int[][] tokenizeDocuments(CharSequence[] texts,
-      TokenizerFactory tokenizerFactory, SymbolTable symbolTable, int minCount) {
-    ObjectToCounterMap<String> tokenCounter = new ObjectToCounterMap<String>();
-    // count #(a token appears in a document)
-    ObjectToCounterMap<String> tokDocumentCounter = new ObjectToCounterMap<String>();
+      CharTokenizer tokenizer, SymbolTable symbolTable, int minCount) {
+    // the tokens of the corpus and their counts, without a string per token
+    CharSymbolTable corpusTokens = new CharSymbolTable();
+    IntList counts = new IntList();
+    IntList ranges = new IntList();
     for (CharSequence text : texts) {
-      HashSet<String> uniqueDocTokens = new HashSet<String>();
-      char[] cs = Strings.toCharArray(text);
-      Tokenizer tokenizer = tokenizerFactory.tokenizer(cs, 0, cs.length);
-      for (String token : tokenizer) {
-        tokenCounter.increment(token);
-        if (uniqueDocTokens.add(token)) {
-          tokDocumentCounter.increment(token);
+      ranges.clear();
+      char[] cs = tokenizer.tokenize(text, ranges);
+      for (int n = 0; n < ranges.size(); n += 2) {
+        int id = corpusTokens.getOrAdd(cs, ranges.get(n), ranges.get(n + 1)
+            - ranges.get(n));
+        if (id == counts.size()) {
+          counts.add(0);
         }
-      }  
+        counts.set(id, counts.get(id) + 1);
+      }
+    }
+    // in the order the tokens first appear, as when counted token by token
+    ObjectToCounterMap<String> tokenCounter = new ObjectToCounterMap<String>();
+    for (int id = 0; id < corpusTokens.size(); id++) {
+      tokenCounter.set(corpusTokens.idToSymbol(id), counts.get(id));
     }
     tokenCounter.prune(minCount);
     pruneTopWords(tokenCounter, topStopWords);
     Set<String> tokenSet = tokenCounter.keySet();
-    for (String token : tokenSet)
+    CharSymbolTable vocabulary = new CharSymbolTable();
+    for (String token : tokenSet) {
       symbolTable.getOrAddSymbol(token);
+      vocabulary.getOrAdd(token);
+    }
 
     int[][] docTokenId = new int[texts.length][];
     for (int i = 0; i < docTokenId.length; ++i) {
-      docTokenId[i] = LatentDirichletAllocation.tokenizeDocument(
-          texts[i], tokenizerFactory, symbolTable);
+      docTokenId[i] = tokenizer.toIds(texts[i], vocabulary);
     }
     
     return docTokenId;
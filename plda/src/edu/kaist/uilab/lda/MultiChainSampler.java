@@ -0,0 +1,229 @@
+package edu.kaist.uilab.lda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.kaist.uilab.plda.util.Hungarian;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * Runs several independent chains of {@link GibbsSampler} in parallel and
+ * averages their estimates.
+ *
+ * <p> A single chain separates its samples by {@code sampleLags} iterations,
+ * so N samples cost N lags after the burn-in. Here each chain runs on its own
+ * thread with a different seed and collects its samples after its own
+ * burn-in, i.e., N chains give N samples in the time of one burn-in and one
+ * lag.
+ *
+ * <p> The topics of different chains are not in the same order. The topics of
+ * each chain are matched to the topics of the first chain by the assignment
+ * (see {@link Hungarian}) which maximizes the sum of the cosine similarities
+ * of the topic-word distributions of the matched topics, and the aligned
+ * estimates of phi and theta are averaged.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class MultiChainSampler {
+  private int numTopics; // T = numTopics
+  private int vocabularySize; // V = vocabularySize
+  private int[][] documents; // documents[m][n] = index of the n_th word of m
+  private double alpha;
+  private double beta;
+
+  private int numChains = Runtime.getRuntime().availableProcessors();
+  private int maxIterations = 1000;
+  private int burnIn = 200;
+  private int sampleLags = 20;
+  private int samplesPerChain = 1;
+  private int samplingMethod = GibbsSampler.DENSE_SAMPLING;
+  private long seed = RandomGenerator.newSeed();
+
+  // the aligned averages of the chains
+  private double[][] phi; // K x V
+  private double[][] theta; // D x K
+  // similarity[c] = mean cosine similarity of the matched topics of chain c
+  // and the first chain
+  private double[] similarity;
+
+  /**
+   * Constructs a sampler.
+   *
+   * @param numTopics
+   *          the number of topics
+   * @param vocabularySize
+   *          the vocabulary size
+   * @param documents
+   *          the words of each document (shared by the chains)
+   * @param alpha
+   *          the topic prior
+   * @param beta
+   *          the word prior
+   */
+  public MultiChainSampler(int numTopics, int vocabularySize,
+      int[][] documents, double alpha, double beta) {
+    this.numTopics = numTopics;
+    this.vocabularySize = vocabularySize;
+    this.documents = documents;
+    this.alpha = alpha;
+    this.beta = beta;
+  }
+
+  /**
+   * Sets the number of chains, which are sampled at the same time.
+   *
+   * @param numChains
+   *          the number of chains (default value is the number of processors)
+   */
+  public void setNumChains(int numChains) {
+    this.numChains = numChains > 0 ? numChains : 1;
+  }
+
+  /**
+   * Sets the parameters of each chain (see
+   * {@link GibbsSampler#setSamplerParameters(int, int, int, int)}).
+   *
+   * @param samplesPerChain
+   *          the number of samples collected by each chain (default value is
+   *          1)
+   */
+  public void setSamplerParameters(int maxIterations, int burnIn,
+      int sampleLags, int samplesPerChain) {
+    this.maxIterations = maxIterations;
+    this.burnIn = burnIn;
+    this.sampleLags = sampleLags;
+    this.samplesPerChain = samplesPerChain;
+  }
+
+  /**
+   * Sets the sampling method of each chain (see
+   * {@link GibbsSampler#setSamplingMethod(int)}).
+   */
+  public void setSamplingMethod(int samplingMethod) {
+    this.samplingMethod = samplingMethod;
+  }
+
+  /**
+   * Sets the seed from which the seeds of the chains are drawn.
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Runs the chains and averages their aligned estimates.
+   */
+  public void doGibbsSampling() {
+    RandomGenerator random = RandomGenerator.newInstance(seed);
+    final GibbsSampler[] chains = new GibbsSampler[numChains];
+    for (int c = 0; c < numChains; c++) {
+      chains[c] = new GibbsSampler(numTopics, vocabularySize, documents,
+          alpha, beta);
+      chains[c].setSamplerParameters(maxIterations, burnIn, sampleLags,
+          samplesPerChain);
+      chains[c].setSamplingMethod(samplingMethod);
+      chains[c].setSeed(random.nextLong());
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numChains);
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(numChains);
+    for (final GibbsSampler chain : chains) {
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          chain.doGibbsSampling();
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Object> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Sampling interrupted", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Sampling failed", e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+
+    double[][] reference = chains[0].getPhi();
+    int numDocuments = documents.length;
+    phi = new double[numTopics][vocabularySize];
+    theta = new double[numDocuments][numTopics];
+    similarity = new double[numChains];
+    for (int c = 0; c < numChains; c++) {
+      double[][] chainPhi = c == 0 ? reference : chains[c].getPhi();
+      double[][] chainTheta = chains[c].getTheta();
+      // topic k of the first chain is topic match[k] of this chain
+      int[] match = alignTopics(reference, chainPhi);
+      for (int k = 0; k < numTopics; k++) {
+        similarity[c] += cosine(reference[k], chainPhi[match[k]]) / numTopics;
+        for (int i = 0; i < vocabularySize; i++) {
+          phi[k][i] += chainPhi[match[k]][i] / numChains;
+        }
+        for (int m = 0; m < numDocuments; m++) {
+          theta[m][k] += chainTheta[m][match[k]] / numChains;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the topics of {@code phi} matched to the topics of
+   * {@code reference}: topic k of the reference is matched to topic
+   * {@code result[k]} of {@code phi}.
+   */
+  static int[] alignTopics(double[][] reference, double[][] phi) {
+    double[][] cost = new double[reference.length][phi.length];
+    for (int k = 0; k < reference.length; k++) {
+      for (int l = 0; l < phi.length; l++) {
+        cost[k][l] = 1.0 - cosine(reference[k], phi[l]);
+      }
+    }
+    return Hungarian.minimumCostAssignment(cost);
+  }
+
+  private static double cosine(double[] x, double[] y) {
+    double dot = 0.0, xx = 0.0, yy = 0.0;
+    for (int i = 0; i < x.length; i++) {
+      dot += x[i] * y[i];
+      xx += x[i] * x[i];
+      yy += y[i] * y[i];
+    }
+    return xx > 0 && yy > 0 ? dot / Math.sqrt(xx * yy) : 0.0;
+  }
+
+  /**
+   * Returns the average of the aligned phi estimates of the chains (K x V).
+   */
+  public double[][] getPhi() {
+    return phi;
+  }
+
+  /**
+   * Returns the average of the aligned theta estimates of the chains (D x K).
+   */
+  public double[][] getTheta() {
+    return theta;
+  }
+
+  /**
+   * Returns the mean cosine similarity of the matched topics of each chain
+   * and the first chain (1 for the first chain): low values mean that the
+   * chains found different topics.
+   */
+  public double[] getChainSimilarity() {
+    return similarity;
+  }
+}
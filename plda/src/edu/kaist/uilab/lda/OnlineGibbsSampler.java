@@ -0,0 +1,577 @@
+package edu.kaist.uilab.lda;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.aliasi.symbol.MapSymbolTable;
+import com.aliasi.symbol.SymbolTable;
+import com.aliasi.tokenizer.TokenizerFactory;
+import com.aliasi.util.Strings;
+
+import edu.kaist.uilab.plda.data.CorpusProcessor;
+import edu.kaist.uilab.plda.file.DefaultDocumentReader;
+import edu.kaist.uilab.plda.file.DocumentReader;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * An online LDA trainer which reads the documents as a stream of mini-batches
+ * and never holds the whole corpus in memory.
+ *
+ * <p> The trainer implements stochastic variational inference (Hoffman et al.,
+ * 2010) with Gibbs sampling for the local step (Mimno et al., 2012). The words
+ * of a mini-batch B are sampled with the current topics fixed, then the
+ * topic-word parameters lambda are moved towards the estimate given by the
+ * batch:
+ *
+ * <pre>
+ * lambda = (1 - rho) * lambda + rho * (eta + D / |B| * n_B)
+ * rho = (tau0 + t)^(-kappa)
+ * </pre>
+ *
+ * where n_B[i][k] = # times word i of the batch is assigned to topic k, D is the
+ * size of the corpus and t is the number of previous batches. The vocabulary
+ * grows with the stream, i.e., new words are added to the symbol table.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class OnlineGibbsSampler {
+  // number of documents in a task of the thread pool
+  private static final int DOCUMENTS_PER_TASK = 16;
+
+  private int numTopics; // K = numTopics
+  private SymbolTable symbolTable;
+  private TokenizerFactory tokenizerFactory;
+
+  // hyper-parameters
+  private double alpha = 0.1;
+  private double eta = 0.01;
+
+  // lambda[i][k] = eta + scale * weights[i][k]; the scale lets lambda decay
+  // without touching every word (weights[i] is null if word i has no weight)
+  private double[][] weights = new double[1024][];
+  private double scale = 1.0;
+  // topicWeight[k] = sum of weights[i][k] over all words i
+  private double[] topicWeight;
+
+  // learning rate and sampling parameters
+  private double tau0 = 64;
+  private double kappa = 0.7;
+  private long corpusSize; // 0 = number of documents seen so far
+  private int batchSize = 256;
+  private int numIterations = 20;
+  private int burnIn = 10;
+  private int numThreads = 1;
+  private long seed = RandomGenerator.newSeed();
+
+  // progress
+  private int numBatches;
+  private long numDocuments;
+  private long trainingTime; // ns
+
+  // held-out documents (tokenized again for each evaluation since the
+  // vocabulary grows)
+  private List<CharSequence> heldOut = new ArrayList<CharSequence>();
+  private int evaluationInterval = 10;
+  private PrintWriter log;
+
+  /**
+   * Constructs a new trainer.
+   *
+   * @param numTopics
+   *          the number of topics
+   * @param symbolTable
+   *          the symbol table of the vocabulary (new words are added to it)
+   * @param tokenizerFactory
+   *          the tokenizer for the documents
+   * @param alpha
+   *          the document-topic prior
+   * @param eta
+   *          the topic-word prior
+   */
+  public OnlineGibbsSampler(int numTopics, SymbolTable symbolTable,
+      TokenizerFactory tokenizerFactory, double alpha, double eta) {
+    this.numTopics = numTopics;
+    this.symbolTable = symbolTable;
+    this.tokenizerFactory = tokenizerFactory;
+    this.alpha = alpha;
+    this.eta = eta;
+    topicWeight = new double[numTopics];
+  }
+
+  public static void main(String args[]) throws IOException {
+    if (args.length < 4) {
+      System.err.println("Usage: OnlineGibbsSampler corpusDir numTopics "
+          + "batchSize outputDir [numHeldOut]");
+      return;
+    }
+    int numTopics = Integer.parseInt(args[1]);
+    OnlineGibbsSampler sampler = new OnlineGibbsSampler(numTopics,
+        new MapSymbolTable(), CorpusProcessor
+            .newTokenizerFactory(new HashSet<String>()), 50.0 / numTopics, 0.01);
+    sampler.setBatchSize(Integer.parseInt(args[2]));
+    sampler.setSeed(Long.getLong("seed", RandomGenerator.newSeed()));
+    (new File(args[3])).mkdirs();
+    RandomGenerator.writeSeed(args[3], sampler.getSeed());
+    sampler.setLog(args[3] + "/progress.csv");
+    sampler.train(args[0], new DefaultDocumentReader(),
+        args.length > 4 ? Integer.parseInt(args[4]) : 100);
+    Inferencer.writePhi(sampler.getPhi(), args[3] + "/phi.csv");
+    PrintWriter out = new PrintWriter(args[3] + "/vocabulary.txt");
+    for (int i = 0; i < sampler.getVocabularySize(); i++) {
+      out.println(sampler.getSymbolTable().idToSymbol(i));
+    }
+    out.close();
+  }
+
+  /**
+   * Sets the learning rate rho_t = (tau0 + t)^(-kappa).
+   *
+   * @param tau0
+   *          down-weights the first batches (default value is 64)
+   * @param kappa
+   *          the forgetting rate in (0.5, 1] (default value is 0.7)
+   */
+  public void setLearningRate(double tau0, double kappa) {
+    this.tau0 = tau0;
+    this.kappa = kappa;
+  }
+
+  /**
+   * Sets the (expected) number of documents of the corpus.
+   *
+   * @param corpusSize
+   *          the number of documents or 0 to use the number of documents seen
+   *          so far (default)
+   */
+  public void setCorpusSize(long corpusSize) {
+    this.corpusSize = corpusSize;
+  }
+
+  /**
+   * Sets the number of documents of a mini-batch used by
+   * {@link #train(String, DocumentReader, int)}.
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Sets the number of Gibbs iterations for each document of a batch.
+   *
+   * @param numIterations
+   *          the number of iterations
+   * @param burnIn
+   *          the number of iterations before the assignments are used
+   */
+  public void setSamplerParameters(int numIterations, int burnIn) {
+    if (burnIn >= numIterations) {
+      throw new IllegalArgumentException("burnIn must be less than numIterations");
+    }
+    this.numIterations = numIterations;
+    this.burnIn = burnIn;
+  }
+
+  /**
+   * Sets the number of threads used to sample the documents of a batch.
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads > 0 ? numThreads : 1;
+  }
+
+  /**
+   * Sets the seed of the random generator.
+   *
+   * <p> Two runs with the same seed, parameters and stream give the same
+   * topics, whatever the number of threads.
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Returns the seed of the random generator.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Adds a document to the held-out set used to report the perplexity.
+   */
+  public void addHeldOut(CharSequence text) {
+    heldOut.add(text);
+  }
+
+  /**
+   * Sets the number of batches between two reports of the throughput and the
+   * held-out perplexity.
+   */
+  public void setEvaluationInterval(int evaluationInterval) {
+    this.evaluationInterval = evaluationInterval;
+  }
+
+  /**
+   * Also writes the reports to the given file (comma-separated values); the
+   * file is closed at the end of {@link #train(String, DocumentReader, int)}.
+   */
+  public void setLog(String file) throws IOException {
+    if (log != null) {
+      log.close();
+    }
+    log = new PrintWriter(file);
+    log.println("batches,documents,seconds,documentsPerSecond,perplexity");
+    log.flush();
+  }
+
+  /**
+   * Returns the symbol table of the vocabulary.
+   */
+  public SymbolTable getSymbolTable() {
+    return symbolTable;
+  }
+
+  /**
+   * Returns the current size of the vocabulary.
+   */
+  public int getVocabularySize() {
+    return symbolTable.numSymbols();
+  }
+
+  /**
+   * Returns the number of documents used for training so far.
+   */
+  public long getNumDocuments() {
+    return numDocuments;
+  }
+
+  /**
+   * Trains the model with the documents of a directory.
+   *
+   * <p> The documents are read one at a time in the order of their names. The
+   * first {@code numHeldOut} documents are held out to report the
+   * perplexity. The log set by {@link #setLog(String)} is closed when the
+   * training ends.
+   *
+   * @param corpusDir
+   *          the directory that contains the documents
+   * @param reader
+   *          a reader that can read the content of a document
+   * @param numHeldOut
+   *          the number of held-out documents
+   */
+  public void train(String corpusDir, DocumentReader reader, int numHeldOut)
+      throws IOException {
+    List<String> names = new ArrayList<String>();
+    for (File file : new File(corpusDir).listFiles()) {
+      if (file.isFile()) {
+        names.add(file.getName());
+      }
+    }
+    // the order of listFiles() is not specified
+    String[] sorted = names.toArray(new String[names.size()]);
+    Arrays.sort(sorted);
+    List<int[]> batch = new ArrayList<int[]>(batchSize);
+    try {
+      for (String name : sorted) {
+        String text = reader.readDocument(corpusDir + "/" + name);
+        if (heldOut.size() < numHeldOut) {
+          addHeldOut(text);
+          continue;
+        }
+        batch.add(tokenize(text, true));
+        if (batch.size() == batchSize) {
+          update(batch.toArray(new int[batch.size()][]));
+          batch.clear();
+        }
+      }
+      if (!batch.isEmpty()) {
+        update(batch.toArray(new int[batch.size()][]));
+      }
+      if (numBatches % evaluationInterval != 0) {
+        report();
+      }
+    } finally {
+      if (log != null) {
+        log.close();
+        log = null;
+      }
+    }
+  }
+
+  /**
+   * Converts a text to word ids.
+   *
+   * @param addWords
+   *          true to add new words to the vocabulary, false to drop them
+   */
+  public int[] tokenize(CharSequence text, boolean addWords) {
+    char[] cs = Strings.toCharArray(text);
+    List<Integer> ids = new ArrayList<Integer>();
+    for (String token : tokenizerFactory.tokenizer(cs, 0, cs.length)) {
+      int id = addWords ? symbolTable.getOrAddSymbol(token) : symbolTable
+          .symbolToID(token);
+      if (id >= 0) {
+        ids.add(id);
+      }
+    }
+    int[] document = new int[ids.size()];
+    for (int n = 0; n < document.length; n++) {
+      document[n] = ids.get(n);
+    }
+
+    return document;
+  }
+
+  /**
+   * Updates the topics with a mini-batch of documents.
+   *
+   * @param batch
+   *          batch[m][n] = the id of the n_th word of the m_th document (the
+   *          ids must be in the symbol table)
+   */
+  public void update(final int[][] batch) {
+    long start = System.nanoTime();
+    int vocabularySize = getVocabularySize();
+    if (weights.length < vocabularySize) {
+      weights = Arrays.copyOf(weights, Math.max(vocabularySize,
+          2 * weights.length));
+    }
+    // 1 / sum_i lambda[i][k]
+    final double[] inverseTopicSum = new double[numTopics];
+    for (int k = 0; k < numTopics; k++) {
+      inverseTopicSum[k] = 1.0 / (vocabularySize * eta + scale * topicWeight[k]);
+    }
+
+    // local step: sample the words of each document with fixed topics
+    final int[][][] samples = new int[batch.length][][];
+    final long firstDocument = numDocuments;
+    if (numThreads == 1) {
+      sampleDocuments(batch, samples, inverseTopicSum, firstDocument, 0,
+          batch.length);
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      List<Future<Object>> futures = new ArrayList<Future<Object>>();
+      for (int m = 0; m < batch.length; m += DOCUMENTS_PER_TASK) {
+        final int from = m;
+        final int to = Math.min(batch.length, m + DOCUMENTS_PER_TASK);
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() {
+            sampleDocuments(batch, samples, inverseTopicSum, firstDocument,
+                from, to);
+            return null;
+          }
+        }));
+      }
+      try {
+        for (Future<Object> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Sampling interrupted", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Sampling failed", e.getCause());
+      } finally {
+        executor.shutdown();
+      }
+    }
+
+    // global step: lambda = (1 - rho) lambda + rho (eta + D / |B| n_B)
+    numDocuments += batch.length;
+    double rho = Math.pow(tau0 + numBatches, -kappa);
+    numBatches++;
+    if (rho >= 1.0) {
+      // forget everything
+      Arrays.fill(weights, null);
+      Arrays.fill(topicWeight, 0.0);
+      scale = 1.0;
+    } else {
+      scale *= 1.0 - rho;
+    }
+    double D = corpusSize > 0 ? corpusSize : numDocuments;
+    double increment = rho * D / batch.length / (numIterations - burnIn)
+        / scale;
+    for (int m = 0; m < batch.length; m++) {
+      for (int[] z : samples[m]) {
+        for (int n = 0; n < z.length; n++) {
+          int i = batch[m][n];
+          if (weights[i] == null) {
+            weights[i] = new double[numTopics];
+          }
+          weights[i][z[n]] += increment;
+          topicWeight[z[n]] += increment;
+        }
+      }
+    }
+    if (scale < 1e-100) {
+      rescale();
+    }
+    trainingTime += System.nanoTime() - start;
+
+    if (numBatches % evaluationInterval == 0) {
+      report();
+    }
+  }
+
+  /**
+   * Samples the words of documents [from, to) of a batch.
+   */
+  private void sampleDocuments(int[][] batch, int[][][] samples,
+      double[] inverseTopicSum, long firstDocument, int from, int to) {
+    double[] p = new double[numTopics];
+    int[] ndt = new int[numTopics];
+    for (int m = from; m < to; m++) {
+      RandomGenerator random = RandomGenerator.newInstance(seed + firstDocument
+          + m);
+      samples[m] = sampleDocument(batch[m], random, inverseTopicSum, p, ndt);
+    }
+  }
+
+  /**
+   * Samples the topics of the words of a document with fixed topics and
+   * returns the assignments of the iterations after the burn-in.
+   */
+  private int[][] sampleDocument(int[] document, RandomGenerator random,
+      double[] inverseTopicSum, double[] p, int[] ndt) {
+    int length = document.length;
+    int[] z = new int[length];
+    Arrays.fill(ndt, 0);
+    for (int n = 0; n < length; n++) {
+      z[n] = random.nextInt(numTopics);
+      ndt[z[n]]++;
+    }
+    int[][] samples = new int[numIterations - burnIn][];
+    for (int iter = 0; iter < numIterations; iter++) {
+      for (int n = 0; n < length; n++) {
+        double[] weight = weights[document[n]];
+        ndt[z[n]]--;
+        double sum = 0.0;
+        for (int k = 0; k < numTopics; k++) {
+          double lambda = weight == null ? eta : eta + scale * weight[k];
+          sum += lambda * inverseTopicSum[k] * (ndt[k] + alpha);
+          p[k] = sum;
+        }
+        double u = random.nextDouble() * sum;
+        int topic = 0;
+        while (topic < numTopics - 1 && u >= p[topic]) {
+          topic++;
+        }
+        z[n] = topic;
+        ndt[topic]++;
+      }
+      if (iter >= burnIn) {
+        samples[iter - burnIn] = z.clone();
+      }
+    }
+
+    return samples;
+  }
+
+  /**
+   * Folds the scale into the weights.
+   */
+  private void rescale() {
+    for (double[] weight : weights) {
+      if (weight != null) {
+        for (int k = 0; k < numTopics; k++) {
+          weight[k] *= scale;
+        }
+      }
+    }
+    for (int k = 0; k < numTopics; k++) {
+      topicWeight[k] *= scale;
+    }
+    scale = 1.0;
+  }
+
+  /**
+   * Returns the current topics.
+   *
+   * @return phi[k][i] = probability of word i in topic k
+   */
+  public double[][] getPhi() {
+    int vocabularySize = getVocabularySize();
+    double[][] phi = new double[numTopics][vocabularySize];
+    for (int k = 0; k < numTopics; k++) {
+      double sum = vocabularySize * eta + scale * topicWeight[k];
+      for (int i = 0; i < vocabularySize; i++) {
+        double[] weight = i < weights.length ? weights[i] : null;
+        phi[k][i] = (weight == null ? eta : eta + scale * weight[k]) / sum;
+      }
+    }
+
+    return phi;
+  }
+
+  /**
+   * Returns the perplexity of the held-out documents (document completion):
+   * theta of each document is inferred from its words at even positions and
+   * the words at odd positions are predicted. Words which are not in the
+   * vocabulary are ignored.
+   *
+   * @return the perplexity or NaN if there is no held-out word
+   */
+  public double heldOutPerplexity() {
+    if (heldOut.isEmpty() || getVocabularySize() == 0) {
+      return Double.NaN;
+    }
+    int[][] observed = new int[heldOut.size()][];
+    int[][] predicted = new int[heldOut.size()][];
+    for (int m = 0; m < observed.length; m++) {
+      int[] document = tokenize(heldOut.get(m), false);
+      observed[m] = new int[(document.length + 1) / 2];
+      predicted[m] = new int[document.length / 2];
+      for (int n = 0; n < document.length; n++) {
+        if (n % 2 == 0) {
+          observed[m][n / 2] = document[n];
+        } else {
+          predicted[m][n / 2] = document[n];
+        }
+      }
+    }
+    double[][] phi = getPhi();
+    Inferencer inferencer = new Inferencer(phi, alpha);
+    inferencer.setSeed(seed);
+    inferencer.setNumThreads(numThreads);
+    double[][] theta = inferencer.infer(observed);
+    double logLikelihood = 0.0;
+    long numWords = 0;
+    for (int m = 0; m < predicted.length; m++) {
+      for (int i : predicted[m]) {
+        double p = 0.0;
+        for (int k = 0; k < numTopics; k++) {
+          p += theta[m][k] * phi[k][i];
+        }
+        logLikelihood += Math.log(p);
+        numWords++;
+      }
+    }
+
+    return numWords > 0 ? Math.exp(-logLikelihood / numWords) : Double.NaN;
+  }
+
+  /**
+   * Reports the throughput and the held-out perplexity.
+   */
+  private void report() {
+    double seconds = trainingTime / 1e9;
+    String line = String.format("%d,%d,%.1f,%.1f,%.2f", numBatches,
+        numDocuments, seconds, numDocuments / seconds, heldOutPerplexity());
+    System.out.println(line);
+    if (log != null) {
+      log.println(line);
+      log.flush();
+    }
+  }
+}
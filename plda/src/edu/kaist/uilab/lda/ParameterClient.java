@@ -0,0 +1,262 @@
+package edu.kaist.uilab.lda;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The connections of a worker to the {@link ParameterServer}s.
+ *
+ * <p> The changes of the word-topic counts are added up locally and sent in
+ * one message to each server by {@link #push(int)}, so the size of a message
+ * depends on the number of different (word, topic) pairs changed by the
+ * worker rather than the number of its tokens.
+ *
+ * <p> {@link #pull(int, int[][], int[])} only receives the words whose counts
+ * have changed since the previous pull of this client (see
+ * {@link ParameterServer}), so the counts passed to each pull must be those
+ * of the previous pull, updated only by the changes sent by this client.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+class ParameterClient {
+  // a server started at the same time as the worker may not listen yet
+  private static final int CONNECT_ATTEMPTS = 100;
+  private static final long CONNECT_DELAY = 100; // ms
+
+  private final int numTopics;
+  private final int numServers;
+  private final int[] fromWord;
+  private final int[] toWord;
+  private final int[] serverOf; // serverOf[i] = server of word i
+  private final Socket[] sockets;
+  private final DataInputStream[] in;
+  private final DataOutputStream[] out;
+  // versions[s] = the version of server s seen by the last pull
+  private final int[] versions;
+
+  // delta[i][k] = change of the count of word i and topic k since the last
+  // push (delta[i] = null if word i was never changed)
+  private final int[][] delta;
+  // touched[s][0..numTouched[s]) = changed words of server s
+  private final int[][] touched;
+  private final int[] numTouched;
+  private final boolean[] isTouched;
+  private int[] message = new int[1024];
+
+  /**
+   * Connects to the servers and checks that each server owns the expected
+   * range of the vocabulary.
+   *
+   * @param servers
+   *          the servers, in the order of their ranges
+   * @param worker
+   *          the id of this worker in [0, numWorkers)
+   */
+  ParameterClient(List<InetSocketAddress> servers, int worker,
+      int vocabularySize, int numTopics) throws IOException {
+    this.numTopics = numTopics;
+    numServers = servers.size();
+    fromWord = new int[numServers];
+    toWord = new int[numServers];
+    serverOf = new int[vocabularySize];
+    sockets = new Socket[numServers];
+    in = new DataInputStream[numServers];
+    out = new DataOutputStream[numServers];
+    touched = new int[numServers][];
+    numTouched = new int[numServers];
+    versions = new int[numServers];
+    for (int s = 0; s < numServers; s++) {
+      fromWord[s] = ParameterServer.rangeStart(vocabularySize, numServers, s);
+      toWord[s] = ParameterServer.rangeStart(vocabularySize, numServers, s + 1);
+      Arrays.fill(serverOf, fromWord[s], toWord[s], s);
+      touched[s] = new int[toWord[s] - fromWord[s]];
+      sockets[s] = connect(servers.get(s));
+      sockets[s].setTcpNoDelay(true);
+      in[s] = new DataInputStream(new BufferedInputStream(
+          sockets[s].getInputStream()));
+      out[s] = new DataOutputStream(new BufferedOutputStream(
+          sockets[s].getOutputStream()));
+      out[s].writeByte(ParameterServer.HELLO);
+      out[s].writeInt(worker);
+      out[s].flush();
+      int from = in[s].readInt();
+      int to = in[s].readInt();
+      int topics = in[s].readInt();
+      if (from != fromWord[s] || to != toWord[s] || topics != numTopics) {
+        close();
+        throw new IOException(String.format(
+            "Server %s owns [%d, %d) with %d topics, expected [%d, %d) with %d",
+            servers.get(s), from, to, topics, fromWord[s], toWord[s],
+            numTopics));
+      }
+    }
+    delta = new int[vocabularySize][];
+    isTouched = new boolean[vocabularySize];
+  }
+
+  private static Socket connect(InetSocketAddress address) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      try {
+        return new Socket(address.getAddress(), address.getPort());
+      } catch (ConnectException e) {
+        if (attempt == CONNECT_ATTEMPTS) {
+          throw e;
+        }
+      }
+      try {
+        Thread.sleep(CONNECT_DELAY);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Connecting to " + address);
+      }
+    }
+  }
+
+  /**
+   * Adds {@code change} to the count of word i and topic k (sent by the next
+   * push).
+   */
+  void add(int i, int k, int change) {
+    if (!isTouched[i]) {
+      isTouched[i] = true;
+      int s = serverOf[i];
+      touched[s][numTouched[s]++] = i;
+      if (delta[i] == null) {
+        delta[i] = new int[numTopics];
+      }
+    }
+    delta[i][k] += change;
+  }
+
+  /**
+   * Sends the changes since the last push to the servers.
+   *
+   * @param clock
+   *          the number of pushes of this worker, including this one
+   */
+  void push(int clock) throws IOException {
+    for (int s = 0; s < numServers; s++) {
+      int size = 0;
+      for (int t = 0; t < numTouched[s]; t++) {
+        int i = touched[s][t];
+        int[] row = delta[i];
+        if (message.length < size + 2 + 2 * numTopics) {
+          message = Arrays.copyOf(message, 2 * (size + 2 + 2 * numTopics));
+        }
+        int sizeIndex = size + 1;
+        message[size] = i;
+        size += 2;
+        for (int k = 0; k < numTopics; k++) {
+          if (row[k] != 0) {
+            message[size++] = k;
+            message[size++] = row[k];
+            row[k] = 0;
+          }
+        }
+        message[sizeIndex] = (size - sizeIndex - 1) / 2;
+        if (message[sizeIndex] == 0) {
+          size -= 2; // the changes of the word cancel out
+        }
+        isTouched[i] = false;
+      }
+      numTouched[s] = 0;
+      out[s].writeByte(ParameterServer.PUSH);
+      out[s].writeInt(clock);
+      out[s].writeInt(size);
+      for (int j = 0; j < size; j++) {
+        out[s].writeInt(message[j]);
+      }
+      out[s].flush();
+    }
+  }
+
+  /**
+   * Gets the current counts of the servers once every worker has made
+   * {@code minClock} pushes.
+   *
+   * @param counts
+   *          the word-topic counts (V x K) of the previous pull (all zero for
+   *          the first pull); the words changed since then are overwritten
+   * @param topicSums
+   *          the number of words assigned to each topic to overwrite
+   * @return the minimum clock of the workers
+   */
+  int pull(int minClock, int[][] counts, int[] topicSums) throws IOException {
+    // all servers prepare their reply at the same time
+    for (int s = 0; s < numServers; s++) {
+      out[s].writeByte(ParameterServer.PULL);
+      out[s].writeInt(minClock);
+      out[s].writeInt(versions[s]);
+      out[s].flush();
+    }
+    Arrays.fill(topicSums, 0);
+    int clock = Integer.MAX_VALUE;
+    for (int s = 0; s < numServers; s++) {
+      clock = Math.min(clock, in[s].readInt());
+      versions[s] = in[s].readInt();
+      for (int k = 0; k < numTopics; k++) {
+        topicSums[k] += in[s].readInt();
+      }
+      int numWords = in[s].readInt();
+      for (int w = 0; w < numWords; w++) {
+        int i = in[s].readInt();
+        if (i < fromWord[s] || i >= toWord[s]) {
+          throw new IOException("Word " + i + " is not in [" + fromWord[s]
+              + ", " + toWord[s] + ")");
+        }
+        Arrays.fill(counts[i], 0);
+        int size = in[s].readInt();
+        for (int j = 0; j < size; j++) {
+          int k = in[s].readInt();
+          counts[i][k] = in[s].readInt();
+        }
+      }
+    }
+
+    return clock;
+  }
+
+  /**
+   * Says goodbye to the servers and closes the connections; only a worker
+   * which has finished its iterations may say goodbye (see {@link #abort()}).
+   */
+  void close() throws IOException {
+    for (int s = 0; s < numServers; s++) {
+      if (out[s] != null) {
+        out[s].writeByte(ParameterServer.BYE);
+        out[s].flush();
+        sockets[s].close();
+      }
+    }
+  }
+
+  /**
+   * Tells the servers that this worker has failed, so that they fail the
+   * other workers instead of letting them wait for this one, and closes the
+   * connections. Errors are ignored since the worker is failing already.
+   */
+  void abort() {
+    for (int s = 0; s < numServers; s++) {
+      if (out[s] != null) {
+        try {
+          out[s].writeByte(ParameterServer.FAIL);
+          out[s].flush();
+        } catch (IOException ignored) {
+        }
+        try {
+          sockets[s].close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+}
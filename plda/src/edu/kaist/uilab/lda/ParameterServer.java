@@ -0,0 +1,423 @@
+package edu.kaist.uilab.lda;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * A parameter server for {@link DistributedGibbsSampler}.
+ *
+ * <p> The vocabulary is split into ranges of about the same size, one range
+ * for each server. A server owns the word-topic counts of the words of its
+ * range and the number of words of its range assigned to each topic. The
+ * workers, which own the documents, push their changes of these counts and
+ * pull the current counts over TCP (see {@link ParameterClient}).
+ *
+ * <p> Pulls are incremental: the server has a version, which every push that
+ * changes a count increments, and the version of the last change of each
+ * word. A pull names the version the worker saw in its previous pull and is
+ * answered with the words changed since then (all their counts) and the
+ * topic sums, so its size depends on the number of words changed by all
+ * workers in an iteration rather than on the non-zero counts of the range.
+ * Finding the changed words still scans the versions of the words of the
+ * range (one int per word).
+ *
+ * <p> The server also keeps the clock of each worker, i.e., the number of
+ * pushes it has made. A pull names the minimum clock of all workers that the
+ * counts must include and is only answered when every worker has reached it;
+ * this bounds the staleness of the counts seen by the workers.
+ *
+ * <p> The server stops when all workers have said goodbye. A worker which
+ * fails says so instead, and the server then fails the pulls of the other
+ * workers, which would otherwise wait for it forever; it stops when all
+ * connections have been closed, and {@link #main(String[])} exits with 1.
+ *
+ * <p> Usage: ParameterServer port fromWord toWord numTopics numWorkers
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class ParameterServer {
+  // requests of the protocol
+  static final byte HELLO = 1;
+  static final byte PUSH = 2;
+  static final byte PULL = 3;
+  static final byte BYE = 4;
+  static final byte FAIL = 5;
+
+  private final int fromWord;
+  private final int toWord;
+  private final int numTopics;
+  private final int numWorkers;
+  // counts[i - fromWord][k] = number of times word i is assigned to topic k
+  private final int[][] counts;
+  // topicSums[k] = number of words of the range assigned to topic k
+  private final int[] topicSums;
+  // clocks[w] = number of pushes of worker w
+  private final int[] clocks;
+  // the number of pushes which have changed a count
+  private int version;
+  // versions[i - fromWord] = the version of the last change of word i (0 if
+  // it was never changed)
+  private final int[] versions;
+  private int numFinished;
+  // the number of connections which are being served
+  private int numConnections;
+  private boolean failed;
+  private ServerSocket serverSocket;
+  private Thread acceptor;
+
+  /**
+   * Constructs a server for the words [fromWord, toWord).
+   *
+   * @param numWorkers
+   *          the number of workers of the training
+   */
+  public ParameterServer(int fromWord, int toWord, int numTopics,
+      int numWorkers) {
+    this.fromWord = fromWord;
+    this.toWord = toWord;
+    this.numTopics = numTopics;
+    this.numWorkers = numWorkers;
+    counts = new int[toWord - fromWord][numTopics];
+    topicSums = new int[numTopics];
+    clocks = new int[numWorkers];
+    versions = new int[toWord - fromWord];
+  }
+
+  public static void main(String args[]) throws Exception {
+    if (args.length < 5) {
+      System.err.println("Usage: ParameterServer port fromWord toWord "
+          + "numTopics numWorkers");
+      System.exit(1);
+    }
+    ParameterServer server = new ParameterServer(Integer.parseInt(args[1]),
+        Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+        Integer.parseInt(args[4]));
+    server.start(Integer.parseInt(args[0]));
+    server.awaitTermination();
+    if (server.hasFailed()) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Returns the first word of the range of the given server when the
+   * vocabulary is split among {@code numServers} servers; the range of server
+   * s is [rangeStart(s), rangeStart(s + 1)).
+   */
+  public static int rangeStart(int vocabularySize, int numServers, int server) {
+    return (int) ((long) vocabularySize * server / numServers);
+  }
+
+  /**
+   * Starts accepting the workers.
+   *
+   * @param port
+   *          the port (0 for any free port, see {@link #getPort()})
+   */
+  public void start(int port) throws IOException {
+    serverSocket = new ServerSocket(port);
+    acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "parameter-server-" + serverSocket.getLocalPort());
+    acceptor.start();
+  }
+
+  /**
+   * Returns the port on which the server listens.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Waits until all workers have said goodbye, a worker has failed and all
+   * connections have been closed, or the server is closed.
+   */
+  public void awaitTermination() throws InterruptedException {
+    acceptor.join();
+  }
+
+  /**
+   * Stops accepting workers.
+   */
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  /**
+   * Returns true if a worker has failed (or sent an invalid request).
+   */
+  public synchronized boolean hasFailed() {
+    return failed;
+  }
+
+  /**
+   * Returns the current count of word i and topic k -- for testing purpose
+   * only.
+   */
+  synchronized int getCount(int i, int k) {
+    return counts[i - fromWord][k];
+  }
+
+  /**
+   * Serves each connection in its own thread until the server is closed.
+   */
+  private void accept() {
+    try {
+      while (true) {
+        final Socket socket = serverSocket.accept();
+        synchronized (this) {
+          numConnections++;
+        }
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              serve(socket);
+            } finally {
+              closed();
+            }
+          }
+        }, "parameter-server-connection");
+        thread.setDaemon(true);
+        thread.start();
+      }
+    } catch (SocketException e) {
+      // closed
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Serves the requests of one worker.
+   */
+  private void serve(Socket socket) {
+    int[] buffer = new int[1024];
+    try {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          socket.getOutputStream()));
+      int worker = -1;
+      while (true) {
+        byte request = in.readByte();
+        if (request == HELLO) {
+          worker = in.readInt();
+          if (worker < 0 || worker >= numWorkers) {
+            throw new IOException("Unknown worker " + worker);
+          }
+          out.writeInt(fromWord);
+          out.writeInt(toWord);
+          out.writeInt(numTopics);
+          out.flush();
+        } else if (request == PUSH) {
+          if (worker < 0) {
+            throw new IOException("Push before hello");
+          }
+          int clock = in.readInt();
+          // reads the message before taking the lock
+          int size = in.readInt();
+          if (buffer.length < size) {
+            buffer = new int[size];
+          }
+          for (int j = 0; j < size; j++) {
+            buffer[j] = in.readInt();
+          }
+          push(worker, clock, buffer, size);
+        } else if (request == PULL) {
+          int minClock = in.readInt();
+          int since = in.readInt();
+          buffer = pull(minClock, since, buffer);
+          // buffer[0] = size of the reply (without buffer[0])
+          for (int j = 1; j <= buffer[0]; j++) {
+            out.writeInt(buffer[j]);
+          }
+          out.flush();
+        } else if (request == BYE) {
+          bye();
+          socket.close();
+          return;
+        } else if (request == FAIL) {
+          throw new IOException("Worker " + worker + " has failed");
+        } else {
+          throw new IOException("Unknown request " + request);
+        }
+      }
+    } catch (InterruptedException e) {
+      fail(socket, e);
+    } catch (IOException e) {
+      fail(socket, e);
+    }
+  }
+
+  /**
+   * Applies the changes of a worker.
+   *
+   * @param message
+   *          the changes: for each word, the word, the number of its changes
+   *          and the (topic, delta) pairs
+   * @throws IOException
+   *           if the message is truncated or has a word or a topic out of
+   *           range (no change is applied then)
+   */
+  private synchronized void push(int worker, int clock, int[] message,
+      int size) throws IOException {
+    int j = 0;
+    while (j < size) {
+      if (size - j < 2) {
+        throw new IOException("Truncated push from worker " + worker);
+      }
+      int i = message[j++] - fromWord;
+      int numChanges = message[j++];
+      if (i < 0 || i >= counts.length) {
+        throw new IOException("Word " + (i + fromWord) + " is not in ["
+            + fromWord + ", " + toWord + ")");
+      }
+      if (numChanges < 0 || numChanges > (size - j) / 2) {
+        throw new IOException("Truncated push from worker " + worker);
+      }
+      for (int c = 0; c < numChanges; c++, j += 2) {
+        if (message[j] < 0 || message[j] >= numTopics) {
+          throw new IOException("Topic " + message[j] + " is not in [0, "
+              + numTopics + ")");
+        }
+      }
+    }
+    if (size > 0) {
+      version++;
+    }
+    j = 0;
+    while (j < size) {
+      int i = message[j++] - fromWord;
+      int numChanges = message[j++];
+      versions[i] = version;
+      for (int c = 0; c < numChanges; c++) {
+        int k = message[j++];
+        int delta = message[j++];
+        counts[i][k] += delta;
+        topicSums[k] += delta;
+      }
+    }
+    clocks[worker] = clock;
+    notifyAll();
+  }
+
+  /**
+   * Waits until every worker has reached {@code minClock} and writes the
+   * counts changed since version {@code since} into {@code buffer}: buffer[0]
+   * is the size of the reply, which contains the minimum clock of the
+   * workers, the current version, the topic sums, the number of changed
+   * words and, for each changed word, the word, the number of its non-zero
+   * topics and the (topic, count) pairs.
+   *
+   * @return the buffer (a larger one if it was too small)
+   */
+  private synchronized int[] pull(int minClock, int since, int[] buffer)
+      throws InterruptedException, IOException {
+    while (minClock() < minClock && !failed) {
+      wait();
+    }
+    if (failed) {
+      throw new IOException("A worker has failed");
+    }
+    int size = 1 + 1 + 1 + numTopics + 1;
+    for (int i = 0; i < counts.length; i++) {
+      if (versions[i] > since) {
+        size += 2;
+        for (int count : counts[i]) {
+          if (count != 0) {
+            size += 2;
+          }
+        }
+      }
+    }
+    if (buffer.length < size) {
+      buffer = new int[size];
+    }
+    int j = 0;
+    buffer[j++] = size - 1;
+    buffer[j++] = minClock();
+    buffer[j++] = version;
+    System.arraycopy(topicSums, 0, buffer, j, numTopics);
+    j += numTopics;
+    int numWordsIndex = j++;
+    int numWords = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (versions[i] > since) {
+        int[] row = counts[i];
+        buffer[j++] = i + fromWord;
+        int sizeIndex = j++;
+        for (int k = 0; k < numTopics; k++) {
+          if (row[k] != 0) {
+            buffer[j++] = k;
+            buffer[j++] = row[k];
+          }
+        }
+        buffer[sizeIndex] = (j - sizeIndex - 1) / 2;
+        numWords++;
+      }
+    }
+    buffer[numWordsIndex] = numWords;
+
+    return buffer;
+  }
+
+  private int minClock() {
+    int min = Integer.MAX_VALUE;
+    for (int clock : clocks) {
+      min = Math.min(min, clock);
+    }
+    return min;
+  }
+
+  /**
+   * Counts a worker which has finished; closes the server when all have.
+   */
+  private synchronized void bye() throws IOException {
+    if (++numFinished == numWorkers) {
+      close();
+    }
+  }
+
+  /**
+   * Counts a connection which has been closed; closes the server when a
+   * worker has failed and no connection is left, since the training cannot
+   * finish then.
+   */
+  private synchronized void closed() {
+    if (--numConnections == 0 && failed) {
+      try {
+        close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Wakes up the waiting workers, which will fail too, since the training
+   * cannot continue without the worker.
+   */
+  private void fail(Socket socket, Exception e) {
+    System.err.println("Connection to a worker failed: " + e);
+    synchronized (this) {
+      failed = true;
+      notifyAll();
+    }
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
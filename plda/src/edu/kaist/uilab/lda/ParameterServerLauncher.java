@@ -0,0 +1,175 @@
+package edu.kaist.uilab.lda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the distributed sampler on localhost with one process for each
+ * {@link ParameterServer} and each {@link DistributedGibbsSampler} worker,
+ * and reports the throughput (tokens/sec) as workers are added.
+ *
+ * <p> For each number of workers from 1 to {@code maxWorkers}, the launcher
+ * starts the servers and the workers, waits for the workers to finish and
+ * divides the number of tokens sampled by all workers by the longest time of
+ * a worker (sampling, pushes and pulls; without the start of the JVMs).
+ * When a process fails, all processes of the round are destroyed and the
+ * launcher stops.
+ *
+ * <p> Usage: ParameterServerLauncher [maxWorkers] [numServers]
+ * [numDocuments] [numTopics] [numIterations] [staleness]
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class ParameterServerLauncher {
+  private static final String HOST = "localhost";
+  // the vocabulary size of the corpus of DistributedGibbsSampler#main
+  private static final int VOCABULARY_SIZE = 5000;
+
+  public static void main(String args[]) throws Exception {
+    int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+        .getRuntime().availableProcessors();
+    int numServers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    String numDocuments = args.length > 2 ? args[2] : "2000";
+    String numTopics = args.length > 3 ? args[3] : "20";
+    String numIterations = args.length > 4 ? args[4] : "20";
+    String staleness = args.length > 5 ? args[5] : "0";
+    System.out.printf("%d servers, %s documents, %s topics, %s iterations, "
+        + "staleness %s\n", numServers, numDocuments, numTopics,
+        numIterations, staleness);
+    System.out.println("WORKERS  TOKENS/SEC  SPEEDUP");
+    double base = 0;
+    for (int numWorkers = 1; numWorkers <= maxWorkers; numWorkers++) {
+      List<Process> servers = new ArrayList<Process>();
+      List<Process> workers = new ArrayList<Process>();
+      long tokens = 0;
+      long time = 0;
+      try {
+        StringBuilder addresses = new StringBuilder();
+        for (int s = 0; s < numServers; s++) {
+          int port = freePort();
+          servers.add(start(ParameterServer.class, String.valueOf(port),
+              String.valueOf(ParameterServer.rangeStart(VOCABULARY_SIZE,
+                  numServers, s)), String.valueOf(ParameterServer.rangeStart(
+                  VOCABULARY_SIZE, numServers, s + 1)), numTopics, String
+                  .valueOf(numWorkers)));
+          addresses.append(s == 0 ? "" : ",").append(HOST).append(':')
+              .append(port);
+        }
+        for (int w = 0; w < numWorkers; w++) {
+          workers.add(start(DistributedGibbsSampler.class, String.valueOf(w),
+              String.valueOf(numWorkers), addresses.toString(), numDocuments,
+              numTopics, numIterations, staleness));
+        }
+        for (Process worker : workers) {
+          long[] throughput = readThroughput(worker);
+          tokens += throughput[0];
+          time = Math.max(time, throughput[1]);
+        }
+        for (Process server : servers) {
+          if (server.waitFor() != 0) {
+            throw new IOException("A server has failed");
+          }
+        }
+      } finally {
+        // no process of a failed round is left running
+        for (Process process : workers) {
+          process.destroy();
+        }
+        for (Process process : servers) {
+          process.destroy();
+        }
+      }
+      double tokensPerSecond = tokens / (time / 1e9);
+      if (numWorkers == 1) {
+        base = tokensPerSecond;
+      }
+      System.out.printf("%7d  %10.0f  %7.2f\n", numWorkers, tokensPerSecond,
+          tokensPerSecond / base);
+    }
+  }
+
+  /**
+   * Returns a port which is free at the moment.
+   */
+  private static int freePort() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    } finally {
+      socket.close();
+    }
+  }
+
+  /**
+   * Starts the main method of the given class in a new JVM with the class
+   * path of this JVM.
+   */
+  private static Process start(Class<?> main, String... args)
+      throws IOException {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java");
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(main.getName());
+    for (String arg : args) {
+      command.add(arg);
+    }
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectErrorStream(true);
+    final Process process = builder.start();
+    if (main != DistributedGibbsSampler.class) {
+      // the output of the servers is only read to keep them from blocking
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            readThroughput(process);
+          } catch (IOException e) {
+            // the server has failed; reported by its exit value
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      reader.setDaemon(true);
+      reader.start();
+    }
+    return process;
+  }
+
+  /**
+   * Reads the output of a process until it exits; returns the number of
+   * tokens and the time of the throughput line of a worker (zeros if there is
+   * none). The other lines are printed.
+   */
+  private static long[] readThroughput(Process process) throws IOException,
+      InterruptedException {
+    long[] throughput = new long[2];
+    BufferedReader reader = new BufferedReader(new InputStreamReader(process
+        .getInputStream(), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("THROUGHPUT ")) {
+          String[] fields = line.split(" ");
+          throughput[0] = Long.parseLong(fields[1]);
+          throughput[1] = Long.parseLong(fields[2]);
+        } else {
+          System.err.println(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    if (process.waitFor() != 0) {
+      throw new IOException("A worker has failed");
+    }
+    return throughput;
+  }
+}
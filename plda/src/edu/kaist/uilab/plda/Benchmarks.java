@@ -0,0 +1,285 @@
+package edu.kaist.uilab.plda;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import edu.kaist.uilab.event.EventGibbsSampler;
+import edu.kaist.uilab.lda.LdaBenchmarks;
+import edu.kaist.uilab.plda.data.CorpusEntitySet;
+import edu.kaist.uilab.plda.data.DataBenchmarks;
+import edu.kaist.uilab.plda.data.Entity;
+import edu.kaist.uilab.plda.data.SyntheticCorpus;
+import edu.kaist.uilab.plda.util.CountMatrix;
+import edu.kaist.uilab.plda.util.MicroBenchmark;
+import edu.kaist.uilab.plda.util.TopK;
+
+/**
+ * Measures the hot paths of the samplers and the corpus processing on
+ * synthetic corpora (see {@link MicroBenchmark}), so that the effect of a
+ * change of the samplers can be measured.
+ *
+ * <p> Usage: java -Dtopics=20,100 -Dvocabulary=5000 -DdocLength=150
+ * [-Ddocuments=500] [-Dfilter=regex] [-Dwarmup=3] [-Diterations=5]
+ * [-Dmillis=500] [-Dmentions=file] edu.kaist.uilab.plda.Benchmarks
+ *
+ * <p> The cases are run for every combination of the comma separated numbers
+ * of topics, vocabulary sizes and mean document lengths; {@code filter}
+ * selects the cases whose name contains a match, e.g., "sweep" or
+ * "^entity\.". {@code mentions} adds the entity.distinct cases of the
+ * mentions of a real corpus, e.g., NYTimes (see
+ * {@link DataBenchmarks#readMentions(java.io.File)}).
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class Benchmarks {
+  // the number of sweeps of a run of the entity and event samplers
+  private static final int SWEEPS_PER_RUN = 2;
+  // the number of top words selected by the report cases
+  private static final int TOP_WORDS = 20;
+
+  public static void main(String args[]) throws Exception {
+    int[] topics = parse(System.getProperty("topics", "20,100"));
+    int[] vocabulary = parse(System.getProperty("vocabulary", "5000"));
+    int[] docLength = parse(System.getProperty("docLength", "150"));
+    int numDocuments = Integer.parseInt(System.getProperty("documents", "500"));
+    String filter = System.getProperty("filter");
+    MicroBenchmark benchmark = new MicroBenchmark(Integer.parseInt(System
+        .getProperty("warmup", "3")), Integer.parseInt(System.getProperty(
+        "iterations", "5")), Long.parseLong(System.getProperty("millis",
+        "500")));
+    List<MicroBenchmark.Case> cases = new ArrayList<MicroBenchmark.Case>();
+    for (int V : vocabulary) {
+      for (int L : docLength) {
+        SyntheticCorpus corpus = new SyntheticCorpus(numDocuments, V, L, 200,
+            4, 1);
+        cases.addAll(DataBenchmarks.cases(corpus.getSymbolTable(), L, 50));
+        for (int K : topics) {
+          cases.addAll(LdaBenchmarks.cases(K, V, corpus.getDocumentTokens()));
+          cases.addAll(cases(K, corpus));
+        }
+      }
+    }
+    String mentions = System.getProperty("mentions");
+    if (mentions != null) {
+      cases.addAll(DataBenchmarks.distinctCases(new File(mentions)));
+    }
+    benchmark.run(cases, filter == null ? null : Pattern.compile(filter),
+        System.out);
+  }
+
+  private static int[] parse(String list) {
+    String[] values = list.split(",");
+    int[] result = new int[values.length];
+    for (int j = 0; j < values.length; j++) {
+      result[j] = Integer.parseInt(values[j].trim());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the cases of the entity and event samplers and the reports for
+   * {@code numTopics} topics:
+   * <ul>
+   * <li> elda.sweep, elda2.sweep, elda3.sweep: a sweep of
+   * {@link EntityLdaGibbsSampler}, {@link EntityLdaGibbsSampler2} and
+   * {@link EntityLdaGibbsSampler3} (per word or entity), so that the versions
+   * can be compared
+   * <li> event.sweep: a sweep of {@link EventGibbsSampler} (per word or
+   * entity)
+   * <li> topk.select, topk.rows, topk.columns: the top words of a topic with
+   * {@link TopK#select(int[], int)}, the top topics of every word and the
+   * top words of every topic of a V x K count matrix (per count)
+   * </ul>
+   */
+  static List<MicroBenchmark.Case> cases(final int numTopics,
+      final SyntheticCorpus corpus) {
+    final int V = corpus.getVocabularySize();
+    String parameters = "K=" + numTopics + " V=" + V;
+    List<MicroBenchmark.Case> cases = new ArrayList<MicroBenchmark.Case>();
+    cases.add(new SweepCase("elda.sweep", parameters) {
+      @Override
+      void sample(MicroBenchmark.SweepTimer timer) throws Exception {
+        EntityLdaGibbsSampler sampler = new EntityLdaGibbsSampler(numTopics, V,
+            corpus.getNumEntities(), corpus.getDocumentTokens(), corpus
+                .getDocumentEntities(), corpus.getCorpusEntitySet(), 0.1, 0.01,
+            0.1);
+        sampler.setSamplerParameters(SWEEPS_PER_RUN, SWEEPS_PER_RUN, 1, 1);
+        sampler.setSeed(1);
+        sampler.setMetrics(timer);
+        sampler.doGibbsSampling(false);
+      }
+    });
+    cases.add(new SweepCase("elda2.sweep", parameters) {
+      @Override
+      void sample(MicroBenchmark.SweepTimer timer) throws Exception {
+        EntityLdaGibbsSampler2 sampler = new EntityLdaGibbsSampler2(numTopics,
+            V, corpus.getNumEntities(), corpus.getDocumentTokens(), corpus
+                .getDocumentEntities(), corpus.getCorpusEntitySet());
+        sampler.setPriors(0.1, 0.01, 0.1, 0.5, 5);
+        sampler.setSamplerParameters(SWEEPS_PER_RUN, SWEEPS_PER_RUN, 1, 1);
+        sampler.setSeed(1);
+        sampler.setMetrics(timer);
+        sampler.doGibbsSampling(false);
+      }
+    });
+    cases.add(new SweepCase("elda3.sweep", parameters) {
+      @Override
+      void sample(MicroBenchmark.SweepTimer timer) throws Exception {
+        EntityLdaGibbsSampler3 sampler = new EntityLdaGibbsSampler3(numTopics,
+            numTopics, V, corpus.getNumEntities(), corpus.getDocumentTokens(),
+            corpus.getDocumentEntities(), corpus.getCorpusEntitySet());
+        sampler.setPriors(0.1, 0.5, 0.01, 0.1, 0.5, 5);
+        // burn-in is never over so that no sample is collected (and reported)
+        sampler.setSamplerParameters(SWEEPS_PER_RUN, SWEEPS_PER_RUN, 1, 1);
+        sampler.setSeed(1);
+        sampler.setMetrics(timer);
+        sampler.doGibbsSampling(false);
+      }
+    });
+    final edu.kaist.uilab.event.Entity[][] eventEntities = eventEntities(corpus);
+    cases.add(new SweepCase("event.sweep", parameters) {
+      @Override
+      void sample(MicroBenchmark.SweepTimer timer) throws Exception {
+        EventGibbsSampler sampler = new EventGibbsSampler(numTopics, V, corpus
+            .getNumEntities(), corpus.getDocumentTokens(), eventEntities);
+        sampler.setPriors(0.1, 0.01, 0.1);
+        sampler.setSamplerParameters(SWEEPS_PER_RUN, SWEEPS_PER_RUN, 1, 1);
+        sampler.setSeed(1);
+        sampler.setMetrics(timer);
+        sampler.doGibbsSampling(false);
+      }
+    });
+
+    // the word-topic counts of a random assignment of the corpus
+    final CountMatrix counts = wordTopicCounts(corpus, numTopics);
+    final int[] column = new int[V];
+    for (int i = 0; i < V; i++) {
+      column[i] = counts.get(i, 0);
+    }
+    cases.add(new MicroBenchmark.Case("topk.select", parameters) {
+      @Override
+      public long run() {
+        return TopK.select(column, TOP_WORDS).length;
+      }
+
+      @Override
+      public long getOperations() {
+        return V;
+      }
+    });
+    cases.add(new MicroBenchmark.Case("topk.rows", parameters) {
+      @Override
+      public long run() {
+        return TopK.selectInRows(counts, TOP_WORDS, 1).length;
+      }
+
+      @Override
+      public long getOperations() {
+        return (long) V * numTopics;
+      }
+    });
+    cases.add(new MicroBenchmark.Case("topk.columns", parameters) {
+      @Override
+      public long run() {
+        return TopK.selectInColumns(counts, TOP_WORDS, 1).length;
+      }
+
+      @Override
+      public long getOperations() {
+        return (long) V * numTopics;
+      }
+    });
+    return cases;
+  }
+
+  /**
+   * Runs {@value #SWEEPS_PER_RUN} sweeps of a sampler; only the time and the
+   * allocations of the sweeps are measured (not the initialization of the
+   * sampler).
+   */
+  private static abstract class SweepCase extends MicroBenchmark.Case {
+    private long nanos;
+    private long bytes;
+    private long numTokens;
+
+    SweepCase(String name, String parameters) {
+      super(name, parameters);
+    }
+
+    /**
+     * Runs the sampler, which records its sweeps to {@code timer}.
+     */
+    abstract void sample(MicroBenchmark.SweepTimer timer) throws Exception;
+
+    @Override
+    public long run() throws Exception {
+      MicroBenchmark.SweepTimer timer = new MicroBenchmark.SweepTimer();
+      sample(timer);
+      nanos = timer.getNanos();
+      bytes = timer.getAllocatedBytes();
+      numTokens = timer.getTokensSampled();
+      return numTokens;
+    }
+
+    @Override
+    public long getOperations() {
+      return numTokens;
+    }
+
+    @Override
+    public long getMeasuredNanos() {
+      return nanos;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+      return bytes;
+    }
+  }
+
+  /**
+   * Returns the entities of the corpus as the entities of the event model.
+   */
+  private static edu.kaist.uilab.event.Entity[][] eventEntities(
+      SyntheticCorpus corpus) {
+    CorpusEntitySet entitySet = corpus.getCorpusEntitySet();
+    Entity[][] documentEntities = corpus.getDocumentEntities();
+    edu.kaist.uilab.event.Entity[][] result =
+        new edu.kaist.uilab.event.Entity[documentEntities.length][];
+    for (int m = 0; m < documentEntities.length; m++) {
+      result[m] = new edu.kaist.uilab.event.Entity[documentEntities[m].length];
+      for (int e = 0; e < documentEntities[m].length; e++) {
+        result[m][e] = new edu.kaist.uilab.event.Entity(documentEntities[m][e]
+            .toString(), edu.kaist.uilab.event.Entity.OTHER);
+        result[m][e].setId(entitySet.toId(documentEntities[m][e]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the word-topic counts of a random assignment of the words of the
+   * corpus to {@code numTopics} topics.
+   */
+  private static CountMatrix wordTopicCounts(SyntheticCorpus corpus,
+      int numTopics) {
+    int V = corpus.getVocabularySize();
+    int[] frequency = new int[V];
+    for (int[] document : corpus.getDocumentTokens()) {
+      for (int i : document) {
+        frequency[i]++;
+      }
+    }
+    CountMatrix counts = CountMatrix.newInstance(V, numTopics, frequency);
+    Random random = new Random(1);
+    for (int[] document : corpus.getDocumentTokens()) {
+      for (int i : document) {
+        counts.increment(i, random.nextInt(numTopics));
+      }
+    }
+    return counts;
+  }
+}
@@ -8,16 +8,17 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import com.aliasi.symbol.SymbolTable;
-import com.aliasi.util.ObjectToCounterMap;
 
 import edu.kaist.uilab.plda.data.CorpusEntitySet;
 import edu.kaist.uilab.plda.data.Entity;
+import edu.kaist.uilab.plda.util.CountMatrix;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+import edu.kaist.uilab.plda.util.TopK;
 
 /**
  * Implementation of the entity lda Gibbs sampler.
@@ -37,9 +38,19 @@ public class EntityLdaGibbsSampler {
   // documentEntities[m] = all entities of the m_th document
   private Entity[][] documentEntities;
   int[] docEntityCount;
+  // docEntityIds[m][e] = id of the e_th entity of document m
+  int[][] docEntityIds;
+  // docEntityWeights[m][e] = number of times the e_th entity appears in
+  // document m
+  double[][] docEntityWeights;
+  // maximum number of distinct entities in a document
+  int maxDocEntities;
   private SymbolTable symbolTable;
   private CorpusEntitySet corpusEntitySet;
   private Model model;
+  private long seed = RandomGenerator.newSeed();
+  private RandomGenerator random;
+  private SamplingBuffer buffer;
 
   // hyper-parameters
   private double alpha = 0.1;
@@ -52,6 +63,8 @@ public class EntityLdaGibbsSampler {
   private int sampleLags = 20; // number of sample lags (to prevent correlation)
   // (default = 50)
   private int numSamples = 1; // number of samples to take (default = 1)
+  // per-iteration metrics (null = none)
+  private Metrics metrics;
 
   // output parameters
   private String outputDir;
@@ -63,7 +76,7 @@ public class EntityLdaGibbsSampler {
    * Stores the current model parameters for sampling.
    */
   static class Model implements Serializable {
-    private static final long serialVersionUID = 7107787670680110327L;
+    private static final long serialVersionUID = -2840169137702585123L;
 
     int[][] z; // topic assignment for each word z[m][n] (z[i])
     int[][] ro; // author assignment for each word i (ro[i])
@@ -73,17 +86,17 @@ public class EntityLdaGibbsSampler {
     int[][] s;
     // V X T: word-topic count
     // cwdt[i][k] = # times word i is assigned to some document and its topic k
-    int cwdt[][];
+    CountMatrix cwdt;
     // cwdt[i][k] = # times word i is assigned to some entity and its topic k
-    int cwet[][];
+    CountMatrix cwet;
     // D x T: document-topic count
     // cdt[m][k] = # times that a word in document m is assigned topic k (OF
     // DOCUMENT m)
-    int cdt[][];
+    CountMatrix cdt;
     // H X T: author-topic count
     // cpt[h][k] = # times that a word "of" person/entity h is assigned topic k
     // (OF ENTITY h)
-    int cpt[][];
+    CountMatrix cpt;
 
     // cwtsum[k] = # words assigned to topic k
     int cwdtsum[];
@@ -137,14 +150,22 @@ public class EntityLdaGibbsSampler {
   }
 
   /**
-   * Inits entity count for each document.
+   * Inits entity count, entity ids and entity weights for each document.
    */
   private void initDocEntityCount() {
     docEntityCount = new int[numDocuments];
+    docEntityIds = new int[numDocuments][];
+    docEntityWeights = new double[numDocuments][];
     for (int doc = 0; doc < numDocuments; doc++) {
-      for (Entity e : documentEntities[doc]) {
-        docEntityCount[doc] += e.getCount();
+      Entity[] entities = documentEntities[doc];
+      docEntityIds[doc] = new int[entities.length];
+      docEntityWeights[doc] = new double[entities.length];
+      for (int e = 0; e < entities.length; e++) {
+        docEntityCount[doc] += entities[e].getCount();
+        docEntityIds[doc][e] = corpusEntitySet.toId(entities[e]);
+        docEntityWeights[doc][e] = entities[e].getCount();
       }
+      maxDocEntities = Math.max(maxDocEntities, entities.length);
     }
   }
 
@@ -168,6 +189,38 @@ public class EntityLdaGibbsSampler {
     this.numSamples = numSamples;
   }
 
+  /**
+   * Sets the seed of the random generator.
+   * 
+   * <p> Two runs with the same seed, parameters give the same
+   * samples. The seed of a run is written to the file
+   * {@link RandomGenerator#SEED_FILE} of the output directory.
+   * 
+   * @param seed
+   *          the seed (by default, a different seed is used for each sampler)
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Returns the seed of the random generator.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Sets the metrics to which the sweeps and reports of the sampler are
+   * recorded.
+   * 
+   * @param metrics
+   *          the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   /**
    * Sets parameters for reporting output.
    * 
@@ -210,6 +263,10 @@ public class EntityLdaGibbsSampler {
    */
   public void doGibbsSampling(boolean loadPastTraining) throws IOException {
     int iter = 0;
+    random = RandomGenerator.newInstance(seed);
+    if (outputDir != null) {
+      RandomGenerator.writeSeed(outputDir, seed);
+    }
     if (!loadPastTraining) {
       System.out.print("Initializing parameters...");
       initialize();
@@ -217,7 +274,21 @@ public class EntityLdaGibbsSampler {
     } else {
       iter = loadLastIter();
     }
+    System.out.println(model.cwdt.memoryReport("cwdt"));
+    System.out.println(model.cwet.memoryReport("cwet"));
+    System.out.println(model.cdt.memoryReport("cdt"));
+    System.out.println(model.cpt.memoryReport("cpt"));
+    long numTokens = 0;
+    for (int m = 0; m < numDocuments; m++) {
+      numTokens += documents[m].length;
+    }
+    if (metrics != null) {
+      metrics.setCountMatrixBytes(model.cwdt.memorySize()
+          + model.cwet.memorySize() + model.cdt.memorySize()
+          + model.cpt.memorySize());
+    }
 
+    buffer = new SamplingBuffer(numTopics * (1 + maxDocEntities), random);
     int samplesCollected = 0;
     System.out.println("Burning in period...");
     for (; iter < numIterations; iter++) {
@@ -231,21 +302,31 @@ public class EntityLdaGibbsSampler {
       }
 
       // sampling hidden variables z_i
+      if (metrics != null) {
+        metrics.startSweep();
+      }
       for (int m = 0; m < numDocuments; m++) {
         for (int n = 0; n < documents[m].length; n++) {
-          SamplingSet sample = sampleFullConditional(m, n);
-          model.z[m][n] = sample.z;
-          model.ro[m][n] = sample.rho;
-          model.s[m][n] = sample.s;
+          int j = sampleFullConditional(m, n);
+          model.z[m][n] = buffer.z[j];
+          model.ro[m][n] = buffer.rho[j];
+          model.s[m][n] = buffer.s[j];
         }
       }
+      if (metrics != null) {
+        metrics.endSweep(iter, numTokens);
+      }
 
       // after burn-in & some sample lags we can collect a sample
       if (iter >= burnIn && (iter - burnIn) % sampleLags == 0) {
         System.out.printf("\nCollected a sample at iteration %d", iter);
         updateParams();
         samplesCollected++;
+        long reportStart = System.nanoTime();
         report(iter);
+        if (metrics != null) {
+          metrics.addReport(iter, System.nanoTime() - reportStart);
+        }
         if (samplesCollected == numSamples) {
           return; // enough samples has been collected
         }
@@ -328,31 +409,41 @@ public class EntityLdaGibbsSampler {
    */
   public void printTopWords(String file) throws IOException {
     PrintWriter writer = new PrintWriter(file);
+    // one pass over the words for all topics
+    TopK[] totalTop = new TopK[numTopics];
+    TopK[] docTop = new TopK[numTopics];
+    TopK[] entTop = new TopK[numTopics];
+    for (int topic = 0; topic < numTopics; ++topic) {
+      totalTop[topic] = new TopK(maxWordsPerTopic);
+      docTop[topic] = new TopK(maxWordsPerTopic);
+      entTop[topic] = new TopK(maxWordsPerTopic);
+    }
+    for (int word = 0; word < vocabularySize; ++word) {
+      for (int topic = 0; topic < numTopics; ++topic) {
+        int docCount = model.cwdt.get(word, topic);
+        int entCount = model.cwet.get(word, topic);
+        totalTop[topic].add(word, docCount + entCount);
+        docTop[topic].add(word, docCount);
+        entTop[topic].add(word, entCount);
+      }
+    }
     for (int topic = 0; topic < numTopics; ++topic) {
-      ObjectToCounterMap<Integer> docCounter = new ObjectToCounterMap<Integer>();
-      ObjectToCounterMap<Integer> entCounter = new ObjectToCounterMap<Integer>();
-      ObjectToCounterMap<Integer> totalCounter = new ObjectToCounterMap<Integer>();
-      for (int word = 0; word < vocabularySize; ++word) {
-        docCounter.set(word, model.cwdt[word][topic]);
-        entCounter.set(word, model.cwet[word][topic]);
-        totalCounter.set(word, model.cwdt[word][topic] + model.cwet[word][topic]);
-      }  
-      List<Integer> top1 = totalCounter.keysOrderedByCountList();
-      List<Integer> top2 = docCounter.keysOrderedByCountList();
-      List<Integer> top3 = entCounter.keysOrderedByCountList();
+      int[] top1 = totalTop[topic].indices();
+      int[] top2 = docTop[topic].indices();
+      int[] top3 = entTop[topic].indices();
       writer.printf("\nTOPIC %d (total count=%d    doc=%d    ent=%d)\n", topic,
           model.cwdtsum[topic] + model.cwetsum[topic], model.cwdtsum[topic],
           model.cwetsum[topic]);
       int id1, id2, id3;
-      for (int rank = 0; rank < maxWordsPerTopic && rank < min(
-          top1.size(), top2.size(), top3.size()); ++rank) {
-        id1 = top1.get(rank);
-        id2 = top2.get(rank);
-        id3 = top3.get(rank);
+      for (int rank = 0; rank < min(top1.length, top2.length, top3.length);
+          ++rank) {
+        id1 = top1[rank];
+        id2 = top2[rank];
+        id3 = top3[rank];
         writer.printf("%15s(%d)\t%15s(%d)\t%15s(%d)\n",
-            symbolTable.idToSymbol(id1), model.cwdt[id1][topic] + model.cwet[id1][topic],
-            symbolTable.idToSymbol(id2), model.cwdt[id2][topic],
-            symbolTable.idToSymbol(id3), model.cwet[id3][topic]);
+            symbolTable.idToSymbol(id1), model.cwdt.get(id1, topic) + model.cwet.get(id1, topic),
+            symbolTable.idToSymbol(id2), model.cwdt.get(id2, topic),
+            symbolTable.idToSymbol(id3), model.cwet.get(id3, topic));
       }
     }
     writer.close();
@@ -376,17 +467,13 @@ public class EntityLdaGibbsSampler {
    */
   public void printTopDocTopics(String file) throws IOException {
     PrintWriter writer = new PrintWriter(file);
+    int[][] topTopics = TopK.selectInRows(model.cdt, maxTopicsPerDoc, 1);
     for (int doc = 0; doc < numDocuments; ++doc) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-      for (int topic = 0; topic < numTopics; ++topic)
-        counter.set(topic, model.cdt[doc][topic]);
-      List<Integer> topTopics = counter.keysOrderedByCountList();
       writer.println("\nDOC " + doc);
       writer.println("TOPIC    COUNT    PROB");
       writer.println("----------------------");
-      for (int rank = 0; rank < topTopics.size() && rank < maxTopicsPerDoc; ++rank) {
-        int topic = topTopics.get(rank);
-        writer.printf("%5d  %7d   %4.3f\n", topic, model.cdt[doc][topic],
+      for (int topic : topTopics[doc]) {
+        writer.printf("%5d  %7d   %4.3f\n", topic, model.cdt.get(doc, topic),
             model.thetad[doc][topic]);
       }
       writer.println();
@@ -402,19 +489,14 @@ public class EntityLdaGibbsSampler {
    */
   public void printTopEntityTopics(String file) throws IOException {
     PrintWriter writer = new PrintWriter(file);
+    int[][] topTopics = TopK.selectInRows(model.cpt, maxTopicsPerEntity, 1);
     for (int ent = 0; ent < numEntities; ent++) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-      for (int topic = 0; topic < numTopics; topic++) {
-        counter.set(topic, model.cpt[ent][topic]);
-      }
-      List<Integer> topTopics = counter.keysOrderedByCountList();
-      if (topTopics.size() > 0) {
+      if (topTopics[ent].length > 0) {
         writer.println("\nENTITY " + ent);
         writer.println("TOPIC    COUNT    PROB");
         writer.println("----------------------");
-        for (int rank = 0; rank < topTopics.size() && rank < maxTopicsPerEntity; rank++) {
-          int topic = topTopics.get(rank);
-          writer.printf("%5d  %7d   %4.3f\n", topic, model.cpt[ent][topic],
+        for (int topic : topTopics[ent]) {
+          writer.printf("%5d  %7d   %4.3f\n", topic, model.cpt.get(ent, topic),
               model.thetap[ent][topic]);
         }
         writer.println();
@@ -456,6 +538,51 @@ public class EntityLdaGibbsSampler {
     out.close();
   }
 
+  /**
+   * Returns the number of words of each document.
+   */
+  private int[] documentLengths() {
+    int[] documentLength = new int[numDocuments];
+    for (int m = 0; m < numDocuments; m++) {
+      documentLength[m] = documents[m].length;
+    }
+
+    return documentLength;
+  }
+
+  /**
+   * Returns the number of times each word appears in the corpus.
+   */
+  private int[] wordCounts() {
+    int[] wordCount = new int[vocabularySize];
+    for (int m = 0; m < numDocuments; m++) {
+      for (int n = 0; n < documents[m].length; n++) {
+        wordCount[documents[m][n]]++;
+      }
+    }
+
+    return wordCount;
+  }
+
+  /**
+   * Returns the number of words of the documents of each entity, i.e., the
+   * maximum number of words that can be assigned to the entity.
+   */
+  private int[] entityWordCounts() {
+    long[] count = new long[numEntities];
+    for (int m = 0; m < numDocuments; m++) {
+      for (int h : docEntityIds[m]) {
+        count[h] += documents[m].length;
+      }
+    }
+    int[] entityWordCount = new int[numEntities];
+    for (int h = 0; h < numEntities; h++) {
+      entityWordCount[h] = (int) Math.min(count[h], Integer.MAX_VALUE);
+    }
+
+    return entityWordCount;
+  }
+
   /**
    * Initializes the model (assign random values to hidden variables -- the
    * topics z).
@@ -463,13 +590,16 @@ public class EntityLdaGibbsSampler {
   private void initialize() {
     // initialize count variables
     model = new Model();
-    model.cwdt = new int[vocabularySize][numTopics];
-    model.cwet = new int[vocabularySize][numTopics];
+    int[] wordCount = wordCounts();
+    model.cwdt = CountMatrix.newInstance(vocabularySize, numTopics, wordCount);
+    model.cwet = CountMatrix.newInstance(vocabularySize, numTopics, wordCount);
     model.cwdtsum = new int[numTopics];
     model.cwetsum = new int[numTopics];
-    model.cdt = new int[numDocuments][numTopics];
+    model.cdt = CountMatrix.newInstance(numDocuments, numTopics,
+        documentLengths());
     model.cdtsum = new int[numDocuments];
-    model.cpt = new int[numEntities][numTopics];
+    model.cpt = CountMatrix.newInstance(numEntities, numTopics,
+        entityWordCounts());
     model.cptsum = new int[numEntities];
 
     // sample values of z[i], ro[i], s[i] randomly ([1..numTopics] as the
@@ -484,29 +614,29 @@ public class EntityLdaGibbsSampler {
       model.s[m] = new int[N];
       int randZ, randRo; // the sample topic
       for (int n = 0; n < N; n++) {
-        randZ = (int) (Math.random() * numTopics);
+        randZ = random.nextInt(numTopics);
         model.z[m][n] = randZ;
         if (documentEntities[m].length == 0) {
           model.s[m][n] = DOCUMENT;
         } else {
           // if document has entities, randS is one of DOCUMENT or ENTITY
-          model.s[m][n] = (int) (Math.random() * 2);
+          model.s[m][n] = random.nextInt(2);
         }
         if (model.s[m][n] == DOCUMENT) {
           // word i assigned to topic randZ
-          model.cwdt[documents[m][n]][randZ]++;
+          model.cwdt.increment(documents[m][n], randZ);
           // total number of words assigned to topic randZ
           model.cwdtsum[randZ]++;
           // a word in document m assigned to topic k of document m
-          model.cdt[m][randZ]++;
+          model.cdt.increment(m, randZ);
           model.cdtsum[m]++;
         } else {
-          model.cwet[documents[m][n]][randZ]++;
+          model.cwet.increment(documents[m][n], randZ);
           model.cwetsum[randZ]++;
           // the word is assigned to topic k of an entity randRo
           randRo = getRandEntity(m);
           model.ro[m][n] = randRo;
-          model.cpt[randRo][randZ]++;
+          model.cpt.increment(randRo, randZ);
           model.cptsum[randRo]++;
         }
       }
@@ -521,16 +651,16 @@ public class EntityLdaGibbsSampler {
    * Returns a random entity id of a document m.
    */
   private int getRandEntity(int m) {
-    ArrayList<Integer> list = new ArrayList<Integer>();
-    int entityId;
-    for (Entity e : documentEntities[m]) {
-      entityId = corpusEntitySet.toId(e);
-      for (int i = 0; i < e.getCount(); i++) {
-        list.add(entityId);
-      }
+    // the same as picking uniformly from a list in which each entity appears
+    // as many times as its count
+    int j = random.nextInt(docEntityCount[m]);
+    int e = 0;
+    while (j >= documentEntities[m][e].getCount()) {
+      j -= documentEntities[m][e].getCount();
+      e++;
     }
 
-    return list.get((int) (Math.random() * list.size()));
+    return docEntityIds[m][e];
   }
 
   /**
@@ -541,7 +671,7 @@ public class EntityLdaGibbsSampler {
     double tAlpha = numTopics * alpha;
     for (int m = 0; m < numDocuments; m++) {
       for (int k = 0; k < numTopics; k++) {
-        model.thetad[m][k] = (model.cdt[m][k] + alpha) / (model.cdtsum[m] + tAlpha);
+        model.thetad[m][k] = (model.cdt.get(m, k) + alpha) / (model.cdtsum[m] + tAlpha);
       }
     }
 
@@ -549,7 +679,7 @@ public class EntityLdaGibbsSampler {
     double tGamma = numTopics * gamma;
     for (int h = 0; h < numEntities; h++) {
       for (int k = 0; k < numTopics; k++) {
-        model.thetap[h][k] = (model.cpt[h][k] + gamma) / (model.cptsum[h] + tGamma);
+        model.thetap[h][k] = (model.cpt.get(h, k) + gamma) / (model.cptsum[h] + tGamma);
       }
     }
 
@@ -557,7 +687,7 @@ public class EntityLdaGibbsSampler {
     double vBeta = vocabularySize * beta;
     for (int k = 0; k < numTopics; k++) {
       for (int i = 0; i < vocabularySize; i++) {
-        model.phi[k][i] = (model.cwdt[i][k] + model.cwet[i][k] + beta)
+        model.phi[k][i] = (model.cwdt.get(i, k) + model.cwet.get(i, k) + beta)
             / (model.cwdtsum[k] + model.cwetsum[k] + vBeta);
       }
     }
@@ -572,46 +702,46 @@ public class EntityLdaGibbsSampler {
    * @param n
    *          the index (position) of the word in this document
    * 
-   * @return the sampling set
+   * @return the index of the sampled set in {@link #buffer}
    */
-  private SamplingSet sampleFullConditional(int m, int n) {
+  private int sampleFullConditional(int m, int n) {
     int i = documents[m][n];
     int topic = model.z[m][n];
     int entity = model.ro[m][n];
     // the i_th word was assigned a topic of document m
     if (model.s[m][n] == DOCUMENT) {
       // not counting the i_th word
-      model.cwdt[i][topic]--;
+      model.cwdt.decrement(i, topic);
       model.cwdtsum[topic]--;
-      model.cdt[m][topic]--;
+      model.cdt.decrement(m, topic);
       model.cdtsum[m]--;
     } else {
-      model.cwet[i][topic]--;
+      model.cwet.decrement(i, topic);
       model.cwetsum[topic]--;
-      model.cpt[entity][topic]--;
+      model.cpt.decrement(entity, topic);
       model.cptsum[entity]--;
     }
 
     double vBeta = vocabularySize * beta;
     double tAlpha = numTopics * alpha;
     double tGamma = numTopics * gamma;
-    Entity ent = null;
-    ArrayList<SamplingSet> list = new ArrayList<SamplingSet>();
+    int[] entityIds = docEntityIds[m];
+    double[] entityWeights = docEntityWeights[m];
+    buffer.clear();
     // if document m has no entities, perform lda
-    if (documentEntities[m].length == 0) {
+    if (entityIds.length == 0) {
       for (int k = 0; k < numTopics; k++) {
-        list.add(new SamplingSet(k, -1, DOCUMENT, (model.cwdt[i][k] + beta)
-            / (model.cwdtsum[k] + vBeta) * (model.cdt[m][k] + alpha)
-            / (model.cdtsum[m] + tAlpha)));
+        buffer.add(k, -1, DOCUMENT, (model.cwdt.get(i, k) + beta)
+            / (model.cwdtsum[k] + vBeta) * (model.cdt.get(m, k) + alpha)
+            / (model.cdtsum[m] + tAlpha));
       }
     } else {
       for (int k = 0; k < numTopics; k++) {
         // s[i] = DOCUMENT
-        list.add(new SamplingSet(k, -1, DOCUMENT, (model.cwdt[i][k] + beta)
-            / (model.cwdtsum[k] + vBeta) * (model.cdt[m][k] + alpha)
-            / (model.cdtsum[m] + tAlpha)));
-        for (int e = 0; e < documentEntities[m].length; e++) {
-          ent = documentEntities[m][e];
+        buffer.add(k, -1, DOCUMENT, (model.cwdt.get(i, k) + beta)
+            / (model.cwdtsum[k] + vBeta) * (model.cdt.get(m, k) + alpha)
+            / (model.cdtsum[m] + tAlpha));
+        for (int e = 0; e < entityIds.length; e++) {
           /**
            * We use "uniform dist", i.e., equal probability for each entity that
            * appears in a document. So, if an entity appears ent.getCount()
@@ -619,61 +749,31 @@ public class EntityLdaGibbsSampler {
            * this is still uniform for each entity that appears in the document.
            */
           // s[i] = ENTITY
-          list.add(new SamplingSet(k, corpusEntitySet.toId(ent), ENTITY,
-              (model.cwet[i][k] + beta) / (model.cwetsum[k] + vBeta)
-                  * ((model.cpt[e][k] + gamma) / (model.cptsum[e] + tGamma))
-                  / docEntityCount[m] * ent.getCount()));
+          buffer.add(k, entityIds[e], ENTITY,
+              (model.cwet.get(i, k) + beta) / (model.cwetsum[k] + vBeta)
+                  * ((model.cpt.get(e, k) + gamma) / (model.cptsum[e] + tGamma))
+                  / docEntityCount[m] * entityWeights[e]);
         }
       }
     }
-    SamplingSet sample = sample(list);
+    int j = buffer.sample();
 
     // assign new sample set to the i_th word
-    topic = sample.z;
-    if (sample.s == DOCUMENT) {
-      model.cwdt[i][topic]++;
+    topic = buffer.z[j];
+    entity = buffer.rho[j];
+    if (buffer.s[j] == DOCUMENT) {
+      model.cwdt.increment(i, topic);
       model.cwdtsum[topic]++;
-      model.cdt[m][topic]++;
+      model.cdt.increment(m, topic);
       model.cdtsum[m]++;
     } else {
-      model.cwet[i][topic]++;
+      model.cwet.increment(i, topic);
       model.cwetsum[topic]++;
-      model.cpt[sample.rho][topic]++;
-      model.cptsum[sample.rho]++;
-    }
-
-    return sample;
-  }
-
-  /**
-   * Samples a {@link SamplingSet} from the given discrete distribution.
-   * 
-   * @param list
-   *          a list of {@link SamplingSet} elements.
-   * @return
-   */
-  SamplingSet sample(ArrayList<SamplingSet> list) {
-    int size = list.size();
-    double p[] = new double[size];
-
-    // turning the probability distribution from list into a cumulative
-    // distribution
-    p[0] = list.get(0).p;
-    for (int i = 1; i < size; i++) {
-      p[i] = p[i - 1] + list.get(i).p;
-    }
-
-    // scaled sample because of unnormalized p
-    double u = Math.random() * p[size - 1];
-    int selection;
-    // find the interval which contains u
-    for (selection = 0; selection < size; selection++) {
-      if (u < p[selection]) {
-        break;
-      }
+      model.cpt.increment(entity, topic);
+      model.cptsum[entity]++;
     }
 
-    return list.get(selection);
+    return j;
   }
 
   /**
@@ -696,7 +796,7 @@ public class EntityLdaGibbsSampler {
     }
 
     // scaled sample because of unnormalized p
-    double u = Math.random() * p[T - 1];
+    double u = random.nextDouble() * p[T - 1];
     // find the interval which contains u
     for (topic = 0; topic < T; topic++) {
       if (u < p[topic]) {
@@ -1,24 +1,31 @@
 package edu.kaist.uilab.plda;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.aliasi.symbol.SymbolTable;
-import com.aliasi.util.ObjectToCounterMap;
 
 import edu.kaist.uilab.plda.data.CorpusEntitySet;
 import edu.kaist.uilab.plda.data.Entity;
+import edu.kaist.uilab.plda.data.MappedCorpus;
 import edu.kaist.uilab.plda.file.TextFiles;
+import edu.kaist.uilab.plda.util.Checkpoint;
+import edu.kaist.uilab.plda.util.ConvergenceMonitor;
+import edu.kaist.uilab.plda.util.CountMatrix;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.NpyFile;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+import edu.kaist.uilab.plda.util.ReportWriter;
+import edu.kaist.uilab.plda.util.TopK;
 
 /**
  * Implementation of the entity lda Gibbs sampler.
@@ -34,6 +41,10 @@ import edu.kaist.uilab.plda.file.TextFiles;
 public class EntityLdaGibbsSampler3 {
   private static final int DOCUMENT = 0;
   private static final int ENTITY = 1;
+  // the model name stored in checkpoints
+  private static final String MODEL_NAME = "EntityLda3";
+  // maximum number of report files waiting to be written
+  private static final int MAX_PENDING_REPORTS = 16;
 
   private int numDocumentTopics; // number of document topics
   private int numEntityTopics; // number of entity topics
@@ -42,12 +53,24 @@ public class EntityLdaGibbsSampler3 {
   private int numEntities; // H = number of entities
   // documents[m][n] = (index of the n_th word in document m) = i
   private int[][] documents;
+  // the words and assignments of all documents when they are stored in
+  // memory-mapped files (documents and the assignments of the model are null)
+  private MappedCorpus corpus;
   // documentEntities[m] = all entities of the m_th document
   private Entity[][] documentEntities;
   int[] docEntityCount;
+  // docEntityIds[m][e] = id of the e_th entity of document m
+  int[][] docEntityIds;
+  // docEntityWeights[m][e] = number of times the e_th entity appears in
+  // document m
+  double[][] docEntityWeights;
+  // maximum number of distinct entities in a document
+  int maxDocEntities;
   private SymbolTable symbolTable;
   private CorpusEntitySet corpusEntitySet;
   private Model model;
+  private long seed = RandomGenerator.newSeed();
+  private RandomGenerator random;
 
   // hyper-parameters
   private double alpha_d;
@@ -62,9 +85,30 @@ public class EntityLdaGibbsSampler3 {
   private int sampleLags = 20; // number of sample lags (to prevent correlation)
   // (default = 50)
   private int numSamples = 1; // number of samples to take (default = 1)
+  // number of threads for approximate distributed (AD-LDA) sampling
+  private int numThreads = 1;
+  // documents [docStart[p], docStart[p + 1]) are sampled by the p_th thread
+  private int[] docStart;
+  // local copies of the model used by each thread
+  private Model[] localModels;
+  // sampling buffers used by each thread
+  private SamplingBuffer[] buffers;
+  // total time spent on sampling sweeps and the number of sweeps of the last run
+  private long sweepTime;
+  private int numSweeps;
+  // ends the burn-in when the log-likelihood has converged (null = never)
+  private ConvergenceMonitor convergence;
+  // per-iteration metrics (null = none)
+  private Metrics metrics;
 
   // output parameters
   private String outputDir;
+  // writes the reports in the background
+  private ReportWriter reportWriter;
+  private int numReportThreads = 2;
+  // whether theta and phi are also written as .npy files
+  private boolean npyExport;
+  private boolean npyFloat32;
   private int maxWordsPerTopic;
   private int maxTopicsPerDoc;
   private int maxTopicsPerEntity;
@@ -73,7 +117,7 @@ public class EntityLdaGibbsSampler3 {
    * Stores the current model parameters for sampling.
    */
   static class Model implements Serializable {
-    private static final long serialVersionUID = 7107787670680110327L;
+    private static final long serialVersionUID = 4366012592460217346L;
 
     int[][] z; // topic assignment for each word z[m][n] (z[i])
     int[][] rho; // author assignment for each word i (rho[i])
@@ -83,17 +127,17 @@ public class EntityLdaGibbsSampler3 {
     int[][] s;
     // V X T: word-topic count
     // cwdt[i][k] = # times word i is assigned to some document and its topic k
-    int cwdt[][];
+    CountMatrix cwdt;
     // cwdt[i][k] = # times word i is assigned to some entity and its topic k
-    int cwet[][];
+    CountMatrix cwet;
     // D x T: document-topic count
     // cdt[m][k] = # times that a word in document m is assigned topic k (OF
     // DOCUMENT m)
-    int cdt[][];
+    CountMatrix cdt;
     // H X T: entity-topic count
     // cet[h][k] = # times that a word "of" entity h is assigned topic k
     // (OF ENTITY h)
-    int cet[][];
+    CountMatrix cet;
 
     // cd[m] = # times the switch of a word in document m equals DOCUMENT
     // ce[m] = documents[m].length - cd[m]
@@ -147,6 +191,42 @@ public class EntityLdaGibbsSampler3 {
     initDocEntityCount();
   }
 
+  /**
+   * Constructs a new GibbsSampler whose documents and assignments are stored
+   * in the memory-mapped files of {@code corpus}.
+   * 
+   * <p> The heap then only holds the counts, i.e., corpora bigger than the
+   * heap can be sampled. Since the files are updated in place, they are also
+   * the state of the sampler: {@code doGibbsSampling(true)} continues from the
+   * last iteration recorded in the corpus directory.
+   * 
+   * @param numDocumentTopics
+   * @param numEntityTopics
+   * @param vocabularySize
+   * @param numEntities
+   * @param corpus
+   * @param documentEntities
+   * @param corpusEntitySet
+   */
+  public EntityLdaGibbsSampler3(int numDocumentTopics, int numEntityTopics,
+      int vocabularySize, int numEntities, MappedCorpus corpus,
+      Entity[][] documentEntities, CorpusEntitySet corpusEntitySet) {
+    this.numDocumentTopics = numDocumentTopics;
+    this.numEntityTopics = numEntityTopics;
+    this.vocabularySize = vocabularySize;
+    this.numEntities = numEntities;
+    this.corpus = corpus;
+    this.documentEntities = documentEntities;
+    this.corpusEntitySet = corpusEntitySet;
+    this.numDocuments = corpus.getNumDocuments();
+    initDocEntityCount();
+    if (Math.max(numDocumentTopics, numEntityTopics) > MappedCorpus.MAX_VALUE
+        || maxDocEntities >= MappedCorpus.MAX_VALUE) {
+      throw new IllegalArgumentException(
+          "Too many topics or entities per document for a mapped corpus");
+    }
+  }
+
   /**
    * Sets the priors for this sampler.
    * 
@@ -168,14 +248,22 @@ public class EntityLdaGibbsSampler3 {
   }
   
   /**
-   * Inits entity count for each document.
+   * Inits entity count, entity ids and entity weights for each document.
    */
   private void initDocEntityCount() {
     docEntityCount = new int[numDocuments];
+    docEntityIds = new int[numDocuments][];
+    docEntityWeights = new double[numDocuments][];
     for (int doc = 0; doc < numDocuments; doc++) {
-      for (Entity e : documentEntities[doc]) {
-        docEntityCount[doc] += e.getCount();
+      Entity[] entities = documentEntities[doc];
+      docEntityIds[doc] = new int[entities.length];
+      docEntityWeights[doc] = new double[entities.length];
+      for (int e = 0; e < entities.length; e++) {
+        docEntityCount[doc] += entities[e].getCount();
+        docEntityIds[doc][e] = corpusEntitySet.toId(entities[e]);
+        docEntityWeights[doc][e] = entities[e].getCount();
       }
+      maxDocEntities = Math.max(maxDocEntities, entities.length);
     }
   }
 
@@ -199,6 +287,130 @@ public class EntityLdaGibbsSampler3 {
     this.numSamples = numSamples;
   }
 
+  /**
+   * Sets the number of threads used for sampling.
+   * 
+   * <p> With more than one thread, the sampler runs the approximate
+   * distributed LDA scheme (AD-LDA, Newman et al., 2009): documents are split
+   * into {@code numThreads} ranges of about the same number of tokens and each
+   * thread samples its documents against its own copy of the word-topic and
+   * entity-topic counts. The changes of all threads are merged into the model
+   * at the end of each iteration. Counts of a document (cdt, cd, ce) and its
+   * assignments are only touched by the thread that owns the document.
+   * 
+   * @param numThreads
+   *          the number of threads (default value is 1, i.e., exact serial
+   *          sampling)
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = numThreads > 0 ? numThreads : 1;
+  }
+
+  /**
+   * Ends the burn-in period as soon as the log-likelihood has converged.
+   * 
+   * <p> During burn-in, the log-likelihood is evaluated every
+   * {@code interval} iterations. When its relative change has stayed below
+   * {@code threshold} for {@code window} evaluations in a row, the sampler
+   * starts collecting samples at the next iteration instead of waiting for the
+   * end of the burn-in period.
+   * 
+   * @param interval
+   * @param threshold
+   * @param window
+   */
+  public void setConvergence(int interval, double threshold, int window) {
+    convergence = new ConvergenceMonitor(interval, threshold, window);
+  }
+
+  /**
+   * Sets the metrics to which the sweeps, log-likelihoods and reports of the
+   * sampler are recorded.
+   * 
+   * @param metrics
+   *          the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sets the number of threads which write the reports of the collected
+   * samples while the sampler goes on.
+   * 
+   * @param numReportThreads
+   *          the number of threads (default value is 2; 0 writes the reports
+   *          in the sampling thread)
+   */
+  public void setNumReportThreads(int numReportThreads) {
+    this.numReportThreads = Math.max(0, numReportThreads);
+  }
+
+  /**
+   * Returns the number of threads which select the top words and topics of a
+   * report: the sampling threads when the reports are written in the sampling
+   * thread, otherwise only the report writer's thread.
+   */
+  private int reportThreads() {
+    return numReportThreads == 0 ? numThreads : 1;
+  }
+
+  /**
+   * Also writes the theta and phi matrices of each report in the NumPy .npy format
+   * (see {@link NpyFile}) next to the csv files.
+   * 
+   * @param npyExport
+   *          true to write the .npy files (default value is false)
+   * @param float32
+   *          true to store the values as float32 instead of float64
+   */
+  public void setNpyExport(boolean npyExport, boolean float32) {
+    this.npyExport = npyExport;
+    this.npyFloat32 = float32;
+  }
+
+  /**
+   * Returns the number of tokens sampled per second in the last run.
+   * 
+   * @return
+   */
+  public double getTokensPerSecond() {
+    return sweepTime > 0 ? getNumTokens() * numSweeps / (sweepTime / 1e9)
+        : 0.0;
+  }
+
+  /**
+   * Returns the number of tokens of the corpus.
+   */
+  private long getNumTokens() {
+    long numTokens = 0;
+    for (int m = 0; m < numDocuments; m++) {
+      numTokens += getDocumentLength(m);
+    }
+    return numTokens;
+  }
+
+  /**
+   * Sets the seed of the random generator.
+   * 
+   * <p> Two runs with the same seed, parameters and number of threads give the same
+   * samples. The seed of a run is written to the file
+   * {@link RandomGenerator#SEED_FILE} of the output directory.
+   * 
+   * @param seed
+   *          the seed (by default, a different seed is used for each sampler)
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Returns the seed of the random generator.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
   /**
    * Sets parameters for reporting output.
    * 
@@ -212,25 +424,157 @@ public class EntityLdaGibbsSampler3 {
     this.maxTopicsPerEntity = topicsPerEntity;
   }
 
+  /**
+   * Loads the state of the last reported iteration which has a complete
+   * checkpoint and returns the number of the iteration to continue from.
+   * 
+   * <p> The reports of an iteration are written in the background, so the
+   * newest iterations of a run which was killed may have no checkpoint (or
+   * one that cannot be read); they are skipped.
+   */
   private int loadLastIter() throws IOException {
-    File dir = new File(outputDir);
-    SortedSet<Integer> set = new TreeSet<Integer>();
-    for (File file : dir.listFiles()) {
-      if (file.isDirectory()) {
-        set.add(Integer.parseInt(file.getName()));
+    List<File> dirs = Checkpoint.listIterationDirs(outputDir);
+    ExecutorService executor = null;
+    if (numThreads > 1) {
+      executor = Executors.newFixedThreadPool(numThreads);
+    }
+    try {
+      for (File dir : dirs) {
+        File file = new File(dir, Checkpoint.FILE_NAME);
+        if (file.exists()) {
+          long start = System.nanoTime();
+          Checkpoint checkpoint;
+          try {
+            checkpoint = Checkpoint.read(file, executor);
+          } catch (IOException e) {
+            System.err.printf("Skipping checkpoint %s: %s\n", file, e);
+            continue;
+          }
+          return loadCheckpoint(file, checkpoint, start, executor);
+        }
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+    // the serialized model of older versions has another layout of Model
+    for (File dir : dirs) {
+      if (new File(dir, "model.gz").exists()) {
+        throw new IOException("No complete checkpoint in " + outputDir
+            + " (the model.gz of older versions cannot be resumed)");
       }
     }
+    throw new IOException("No complete checkpoint in " + outputDir);
+  }
 
-    ObjectInputStream is = new ObjectInputStream(new FileInputStream(outputDir
-        + "/" + set.last() + "/model.gz"));
-    try {
-      model = (Model) is.readObject();
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
+  /**
+   * Restores the assignments from a checkpoint read from {@code file} since
+   * {@code start} (ns), rebuilds the counts and returns the number of
+   * finished iterations.
+   */
+  private int loadCheckpoint(File file, Checkpoint checkpoint, long start,
+      ExecutorService executor) throws IOException {
+    checkpoint.check(MODEL_NAME, checkpointDimensions(), checkpointPriors());
+    long readTime = System.nanoTime() - start;
+    newModel();
+    int[][] topics = checkpoint.getVariable(0);
+    int[][] entities = checkpoint.getVariable(1);
+    model.z = topics;
+    model.rho = new int[numDocuments][];
+    model.s = new int[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      int length = documents[m].length;
+      if (topics[m].length != length || entities[m].length != length) {
+        throw new IOException("Checkpoint " + file
+            + " does not match the length of document " + m);
+      }
+      model.rho[m] = new int[length];
+      model.s[m] = new int[length];
+      for (int n = 0; n < length; n++) {
+        int e = entities[m][n];
+        if (e == 0) {
+          model.s[m][n] = DOCUMENT;
+        } else if (e <= docEntityIds[m].length) {
+          model.s[m][n] = ENTITY;
+          model.rho[m][n] = docEntityIds[m][e - 1];
+        } else {
+          throw new IOException("Checkpoint " + file
+              + " has an invalid entity in document " + m);
+        }
+        if (topics[m][n] >= (e == 0 ? numDocumentTopics : numEntityTopics)) {
+          throw new IOException("Checkpoint " + file
+              + " has an invalid topic in document " + m);
+        }
+      }
+    }
+    rebuildCounts(executor);
+    // the parameters of the loaded state, e.g., for its likelihood
+    updateParams();
+    System.out.printf("Loaded checkpoint %s (%s) in %d ms, counts rebuilt "
+        + "in %d ms\n", file, CountMatrix.formatBytes(file.length()),
+        readTime / 1000000, (System.nanoTime() - start - readTime) / 1000000);
+
+    return checkpoint.getIteration();
+  }
+
+  /**
+   * Returns the entities of the words of the current model as they are
+   * stored in a checkpoint: 0 if the switch of a word is DOCUMENT and e + 1
+   * if it is assigned to the e_th entity of its document (the same as in a
+   * {@link MappedCorpus}).
+   */
+  private int[][] checkpointEntities() {
+    int[][] entities = new int[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      int[] rho = model.rho[m];
+      int[] s = model.s[m];
+      entities[m] = new int[rho.length];
+      for (int n = 0; n < rho.length; n++) {
+        if (s[n] == ENTITY) {
+          int e = 0;
+          while (docEntityIds[m][e] != rho[n]) {
+            e++;
+          }
+          entities[m][n] = e + 1;
+        }
+      }
     }
-    is.close();
+    return entities;
+  }
+
+  /**
+   * Writes the topics and the entities (see {@link #checkpointEntities()})
+   * of the words after iteration {@code iter} to a checkpoint.
+   */
+  private void writeCheckpoint(int[][] z, int[][] entities, int iter,
+      ExecutorService executor) throws IOException {
+    long start = System.nanoTime();
+    File file = new File(outputDir + "/" + iter, Checkpoint.FILE_NAME);
+    long size = new Checkpoint(MODEL_NAME, iter + 1, checkpointDimensions(),
+        checkpointPriors(), z, entities).write(file, executor);
+    long numTokens = 0;
+    for (int m = 0; m < numDocuments; m++) {
+      numTokens += documents[m].length;
+    }
+    System.out.printf("\nCheckpoint %s: %s (%.2f bits/token) written in %d ms\n",
+        file, CountMatrix.formatBytes(size), 8.0 * size / Math.max(1, numTokens),
+        (System.nanoTime() - start) / 1000000);
+  }
+
+  /**
+   * Returns the dimensions stored in a checkpoint.
+   */
+  private int[] checkpointDimensions() {
+    return new int[] { numDocuments, vocabularySize, numDocumentTopics,
+        numEntityTopics, numEntities };
+  }
 
-    return set.last();
+  /**
+   * Returns the priors stored in a checkpoint.
+   */
+  private double[] checkpointPriors() {
+    return new double[] { alpha_d, alpha_e, beta_d, beta_e, eta_d, eta_e };
   }
 
   /**
@@ -241,52 +585,380 @@ public class EntityLdaGibbsSampler3 {
    */
   public void doGibbsSampling(boolean loadPastTraining) throws IOException {
     int iter = 0;
+    random = RandomGenerator.newInstance(seed);
+    if (outputDir != null) {
+      RandomGenerator.writeSeed(outputDir, seed);
+    }
     if (!loadPastTraining) {
       System.out.print("Initializing parameters...");
       initialize();
       System.out.println("done");
+    } else if (corpus != null) {
+      iter = loadMappedAssignments();
     } else {
       iter = loadLastIter();
     }
+    System.out.println(model.cwdt.memoryReport("cwdt"));
+    System.out.println(model.cwet.memoryReport("cwet"));
+    System.out.println(model.cdt.memoryReport("cdt"));
+    System.out.println(model.cet.memoryReport("cet"));
+    long numTokens = getNumTokens();
+    if (metrics != null) {
+      metrics.setCountMatrixBytes(model.cwdt.memorySize()
+          + model.cwet.memorySize() + model.cdt.memorySize()
+          + model.cet.memorySize());
+    }
 
     int samplesCollected = 0;
+    buffers = new SamplingBuffer[numThreads];
+    for (int p = 0; p < numThreads; p++) {
+      // each thread has its own random generator
+      buffers[p] = new SamplingBuffer(numDocumentTopics + numEntityTopics
+          * maxDocEntities, random.split());
+    }
+    ExecutorService executor = null;
+    if (numThreads > 1) {
+      executor = Executors.newFixedThreadPool(numThreads);
+      partitionDocuments();
+      localModels = null;
+    }
+    sweepTime = 0;
+    numSweeps = 0;
+    int burnInEnd = burnIn;
+    if (convergence != null) {
+      convergence.reset();
+    }
+    reportWriter = new ReportWriter(numReportThreads, MAX_PENDING_REPORTS);
     System.out.println("Burning in period...");
-    for (; iter < numIterations; iter++) {
-      if (iter < burnIn) {
-        System.out.print(iter + " ");
-        if (iter % 100 == 99) {
-          System.out.println();
+    // false if the sampling fails
+    boolean sampled = false;
+    try {
+      for (; iter < numIterations; iter++) {
+        if (iter < burnInEnd) {
+          System.out.print(iter + " ");
+          if (iter % 100 == 99) {
+            System.out.println();
+          }
+        } else if (iter == burnInEnd) {
+          System.out.println("\nBurning in done");
+        }
+
+        // sampling hidden variables z_i
+        if (metrics != null) {
+          metrics.startSweep();
+        }
+        long start = System.nanoTime();
+        if (executor != null) {
+          sampleParallel(executor);
+        } else {
+          sampleDocuments(model, buffers[0], 0, numDocuments);
+        }
+        sweepTime += System.nanoTime() - start;
+        numSweeps++;
+        if (metrics != null) {
+          metrics.endSweep(iter, numTokens);
+        }
+        if (corpus != null) {
+          corpus.setIteration(iter + 1);
+        }
+
+        // end the burn-in once the log-likelihood has converged
+        if (convergence != null && iter < burnInEnd && convergence.isDue(iter)) {
+          updateParams();
+          double log = corpusLog2Likelihood(executor);
+          System.out.printf("\nlog2 likelihood at iteration %d: %f\n", iter, log);
+          if (metrics != null) {
+            metrics.setLogLikelihood(iter, log);
+          }
+          if (convergence.update(log)) {
+            System.out.printf("Converged at iteration %d\n", iter);
+            burnInEnd = iter + 1;
+          }
+        }
+
+        // after burn-in & some sample lags we can collect a sample
+        if (iter >= burnInEnd && (iter - burnInEnd) % sampleLags == 0) {
+          System.out.printf("\nCollected a sample at iteration %d", iter);
+          updateParams();
+          samplesCollected++;
+          long reportStart = System.nanoTime();
+          report(iter);
+          if (metrics != null) {
+            metrics.addReport(iter, System.nanoTime() - reportStart);
+          }
+          if (samplesCollected == numSamples) {
+            sampled = true;
+            return; // enough samples has been collected
+          }
         }
-      } else if (iter == burnIn) {
-        System.out.println("\nBurning in done");
       }
+      sampled = true;
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+      if (corpus != null) {
+        corpus.force();
+      }
+      // wait for the reports of the last samples; a failed report must not
+      // hide the failure of the sampling
+      if (sampled) {
+        reportWriter.close();
+      } else {
+        reportWriter.closeAfterFailure();
+      }
+      System.out.println(reportWriter.statistics());
+    }
+  }
 
-      // sampling hidden variables z_i
-      for (int m = 0; m < numDocuments; m++) {
-        for (int n = 0; n < documents[m].length; n++) {
-          SamplingSet sample = sampleFullConditional(m, n);
-          model.z[m][n] = sample.z;
-          model.rho[m][n] = sample.rho;
-          model.s[m][n] = sample.s;
+  /**
+   * Samples hidden variables of all words in documents [from, to) using the
+   * counts of {@code model} and the sampling buffer {@code buffer}.
+   */
+  private void sampleDocuments(Model model, SamplingBuffer buffer, int from,
+      int to) {
+    if (corpus != null) {
+      sampleMappedDocuments(model, buffer, from, to);
+      return;
+    }
+    for (int m = from; m < to; m++) {
+      int[] words = documents[m];
+      int[] z = model.z[m];
+      int[] rho = model.rho[m];
+      int[] s = model.s[m];
+      for (int n = 0; n < words.length; n++) {
+        int j = sampleFullConditional(model, buffer, m, words[n], z[n], rho[n],
+            s[n]);
+        z[n] = buffer.z[j];
+        rho[n] = buffer.rho[j];
+        s[n] = buffer.s[j];
+      }
+    }
+  }
+
+  /**
+   * Samples hidden variables of all words in documents [from, to) of the
+   * memory-mapped corpus.
+   * 
+   * <p> The entity of a token is stored as 0 if its switch is DOCUMENT and
+   * e + 1 if it is assigned to the e_th entity of its document.
+   */
+  private void sampleMappedDocuments(Model model, SamplingBuffer buffer,
+      int from, int to) {
+    for (int m = from; m < to; m++) {
+      int[] entityIds = docEntityIds[m];
+      long end = corpus.getDocumentEnd(m);
+      for (long pos = corpus.getDocumentStart(m); pos < end; pos++) {
+        int e = corpus.getEntity(pos);
+        int j;
+        if (e == 0) {
+          j = sampleFullConditional(model, buffer, m, corpus.getToken(pos),
+              corpus.getTopic(pos), -1, DOCUMENT);
+        } else {
+          j = sampleFullConditional(model, buffer, m, corpus.getToken(pos),
+              corpus.getTopic(pos), entityIds[e - 1], ENTITY);
+        }
+        corpus.setTopic(pos, buffer.z[j]);
+        if (buffer.s[j] == DOCUMENT) {
+          corpus.setEntity(pos, 0);
+        } else {
+          // entity sets are added topic by topic (see sampleFullConditional)
+          corpus.setEntity(pos, (j - numDocumentTopics) % entityIds.length + 1);
         }
       }
+    }
+  }
+
+  /**
+   * Splits the documents into {@code numThreads} ranges which have about the
+   * same number of tokens.
+   */
+  private void partitionDocuments() {
+    long numTokens = 0;
+    for (int m = 0; m < numDocuments; m++) {
+      numTokens += getDocumentLength(m);
+    }
+    docStart = new int[numThreads + 1];
+    long count = 0;
+    int p = 1;
+    for (int m = 0; m < numDocuments && p < numThreads; m++) {
+      count += getDocumentLength(m);
+      if (count >= numTokens * p / numThreads) {
+        docStart[p++] = m + 1;
+      }
+    }
+    for (; p <= numThreads; p++) {
+      docStart[p] = numDocuments;
+    }
+  }
 
-      // after burn-in & some sample lags we can collect a sample
-      if (iter >= burnIn && (iter - burnIn) % sampleLags == 0) {
-        System.out.printf("\nCollected a sample at iteration %d", iter);
-        updateParams();
-        samplesCollected++;
-        report(iter);
-        if (samplesCollected == numSamples) {
-          return; // enough samples has been collected
+  /**
+   * Performs one AD-LDA sampling iteration.
+   * 
+   * <p> Each thread samples its documents using a local copy of the shared
+   * counts (cwdt, cwet, cet and their sums); the local changes are then added
+   * to the global model.
+   */
+  private void sampleParallel(ExecutorService executor) throws IOException {
+    if (localModels == null) {
+      localModels = new Model[numThreads];
+    }
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(numThreads);
+    for (int p = 0; p < numThreads; p++) {
+      final int from = docStart[p];
+      final int to = docStart[p + 1];
+      final int thread = p;
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          localModels[thread] = localCopy(model, localModels[thread]);
+          sampleDocuments(localModels[thread], buffers[thread], from, to);
+          return null;
         }
+      }));
+    }
+    waitFor(futures);
+    mergeLocalModels(executor);
+  }
+
+  /**
+   * Merges the deltas (local - global) of the shared counts of all threads
+   * into the global model.
+   */
+  private void mergeLocalModels(ExecutorService executor) throws IOException {
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(numThreads);
+    for (int p = 0; p < numThreads; p++) {
+      final int from = (int) ((long) vocabularySize * p / numThreads);
+      final int to = (int) ((long) vocabularySize * (p + 1) / numThreads);
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          CountMatrix[] cwdt = new CountMatrix[numThreads];
+          CountMatrix[] cwet = new CountMatrix[numThreads];
+          for (int t = 0; t < numThreads; t++) {
+            cwdt[t] = localModels[t].cwdt;
+            cwet[t] = localModels[t].cwet;
+          }
+          mergeDeltas(model.cwdt, cwdt, from, to);
+          mergeDeltas(model.cwet, cwet, from, to);
+          return null;
+        }
+      }));
+    }
+    waitFor(futures);
+    int[][] cwdtsum = new int[numThreads][];
+    int[][] cwetsum = new int[numThreads][];
+    int[][] cetsum = new int[numThreads][];
+    for (int p = 0; p < numThreads; p++) {
+      cwdtsum[p] = localModels[p].cwdtsum;
+      cwetsum[p] = localModels[p].cwetsum;
+      cetsum[p] = localModels[p].cetsum;
+    }
+    mergeDeltas(model.cwdtsum, cwdtsum);
+    mergeDeltas(model.cwetsum, cwetsum);
+    mergeDeltas(model.cetsum, cetsum);
+    CountMatrix[] cet = new CountMatrix[numThreads];
+    for (int p = 0; p < numThreads; p++) {
+      cet[p] = localModels[p].cet;
+    }
+    mergeDeltas(model.cet, cet, 0, numEntities);
+  }
+
+  /**
+   * Adds the changes {@code local[p] - global} of all local copies to the
+   * rows [from, to) of {@code global}.
+   */
+  private static void mergeDeltas(CountMatrix global, CountMatrix[] local,
+      int from, int to) {
+    int numColumns = global.getNumColumns();
+    for (int r = from; r < to; r++) {
+      for (int k = 0; k < numColumns; k++) {
+        int count = global.get(r, k);
+        int sum = count;
+        for (CountMatrix l : local) {
+          sum += l.get(r, k) - count;
+        }
+        if (sum != count) {
+          global.set(r, k, sum);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the changes {@code local[p] - global} of all local copies to
+   * {@code global}.
+   * 
+   * <p> The local copies are overwritten with the deltas; they are refreshed
+   * from the global counts at the start of the next iteration anyway.
+   */
+  private static void mergeDeltas(int[] global, int[][] local) {
+    for (int[] l : local) {
+      for (int k = 0; k < global.length; k++) {
+        l[k] -= global[k];
+      }
+    }
+    for (int[] l : local) {
+      for (int k = 0; k < global.length; k++) {
+        global[k] += l[k];
+      }
+    }
+  }
+
+  /**
+   * Returns a model which shares the per-document assignments and counts with
+   * {@code model} but has its own copy of the counts shared between documents.
+   * 
+   * @param local
+   *          a previous local copy whose arrays can be reused (can be null)
+   */
+  private Model localCopy(Model model, Model local) {
+    if (local == null) {
+      local = new Model();
+      local.cwdt = model.cwdt.copy();
+      local.cwet = model.cwet.copy();
+      local.cwdtsum = new int[numDocumentTopics];
+      local.cwetsum = new int[numEntityTopics];
+      local.cet = model.cet.copy();
+      local.cetsum = new int[numEntities];
+    } else {
+      local.cwdt.copyFrom(model.cwdt);
+      local.cwet.copyFrom(model.cwet);
+      local.cet.copyFrom(model.cet);
+    }
+    local.z = model.z;
+    local.rho = model.rho;
+    local.s = model.s;
+    local.cdt = model.cdt;
+    local.cdtsum = model.cdtsum;
+    local.cd = model.cd;
+    local.ce = model.ce;
+    System.arraycopy(model.cwdtsum, 0, local.cwdtsum, 0, numDocumentTopics);
+    System.arraycopy(model.cwetsum, 0, local.cwetsum, 0, numEntityTopics);
+    System.arraycopy(model.cetsum, 0, local.cetsum, 0, numEntities);
+
+    return local;
+  }
+
+  /**
+   * Waits for all tasks to finish.
+   */
+  private static void waitFor(List<Future<Object>> futures) throws IOException {
+    try {
+      for (Future<Object> future : futures) {
+        future.get();
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Sampling interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Sampling failed", e.getCause());
     }
   }
 
   public void printDocumentTopicTerms(double[][] phi, String file)
       throws IOException {
-    PrintWriter out = new PrintWriter(file);
+    PrintWriter out = ReportWriter.newPrintWriter(file);
     for (int k = 0; k < numDocumentTopics; k++) {
       for (int i = 0; i < vocabularySize; i++) {
         out.printf("%.10f,", phi[k][i]);
@@ -298,7 +970,7 @@ public class EntityLdaGibbsSampler3 {
 
   public void printEntityTopicTerms(double[][] phi, String file)
       throws IOException {
-    PrintWriter out = new PrintWriter(file);
+    PrintWriter out = ReportWriter.newPrintWriter(file);
     for (int k = 0; k < numEntityTopics; k++) {
       for (int i = 0; i < vocabularySize; i++) {
         out.printf("%.10f,", phi[k][i]);
@@ -310,8 +982,8 @@ public class EntityLdaGibbsSampler3 {
   
   public void printDocumentTopics(double[][] thetad, String file)
       throws IOException {
-    PrintWriter out = new PrintWriter(file);
-    for (int m = 0; m < documents.length; m++) {
+    PrintWriter out = ReportWriter.newPrintWriter(file);
+    for (int m = 0; m < numDocuments; m++) {
       for (int k = 0; k < numDocumentTopics; k++) {
         out.printf("%.10f,", thetad[m][k]);
       }
@@ -322,7 +994,7 @@ public class EntityLdaGibbsSampler3 {
 
   public void printEntityTopics(double[][] thetap, String file)
       throws IOException {
-    PrintWriter out = new PrintWriter(file);
+    PrintWriter out = ReportWriter.newPrintWriter(file);
     for (int h = 0; h < numEntities; h++) {
       for (int k = 0; k < numEntityTopics; k++) {
         out.printf("%.10f,", thetap[h][k]);
@@ -340,19 +1012,18 @@ public class EntityLdaGibbsSampler3 {
    * @throws IOException
    */
   public void printDocumentTopicWords(String file) throws IOException {
-    PrintWriter writer = new PrintWriter(file);
+    printDocumentTopicWords(model, file);
+  }
+
+  private void printDocumentTopicWords(Model model, String file) throws IOException {
+    PrintWriter writer = ReportWriter.newPrintWriter(file);
+    int[][] top = TopK.selectInColumns(model.cwdt, maxWordsPerTopic,
+        reportThreads());
     for (int topic = 0; topic < numDocumentTopics; ++topic) {
-      ObjectToCounterMap<Integer> docCounter = new ObjectToCounterMap<Integer>();
-      for (int word = 0; word < vocabularySize; ++word) {
-        docCounter.set(word, model.cwdt[word][topic]);
-      }  
-      List<Integer> top = docCounter.keysOrderedByCountList();
       writer.printf("\nTOPIC %d (total count=%d)\n", topic, model.cwdtsum[topic]);
-      int id;
-      for (int rank = 0; rank < maxWordsPerTopic && rank < top.size(); rank++) {
-        id = top.get(rank);
+      for (int id : top[topic]) {
         writer.printf("%15s(%d)\n", symbolTable.idToSymbol(id),
-            model.cwdt[id][topic]);
+            model.cwdt.get(id, topic));
       }
     }
     writer.close();
@@ -366,19 +1037,18 @@ public class EntityLdaGibbsSampler3 {
    * @throws IOException
    */
   public void printEntityTopicWords(String file) throws IOException {
-    PrintWriter writer = new PrintWriter(file);
+    printEntityTopicWords(model, file);
+  }
+
+  private void printEntityTopicWords(Model model, String file) throws IOException {
+    PrintWriter writer = ReportWriter.newPrintWriter(file);
+    int[][] top = TopK.selectInColumns(model.cwet, maxWordsPerTopic,
+        reportThreads());
     for (int topic = 0; topic < numEntityTopics; ++topic) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-      for (int word = 0; word < vocabularySize; ++word) {
-        counter.set(word, model.cwet[word][topic]);
-      }  
-      List<Integer> top = counter.keysOrderedByCountList();
       writer.printf("\nTOPIC %d (total count=%d)\n", topic, model.cwetsum[topic]);
-      int id;
-      for (int rank = 0; rank < maxWordsPerTopic && rank < top.size(); rank++) {
-        id = top.get(rank);
+      for (int id : top[topic]) {
         writer.printf("%15s(%d)\n", symbolTable.idToSymbol(id),
-            model.cwet[id][topic]);
+            model.cwet.get(id, topic));
       }
     }
     writer.close();
@@ -391,18 +1061,22 @@ public class EntityLdaGibbsSampler3 {
    * @throws IOException
    */
   public void printTopDocTopics(String file) throws IOException {
-    PrintWriter writer = new PrintWriter(file);
+    if (model.thetad == null) {
+      updateParams();
+    }
+    printTopDocTopics(model, file);
+  }
+
+  private void printTopDocTopics(Model model, String file) throws IOException {
+    PrintWriter writer = ReportWriter.newPrintWriter(file);
+    int[][] topTopics = TopK.selectInRows(model.cdt, maxTopicsPerDoc,
+        reportThreads());
     for (int doc = 0; doc < numDocuments; ++doc) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-      for (int topic = 0; topic < numDocumentTopics; ++topic)
-        counter.set(topic, model.cdt[doc][topic]);
-      List<Integer> topTopics = counter.keysOrderedByCountList();
       writer.println("\nDOC " + doc);
       writer.println("TOPIC    COUNT    PROB");
       writer.println("----------------------");
-      for (int rank = 0; rank < topTopics.size() && rank < maxTopicsPerDoc; ++rank) {
-        int topic = topTopics.get(rank);
-        writer.printf("%5d  %7d   %4.3f\n", topic, model.cdt[doc][topic],
+      for (int topic : topTopics[doc]) {
+        writer.printf("%5d  %7d   %4.3f\n", topic, model.cdt.get(doc, topic),
             model.thetad[doc][topic]);
       }
       writer.println();
@@ -417,20 +1091,23 @@ public class EntityLdaGibbsSampler3 {
    * @throws IOException
    */
   public void printTopEntityTopics(String file) throws IOException {
-    PrintWriter writer = new PrintWriter(file);
+    if (model.thetad == null) {
+      updateParams();
+    }
+    printTopEntityTopics(model, file);
+  }
+
+  private void printTopEntityTopics(Model model, String file) throws IOException {
+    PrintWriter writer = ReportWriter.newPrintWriter(file);
+    int[][] topTopics = TopK.selectInRows(model.cet, maxTopicsPerEntity,
+        reportThreads());
     for (int ent = 0; ent < numEntities; ent++) {
-      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
-      for (int topic = 0; topic < numEntityTopics; topic++) {
-        counter.set(topic, model.cet[ent][topic]);
-      }
-      List<Integer> topTopics = counter.keysOrderedByCountList();
-      if (topTopics.size() > 0) {
+      if (topTopics[ent].length > 0) {
         writer.println("\nENTITY " + ent);
         writer.println("TOPIC    COUNT    PROB");
         writer.println("----------------------");
-        for (int rank = 0; rank < topTopics.size() && rank < maxTopicsPerEntity; rank++) {
-          int topic = topTopics.get(rank);
-          writer.printf("%5d  %7d   %4.3f\n", topic, model.cet[ent][topic],
+        for (int topic : topTopics[ent]) {
+          writer.printf("%5d  %7d   %4.3f\n", topic, model.cet.get(ent, topic),
               model.thetae[ent][topic]);
         }
         writer.println();
@@ -452,26 +1129,144 @@ public class EntityLdaGibbsSampler3 {
   /**
    * Reports samples collected so far.
    * 
+   * <p> The files are written from a snapshot of the model by the report
+   * writer while the sampler goes on.
+   * 
    * @param iter
    * @throws IOException
    */
-  private void report(int iter) throws IOException {
-    (new File(outputDir + "/" + iter)).mkdir();
-    printDocumentTopics(model.thetad, outputDir + "/" + iter
-        + "/documentTopics.csv");
-    printEntityTopics(model.thetae, outputDir + "/" + iter
-        + "/entityTopics.csv");
-    printDocumentTopicTerms(model.phi_d, outputDir + "/" + iter + "/documentTopicsTerms.csv");
-    printDocumentTopicWords(outputDir + "/" + iter + "/topDocumentTopicWords.txt");
-    printEntityTopicWords(outputDir + "/" + iter + "/topEntityTopicWords.txt");
-    printTopDocTopics(outputDir + "/" + iter + "/topDocTopics.txt");
-    printTopEntityTopics(outputDir + "/" + iter + "/topEntityTopics.txt");
-    TextFiles.writeFile(outputDir + "/" + iter + "/loglikelihood.txt",
-        String.valueOf(corpusLog2Likelihood()));
-    ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(
-        outputDir + "/" + iter + "/model.gz"));
-    out.writeObject(model);
-    out.close();
+  private void report(final int iter) throws IOException {
+    final Model snapshot = snapshot();
+    final String dir = outputDir + "/" + iter;
+    // the state of a mapped corpus is already stored in its files
+    final int[][] z;
+    final int[][] entities;
+    if (corpus == null) {
+      z = new int[numDocuments][];
+      for (int m = 0; m < numDocuments; m++) {
+        z[m] = model.z[m].clone();
+      }
+      entities = checkpointEntities();
+    } else {
+      z = null;
+      entities = null;
+    }
+    (new File(dir)).mkdir();
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printDocumentTopics(snapshot.thetad, dir + "/documentTopics.csv");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printEntityTopics(snapshot.thetae, dir + "/entityTopics.csv");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printDocumentTopicTerms(snapshot.phi_d, dir
+            + "/documentTopicsTerms.csv");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printDocumentTopicWords(snapshot, dir + "/topDocumentTopicWords.txt");
+        printEntityTopicWords(snapshot, dir + "/topEntityTopicWords.txt");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printTopDocTopics(snapshot, dir + "/topDocTopics.txt");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        printTopEntityTopics(snapshot, dir + "/topEntityTopics.txt");
+      }
+    });
+    reportWriter.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        double log = corpusLog2Likelihood(snapshot, 0, numDocuments);
+        System.out.printf("\nlog2 likelihood of the sample at iteration %d: "
+            + "%f\n", iter, log);
+        if (metrics != null) {
+          metrics.setLogLikelihood(iter, log);
+        }
+        TextFiles.writeFile(dir + "/loglikelihood.txt", String.valueOf(log));
+      }
+    });
+    if (npyExport) {
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          NpyFile.write(new File(dir, "documentTopics.npy"), snapshot.thetad, npyFloat32);
+        }
+      });
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          NpyFile.write(new File(dir, "entityTopics.npy"), snapshot.thetae, npyFloat32);
+        }
+      });
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          NpyFile.write(new File(dir, "documentTopicsTerms.npy"), snapshot.phi_d, npyFloat32);
+        }
+      });
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          NpyFile.write(new File(dir, "entityTopicsTerms.npy"), snapshot.phi_e, npyFloat32);
+        }
+      });
+    }
+    if (z != null) {
+      reportWriter.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          writeCheckpoint(z, entities, iter, null);
+        }
+      });
+    }
+  }
+
+  /**
+   * Returns a snapshot of the model for reporting.
+   * 
+   * <p> The parameters are handed over to the snapshot (the next call to
+   * {@link #updateParams()} allocates new arrays) and only the counts read
+   * by the report writers (the top words and topics and the likelihood) are
+   * copied, so the snapshot does not change while the sampler goes on. The
+   * other fields of the snapshot are not set; the assignments are copied
+   * for the checkpoint by {@link #report(int)}.
+   */
+  private Model snapshot() {
+    Model snapshot = new Model();
+    snapshot.thetad = model.thetad;
+    snapshot.thetae = model.thetae;
+    snapshot.phi_d = model.phi_d;
+    snapshot.phi_e = model.phi_e;
+    model.thetad = null;
+    model.thetae = null;
+    model.phi_d = null;
+    model.phi_e = null;
+    snapshot.cwdt = model.cwdt.copy();
+    snapshot.cwet = model.cwet.copy();
+    snapshot.cdt = model.cdt.copy();
+    snapshot.cet = model.cet.copy();
+    snapshot.cwdtsum = model.cwdtsum.clone();
+    snapshot.cwetsum = model.cwetsum.clone();
+    snapshot.cd = model.cd.clone();
+
+    return snapshot;
   }
 
   /**
@@ -480,52 +1275,211 @@ public class EntityLdaGibbsSampler3 {
    * @return
    */
   public double corpusLog2Likelihood() {
+    if (model.thetad == null) {
+      // the parameters of the last sample were handed over to its report
+      updateParams();
+    }
+    double log;
+    if (numThreads > 1) {
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      try {
+        log = corpusLog2Likelihood(executor);
+      } finally {
+        executor.shutdown();
+      }
+    } else {
+      log = corpusLog2Likelihood(null);
+    }
+    System.out.println("\n" + log);
+    
+    return log;
+  }
+
+  /**
+   * Returns the log likelihood of the current point estimate, summed over
+   * ranges of documents by the threads of {@code executor} (can be null).
+   */
+  private double corpusLog2Likelihood(ExecutorService executor) {
+    if (executor == null) {
+      return corpusLog2Likelihood(model, 0, numDocuments);
+    }
+    if (docStart == null || docStart.length != numThreads + 1) {
+      partitionDocuments();
+    }
+    List<Future<Double>> futures = new ArrayList<Future<Double>>(numThreads);
+    for (int p = 0; p < numThreads; p++) {
+      final int from = docStart[p];
+      final int to = docStart[p + 1];
+      futures.add(executor.submit(new Callable<Double>() {
+        @Override
+        public Double call() {
+          return corpusLog2Likelihood(model, from, to);
+        }
+      }));
+    }
     double log = 0.0;
-    for (int m = 0; m < numDocuments; m++) {
-      for (int n = 0; n < documents[m].length; n++) {
+    try {
+      for (Future<Double> future : futures) {
+        log += future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Likelihood evaluation interrupted", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Likelihood evaluation failed", e.getCause());
+    }
+
+    return log;
+  }
+
+  /**
+   * Returns the log likelihood of documents [from, to) given the parameters
+   * of {@code model}.
+   * 
+   * <p> The entity topic mixture and the switch probability only depend on
+   * the document, so they are computed once per document.
+   */
+  private double corpusLog2Likelihood(Model model, int from, int to) {
+    double log = 0.0;
+    double[] entityMixture = new double[numEntityTopics];
+    for (int m = from; m < to; m++) {
+      int length = getDocumentLength(m);
+      double[] thetad = model.thetad[m];
+      // entityMixture[z] = p(entity topic z) of a word of this document
+      if (docEntityCount[m] > 0) {
+        for (int z = 0; z < numEntityTopics; z++) {
+          double entProb = 0.0;
+          for (int h = 0; h < documentEntities[m].length; h++) {
+            entProb += model.thetae[h][z];
+          }
+          entityMixture[z] = entProb / docEntityCount[m];
+        }
+      }
+      double piDoc = (model.cd[m] + eta_d) / (length + eta_d + eta_e);
+      for (int n = 0; n < length; n++) {
+        int word = getWord(m, n);
         // document topic
         double wordProb1 = 0.0;
         for (int z = 0; z < numDocumentTopics; z++) {
-          wordProb1 += model.phi_d[z][documents[m][n]] * model.thetad[m][z];
+          wordProb1 += model.phi_d[z][word] * thetad[z];
         }
         // entity topic (s_i = ent)
         double wordProb2 = 0.0;
         if (docEntityCount[m] > 0) {
           for (int z = 0; z < numEntityTopics; z++) {
-            double entProb = 0.0;
-            for (int h = 0; h < documentEntities[m].length; h++) {
-              entProb += model.thetae[h][z];
-            }
-            wordProb2 += entProb * model.phi_e[z][documents[m][n]];
+            wordProb2 += entityMixture[z] * model.phi_e[z][word];
           }
-          wordProb2 /= docEntityCount[m]; // entity prob
-        }  
-        double piDoc = (model.cd[m] + eta_d) / (documents[m].length + eta_d + eta_e);
+        }
         log += com.aliasi.util.Math.log2(piDoc * wordProb1 + (1 - piDoc) * wordProb2);
       }
     }
-    System.out.println("\n" + log);
-    
+
     return log;
   }
   
   /**
-   * Initializes the model (assign random values to hidden variables -- the
-   * topics z).
+   * Returns the number of words of document m.
    */
-  private void initialize() {
-    // initialize count variables
+  private int getDocumentLength(int m) {
+    return corpus != null ? corpus.getDocumentLength(m) : documents[m].length;
+  }
+
+  /**
+   * Returns the n_th word of document m.
+   */
+  private int getWord(int m, int n) {
+    return corpus != null ? corpus.getToken(corpus.getDocumentStart(m) + n)
+        : documents[m][n];
+  }
+
+  /**
+   * Returns the number of words of each document.
+   */
+  private int[] documentLengths() {
+    int[] documentLength = new int[numDocuments];
+    for (int m = 0; m < numDocuments; m++) {
+      documentLength[m] = getDocumentLength(m);
+    }
+
+    return documentLength;
+  }
+
+  /**
+   * Returns the number of times each word appears in the corpus.
+   */
+  private int[] wordCounts() {
+    int[] wordCount = new int[vocabularySize];
+    if (corpus != null) {
+      for (long pos = 0; pos < corpus.getNumTokens(); pos++) {
+        wordCount[corpus.getToken(pos)]++;
+      }
+    } else {
+      for (int m = 0; m < numDocuments; m++) {
+        for (int n = 0; n < documents[m].length; n++) {
+          wordCount[documents[m][n]]++;
+        }
+      }
+    }
+
+    return wordCount;
+  }
+
+  /**
+   * Returns the number of words of the documents of each entity, i.e., the
+   * maximum number of words that can be assigned to the entity.
+   */
+  private int[] entityWordCounts() {
+    long[] count = new long[numEntities];
+    for (int m = 0; m < numDocuments; m++) {
+      for (int h : docEntityIds[m]) {
+        count[h] += getDocumentLength(m);
+      }
+    }
+    int[] entityWordCount = new int[numEntities];
+    for (int h = 0; h < numEntities; h++) {
+      entityWordCount[h] = (int) Math.min(count[h], Integer.MAX_VALUE);
+    }
+
+    return entityWordCount;
+  }
+
+  /**
+   * Creates a model with zero counts.
+   */
+  private void newModel() {
     model = new Model();
-    model.cwdt = new int[vocabularySize][numDocumentTopics];
-    model.cwet = new int[vocabularySize][numEntityTopics];
+    int[] wordCount = wordCounts();
+    model.cwdt = CountMatrix.newInstance(vocabularySize, numDocumentTopics,
+        wordCount);
+    model.cwet = CountMatrix.newInstance(vocabularySize, numEntityTopics,
+        wordCount);
     model.cwdtsum = new int[numDocumentTopics];
     model.cwetsum = new int[numEntityTopics];
-    model.cdt = new int[numDocuments][numDocumentTopics];
+    model.cdt = CountMatrix.newInstance(numDocuments, numDocumentTopics,
+        documentLengths());
     model.cdtsum = new int[numDocuments];
-    model.cet = new int[numEntities][numEntityTopics];
+    model.cet = CountMatrix.newInstance(numEntities, numEntityTopics,
+        entityWordCounts());
     model.cetsum = new int[numEntities];
     model.cd = new int[numDocuments];
     model.ce = new int[numDocuments];
+    model.thetad = new double[numDocuments][numDocumentTopics];
+    model.thetae = new double[numEntities][numEntityTopics];
+    model.phi_d = new double[numDocumentTopics][vocabularySize];
+    model.phi_e = new double[numEntityTopics][vocabularySize];
+  }
+
+  /**
+   * Initializes the model (assign random values to hidden variables -- the
+   * topics z).
+   */
+  private void initialize() throws IOException {
+    // initialize count variables
+    newModel();
+    if (corpus != null) {
+      initializeMapped();
+      return;
+    }
 
     // sample values of z[i], rho[i], s[i] randomly ([1..numTopics] as the
     // initial state of the Markov chain
@@ -544,65 +1498,204 @@ public class EntityLdaGibbsSampler3 {
           model.s[m][n] = DOCUMENT;
         } else {
           // if document has entities, randS is one of DOCUMENT or ENTITY
-          model.s[m][n] = (int) (Math.random() * 2);
+          model.s[m][n] = random.nextInt(2);
         }
         if (model.s[m][n] == DOCUMENT) {
-          randZ = (int) (Math.random() * numDocumentTopics);
+          randZ = random.nextInt(numDocumentTopics);
           model.z[m][n] = randZ;
           // word i assigned to topic randZ
-          model.cwdt[documents[m][n]][randZ]++;
+          model.cwdt.increment(documents[m][n], randZ);
           // total number of words assigned to topic randZ
           model.cwdtsum[randZ]++;
           // a word in document m assigned to topic k of document m
-          model.cdt[m][randZ]++;
+          model.cdt.increment(m, randZ);
           model.cdtsum[m]++;
           model.cd[m]++;
         } else {
-          randZ = (int) (Math.random() * numEntityTopics);
+          randZ = random.nextInt(numEntityTopics);
           model.z[m][n] = randZ;
-          model.cwet[documents[m][n]][randZ]++;
+          model.cwet.increment(documents[m][n], randZ);
           model.cwetsum[randZ]++;
           // the word is assigned to topic k of an entity randRo
-          randRho = getRandEntity(m);
+          randRho = docEntityIds[m][getRandEntity(m)];
           model.rho[m][n] = randRho;
-          model.cet[randRho][randZ]++;
+          model.cet.increment(randRho, randZ);
           model.cetsum[randRho]++;
           model.ce[m]++;
         }
       }
     }
-    
-    model.thetad = new double[numDocuments][numDocumentTopics];
-    model.thetae = new double[numEntities][numEntityTopics];
-    model.phi_d = new double[numDocumentTopics][vocabularySize];
-    model.phi_e = new double[numEntityTopics][vocabularySize];
   }
 
   /**
-   * Returns a random entity id of a document m.
+   * Initializes the assignments of the memory-mapped corpus in the same way as
+   * {@link #initialize()}.
    */
-  private int getRandEntity(int m) {
-    ArrayList<Integer> list = new ArrayList<Integer>();
-    int entityId;
-    for (Entity e : documentEntities[m]) {
-      entityId = corpusEntitySet.toId(e);
-      for (int i = 0; i < e.getCount(); i++) {
-        list.add(entityId);
+  private void initializeMapped() throws IOException {
+    for (int m = 0; m < numDocuments; m++) {
+      long end = corpus.getDocumentEnd(m);
+      for (long pos = corpus.getDocumentStart(m); pos < end; pos++) {
+        int i = corpus.getToken(pos);
+        int randS = DOCUMENT;
+        if (documentEntities[m].length > 0) {
+          randS = random.nextInt(2);
+        }
+        if (randS == DOCUMENT) {
+          int randZ = random.nextInt(numDocumentTopics);
+          corpus.setTopic(pos, randZ);
+          corpus.setEntity(pos, 0);
+          model.cwdt.increment(i, randZ);
+          model.cwdtsum[randZ]++;
+          model.cdt.increment(m, randZ);
+          model.cdtsum[m]++;
+          model.cd[m]++;
+        } else {
+          int randZ = random.nextInt(numEntityTopics);
+          int e = getRandEntity(m);
+          corpus.setTopic(pos, randZ);
+          corpus.setEntity(pos, e + 1);
+          model.cwet.increment(i, randZ);
+          model.cwetsum[randZ]++;
+          model.cet.increment(docEntityIds[m][e], randZ);
+          model.cetsum[docEntityIds[m][e]]++;
+          model.ce[m]++;
+        }
       }
     }
+    corpus.setIteration(0);
+  }
 
-    return list.get((int) (Math.random() * list.size()));
+  /**
+   * Rebuilds the counts from the assignments stored in the memory-mapped
+   * corpus and returns the number of finished iterations.
+   */
+  private int loadMappedAssignments() throws IOException {
+    int iter = corpus.getIteration();
+    if (iter < 0) {
+      throw new IOException("No sampling state in " + corpus.getDirectory());
+    }
+    newModel();
+    ExecutorService executor = null;
+    if (numThreads > 1) {
+      executor = Executors.newFixedThreadPool(numThreads);
+    }
+    try {
+      rebuildCounts(executor);
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+    updateParams();
+
+    return iter;
+  }
+
+  /**
+   * Rebuilds the counts of the (zero) model from the assignments.
+   * 
+   * <p> With an executor, each thread counts a range of documents: the counts
+   * of a document are updated directly and the shared counts in a local copy,
+   * which are then merged as after an AD-LDA iteration.
+   */
+  private void rebuildCounts(ExecutorService executor) throws IOException {
+    if (executor == null) {
+      countDocuments(model, 0, numDocuments);
+      return;
+    }
+    if (docStart == null) {
+      partitionDocuments();
+    }
+    if (localModels == null) {
+      localModels = new Model[numThreads];
+    }
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(numThreads);
+    for (int p = 0; p < numThreads; p++) {
+      final int from = docStart[p];
+      final int to = docStart[p + 1];
+      final int thread = p;
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          localModels[thread] = localCopy(model, localModels[thread]);
+          countDocuments(localModels[thread], from, to);
+          return null;
+        }
+      }));
+    }
+    waitFor(futures);
+    mergeLocalModels(executor);
+  }
+
+  /**
+   * Adds the assignments of documents [from, to) to the counts of
+   * {@code model}.
+   */
+  private void countDocuments(Model model, int from, int to) {
+    for (int m = from; m < to; m++) {
+      int length = getDocumentLength(m);
+      long start = corpus != null ? corpus.getDocumentStart(m) : 0;
+      for (int n = 0; n < length; n++) {
+        int i, topic, h;
+        if (corpus != null) {
+          i = corpus.getToken(start + n);
+          topic = corpus.getTopic(start + n);
+          int e = corpus.getEntity(start + n);
+          h = e == 0 ? -1 : docEntityIds[m][e - 1];
+        } else {
+          i = documents[m][n];
+          topic = model.z[m][n];
+          h = model.s[m][n] == DOCUMENT ? -1 : model.rho[m][n];
+        }
+        if (h < 0) {
+          model.cwdt.increment(i, topic);
+          model.cwdtsum[topic]++;
+          model.cdt.increment(m, topic);
+          model.cdtsum[m]++;
+          model.cd[m]++;
+        } else {
+          model.cwet.increment(i, topic);
+          model.cwetsum[topic]++;
+          model.cet.increment(h, topic);
+          model.cetsum[h]++;
+          model.ce[m]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the index of a random entity of a document m.
+   */
+  private int getRandEntity(int m) {
+    // the same as picking uniformly from a list in which each entity appears
+    // as many times as its count
+    int j = random.nextInt(docEntityCount[m]);
+    int e = 0;
+    while (j >= documentEntities[m][e].getCount()) {
+      j -= documentEntities[m][e].getCount();
+      e++;
+    }
+
+    return e;
   }
 
   /**
    * Updates the parameters for the newly collected sample.
    */
   private void updateParams() {
+    if (model.thetad == null) {
+      // the last parameters were handed over to a snapshot
+      model.thetad = new double[numDocuments][numDocumentTopics];
+      model.thetae = new double[numEntities][numEntityTopics];
+      model.phi_d = new double[numDocumentTopics][vocabularySize];
+      model.phi_e = new double[numEntityTopics][vocabularySize];
+    }
     // thetad[][] (D x K_d)
     double tAlpha = numDocumentTopics * alpha_d;
     for (int m = 0; m < numDocuments; m++) {
       for (int k = 0; k < numDocumentTopics; k++) {
-        model.thetad[m][k] = (model.cdt[m][k] + alpha_d) / (model.cdtsum[m] + tAlpha);
+        model.thetad[m][k] = (model.cdt.get(m, k) + alpha_d) / (model.cdtsum[m] + tAlpha);
       }
     }
 
@@ -610,7 +1703,7 @@ public class EntityLdaGibbsSampler3 {
     double tGamma = numEntityTopics * alpha_e;
     for (int h = 0; h < numEntities; h++) {
       for (int k = 0; k < numEntityTopics; k++) {
-        model.thetae[h][k] = (model.cet[h][k] + alpha_e) / (model.cetsum[h] + tGamma);
+        model.thetae[h][k] = (model.cet.get(h, k) + alpha_e) / (model.cetsum[h] + tGamma);
       }
     }
 
@@ -618,7 +1711,7 @@ public class EntityLdaGibbsSampler3 {
     double vBeta = vocabularySize * beta_d;
     for (int k = 0; k < numDocumentTopics; k++) {
       for (int i = 0; i < vocabularySize; i++) {
-        model.phi_d[k][i] = (model.cwdt[i][k] + beta_d) / (model.cwdtsum[k] + vBeta);
+        model.phi_d[k][i] = (model.cwdt.get(i, k) + beta_d) / (model.cwdtsum[k] + vBeta);
       }
     }
 
@@ -626,39 +1719,46 @@ public class EntityLdaGibbsSampler3 {
     vBeta = vocabularySize * beta_e;
     for (int k = 0; k < numEntityTopics; k++) {
       for (int i = 0; i < vocabularySize; i++) {
-        model.phi_e[k][i] = (model.cwet[i][k] + beta_e) / (model.cwetsum[k] + vBeta);
+        model.phi_e[k][i] = (model.cwet.get(i, k) + beta_e) / (model.cwetsum[k] + vBeta);
       }
     }
   }
 
   /**
-   * Samples a set of hidden variables (z, rho, s) for the n_th word in document
-   * m.
+   * Samples a set of hidden variables (z, rho, s) for a word in document m.
    * 
+   * @param model
+   *          the model whose counts are used and updated
+   * @param buffer
+   *          the buffer used to sample (owned by the calling thread)
    * @param m
    *          the document
-   * @param n
-   *          the index (position) of the word in this document
+   * @param i
+   *          the word
+   * @param topic
+   *          the current topic of the word
+   * @param entity
+   *          the current entity of the word
+   * @param s
+   *          the current switch of the word
    * 
-   * @return the sampling set
+   * @return the index of the sampled set in {@code buffer}
    */
-  private SamplingSet sampleFullConditional(int m, int n) {
+  private int sampleFullConditional(Model model, SamplingBuffer buffer, int m,
+      int i, int topic, int entity, int s) {
     // TODO(TRUNG): verify this
-    int i = documents[m][n];
-    int topic = model.z[m][n];
-    int entity = model.rho[m][n];
     // the i_th word was assigned a topic of document m
-    if (model.s[m][n] == DOCUMENT) {
+    if (s == DOCUMENT) {
       // not counting the i_th word
-      model.cwdt[i][topic]--;
+      model.cwdt.decrement(i, topic);
       model.cwdtsum[topic]--;
-      model.cdt[m][topic]--;
+      model.cdt.decrement(m, topic);
       model.cdtsum[m]--;
       model.cd[m]--;
     } else {
-      model.cwet[i][topic]--;
+      model.cwet.decrement(i, topic);
       model.cwetsum[topic]--;
-      model.cet[entity][topic]--;
+      model.cet.decrement(entity, topic);
       model.cetsum[entity]--;
       model.ce[m]--;
     }
@@ -667,84 +1767,54 @@ public class EntityLdaGibbsSampler3 {
     double vBetae = vocabularySize * beta_e;
     double tAlphad = numDocumentTopics * alpha_d;
     double tAlphae = numEntityTopics * alpha_e;
-    ArrayList<SamplingSet> list = new ArrayList<SamplingSet>();
+    int[] entityIds = docEntityIds[m];
+    double[] entityWeights = docEntityWeights[m];
+    buffer.clear();
     double p;
     // add all p(z_i, s_i = doc)
     for (int k = 0; k < numDocumentTopics; k++) {
-      p = ((model.cwdt[i][k] + beta_d) / (model.cwdtsum[k] + vBetad))
-                * ((model.cdt[m][k] + alpha_d) / (model.cdtsum[m] + tAlphad))
+      p = ((model.cwdt.get(i, k) + beta_d) / (model.cwdtsum[k] + vBetad))
+                * ((model.cdt.get(m, k) + alpha_d) / (model.cdtsum[m] + tAlphad))
                 * (model.cd[m] + eta_d);
-      list.add(new SamplingSet(k, -1, DOCUMENT, p));
+      buffer.add(k, -1, DOCUMENT, p);
     }
     // add all p(z_i, e_i, s_i = ent)
-    Entity ent = null;
     for (int k = 0; k < numEntityTopics; k++) {
-      for (int e = 0; e < documentEntities[m].length; e++) {
-        ent = documentEntities[m][e];
+      for (int e = 0; e < entityIds.length; e++) {
         /**
          * We use "uniform dist", i.e., equal probability for each entity that
          * appears in a document. So, if an entity appears ent.getCount()
          * times, its probability is multiplied by that amount. But in theory,
          * this is still uniform for each entity that appears in the document.
          */
-        p = (model.cwet[i][k] + beta_e) / (model.cwetsum[k] + vBetae)
-            * ((model.cet[e][k] + alpha_e) / (model.cetsum[e] + tAlphae))
+        p = (model.cwet.get(i, k) + beta_e) / (model.cwetsum[k] + vBetae)
+            * ((model.cet.get(e, k) + alpha_e) / (model.cetsum[e] + tAlphae))
             * (model.ce[m] + eta_e)
             / docEntityCount[m]
-            * ent.getCount();
-        list.add(new SamplingSet(k, corpusEntitySet.toId(ent), ENTITY, p));
+            * entityWeights[e];
+        buffer.add(k, entityIds[e], ENTITY, p);
       }
     }
-    SamplingSet sample = sample(list);
+    int j = buffer.sample();
 
     // assign new sample set to the i_th word
-    topic = sample.z;
-    if (sample.s == DOCUMENT) {
-      model.cwdt[i][topic]++;
+    topic = buffer.z[j];
+    entity = buffer.rho[j];
+    if (buffer.s[j] == DOCUMENT) {
+      model.cwdt.increment(i, topic);
       model.cwdtsum[topic]++;
-      model.cdt[m][topic]++;
+      model.cdt.increment(m, topic);
       model.cdtsum[m]++;
       model.cd[m]++;
     } else {
-      model.cwet[i][topic]++;
+      model.cwet.increment(i, topic);
       model.cwetsum[topic]++;
-      model.cet[sample.rho][topic]++;
-      model.cetsum[sample.rho]++;
+      model.cet.increment(entity, topic);
+      model.cetsum[entity]++;
       model.ce[m]++;
     }
 
-    return sample;
-  }
-
-  /**
-   * Samples a {@link SamplingSet} from the given discrete distribution.
-   * 
-   * @param list
-   *          a list of {@link SamplingSet} elements.
-   * @return
-   */
-  SamplingSet sample(ArrayList<SamplingSet> list) {
-    int size = list.size();
-    double p[] = new double[size];
-
-    // turning the probability distribution from list into a cumulative
-    // distribution
-    p[0] = list.get(0).p;
-    for (int i = 1; i < size; i++) {
-      p[i] = p[i - 1] + list.get(i).p;
-    }
-
-    // scaled sample because of unnormalized p
-    double u = Math.random() * p[size - 1];
-    int selection;
-    // find the interval which contains u
-    for (selection = 0; selection < size; selection++) {
-      if (u < p[selection]) {
-        break;
-      }
-    }
-
-    return list.get(selection);
+    return j;
   }
 
   /**
@@ -767,7 +1837,7 @@ public class EntityLdaGibbsSampler3 {
     }
 
     // scaled sample because of unnormalized p
-    double u = Math.random() * p[T - 1];
+    double u = random.nextDouble() * p[T - 1];
     // find the interval which contains u
     for (topic = 0; topic < T; topic++) {
       if (u < p[topic]) {
@@ -4,10 +4,17 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
 
+import edu.kaist.uilab.plda.data.CorpusBundle;
 import edu.kaist.uilab.plda.data.CorpusProcessor;
+import edu.kaist.uilab.plda.data.EntityCache;
+import edu.kaist.uilab.plda.data.SharedCorpus;
 import edu.kaist.uilab.plda.file.NYTimesDocumentReader;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.RandomGenerator;
 
 /**
  * TODO(trung):
@@ -172,6 +179,11 @@ public class ModelReporter {
     double eta_e = 5;
     int numDocTopics = 15;
     int numEntityTopics = 15;
+    // -DcorpusBundle=<file> loads the processed corpus from the file, or writes
+    // it there; the corpus is only loaded with the same parameters and seed
+    String bundleFile = System.getProperty("corpusBundle");
+    // -Dseed=<seed> reproduces a run (its seed is written to seed.txt)
+    long seed = readSeed(bundleFile);
     CorpusProcessor corpus = new CorpusProcessor("D:/workspace/util/nytimes/general",
         new NYTimesDocumentReader(), minTokenCount, minEntityCount,
         topStopWords, maxDocumentCount, maxEntitiesPerDoc, stopword);
@@ -181,8 +193,37 @@ public class ModelReporter {
     //corpus = new CorpusProcessor("/home/trung/workspace/util/nytimes/general",
     //  new NYTimesDocumentReader(), minTokenCount, minEntityCount,
     //  topStopWords, maxEntitiesPerDoc, stopword);
+//    String sweepDir = "/home/trung/elda";
+    String sweepDir = "C:/elda";
+    (new File(sweepDir)).mkdirs();
+    corpus.setSeed(seed);
+    // -DentityCache=<dir> keeps the entities of each document, so that a rerun
+    // on the same documents does not classify them again
+    String cacheDir = System.getProperty("entityCache");
+    EntityCache entityCache = null;
+    if (cacheDir != null) {
+      entityCache = new EntityCache(new File(cacheDir));
+      corpus.setEntityCache(entityCache);
+    }
+    if (bundleFile != null) {
+      corpus.setBundleFile(new File(bundleFile));
+    }
+    Metrics metrics = Metrics.register("corpus");
+    metrics.setJsonOutput(new File(sweepDir, Metrics.JSON_FILE));
+    corpus.setMetrics(metrics);
     corpus.process();
+    metrics.close();
+    if (entityCache != null) {
+      entityCache.close();
+    }
+    // the corpus is the same for all runs
+    corpus.reportCorpus(sweepDir + "/corpus.txt",
+        sweepDir + "/docNames.txt",
+        sweepDir + "/entity.txt",
+        sweepDir + "/docEntity.txt",
+        sweepDir + "/token.txt");
 
+    List<SweepRunner.Config> configs = new ArrayList<SweepRunner.Config>();
     while ((line = in.readLine()) != null) {
       if (line.charAt(0) != '#' ) {
         // parse the parameters
@@ -197,40 +238,64 @@ public class ModelReporter {
         eta_e = Double.parseDouble(tokenizer.nextToken());
         beta_d = Double.parseDouble(tokenizer.nextToken());
         beta_e = Double.parseDouble(tokenizer.nextToken());
-//      String outputDir = "/home/trung/elda/bbc20_tok3_stop30_ent2_iter500_maxent3";
-        String outputDir = String.format("C:/elda/3nytimes%d-%d_a%.2f-%.2f_b%.2f-%.2f_eta%.2f-%.2f",
+        String name = String.format("3nytimes%d-%d_a%.2f-%.2f_b%.2f-%.2f_eta%.2f-%.2f",
             numDocTopics, numEntityTopics, alpha_d, alpha_e, beta_d, beta_e, eta_d, eta_e);
-        System.out.println(outputDir);
-//        EntityLdaGibbsSampler sampler;
-        EntityLdaGibbsSampler3 sampler;
-        (new File(outputDir)).mkdir();
-        corpus.reportCorpus(outputDir + "/corpus.txt",
-            outputDir + "/docNames.txt",
-            outputDir + "/entity.txt",
-            outputDir + "/docEntity.txt",
-            outputDir + "/token.txt");
-        
-//        sampler = new EntityLdaGibbsSampler(numTopics,
-//            corpus.getVocabularySize(),
-//            corpus.getNumEntities(),
-//            corpus.getDocumentTokens(),
-//            corpus.getDocumentEntities(),
-//            corpus.getCorpusEntitySet(),
-//            alpha, beta, gamma);
-        sampler = new EntityLdaGibbsSampler3(numDocTopics,
-            numEntityTopics,
-            corpus.getVocabularySize(),
-            corpus.getNumEntities(),
-            corpus.getDocumentTokens(),
-            corpus.getDocumentEntities(),
-            corpus.getCorpusEntitySet());
-        sampler.setPriors(alpha_d, alpha_e, beta_d, beta_e, eta_d, eta_e);
-        sampler.setSamplerParameters(5000, 300, 20, 10);
-        sampler.setOutputParameters(corpus.getSymbolTable(), outputDir, 30, 10, 10);
-        System.out.println("Latent Dirichlet Allocation using Gibbs Sampling.");
-        sampler.doGibbsSampling(false);
+        configs.add(new SweepRunner.Config(name, alpha_d, alpha_e,
+            numDocTopics, numEntityTopics, beta_d, beta_e, eta_d, eta_e));
       }
     }
     in.close();
+
+    SweepRunner sweep = new SweepRunner(new SharedCorpus(corpus), sweepDir,
+        seed);
+    // -Dworkers=<n> trains n configurations at the same time, each of them
+    // reserving at least -DrunMemory=<MB> of the heap
+    sweep.setNumWorkers(Integer.getInteger("workers", 1));
+    sweep.setRunMemory(Long.getLong("runMemory", 0) << 20);
+    sweep.setSamplerParameters(5000, 300, 20, 10);
+    sweep.setOutputParameters(30, 10, 10);
+    // -DmappedCorpus=<dir> keeps the tokens and assignments of each run in
+    // memory-mapped files instead of the heap
+    String mappedDir = System.getProperty("mappedCorpus");
+    if (mappedDir != null) {
+      sweep.setMappedCorpusDir(new File(mappedDir));
+    }
+    // -DnpyExport=f4 (or f8) also writes theta and phi as .npy files
+    String npyExport = System.getProperty("npyExport");
+    if (npyExport != null) {
+      sweep.setNpyExport(true, npyExport.equals("f4"));
+    }
+    System.out.println("Latent Dirichlet Allocation using Gibbs Sampling.");
+    // finished runs of an earlier (killed) sweep are skipped
+    sweep.run(configs);
+  }
+
+  /**
+   * Returns the seed of the sweep: the value of -Dseed, or the seed recorded
+   * in the corpus bundle if there is one. A new bundle is only written for an
+   * explicit seed, since a bundle made with a random seed would be refused by
+   * the next run.
+   *
+   * @param bundleFile
+   *          the file of the corpus bundle, null if there is none
+   */
+  static long readSeed(String bundleFile) throws IOException {
+    Long seed = Long.getLong("seed");
+    if (seed != null) {
+      return seed;
+    }
+    if (bundleFile == null) {
+      return RandomGenerator.newSeed();
+    }
+    File file = new File(bundleFile);
+    if (!file.exists()) {
+      throw new IllegalArgumentException(
+          "-Dseed is required to write the corpus bundle " + bundleFile);
+    }
+    String value = CorpusBundle.readParameters(file).get("seed");
+    if (value == null) {
+      throw new IOException("The corpus bundle has no seed: " + bundleFile);
+    }
+    return Long.parseLong(value);
   }
 }
@@ -0,0 +1,75 @@
+package edu.kaist.uilab.plda;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import edu.kaist.uilab.plda.data.CorpusProcessor;
+import edu.kaist.uilab.plda.file.NYTimesDocumentReader;
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * Reports the scaling of the AD-LDA mode of {@link EntityLdaGibbsSampler3}.
+ * 
+ * <p> The same corpus is sampled with 1, 2, 4, ... threads. For each run, the
+ * number of tokens sampled per second and the log-likelihood of the final
+ * sample are reported together with the relative difference to the
+ * log-likelihood of the serial sampler.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class ParallelSamplingReport {
+  // maximum relative difference of the log-likelihood to the serial sampler
+  static final double MAX_LIKELIHOOD_DIFFERENCE = 0.01;
+
+  public static void main(String args[]) throws IOException {
+    int minTokenCount = 5;
+    int minEntityCount = 5;
+    int topStopWords = 70;
+    int maxDocumentCount = 70;
+    int maxEntitiesPerDoc = 4;
+    int numDocTopics = 15;
+    int numEntityTopics = 15;
+    int numIterations = 500;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    String outputDir = "C:/elda/scaling";
+    // -Dseed=<seed> reproduces a run (its seed is written to seed.txt)
+    long seed = Long.getLong("seed", RandomGenerator.newSeed());
+    CorpusProcessor corpus = new CorpusProcessor("D:/workspace/util/nytimes/general",
+        new NYTimesDocumentReader(), minTokenCount, minEntityCount,
+        topStopWords, maxDocumentCount, maxEntitiesPerDoc, ModelReporter.stopword);
+    corpus.setSeed(seed);
+    corpus.process();
+
+    (new File(outputDir)).mkdirs();
+    PrintWriter out = new PrintWriter(outputDir + "/scaling.txt");
+    out.println("THREADS  TOKENS/SEC  SPEEDUP  LOGLIKELIHOOD  DIFFERENCE");
+    double serialThroughput = 0.0, serialLikelihood = 0.0;
+    for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+      String runDir = outputDir + "/threads" + numThreads;
+      (new File(runDir)).mkdir();
+      EntityLdaGibbsSampler3 sampler = new EntityLdaGibbsSampler3(numDocTopics,
+          numEntityTopics, corpus.getVocabularySize(), corpus.getNumEntities(),
+          corpus.getDocumentTokens(), corpus.getDocumentEntities(),
+          corpus.getCorpusEntitySet());
+      sampler.setPriors(0.1, 50.0 / numEntityTopics, 0.01, 0.1, 0.5, 5);
+      sampler.setSamplerParameters(numIterations, numIterations - 1, 1, 1);
+      sampler.setOutputParameters(corpus.getSymbolTable(), runDir, 30, 10, 10);
+      sampler.setNumThreads(numThreads);
+      sampler.setSeed(seed);
+      sampler.doGibbsSampling(false);
+      double throughput = sampler.getTokensPerSecond();
+      double likelihood = sampler.corpusLog2Likelihood();
+      if (numThreads == 1) {
+        serialThroughput = throughput;
+        serialLikelihood = likelihood;
+      }
+      double difference = Math.abs((likelihood - serialLikelihood) / serialLikelihood);
+      out.printf("%7d  %10.0f  %7.2f  %13.1f  %9.4f%s\n", numThreads,
+          throughput, throughput / serialThroughput, likelihood, difference,
+          difference > MAX_LIKELIHOOD_DIFFERENCE ? " (out of range)" : "");
+      out.flush();
+    }
+    out.close();
+  }
+}
@@ -0,0 +1,76 @@
+package edu.kaist.uilab.plda;
+
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * A reusable buffer for sampling from the full conditional distribution of
+ * the hidden variables (z, rho, s) of a word.
+ * 
+ * <p> This is the primitive counterpart of a list of {@link SamplingSet}s: the
+ * sampling sets are stored in parallel arrays which are allocated once, so
+ * drawing a sample does not create any object.
+ * 
+ * @author Trung Nguyen (trung.ngvan@gmail.com)
+ */
+class SamplingBuffer {
+  int[] z; // topic z[i] of each sampling set
+  int[] rho; // entity rho[i] of each sampling set
+  int[] s; // switch s[i] of each sampling set
+  // p[j] = sum of the (unnormalized) probabilities of sampling sets 0..j
+  double[] p;
+  int size;
+  private RandomGenerator random;
+
+  /**
+   * Constructs a buffer which can hold {@code capacity} sampling sets.
+   * 
+   * @param capacity
+   * @param random
+   *          the random generator used for sampling (a buffer is used by only
+   *          one thread so the generator is not shared)
+   */
+  SamplingBuffer(int capacity, RandomGenerator random) {
+    this.random = random;
+    z = new int[capacity];
+    rho = new int[capacity];
+    s = new int[capacity];
+    p = new double[capacity];
+  }
+
+  /**
+   * Removes all sampling sets from this buffer.
+   */
+  void clear() {
+    size = 0;
+  }
+
+  /**
+   * Adds a sampling set with (unnormalized) probability {@code prob}.
+   */
+  void add(int topic, int entity, int switchValue, double prob) {
+    z[size] = topic;
+    rho[size] = entity;
+    s[size] = switchValue;
+    p[size] = size == 0 ? prob : p[size - 1] + prob;
+    size++;
+  }
+
+  /**
+   * Samples a sampling set from the distribution in this buffer.
+   * 
+   * @return the index of the sampled set
+   */
+  int sample() {
+    // scaled sample because of unnormalized p
+    double u = random.nextDouble() * p[size - 1];
+    int selection;
+    // find the interval which contains u
+    for (selection = 0; selection < size - 1; selection++) {
+      if (u < p[selection]) {
+        break;
+      }
+    }
+
+    return selection;
+  }
+}
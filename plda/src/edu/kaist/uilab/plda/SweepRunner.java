@@ -0,0 +1,483 @@
+package edu.kaist.uilab.plda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import edu.kaist.uilab.plda.data.MappedCorpus;
+import edu.kaist.uilab.plda.data.SharedCorpus;
+import edu.kaist.uilab.plda.util.Checkpoint;
+import edu.kaist.uilab.plda.util.Metrics;
+
+/**
+ * Trains {@link EntityLdaGibbsSampler3} with several hyperparameter
+ * configurations at the same time.
+ *
+ * <p> All runs share one {@link SharedCorpus}. Up to {@code numWorkers} runs
+ * are sampled at the same time, as long as the memory reserved for them fits
+ * in the heap: each run reserves the per-run memory budget (or its estimated
+ * memory if that is larger) before it starts.
+ *
+ * <p> The output of a run is written to the subdirectory of the sweep
+ * directory named after its configuration. The result of each finished run is
+ * appended to {@link #SUMMARY_FILE}, and the table of all runs sorted by
+ * log-likelihood is written to {@link #TABLE_FILE} at the end. A sweep which
+ * was killed can be started again: the runs listed in the summary are skipped,
+ * and a run which was interrupted continues from its last checkpoint.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class SweepRunner {
+  public static final String SUMMARY_FILE = "summary.csv";
+  public static final String TABLE_FILE = "summary.txt";
+  private static final String SUMMARY_HEADER = "name,alpha_d,alpha_e,"
+      + "numDocTopics,numEntityTopics,beta_d,beta_e,eta_d,eta_e,"
+      + "log2Likelihood,wallTime,tokensPerSecond";
+
+  /**
+   * The hyperparameters of one run.
+   */
+  public static class Config {
+    final String name;
+    final double alpha_d;
+    final double alpha_e;
+    final int numDocTopics;
+    final int numEntityTopics;
+    final double beta_d;
+    final double beta_e;
+    final double eta_d;
+    final double eta_e;
+
+    /**
+     * Constructs a configuration.
+     *
+     * @param name
+     *       the name of the run (and of its output directory), without commas
+     */
+    public Config(String name, double alpha_d, double alpha_e,
+        int numDocTopics, int numEntityTopics, double beta_d, double beta_e,
+        double eta_d, double eta_e) {
+      if (name.indexOf(',') >= 0) {
+        throw new IllegalArgumentException("Invalid run name: " + name);
+      }
+      this.name = name;
+      this.alpha_d = alpha_d;
+      this.alpha_e = alpha_e;
+      this.numDocTopics = numDocTopics;
+      this.numEntityTopics = numEntityTopics;
+      this.beta_d = beta_d;
+      this.beta_e = beta_e;
+      this.eta_d = eta_d;
+      this.eta_e = eta_e;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s,%s,%s,%d,%d,%s,%s,%s,%s", name,
+          alpha_d, alpha_e, numDocTopics, numEntityTopics, beta_d, beta_e,
+          eta_d, eta_e);
+    }
+  }
+
+  /**
+   * The result of a finished run.
+   */
+  static class Result {
+    final String config;
+    final double log2Likelihood;
+    final double wallTime;
+    final double tokensPerSecond;
+
+    Result(String config, double log2Likelihood, double wallTime,
+        double tokensPerSecond) {
+      this.config = config;
+      this.log2Likelihood = log2Likelihood;
+      this.wallTime = wallTime;
+      this.tokensPerSecond = tokensPerSecond;
+    }
+
+    /**
+     * Parses a line of the summary file.
+     */
+    static Result parse(String line) {
+      String[] fields = line.split(",");
+      int n = fields.length;
+      StringBuilder config = new StringBuilder(fields[0]);
+      for (int i = 1; i < n - 3; i++) {
+        config.append(',').append(fields[i]);
+      }
+      return new Result(config.toString(), Double.parseDouble(fields[n - 3]),
+          Double.parseDouble(fields[n - 2]), Double.parseDouble(fields[n - 1]));
+    }
+
+    String getName() {
+      return config.substring(0, config.indexOf(','));
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%s,%f,%.1f,%.0f", config,
+          log2Likelihood, wallTime, tokensPerSecond);
+    }
+  }
+
+  private final SharedCorpus corpus;
+  private final File sweepDir;
+  private int numWorkers = 1;
+  private long runMemory;
+  private int numThreads = 1;
+  private int maxIterations = 5000;
+  private int burnIn = 300;
+  private int sampleLags = 20;
+  private int numSamples = 10;
+  private int wordsPerTopic = 30;
+  private int topicsPerDoc = 10;
+  private int topicsPerEntity = 10;
+  private final long seed;
+  private boolean npyExport;
+  private boolean npyFloat32;
+  private File mappedDir;
+
+  /**
+   * Constructs a sweep.
+   *
+   * @param corpus
+   *       the corpus of all runs
+   * @param sweepDir
+   *       the directory of the summary and of the output of the runs
+   * @param seed
+   *       the seed of all runs
+   */
+  public SweepRunner(SharedCorpus corpus, String sweepDir, long seed) {
+    this.corpus = corpus;
+    this.sweepDir = new File(sweepDir);
+    this.seed = seed;
+  }
+
+  /**
+   * Sets the maximum number of runs sampled at the same time.
+   *
+   * @param numWorkers
+   *       the number of runs (default value is 1)
+   */
+  public void setNumWorkers(int numWorkers) {
+    this.numWorkers = Math.max(1, numWorkers);
+  }
+
+  /**
+   * Sets the memory reserved for each run.
+   *
+   * @param runMemory
+   *       the number of bytes (default value is 0, i.e., each run reserves its
+   *       estimated memory)
+   */
+  public void setRunMemory(long runMemory) {
+    this.runMemory = Math.max(0, runMemory);
+  }
+
+  /**
+   * Sets the number of sampling threads of each run (see
+   * {@link EntityLdaGibbsSampler3#setNumThreads(int)}).
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Sets the sampler parameters of all runs (see
+   * {@link EntityLdaGibbsSampler3#setSamplerParameters(int, int, int, int)}).
+   */
+  public void setSamplerParameters(int maxIterations, int burnIn,
+      int sampleLags, int numSamples) {
+    this.maxIterations = maxIterations;
+    this.burnIn = burnIn;
+    this.sampleLags = sampleLags;
+    this.numSamples = numSamples;
+  }
+
+  /**
+   * Sets the sizes of the reports of all runs.
+   */
+  public void setOutputParameters(int wordsPerTopic, int topicsPerDoc,
+      int topicsPerEntity) {
+    this.wordsPerTopic = wordsPerTopic;
+    this.topicsPerDoc = topicsPerDoc;
+    this.topicsPerEntity = topicsPerEntity;
+  }
+
+  /**
+   * Also writes the theta and phi matrices as .npy files (see
+   * {@link EntityLdaGibbsSampler3#setNpyExport(boolean, boolean)}).
+   */
+  public void setNpyExport(boolean npyExport, boolean float32) {
+    this.npyExport = npyExport;
+    this.npyFloat32 = float32;
+  }
+
+  /**
+   * Keeps the tokens and assignments of each run in memory-mapped files in a
+   * subdirectory of {@code mappedDir} (see {@link MappedCorpus}).
+   */
+  public void setMappedCorpusDir(File mappedDir) {
+    this.mappedDir = mappedDir;
+  }
+
+  /**
+   * Runs the configurations which are not in the summary yet.
+   *
+   * @throws IOException
+   *       if a run failed (after the other runs are finished)
+   */
+  public void run(List<Config> configs) throws IOException {
+    sweepDir.mkdirs();
+    File summaryFile = new File(sweepDir, SUMMARY_FILE);
+    List<Result> results = readSummary(summaryFile);
+    Set<String> finished = new HashSet<String>();
+    for (Result result : results) {
+      finished.add(result.getName());
+    }
+    List<Config> pending = new ArrayList<Config>();
+    for (Config config : configs) {
+      if (finished.contains(config.name)) {
+        System.out.println("Skipping finished run " + config.name);
+      } else {
+        pending.add(config);
+      }
+    }
+
+    // the memory which can be reserved (in MB)
+    Runtime runtime = Runtime.getRuntime();
+    long freeMemory = runtime.maxMemory()
+        - (runtime.totalMemory() - runtime.freeMemory());
+    final int availableMB = (int) Math.max(1, freeMemory >> 20);
+    final Semaphore memory = new Semaphore(availableMB, true);
+    final PrintWriter summary = new PrintWriter(new FileWriter(summaryFile,
+        true));
+    if (results.isEmpty()) {
+      summary.println(SUMMARY_HEADER);
+      summary.flush();
+    }
+    final List<Result> newResults = Collections
+        .synchronizedList(new ArrayList<Result>());
+    ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    for (final Config config : pending) {
+      futures.add(executor.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          int reservedMB = (int) Math.min(availableMB, Math.max(runMemory,
+              estimateMemory(config)) >> 20);
+          memory.acquire(reservedMB);
+          try {
+            Result result = run(config);
+            synchronized (summary) {
+              summary.println(result);
+              summary.flush();
+            }
+            newResults.add(result);
+          } finally {
+            memory.release(reservedMB);
+          }
+          return null;
+        }
+      }));
+    }
+    int numFailures = 0;
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (ExecutionException e) {
+          System.err.println("Run " + pending.get(i).name + " failed");
+          e.getCause().printStackTrace();
+          numFailures++;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Sweep interrupted", e);
+    } finally {
+      executor.shutdown();
+      summary.close();
+    }
+    results.addAll(newResults);
+    writeTable(results, new File(sweepDir, TABLE_FILE));
+    if (numFailures > 0) {
+      throw new IOException(numFailures + " of " + pending.size()
+          + " runs failed (they are run again by the next sweep)");
+    }
+  }
+
+  /**
+   * Trains the model of one configuration.
+   */
+  private Result run(Config config) throws IOException {
+    File outputDir = new File(sweepDir, config.name);
+    outputDir.mkdirs();
+    EntityLdaGibbsSampler3 sampler;
+    boolean resume;
+    if (mappedDir != null) {
+      File dir = new File(mappedDir, config.name);
+      MappedCorpus mapped;
+      if (new File(dir, MappedCorpus.ITERATION_FILE).exists()) {
+        mapped = MappedCorpus.open(dir);
+        resume = mapped.getIteration() >= 0;
+      } else {
+        mapped = MappedCorpus.create(dir, corpus.getDocumentTokens());
+        resume = false;
+      }
+      sampler = new EntityLdaGibbsSampler3(config.numDocTopics,
+          config.numEntityTopics, corpus.getVocabularySize(),
+          corpus.getNumEntities(), mapped, corpus.getDocumentEntities(),
+          corpus.getCorpusEntitySet());
+    } else {
+      sampler = new EntityLdaGibbsSampler3(config.numDocTopics,
+          config.numEntityTopics, corpus.getVocabularySize(),
+          corpus.getNumEntities(), corpus.getDocumentTokens(),
+          corpus.getDocumentEntities(), corpus.getCorpusEntitySet());
+      resume = hasCheckpoint(outputDir);
+    }
+    sampler.setPriors(config.alpha_d, config.alpha_e, config.beta_d,
+        config.beta_e, config.eta_d, config.eta_e);
+    sampler.setSamplerParameters(maxIterations, burnIn, sampleLags, numSamples);
+    sampler.setNumThreads(numThreads);
+    sampler.setSeed(seed);
+    sampler.setOutputParameters(corpus.getSymbolTable(), outputDir.getPath(),
+        wordsPerTopic, topicsPerDoc, topicsPerEntity);
+    sampler.setNpyExport(npyExport, npyFloat32);
+
+    // the live counters of the run (in JMX and the run's directory)
+    Metrics metrics = Metrics.register(config.name);
+    metrics.setJsonOutput(new File(outputDir, Metrics.JSON_FILE));
+    sampler.setMetrics(metrics);
+
+    System.out.println((resume ? "Resuming run " : "Starting run ")
+        + config.name);
+    long start = System.nanoTime();
+    double log2Likelihood;
+    try {
+      sampler.doGibbsSampling(resume);
+      log2Likelihood = sampler.corpusLog2Likelihood();
+    } finally {
+      metrics.close();
+    }
+    double wallTime = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Finished run %s in %.1f s\n", config.name, wallTime);
+
+    return new Result(config.toString(), log2Likelihood, wallTime, sampler
+        .getTokensPerSecond());
+  }
+
+  /**
+   * Returns true if an iteration of {@code outputDir} has a checkpoint.
+   */
+  private static boolean hasCheckpoint(File outputDir) {
+    File[] files = outputDir.listFiles();
+    if (files == null) {
+      return false;
+    }
+    for (File file : files) {
+      if (file.isDirectory() && file.getName().matches("\\d+")
+          && new File(file, Checkpoint.FILE_NAME).exists()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns a rough estimate of the number of bytes used by a run: the
+   * assignments of the tokens, the counts and the parameters of the model,
+   * and a snapshot of them being reported.
+   */
+  long estimateMemory(Config config) {
+    long numDocuments = corpus.getNumDocuments();
+    long numEntities = corpus.getNumEntities();
+    long vocabularySize = corpus.getVocabularySize();
+    long cells = vocabularySize * (config.numDocTopics + config.numEntityTopics)
+        + numDocuments * config.numDocTopics + numEntities
+        * config.numEntityTopics;
+    // z, rho and s of each token
+    long assignments = mappedDir != null ? 0 : 12 * corpus.getNumTokens();
+    // int counts and double parameters
+    long model = 12 * cells;
+    // each sampling thread has a copy of the word-topic counts
+    long localCounts = numThreads > 1 ? numThreads * 4 * vocabularySize
+        * (config.numDocTopics + config.numEntityTopics) : 0;
+
+    return 2 * (assignments + model) + localCounts;
+  }
+
+  /**
+   * Returns the results listed in the summary file (if it exists).
+   */
+  static List<Result> readSummary(File file) throws IOException {
+    List<Result> results = new ArrayList<Result>();
+    if (!file.exists()) {
+      return results;
+    }
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.length() > 0 && !line.equals(SUMMARY_HEADER)) {
+          try {
+            results.add(Result.parse(line));
+          } catch (RuntimeException e) {
+            // the last line of a killed sweep can be incomplete
+            System.err.println("Ignoring summary line: " + line);
+          }
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return results;
+  }
+
+  /**
+   * Writes the results ordered by decreasing log-likelihood as a table.
+   */
+  static void writeTable(List<Result> results, File file) throws IOException {
+    List<Result> sorted = new ArrayList<Result>(results);
+    Collections.sort(sorted, new Comparator<Result>() {
+      @Override
+      public int compare(Result r1, Result r2) {
+        return Double.compare(r2.log2Likelihood, r1.log2Likelihood);
+      }
+    });
+    int width = "config".length();
+    for (Result result : sorted) {
+      width = Math.max(width, result.config.length());
+    }
+    PrintWriter out = new PrintWriter(file);
+    out.printf("%-" + width + "s  %18s  %10s  %12s\n", "config",
+        "log2 likelihood", "time (s)", "tokens/s");
+    for (Result result : sorted) {
+      out.printf(Locale.US, "%-" + width + "s  %18.2f  %10.1f  %12.0f\n",
+          result.config, result.log2Likelihood, result.wallTime,
+          result.tokensPerSecond);
+    }
+    out.close();
+  }
+}
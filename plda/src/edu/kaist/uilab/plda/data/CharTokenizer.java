@@ -0,0 +1,130 @@
+package edu.kaist.uilab.plda.data;
+
+import java.util.Set;
+
+import edu.kaist.uilab.plda.util.CharSymbolTable;
+import edu.kaist.uilab.plda.util.IntList;
+
+/**
+ * A tokenizer which works on the characters of a text and returns the tokens
+ * of the chain of {@link CorpusProcessor#newTokenizerFactory(Set)} without
+ * creating a {@code String} (and a lingpipe tokenizer) per token.
+ *
+ * <p> A token is a maximal run of the characters {@code [$a-zA-Z0-9]}, in
+ * lower case. Tokens with less than 2 characters or without a letter are
+ * dropped (if {@code nonAlphaStop} is set), and so are the stop words of
+ * lingpipe's {@code EnglishStopTokenizerFactory} and the given stop words.
+ * Since the letters of a token are ASCII, a text is lowercased once by
+ * mapping {@code A-Z} to {@code a-z}, and the tokens are ranges of the
+ * lowercased characters. The stop words are looked up in a
+ * {@link CharSymbolTable} which is never modified, so a tokenizer may be
+ * used by several threads.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class CharTokenizer {
+  // the stop list of lingpipe's EnglishStopTokenizerFactory (not public)
+  static final String[] ENGLISH_STOP_WORDS = { "a", "about", "after", "all",
+      "also", "an", "and", "any", "are", "as", "at", "be", "because", "been",
+      "but", "by", "can", "co", "corp", "could", "for", "from", "had", "has",
+      "have", "he", "her", "his", "if", "in", "inc", "into", "is", "it",
+      "its", "last", "more", "most", "mr", "mrs", "ms", "mz", "no", "not",
+      "of", "on", "one", "only", "or", "other", "out", "over", "s", "says",
+      "she", "so", "some", "such", "than", "that", "the", "their", "there",
+      "they", "this", "to", "up", "was", "we", "were", "when", "which", "who",
+      "will", "with", "would" };
+
+  private final CharSymbolTable stopTable;
+  private final boolean nonAlphaStop;
+
+  /**
+   * Constructs a tokenizer.
+   *
+   * @param stopWords
+   *          the stop words in addition to the English stop words
+   * @param nonAlphaStop
+   *          whether to drop the tokens with less than 2 characters or
+   *          without a letter
+   */
+  public CharTokenizer(Set<String> stopWords, boolean nonAlphaStop) {
+    this.nonAlphaStop = nonAlphaStop;
+    stopTable = new CharSymbolTable();
+    for (String word : ENGLISH_STOP_WORDS) {
+      stopTable.getOrAdd(word);
+    }
+    for (String word : stopWords) {
+      stopTable.getOrAdd(word);
+    }
+  }
+
+  /**
+   * Tokenizes a text.
+   *
+   * @param text
+   *          the text
+   * @param tokens
+   *          receives the start and the end of each token in the returned
+   *          array
+   * @return the characters of the text in lower case
+   */
+  public char[] tokenize(CharSequence text, IntList tokens) {
+    char[] cs = toLowerCase(text);
+    int start = -1;
+    boolean hasLetter = false;
+    for (int i = 0; i <= cs.length; i++) {
+      char c = i < cs.length ? cs[i] : ' ';
+      boolean letter = c >= 'a' && c <= 'z';
+      if (letter || (c >= '0' && c <= '9') || c == '$') {
+        if (start < 0) {
+          start = i;
+          hasLetter = false;
+        }
+        hasLetter |= letter;
+      } else if (start >= 0) {
+        int length = i - start;
+        if (!(nonAlphaStop && (length < 2 || !hasLetter))
+            && stopTable.get(cs, start, length) < 0) {
+          tokens.add(start);
+          tokens.add(i);
+        }
+        start = -1;
+      }
+    }
+    return cs;
+  }
+
+  /**
+   * Returns the ids in a symbol table of the tokens of a text; tokens which
+   * are not in the symbol table are dropped.
+   */
+  public int[] toIds(CharSequence text, CharSymbolTable symbols) {
+    IntList tokens = new IntList(text.length() / 4);
+    char[] cs = tokenize(text, tokens);
+    IntList ids = new IntList(tokens.size() / 2);
+    for (int n = 0; n < tokens.size(); n += 2) {
+      int start = tokens.get(n);
+      int id = symbols.get(cs, start, tokens.get(n + 1) - start);
+      if (id >= 0) {
+        ids.add(id);
+      }
+    }
+    return ids.toArray();
+  }
+
+  private static char[] toLowerCase(CharSequence text) {
+    char[] cs = new char[text.length()];
+    if (text instanceof String) {
+      ((String) text).getChars(0, cs.length, cs, 0);
+    } else {
+      for (int i = 0; i < cs.length; i++) {
+        cs[i] = text.charAt(i);
+      }
+    }
+    for (int i = 0; i < cs.length; i++) {
+      if (cs[i] >= 'A' && cs[i] <= 'Z') {
+        cs[i] += 'a' - 'A';
+      }
+    }
+    return cs;
+  }
+}
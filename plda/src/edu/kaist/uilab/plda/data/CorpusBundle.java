@@ -0,0 +1,461 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.aliasi.symbol.MapSymbolTable;
+import com.aliasi.symbol.SymbolTable;
+import com.aliasi.util.Counter;
+import com.aliasi.util.ObjectToCounterMap;
+
+/**
+ * A processed corpus in a binary file, so that an experiment does not parse
+ * and tokenize the documents of its corpus again.
+ *
+ * <p> The file holds everything a {@link CorpusProcessor} produces, together
+ * with the parameters of the processing (see
+ * {@link CorpusProcessor#getParameters()}); a bundle is only used for a
+ * processor with the same parameters.
+ *
+ * <p> The file is written with a {@link FileChannel} and read through
+ * memory-mapped windows of at most {@value #WINDOW_SIZE} bytes. All numbers
+ * are big-endian, and a string is the length of its UTF-8 bytes (int)
+ * followed by the bytes. The file contains:
+ * <ul>
+ * <li>magic number and format version (int)</li>
+ * <li>the parameters: their number (int) followed by the name and value
+ * (string) of each parameter</li>
+ * <li>the names of the documents: their number (int) followed by the
+ * names</li>
+ * <li>the vocabulary: its size (int) followed by the word of each id</li>
+ * <li>the token counts: the total number of tokens (long), the number of
+ * distinct tokens (int) and each token (string) with its count (int), before
+ * the vocabulary was pruned</li>
+ * <li>the entities: their number (int) followed by the value (string), type
+ * (byte) and corpus count (int) of each entity id</li>
+ * <li>the tokens: the position of the first token of each document and the
+ * total number of tokens (long), followed by the word ids of all documents
+ * (int)</li>
+ * <li>the entities of the documents: the position of the first entity of each
+ * document and the total number of entities (int), followed by the id and
+ * count (int) of each entity of all documents</li>
+ * </ul>
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class CorpusBundle {
+  public static final int VERSION = 1;
+  static final int MAGIC = 0x504c4442; // "PLDB"
+  static final int WINDOW_SIZE = 1 << 26;
+  static final String TMP_SUFFIX = ".tmp";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Map<String, String> parameters;
+  private final List<String> documentNames;
+  private final SymbolTable symbolTable;
+  private final ObjectToCounterMap<String> tokenCounter;
+  private final long numTokens;
+  private final CorpusEntitySet corpusEntities;
+  private final int[][] documentTokens;
+  private final Entity[][] documentEntities;
+
+  /**
+   * Constructs the bundle of a processed corpus.
+   *
+   * @param parameters
+   *          the parameters of the processing
+   * @param documentNames
+   *          the names of the documents
+   * @param symbolTable
+   *          the vocabulary
+   * @param tokenCounter
+   *          the count of every token of the corpus (before pruning)
+   * @param numTokens
+   *          the number of tokens of the corpus (before pruning)
+   * @param corpusEntities
+   *          the entities of the corpus
+   * @param documentTokens
+   *          the word ids of each document
+   * @param documentEntities
+   *          the entities of each document
+   */
+  CorpusBundle(Map<String, String> parameters, List<String> documentNames,
+      SymbolTable symbolTable, ObjectToCounterMap<String> tokenCounter,
+      long numTokens, CorpusEntitySet corpusEntities, int[][] documentTokens,
+      Entity[][] documentEntities) {
+    this.parameters = parameters;
+    this.documentNames = documentNames;
+    this.symbolTable = symbolTable;
+    this.tokenCounter = tokenCounter;
+    this.numTokens = numTokens;
+    this.corpusEntities = corpusEntities;
+    this.documentTokens = documentTokens;
+    this.documentEntities = documentEntities;
+  }
+
+  public Map<String, String> getParameters() {
+    return parameters;
+  }
+
+  public List<String> getDocumentNames() {
+    return documentNames;
+  }
+
+  public SymbolTable getSymbolTable() {
+    return symbolTable;
+  }
+
+  ObjectToCounterMap<String> getTokenCounter() {
+    return tokenCounter;
+  }
+
+  /**
+   * Returns the number of tokens of the corpus before pruning.
+   */
+  public long getNumTokens() {
+    return numTokens;
+  }
+
+  public CorpusEntitySet getCorpusEntitySet() {
+    return corpusEntities;
+  }
+
+  public int[][] getDocumentTokens() {
+    return documentTokens;
+  }
+
+  public Entity[][] getDocumentEntities() {
+    return documentEntities;
+  }
+
+  /**
+   * Checks that the bundle was made with the given parameters.
+   *
+   * @throws IOException
+   *           if a parameter is missing or has another value
+   */
+  public void checkParameters(Map<String, String> expected) throws IOException {
+    checkParameters(parameters, expected);
+  }
+
+  /**
+   * Checks that the parameters of a bundle (see
+   * {@link #readParameters(File)}) are the given parameters.
+   *
+   * @throws IOException
+   *           if a parameter is missing or has another value
+   */
+  public static void checkParameters(Map<String, String> parameters,
+      Map<String, String> expected) throws IOException {
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      String value = parameters.get(entry.getKey());
+      if (!entry.getValue().equals(value)) {
+        throw new IOException(String.format(
+            "The corpus bundle was made with %s = %s instead of %s", entry
+                .getKey(), value, entry.getValue()));
+      }
+    }
+  }
+
+  /**
+   * Writes the bundle to a file.
+   *
+   * <p> The bundle is written to a temporary file which is then renamed, so
+   * a process killed while writing does not leave a truncated bundle.
+   */
+  public void write(File file) throws IOException {
+    File tmpFile = new File(file.getPath() + TMP_SUFFIX);
+    FileOutputStream stream = new FileOutputStream(tmpFile);
+    Output out = new Output(stream.getChannel());
+    boolean written = false;
+    try {
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(parameters.size());
+      for (Map.Entry<String, String> entry : parameters.entrySet()) {
+        out.putString(entry.getKey());
+        out.putString(entry.getValue());
+      }
+      out.putInt(documentNames.size());
+      for (String name : documentNames) {
+        out.putString(name);
+      }
+      out.putInt(symbolTable.numSymbols());
+      for (int id = 0; id < symbolTable.numSymbols(); id++) {
+        out.putString(symbolTable.idToSymbol(id));
+      }
+      out.putLong(numTokens);
+      out.putInt(tokenCounter.size());
+      for (Map.Entry<String, Counter> entry : tokenCounter.entrySet()) {
+        out.putString(entry.getKey());
+        out.putInt(entry.getValue().intValue());
+      }
+      ArrayList<Entity> entities = corpusEntities.getEntities();
+      out.putInt(entities.size());
+      for (Entity entity : entities) {
+        out.putString(entity.value);
+        out.putByte(entity.type);
+        out.putInt(entity.count);
+      }
+      long position = 0;
+      for (int[] tokens : documentTokens) {
+        out.putLong(position);
+        position += tokens.length;
+      }
+      out.putLong(position);
+      for (int[] tokens : documentTokens) {
+        for (int word : tokens) {
+          out.putInt(word);
+        }
+      }
+      int numEntities = 0;
+      for (Entity[] list : documentEntities) {
+        out.putInt(numEntities);
+        numEntities += list.length;
+      }
+      out.putInt(numEntities);
+      for (Entity[] list : documentEntities) {
+        for (Entity entity : list) {
+          out.putInt(corpusEntities.toId(entity));
+          out.putInt(entity.count);
+        }
+      }
+      out.flush();
+      written = true;
+    } finally {
+      stream.close();
+      if (!written) {
+        tmpFile.delete();
+      }
+    }
+    // renameTo() does not replace an existing file on every platform
+    file.delete();
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("Cannot rename " + tmpFile + " to " + file);
+    }
+  }
+
+  /**
+   * Reads only the parameters of the bundle in a file.
+   */
+  public static Map<String, String> readParameters(File file)
+      throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return readHeader(new Input(raf.getChannel()), file);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Reads a bundle from a file.
+   */
+  public static CorpusBundle read(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      Input in = new Input(raf.getChannel());
+      Map<String, String> parameters = readHeader(in, file);
+      int numDocuments = in.getInt();
+      List<String> documentNames = new ArrayList<String>(numDocuments);
+      for (int m = 0; m < numDocuments; m++) {
+        documentNames.add(in.getString());
+      }
+      int size = in.getInt();
+      MapSymbolTable symbolTable = new MapSymbolTable();
+      for (int id = 0; id < size; id++) {
+        symbolTable.getOrAddSymbol(in.getString());
+      }
+      long numTokens = in.getLong();
+      size = in.getInt();
+      ObjectToCounterMap<String> tokenCounter =
+          new ObjectToCounterMap<String>();
+      for (int j = 0; j < size; j++) {
+        tokenCounter.set(in.getString(), in.getInt());
+      }
+      size = in.getInt();
+      CorpusEntitySet corpusEntities = new CorpusEntitySet();
+      Entity[] entities = new Entity[size];
+      for (int id = 0; id < size; id++) {
+        entities[id] = new Entity(in.getString(), in.getByte());
+        entities[id].count = in.getInt();
+        corpusEntities.map.put(entities[id], new CorpusEntitySet.Pair(
+            entities[id].count, id));
+      }
+      long[] offsets = new long[numDocuments + 1];
+      for (int m = 0; m <= numDocuments; m++) {
+        offsets[m] = in.getLong();
+      }
+      int[][] documentTokens = new int[numDocuments][];
+      for (int m = 0; m < numDocuments; m++) {
+        documentTokens[m] = new int[(int) (offsets[m + 1] - offsets[m])];
+        in.getInts(documentTokens[m]);
+      }
+      int[] entityOffsets = new int[numDocuments + 1];
+      for (int m = 0; m <= numDocuments; m++) {
+        entityOffsets[m] = in.getInt();
+      }
+      Entity[][] documentEntities = new Entity[numDocuments][];
+      for (int m = 0; m < numDocuments; m++) {
+        documentEntities[m] = new Entity[entityOffsets[m + 1]
+            - entityOffsets[m]];
+        for (int e = 0; e < documentEntities[m].length; e++) {
+          Entity entity = entities[in.getInt()].clone();
+          entity.count = in.getInt();
+          documentEntities[m][e] = entity;
+        }
+      }
+      return new CorpusBundle(parameters, documentNames, symbolTable,
+          tokenCounter, numTokens, corpusEntities, documentTokens,
+          documentEntities);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Reads the magic number, the version and the parameters of a bundle.
+   */
+  private static Map<String, String> readHeader(Input in, File file)
+      throws IOException {
+    if (in.getInt() != MAGIC) {
+      throw new IOException("Not a corpus bundle: " + file);
+    }
+    int version = in.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported corpus bundle version " + version);
+    }
+    int size = in.getInt();
+    Map<String, String> parameters = new LinkedHashMap<String, String>();
+    for (int j = 0; j < size; j++) {
+      parameters.put(in.getString(), in.getString());
+    }
+    return parameters;
+  }
+
+  /**
+   * Writes to a channel through a buffer.
+   */
+  private static class Output {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+    Output(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    private void ensure(int length) throws IOException {
+      if (buffer.remaining() < length) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    void putByte(int value) throws IOException {
+      ensure(1);
+      buffer.put((byte) value);
+    }
+
+    void putInt(int value) throws IOException {
+      ensure(4);
+      buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      ensure(8);
+      buffer.putLong(value);
+    }
+
+    void putString(String value) throws IOException {
+      byte[] bytes = value.getBytes(UTF8);
+      putInt(bytes.length);
+      if (bytes.length > buffer.capacity()) {
+        flush();
+        ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+        while (wrapped.hasRemaining()) {
+          channel.write(wrapped);
+        }
+      } else {
+        ensure(bytes.length);
+        buffer.put(bytes);
+      }
+    }
+  }
+
+  /**
+   * Reads a channel through memory-mapped windows.
+   */
+  private static class Input {
+    private final FileChannel channel;
+    private final long size;
+    // the position of the window in the file
+    private long position;
+    private MappedByteBuffer window;
+
+    Input(FileChannel channel) throws IOException {
+      this.channel = channel;
+      size = channel.size();
+      window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size,
+          WINDOW_SIZE));
+    }
+
+    /**
+     * Makes sure that the next {@code length} bytes are in the window.
+     */
+    private void ensure(long length) throws IOException {
+      if (window.remaining() < length) {
+        position += window.position();
+        if (position + length > size) {
+          throw new IOException("Unexpected end of corpus bundle");
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math
+            .min(size - position, Math.max(WINDOW_SIZE, length)));
+      }
+    }
+
+    byte getByte() throws IOException {
+      ensure(1);
+      return window.get();
+    }
+
+    int getInt() throws IOException {
+      ensure(4);
+      return window.getInt();
+    }
+
+    long getLong() throws IOException {
+      ensure(8);
+      return window.getLong();
+    }
+
+    String getString() throws IOException {
+      byte[] bytes = new byte[getInt()];
+      ensure(bytes.length);
+      window.get(bytes);
+      return new String(bytes, UTF8);
+    }
+
+    void getInts(int[] values) throws IOException {
+      ensure(4L * values.length);
+      window.asIntBuffer().get(values);
+      window.position(window.position() + 4 * values.length);
+    }
+  }
+}
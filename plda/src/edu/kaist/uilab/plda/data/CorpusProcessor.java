@@ -5,26 +5,26 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.aliasi.symbol.MapSymbolTable;
 import com.aliasi.symbol.SymbolTable;
 import com.aliasi.tokenizer.EnglishStopTokenizerFactory;
 import com.aliasi.tokenizer.LowerCaseTokenizerFactory;
 import com.aliasi.tokenizer.ModifyTokenTokenizerFactory;
 import com.aliasi.tokenizer.RegExTokenizerFactory;
 import com.aliasi.tokenizer.StopTokenizerFactory;
-import com.aliasi.tokenizer.Tokenizer;
 import com.aliasi.tokenizer.TokenizerFactory;
-import com.aliasi.util.Counter;
 import com.aliasi.util.ObjectToCounterMap;
-import com.aliasi.util.Strings;
 
 import edu.kaist.uilab.plda.file.DocumentReader;
+import edu.kaist.uilab.plda.util.CharSymbolTable;
+import edu.kaist.uilab.plda.util.Metrics;
+import edu.kaist.uilab.plda.util.RandomGenerator;
 
 /**
  * A class that prepares data for the model.
@@ -36,8 +36,10 @@ public class CorpusProcessor {
   private String corpusDir;
   private DocumentReader reader;
   private SymbolTable symbolTable;
-  private TokenizerFactory tokenizerFactory;
-  private EntityParser entityParser;
+  private CharTokenizer tokenizer;
+  // the symbol table as looked up by the tokenizer
+  private CharSymbolTable vocabulary;
+  private CorpusEntitySet corpusEntities;
   // to maintain the same order of documents in the corpus
   private ArrayList<String> docNames;
   private int minTokenCount;
@@ -47,8 +49,15 @@ public class CorpusProcessor {
   private int maxEntitiesPerDoc;
   private int[][] documentTokens;
   private Entity[][] documentEntities;
-  private CharSequence[] cSeqs;
+  // the counts of all tokens of the corpus (before pruning)
+  private ObjectToCounterMap<String> tokenCounter;
+  private long numTokens;
+  private int numThreads = Runtime.getRuntime().availableProcessors();
+  private EntityCache entityCache;
+  private File bundleFile;
   private Set<String> stopWords;
+  private long seed = RandomGenerator.newSeed();
+  private Metrics metrics;
 
   /**
    * Constructor
@@ -84,6 +93,89 @@ public class CorpusProcessor {
     this.stopWords = new HashSet<String>(Arrays.asList(stopwordList));
   }
 
+  /**
+   * Sets the seed of the random generator used to choose the documents of the
+   * corpus.
+   * 
+   * @param seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Returns the seed of the random generator used to choose the documents of
+   * the corpus.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Sets the metrics to which the processed documents are recorded.
+   * 
+   * @param metrics
+   *       the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sets the number of threads which parse the entities and tokenize the
+   * documents (see {@link DocumentPipeline}).
+   * 
+   * @param numThreads
+   *       the number of threads (default value is the number of processors)
+   */
+  public void setNumThreads(int numThreads) {
+    this.numThreads = Math.max(1, numThreads);
+  }
+
+  /**
+   * Sets the cache of the entities of each document, so that the documents
+   * which have been parsed before are not classified again.
+   * 
+   * @param entityCache
+   *       the cache (null for none, the default value)
+   */
+  public void setEntityCache(EntityCache entityCache) {
+    this.entityCache = entityCache;
+  }
+
+  /**
+   * Sets the file of the processed corpus (see {@link CorpusBundle}):
+   * {@link #process()} loads the corpus from the file if it exists, or
+   * processes the documents and writes the file.
+   * 
+   * @param bundleFile
+   *       the file (null for none, the default value)
+   */
+  public void setBundleFile(File bundleFile) {
+    this.bundleFile = bundleFile;
+  }
+
+  /**
+   * Returns the parameters of the processing, which determine the processed
+   * corpus; a {@link CorpusBundle} is only loaded for the same parameters.
+   */
+  public Map<String, String> getParameters() {
+    Map<String, String> parameters = new LinkedHashMap<String, String>();
+    parameters.put("corpusDir", corpusDir);
+    parameters.put("reader", reader.getClass().getName());
+    parameters.put("minTokenCount", String.valueOf(minTokenCount));
+    parameters.put("minEntityCount", String.valueOf(minEntityCount));
+    parameters.put("topStopWords", String.valueOf(topStopWords));
+    parameters.put("topDocumentTokens", String.valueOf(topDocumentTokens));
+    parameters.put("maxEntitiesPerDoc", String.valueOf(maxEntitiesPerDoc));
+    List<String> stopList = new ArrayList<String>(stopWords);
+    Collections.sort(stopList);
+    parameters.put("stopWords", stopList.toString());
+    // the seed chooses the documents
+    parameters.put("seed", String.valueOf(seed));
+    return parameters;
+  }
+
   /**
    * Processes data in this corpus.
    * 
@@ -92,6 +184,10 @@ public class CorpusProcessor {
    * using the various getter methods.
    */
   public void process() throws IOException {
+    if (bundleFile != null && bundleFile.exists()) {
+      loadBundle(bundleFile);
+      return;
+    }
     File dir = new File(corpusDir);
     docNames = new ArrayList<String>();
     for (File file : dir.listFiles()) {
@@ -99,31 +195,74 @@ public class CorpusProcessor {
         docNames.add(file.getName());
       }
     }
+    // the order of listFiles() is not specified
+    Collections.sort(docNames);
+    RandomGenerator random = RandomGenerator.newInstance(seed);
     // TODO(trung): remove after testing
     int test = 10000;
     ArrayList<String> holder = new ArrayList<String>(test);
     for (int i = 0; i < test; i++) {
-      holder.add(docNames.get((int) (Math.random() * docNames.size())));
+      holder.add(docNames.get(random.nextInt(docNames.size())));
     }
     docNames = holder;
     
 //    docNames = new ArrayList<String>(docNames.subList(0, 1000));
 
-    System.out.println("\nParsing the corpus for entities...");
-    entityParser = new EntityParser(corpusDir, reader, docNames,
+    System.out.println("\nParsing the corpus for entities and tokens...");
+    EntityParser entityParser = new EntityParser(corpusDir, reader, docNames,
         minEntityCount, maxEntitiesPerDoc);
     entityParser.setAcceptedEntityType(true, false, true);
-    entityParser.parseCorpus();
+    entityParser.setEntityCache(entityCache);
+    TokenStage tokenStage = newTokenStage();
+    DocumentPipeline pipeline = new DocumentPipeline(corpusDir, reader);
+    pipeline.setNumThreads(2, numThreads);
+    pipeline.setMetrics(metrics);
+    pipeline.addStage(entityParser.newStage());
+    pipeline.addStage(tokenStage);
+    pipeline.run(docNames);
+    setTokens(tokenStage);
     documentEntities = entityParser.getDocumentEntities();
-    System.out.println("\nParsing entities done!");
-    tokenizerFactory = customTokenizerFactory();
-    symbolTable = new MapSymbolTable();
+    corpusEntities = entityParser.getCorpusEntitySet();
+    System.out.println(pipeline.statistics());
+    if (entityCache != null) {
+      System.out.println(entityCache.statistics());
+    }
+    System.out.println("Parsing done!");
+    if (bundleFile != null) {
+      saveBundle(bundleFile);
+    }
+  }
 
-    System.out.println("Tokenizing the corpus to tokens...");
-    cSeqs = readCorpus(docNames);
-    documentTokens = tokenizeDocuments(cSeqs, tokenizerFactory, symbolTable,
-        minTokenCount);
-    System.out.println("Tokenizing done!");
+  /**
+   * Writes the processed corpus to a file (see {@link CorpusBundle}).
+   */
+  public void saveBundle(File file) throws IOException {
+    new CorpusBundle(getParameters(), docNames, symbolTable, tokenCounter,
+        numTokens, corpusEntities, documentTokens, documentEntities)
+        .write(file);
+  }
+
+  /**
+   * Loads the corpus from a file written by {@link #saveBundle(File)}.
+   * 
+   * @throws IOException
+   *       if the file was written with other parameters
+   */
+  private void loadBundle(File file) throws IOException {
+    long start = System.nanoTime();
+    // a bundle made with other parameters is refused before it is loaded
+    CorpusBundle.checkParameters(CorpusBundle.readParameters(file),
+        getParameters());
+    CorpusBundle bundle = CorpusBundle.read(file);
+    docNames = new ArrayList<String>(bundle.getDocumentNames());
+    setSymbolTable(bundle.getSymbolTable());
+    tokenCounter = bundle.getTokenCounter();
+    numTokens = bundle.getNumTokens();
+    corpusEntities = bundle.getCorpusEntitySet();
+    documentTokens = bundle.getDocumentTokens();
+    documentEntities = bundle.getDocumentEntities();
+    System.out.printf("Loaded the corpus from %s in %.2f s\n", file,
+        (System.nanoTime() - start) / 1e9);
   }
 
   /**
@@ -132,7 +271,7 @@ public class CorpusProcessor {
    * @return
    */
   public CorpusEntitySet getCorpusEntitySet() {
-    return entityParser.getCorpusEntitySet();
+    return corpusEntities;
   }
   
   /**
@@ -160,7 +299,7 @@ public class CorpusProcessor {
    */
 
   public int getNumEntities() {
-    return entityParser.getNumEntities();
+    return corpusEntities.getNumEntities();
   }
 
   /**
@@ -215,15 +354,6 @@ public class CorpusProcessor {
   private void writeCorpus(String file) throws IOException {
     PrintWriter out = new PrintWriter(file);
     out.printf("Corpus directory: %s\n", corpusDir);
-    ObjectToCounterMap<String> tokenCounter = new ObjectToCounterMap<String>();
-    int numTokens = 0;
-    for (CharSequence cSeq : cSeqs) {
-      char[] cs = cSeq.toString().toCharArray();
-      for (String token : tokenizerFactory.tokenizer(cs, 0, cs.length)) {
-        tokenCounter.increment(token);
-        numTokens++;
-      }
-    }
     out.printf("# tokens: %d\n", numTokens);
     out.printf("# unique tokens: %d (minTokenCount = %d)\n",
         getVocabularySize(), minTokenCount);
@@ -255,7 +385,7 @@ public class CorpusProcessor {
 
   private void writeEntities(String file) throws IOException {
     PrintWriter out = new PrintWriter(file);
-    ArrayList<Entity> entities = entityParser.getEntities();
+    ArrayList<Entity> entities = corpusEntities.getEntities();
     for (Entity entity : entities) {
       out.println(entity);
     }
@@ -274,158 +404,80 @@ public class CorpusProcessor {
   }
 
   /**
-   * Reads the entire corpus for training the model.
-   * 
-   * @param directory
-   * @return
-   * @throws IOException
+   * Tokenizes the given documents of the corpus without parsing their
+   * entities -- for testing only.
    */
-  private CharSequence[] readCorpus(ArrayList<String> docNames) {
-    ArrayList<CharSequence> documents = new ArrayList<CharSequence>(
-        docNames.size());
-    try {
-      for (String doc : docNames) {
-        documents.add(reader.readDocument(corpusDir + "/" + doc));
-      }
-    } catch (IOException e) {
-      // do nothing to continue reading other docs
-    }
-
-    return documents.<CharSequence> toArray(new CharSequence[documents.size()]);
+  void processTokens(ArrayList<String> docNames) throws IOException {
+    this.docNames = docNames;
+    TokenStage tokenStage = newTokenStage();
+    DocumentPipeline pipeline = new DocumentPipeline(corpusDir, reader);
+    pipeline.setNumThreads(2, numThreads);
+    pipeline.addStage(tokenStage);
+    pipeline.run(docNames);
+    setTokens(tokenStage);
   }
 
   /**
-   * Tokenize an array of text documents represented as character sequences into
-   * a form usable by LDA, using the specified tokenizer factory and symbol
-   * table. The symbol table should be constructed fresh for this application,
-   * but may be used after this method is called for further token to symbol
-   * conversions. Only tokens whose count is equal to or larger the specified
-   * minimum count are included. Only tokens whose count exceeds the minimum are
-   * added to the symbol table, thus producing a compact set of symbol
-   * assignments to tokens for downstream processing.
-   * 
-   * <p>
-   * <i>Warning</i>: With some tokenizer factories and or minimum count
-   * thresholds, there may be documents with no tokens in them.
-   * 
-   * @param texts
-   *          The text corpus.
-   * @param tokenizerFactory
-   *          A tokenizer factory for tokenizing the texts.
-   * @param symbolTable
-   *          Symbol table used to convert tokens to identifiers.
-   * @param minCount
-   *          Minimum count for a token to be included in a document's
-   *          representation.
-   * @return The tokenized form of a document suitable for input to LDA.
+   * Returns the counts of all tokens of the corpus (before pruning).
    */
-  private int[][] tokenizeDocuments(CharSequence[] texts,
-      TokenizerFactory tokenizerFactory, SymbolTable symbolTable, int minCount) {
-    ObjectToCounterMap<String> tokenCounter = new ObjectToCounterMap<String>();
-    // count #(a token appears in a document)
-    ObjectToCounterMap<String> tokDocumentCounter = new ObjectToCounterMap<String>();
-    for (CharSequence text : texts) {
-      HashSet<String> uniqueDocTokens = new HashSet<String>();
-      char[] cs = Strings.toCharArray(text);
-      Tokenizer tokenizer = tokenizerFactory.tokenizer(cs, 0, cs.length);
-      for (String token : tokenizer) {
-        tokenCounter.increment(token);
-        if (uniqueDocTokens.add(token)) {
-          tokDocumentCounter.increment(token);
-        }
-      }  
-    }
-    tokenCounter.prune(minCount);
-    pruneTopWords(tokenCounter, topStopWords);
-    pruneTopDocumentTokens(tokDocumentCounter, topDocumentTokens);
-    Set<String> tokenSet = tokenCounter.keySet();
-    for (String token : tokenSet)
-      symbolTable.getOrAddSymbol(token);
-
-    int[][] docTokenId = new int[texts.length][];
-    for (int i = 0; i < docTokenId.length; ++i) {
-      docTokenId[i] = tokenizeDocument(texts[i], tokenizerFactory, symbolTable);
-    }
-    return docTokenId;
+  ObjectToCounterMap<String> getTokenCounter() {
+    return tokenCounter;
   }
 
   /**
-   * Prunes the tokens that appear in more than a specified number of documents.
-   * 
-   * @param counter
-   * @param percent
+   * Returns the stage of the {@link DocumentPipeline} which tokenizes the
+   * documents of this corpus (see {@link TokenStage}).
    */
-  private void pruneTopDocumentTokens(ObjectToCounterMap<String> counter,
-      int percent) {
-    int threshold = percent * docNames.size() / 100;
-    int count = 0;
-    Iterator<Map.Entry<String, Counter>> iter = counter.entrySet().iterator();
-    while (iter.hasNext()) {
-      if (iter.next().getValue().intValue() > threshold) {
-        iter.remove();
-        count++;
-      }
-    }
-    System.err.printf("%d words pruned.\n", count);
+  private TokenStage newTokenStage() {
+    return new TokenStage(new CharTokenizer(stopWords, true), docNames.size(),
+        minTokenCount, topStopWords, topDocumentTokens);
   }
-  
+
   /**
-   * Prunes the top {@code num} tokens from the vocabulary set.
-   * 
-   * @param tokenCounter
-   * @param num
+   * Takes the tokens of the corpus from a token stage which has finished.
    */
-  private void pruneTopWords(ObjectToCounterMap<String> tokenCounter, int num) {
-    HashSet<String> topKeys = new HashSet<String>(
-        tokenCounter.keysOrderedByCountList().subList(0, num));
-    Iterator<Map.Entry<String, Counter>> iter = tokenCounter.entrySet().iterator();
-    int count = 0;
-    while (iter.hasNext()) {
-      if (topKeys.contains(iter.next().getKey())) {
-        iter.remove();
-        count++;
-      }
-    }
-    System.err.printf("%d stop words pruned.\n", count);
+  private void setTokens(TokenStage tokenStage) {
+    tokenCounter = tokenStage.getTokenCounter();
+    numTokens = tokenStage.getNumTokens();
+    documentTokens = tokenStage.getDocumentTokens();
+    setSymbolTable(tokenStage.getSymbolTable());
   }
 
   /**
-   * Tokenizes the specified text document using the specified tokenizer factory
-   * returning only tokens that exist in the symbol table. This method is useful
-   * within a given LDA model for tokenizing new documents into lists of words.
+   * Converts a new document to word ids using the tokenizer and the symbol
+   * table of this corpus, e.g., to infer its topics with a trained model.
+   * Words that are not in the symbol table are dropped.
    * 
    * @param text
-   *          Character sequence to tokenize.
-   * @param tokenizerFactory
-   *          Tokenizer factory for tokenization.
+   * @return
+   */
+  public int[] tokenize(CharSequence text) {
+    return tokenizer.toIds(text, vocabulary);
+  }
+
+  /**
+   * Sets the symbol table used by {@link #tokenize(CharSequence)}, e.g.,
+   * without processing the corpus for benchmarks.
+   *
    * @param symbolTable
-   *          Symbol table to use for converting tokens to symbols.
-   * @return The array of integer symbols for tokens that exist in the symbol
-   *         table.
    */
-  private int[] tokenizeDocument(CharSequence text,
-      TokenizerFactory tokenizerFactory, SymbolTable symbolTable) {
-    char[] cs = Strings.toCharArray(text);
-    Tokenizer tokenizer = tokenizerFactory.tokenizer(cs, 0, cs.length);
-    List<Integer> idList = new ArrayList<Integer>();
-    for (String token : tokenizer) {
-      int id = symbolTable.symbolToID(token);
-      if (id >= 0)
-        idList.add(id);
+  void setSymbolTable(SymbolTable symbolTable) {
+    this.symbolTable = symbolTable;
+    tokenizer = new CharTokenizer(stopWords, true);
+    vocabulary = new CharSymbolTable();
+    for (int id = 0; id < symbolTable.numSymbols(); id++) {
+      vocabulary.getOrAdd(symbolTable.idToSymbol(id));
     }
-    int[] tokenIds = new int[idList.size()];
-    for (int i = 0; i < tokenIds.length; ++i)
-      tokenIds[i] = idList.get(i);
-
-    return tokenIds;
   }
 
   /**
-   * Returns the custom tokenizer factory used for this corpus.
+   * Returns the tokenizer factory used for a corpus with the given stop words
+   * (in addition to the standard stop words used in lingpipe).
    * 
+   * @param stopWords
    * @return
    */
-  private TokenizerFactory customTokenizerFactory() {
+  public static TokenizerFactory newTokenizerFactory(Set<String> stopWords) {
     TokenizerFactory factory = new RegExTokenizerFactory("[$a-zA-Z0-9]+");
     factory = new NonAlphaStopTokenizerFactory(factory);
     factory = new LowerCaseTokenizerFactory(factory);
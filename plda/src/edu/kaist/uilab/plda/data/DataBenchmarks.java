@@ -0,0 +1,279 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import com.aliasi.symbol.SymbolTable;
+import com.aliasi.tokenizer.TokenizerFactory;
+import com.aliasi.util.Strings;
+
+import edu.kaist.uilab.plda.util.MicroBenchmark;
+
+/**
+ * The benchmark cases of the corpus processing (see {@link MicroBenchmark}).
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class DataBenchmarks {
+  // the number of entity pairs compared by a run of the entity cases
+  private static final int PAIRS_PER_RUN = 1000;
+
+  /**
+   * Returns the cases for the given vocabulary and document length:
+   * <ul>
+   * <li> entity.encloses, entity.mergeRepresentation: comparisons of two
+   * mentions of person names (per pair)
+   * <li> entity.distinct, entity.distinct.pairwise:
+   * {@link EntityParser#getDistinctEntities(ArrayList)} (and the comparison
+   * of all pairs of mentions it replaced) of {@code mentionsPerDoc} mentions
+   * (per document)
+   * <li> corpus.tokenize, corpus.tokenize.lingpipe:
+   * {@link CorpusProcessor#tokenize(CharSequence)} (and the lingpipe
+   * tokenizer chain and symbol table lookups it replaced) of a text of
+   * {@code documentLength} words of {@code symbolTable} (per word)
+   * </ul>
+   */
+  public static List<MicroBenchmark.Case> cases(final SymbolTable symbolTable,
+      final int documentLength, final int mentionsPerDoc) {
+    final Random random = new Random(1);
+    final Entity[] mentions = mentions(random, PAIRS_PER_RUN * 2);
+    List<MicroBenchmark.Case> cases = new ArrayList<MicroBenchmark.Case>();
+    cases.add(new MicroBenchmark.Case("entity.encloses", "") {
+      @Override
+      public long run() {
+        long count = 0;
+        for (int j = 0; j < mentions.length; j += 2) {
+          if (Entity.encloses(mentions[j].value, mentions[j + 1].value)) {
+            count++;
+          }
+        }
+        return count;
+      }
+
+      @Override
+      public long getOperations() {
+        return PAIRS_PER_RUN;
+      }
+    });
+    cases.add(new MicroBenchmark.Case("entity.mergeRepresentation", "") {
+      @Override
+      public long run() {
+        long count = 0;
+        for (int j = 0; j < mentions.length; j += 2) {
+          if (Entity.mergeRepresentation(mentions[j], mentions[j + 1]) != null) {
+            count++;
+          }
+        }
+        return count;
+      }
+
+      @Override
+      public long getOperations() {
+        return PAIRS_PER_RUN;
+      }
+    });
+    ArrayList<Entity> document = new ArrayList<Entity>();
+    for (Entity e : mentions(random, mentionsPerDoc)) {
+      document.add(e);
+    }
+    cases.addAll(distinctCases("mentions=" + mentionsPerDoc, Collections
+        .singletonList(document)));
+    final String parameters = "V=" + symbolTable.numSymbols() + " L="
+        + documentLength;
+    final String text = text(random, symbolTable, documentLength);
+    cases.add(new MicroBenchmark.Case("corpus.tokenize", parameters) {
+      private CorpusProcessor processor;
+
+      @Override
+      public void setUp() {
+        processor = new CorpusProcessor(null, null, 1, 1, 0, 100, 0,
+            new String[0]);
+        processor.setSymbolTable(symbolTable);
+      }
+
+      @Override
+      public long run() {
+        return processor.tokenize(text).length;
+      }
+
+      @Override
+      public long getOperations() {
+        return documentLength;
+      }
+    });
+    cases.add(new MicroBenchmark.Case("corpus.tokenize.lingpipe", parameters) {
+      private TokenizerFactory factory;
+
+      @Override
+      public void setUp() {
+        factory = CorpusProcessor.newTokenizerFactory(new HashSet<String>());
+      }
+
+      @Override
+      public long run() {
+        char[] cs = Strings.toCharArray(text);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (String token : factory.tokenizer(cs, 0, cs.length)) {
+          int id = symbolTable.symbolToID(token);
+          if (id >= 0) {
+            ids.add(id);
+          }
+        }
+        return ids.size();
+      }
+
+      @Override
+      public long getOperations() {
+        return documentLength;
+      }
+    });
+    return cases;
+  }
+
+  /**
+   * Returns a text of {@code length} random words of a symbol table, with a
+   * period after every 12 words.
+   */
+  private static String text(Random random, SymbolTable symbolTable,
+      int length) {
+    StringBuilder builder = new StringBuilder();
+    for (int n = 0; n < length; n++) {
+      builder.append(symbolTable.idToSymbol(random.nextInt(symbolTable
+          .numSymbols())));
+      builder.append(n % 12 == 11 ? ". " : " ");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Returns the entity.distinct cases of the documents of a mention file
+   * (see {@link #readMentions(File)}), e.g., of the NYTimes corpus (per
+   * document).
+   */
+  public static List<MicroBenchmark.Case> distinctCases(File mentionFile)
+      throws IOException {
+    List<ArrayList<Entity>> documents = readMentions(mentionFile);
+    return distinctCases(mentionFile.getName() + " documents="
+        + documents.size(), documents);
+  }
+
+  private static List<MicroBenchmark.Case> distinctCases(String parameters,
+      final List<ArrayList<Entity>> documents) {
+    final EntityParser parser = new EntityParser(null, null,
+        new ArrayList<String>(), 1, 1);
+    List<MicroBenchmark.Case> cases = new ArrayList<MicroBenchmark.Case>();
+    cases.add(new MicroBenchmark.Case("entity.distinct", parameters) {
+      @Override
+      public long run() {
+        long count = 0;
+        for (ArrayList<Entity> document : documents) {
+          count += parser.getDistinctEntities(document).size();
+        }
+        return count;
+      }
+
+      @Override
+      public long getOperations() {
+        return documents.size();
+      }
+    });
+    cases.add(new MicroBenchmark.Case("entity.distinct.pairwise",
+        parameters) {
+      @Override
+      public long run() {
+        long count = 0;
+        for (ArrayList<Entity> document : documents) {
+          count += parser.getDistinctEntitiesPairwise(document).size();
+        }
+        return count;
+      }
+
+      @Override
+      public long getOperations() {
+        return documents.size();
+      }
+    });
+    return cases;
+  }
+
+  /**
+   * Writes the mentions of a document as a line of a mention file: the type
+   * and the value of each mention, separated by tabs.
+   */
+  static void writeMentions(PrintWriter out, List<Entity> mentions) {
+    for (int j = 0; j < mentions.size(); j++) {
+      if (j > 0) {
+        out.print('\t');
+      }
+      out.print(mentions.get(j).type);
+      out.print('\t');
+      out.print(mentions.get(j).value);
+    }
+    out.println();
+  }
+
+  /**
+   * Reads the mentions of each document of a mention file, as written by
+   * {@link EntityParser} with -Dmentions=&lt;file&gt;.
+   */
+  public static List<ArrayList<Entity>> readMentions(File file)
+      throws IOException {
+    List<ArrayList<Entity>> documents = new ArrayList<ArrayList<Entity>>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        ArrayList<Entity> mentions = new ArrayList<Entity>();
+        if (line.length() > 0) {
+          String[] fields = line.split("\t", -1);
+          for (int j = 0; j + 1 < fields.length; j += 2) {
+            mentions.add(new Entity(fields[j + 1], Integer
+                .parseInt(fields[j])));
+          }
+        }
+        documents.add(mentions);
+      }
+    } finally {
+      in.close();
+    }
+    return documents;
+  }
+
+  /**
+   * Returns {@code size} mentions of person names: a full name of three words
+   * or one of its variants (the family name, or the given and family names)
+   * so that many pairs of mentions refer to the same entity.
+   */
+  static Entity[] mentions(Random random, int size) {
+    int numNames = Math.max(1, size / 4);
+    Entity[] mentions = new Entity[size];
+    for (int j = 0; j < size; j++) {
+      int name = random.nextInt(numNames);
+      String given = "given" + name % 7;
+      String middle = "middle" + name % 5;
+      String family = "family" + name;
+      switch (random.nextInt(3)) {
+      case 0:
+        mentions[j] = new Entity(given + " " + middle + " " + family,
+            Entity.PERSON);
+        break;
+      case 1:
+        mentions[j] = new Entity(family, Entity.PERSON);
+        break;
+      default:
+        mentions[j] = new Entity(given + " " + family, Entity.PERSON);
+      }
+    }
+    return mentions;
+  }
+}
@@ -0,0 +1,307 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.kaist.uilab.plda.file.DocumentReader;
+import edu.kaist.uilab.plda.util.Metrics;
+
+/**
+ * Reads the documents of a corpus once and passes their content to several
+ * stages (e.g., entity parsing and tokenization) which run concurrently.
+ *
+ * <p> The pipeline has three parts:
+ * <ul>
+ * <li> the reader threads read the documents in parallel;
+ * <li> the worker threads run {@link Stage#process(int, String)} of every
+ * stage on each document that has been read;
+ * <li> the calling thread collects the documents in their order: once all
+ * stages have processed a document, it calls {@link Stage#collect(int)} of
+ * every stage, in the order of the document names, and finally
+ * {@link Stage#finish()}.
+ * </ul>
+ * At most {@code maxPending} documents are read but not collected yet, so the
+ * contents of a corpus do not fill the heap. A document which cannot be read
+ * is processed as an empty document, so that the documents keep their
+ * indices.
+ *
+ * <p> The time spent by each stage is recorded; {@link #statistics()} shows
+ * the number of documents per second of each stage, i.e., the bottleneck of
+ * the pipeline.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class DocumentPipeline {
+  private static final String READ_STAGE = "read";
+
+  /**
+   * A stage of the pipeline.
+   *
+   * <p> {@link #process(int, String)} is called by several threads at the
+   * same time (for different documents) and usually stores its result by the
+   * index of the document; {@link #collect(int)} and {@link #finish()} are
+   * called by the thread which runs the pipeline.
+   */
+  public static abstract class Stage {
+    private final String name;
+    // statistics (ns)
+    private long time;
+    private int numDocuments;
+
+    /**
+     * @param name
+     *          the name of the stage (e.g., "entities" or "tokens")
+     */
+    protected Stage(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Processes the content of a document.
+     *
+     * @param document
+     *          the index of the document in the list of document names
+     * @param content
+     *          the content of the document
+     */
+    public abstract void process(int document, String content)
+        throws Exception;
+
+    /**
+     * Collects the result of a document after all documents before it.
+     */
+    public void collect(int document) {
+    }
+
+    /**
+     * Called after all documents have been collected.
+     */
+    public void finish() {
+    }
+
+    private synchronized void addTime(long nanos) {
+      time += nanos;
+      numDocuments++;
+    }
+
+    private synchronized int getNumDocuments() {
+      return numDocuments;
+    }
+  }
+
+  private final String corpusDir;
+  private final DocumentReader reader;
+  private final List<Stage> stages = new ArrayList<Stage>();
+  private int numReaders = 2;
+  private int numWorkers = Runtime.getRuntime().availableProcessors();
+  private int maxPending = 256;
+  private Metrics metrics;
+  // statistics of the reader threads and of the whole pipeline (ns)
+  private final Stage readStage = new Stage(READ_STAGE) {
+    @Override
+    public void process(int document, String content) {
+    }
+  };
+  private long totalTime;
+  // the time when the last document was collected (ns)
+  private long lastCollect;
+
+  /**
+   * Constructs a pipeline.
+   *
+   * @param corpusDir
+   *          the directory which contains the documents
+   * @param reader
+   *          the reader of the documents
+   */
+  public DocumentPipeline(String corpusDir, DocumentReader reader) {
+    this.corpusDir = corpusDir;
+    this.reader = reader;
+  }
+
+  /**
+   * Adds a stage which processes every document.
+   */
+  public void addStage(Stage stage) {
+    stages.add(stage);
+  }
+
+  /**
+   * Sets the number of threads.
+   *
+   * @param numReaders
+   *          the number of threads which read the documents (default value is
+   *          2)
+   * @param numWorkers
+   *          the number of threads which run the stages (default value is the
+   *          number of processors)
+   */
+  public void setNumThreads(int numReaders, int numWorkers) {
+    this.numReaders = Math.max(1, numReaders);
+    this.numWorkers = Math.max(1, numWorkers);
+  }
+
+  /**
+   * Sets the maximum number of documents which are read but not collected
+   * yet (default value is 256).
+   */
+  public void setMaxPending(int maxPending) {
+    this.maxPending = Math.max(1, maxPending);
+  }
+
+  /**
+   * Sets the metrics to which the documents processed by each stage are
+   * recorded (with the name of the stage as phase); a document is counted
+   * once in the metrics, when it is collected.
+   *
+   * @param metrics
+   *          the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Runs the pipeline on the given documents.
+   *
+   * @param documentNames
+   *          the names of the documents (files of the corpus directory)
+   */
+  public void run(List<String> documentNames) throws IOException {
+    long start = System.nanoTime();
+    lastCollect = start;
+    ExecutorService readers = Executors.newFixedThreadPool(numReaders);
+    ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+    int numDocuments = documentNames.size();
+    List<Future<List<Future<Object>>>> pending =
+        new ArrayList<Future<List<Future<Object>>>>(numDocuments);
+    try {
+      int next = 0; // the next document to collect
+      for (int document = 0; document < numDocuments; document++) {
+        while (document - next >= maxPending) {
+          collect(next, pending.get(next));
+          pending.set(next++, null);
+        }
+        pending.add(readers.submit(read(document, documentNames.get(document),
+            workers)));
+      }
+      while (next < numDocuments) {
+        collect(next, pending.get(next));
+        pending.set(next++, null);
+      }
+      for (Stage stage : stages) {
+        stage.finish();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Document pipeline interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException("Document pipeline failed", e.getCause());
+    } finally {
+      readers.shutdownNow();
+      workers.shutdownNow();
+      totalTime = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Returns the task which reads a document and then submits the stages of
+   * the document to the workers.
+   */
+  private Callable<List<Future<Object>>> read(final int document,
+      final String name, final ExecutorService workers) {
+    return new Callable<List<Future<Object>>>() {
+      @Override
+      public List<Future<Object>> call() {
+        long start = System.nanoTime();
+        String content;
+        try {
+          content = reader.readDocument(corpusDir + "/" + name);
+        } catch (IOException e) {
+          System.err.printf("Cannot read document %s: %s\n", name, e);
+          content = "";
+        }
+        record(readStage, System.nanoTime() - start);
+        final String text = content;
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(stages
+            .size());
+        for (final Stage stage : stages) {
+          futures.add(workers.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+              long start = System.nanoTime();
+              stage.process(document, text);
+              record(stage, System.nanoTime() - start);
+              return null;
+            }
+          }));
+        }
+        return futures;
+      }
+    };
+  }
+
+  private void collect(int document, Future<List<Future<Object>>> read)
+      throws InterruptedException, ExecutionException {
+    for (Future<Object> future : read.get()) {
+      future.get();
+    }
+    for (Stage stage : stages) {
+      stage.collect(document);
+    }
+    if (metrics != null) {
+      // a document is counted once, although every stage has processed it
+      long now = System.nanoTime();
+      metrics.addDocuments(1, now - lastCollect);
+      lastCollect = now;
+    }
+  }
+
+  private void record(Stage stage, long nanos) {
+    stage.addTime(nanos);
+    if (metrics != null) {
+      metrics.addPhaseDocuments(stage.getName(), 1, nanos);
+    }
+  }
+
+  /**
+   * Returns the number of documents per second of a stage with all its
+   * threads busy.
+   */
+  private double documentsPerSecond(Stage stage, int numThreads) {
+    synchronized (stage) {
+      return stage.time > 0 ? stage.numDocuments / (stage.time / 1e9)
+          * numThreads : 0.0;
+    }
+  }
+
+  /**
+   * Returns the number of documents per second of each stage (with all its
+   * threads busy) and of the whole pipeline.
+   */
+  public String statistics() {
+    StringBuilder builder = new StringBuilder(String.format(
+        "%s: %.1f documents/sec (%d threads)", READ_STAGE, documentsPerSecond(
+            readStage, numReaders), numReaders));
+    for (Stage stage : stages) {
+      builder.append(String.format(", %s: %.1f documents/sec (%d threads)",
+          stage.getName(), documentsPerSecond(stage, numWorkers), numWorkers));
+    }
+    builder.append(String.format(", pipeline: %d documents in %.2f s",
+        readStage.getNumDocuments(), totalTime / 1e9));
+    return builder.toString();
+  }
+}
@@ -0,0 +1,369 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk cache of the entities recognized in each document, so that a
+ * corpus which has been parsed once is not classified again.
+ *
+ * <p> The entities of a document (before the pruning of the corpus) are kept
+ * by the SHA-1 hash of an identity and the content of the document. The
+ * identity names everything else the entities depend on, i.e., the
+ * classifier and the settings of the parser (see
+ * {@link #fileIdentity(String)}), so a changed model never returns stale
+ * entities.
+ *
+ * <p> The cache is a directory with two append-only files:
+ * <ul>
+ * <li>{@value #SEGMENT_FILE}: the records, each being the key (20 bytes), the
+ * length of the entities (int), the entities and the CRC-32 of the key and
+ * the entities (int). The entities are their number (int) followed by the
+ * value (UTF), type (byte) and count (int) of each entity.</li>
+ * <li>{@value #INDEX_FILE}: the key (20 bytes) and the offset (long) of each
+ * record in the segment file.</li>
+ * </ul>
+ * Both files start with a magic number and the format version (int). The
+ * index is read when the cache is opened and again when a key is not found,
+ * to see the records of other writers. A record is written before its index
+ * entry, with an exclusive lock of the index file, so several threads and
+ * processes can share a cache; a record which does not pass its checksum is
+ * treated as missing, and the part of an index entry left by a writer which
+ * died while writing it is removed by the next writer.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class EntityCache {
+  public static final String SEGMENT_FILE = "entities.seg";
+  public static final String INDEX_FILE = "entities.idx";
+  public static final int VERSION = 1;
+  static final int MAGIC = 0x504c4e45; // "PLNE"
+  static final int HEADER_LENGTH = 8;
+  static final int KEY_LENGTH = 20;
+  static final int INDEX_ENTRY_LENGTH = KEY_LENGTH + 8;
+
+  // file locks are held by the whole JVM, so the caches of a JVM (which may
+  // share their files) append one at a time
+  private static final Object WRITE_LOCK = new Object();
+
+  /**
+   * An entity of a document in the cache.
+   */
+  public static class Record {
+    public final String value;
+    public final int type;
+    public final int count;
+
+    public Record(String value, int type, int count) {
+      this.value = value;
+      this.type = type;
+      this.count = count;
+    }
+  }
+
+  private final RandomAccessFile segment;
+  private final RandomAccessFile index;
+  private final FileChannel segmentChannel;
+  private final FileChannel indexChannel;
+  // the offset of each record by its key
+  private final HashMap<ByteBuffer, Long> offsets =
+      new HashMap<ByteBuffer, Long>();
+  // the length of the index which has been read
+  private long indexPosition = HEADER_LENGTH;
+  private int numHits;
+  private int numMisses;
+
+  /**
+   * Opens the cache of a directory, creating the directory and its files if
+   * they do not exist.
+   */
+  public EntityCache(File dir) throws IOException {
+    dir.mkdirs();
+    segment = new RandomAccessFile(new File(dir, SEGMENT_FILE), "rw");
+    index = new RandomAccessFile(new File(dir, INDEX_FILE), "rw");
+    segmentChannel = segment.getChannel();
+    indexChannel = index.getChannel();
+    try {
+      synchronized (WRITE_LOCK) {
+        FileLock lock = indexChannel.lock();
+        try {
+          writeHeader(segmentChannel);
+          writeHeader(indexChannel);
+        } finally {
+          lock.release();
+        }
+      }
+      readIndex();
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the identity of a file (its path, length and modification time),
+   * e.g., of a classifier model.
+   */
+  public static String fileIdentity(String path) {
+    File file = new File(path);
+    return file.getAbsolutePath() + ":" + file.length() + ":"
+        + file.lastModified();
+  }
+
+  /**
+   * Returns the entities of a document, or null if they are not in the cache.
+   *
+   * @param identity
+   *          the identity of the classifier and parser of the entities
+   * @param content
+   *          the content of the document
+   */
+  public List<Record> get(String identity, String content) throws IOException {
+    ByteBuffer key = key(identity, content);
+    synchronized (this) {
+      Long offset = offsets.get(key);
+      if (offset == null) {
+        readIndex();
+        offset = offsets.get(key);
+      }
+      List<Record> records = offset == null ? null : readRecord(offset, key);
+      if (records == null) {
+        numMisses++;
+      } else {
+        numHits++;
+      }
+      return records;
+    }
+  }
+
+  /**
+   * Adds the entities of a document to the cache.
+   *
+   * @param identity
+   *          the identity of the classifier and parser of the entities
+   * @param content
+   *          the content of the document
+   * @param records
+   *          the entities of the document
+   */
+  public void put(String identity, String content, List<Record> records)
+      throws IOException {
+    ByteBuffer key = key(identity, content);
+    ByteBuffer record = encode(key, records);
+    synchronized (this) {
+      synchronized (WRITE_LOCK) {
+        FileLock lock = indexChannel.lock();
+        try {
+          long offset = segmentChannel.size();
+          write(segmentChannel, record, offset);
+          ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+          entry.put(key.array()).putLong(offset).flip();
+          long entryOffset = indexChannel.size();
+          // a writer which died in the middle of an entry left part of it;
+          // the entries must stay aligned to be read
+          long torn = (entryOffset - HEADER_LENGTH) % INDEX_ENTRY_LENGTH;
+          if (torn != 0) {
+            entryOffset -= torn;
+            indexChannel.truncate(entryOffset);
+          }
+          write(indexChannel, entry, entryOffset);
+          if (indexPosition == entryOffset) {
+            indexPosition += INDEX_ENTRY_LENGTH;
+          }
+          offsets.put(key, offset);
+        } finally {
+          lock.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of documents found in the cache.
+   */
+  public synchronized int getNumHits() {
+    return numHits;
+  }
+
+  /**
+   * Returns the number of documents not found in the cache.
+   */
+  public synchronized int getNumMisses() {
+    return numMisses;
+  }
+
+  /**
+   * Returns the number of hits and misses of the cache.
+   */
+  public synchronized String statistics() {
+    return String.format("entity cache: %d hits, %d misses", numHits,
+        numMisses);
+  }
+
+  /**
+   * Closes the files of the cache.
+   */
+  public synchronized void close() throws IOException {
+    try {
+      segment.close();
+    } finally {
+      index.close();
+    }
+  }
+
+  /**
+   * Writes the header of an empty file, or checks the header of a file.
+   */
+  private static void writeHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    if (channel.size() == 0) {
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      write(channel, header, 0);
+    } else {
+      read(channel, header, 0);
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not an entity cache file");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported entity cache version " + version);
+      }
+    }
+  }
+
+  /**
+   * Reads the entries which have been appended to the index (by any writer)
+   * since it was last read.
+   */
+  private void readIndex() throws IOException {
+    long size = indexChannel.size();
+    // an entry which is being written is read next time
+    int numEntries = (int) ((size - indexPosition) / INDEX_ENTRY_LENGTH);
+    if (numEntries <= 0) {
+      return;
+    }
+    ByteBuffer entries = ByteBuffer.allocate(numEntries * INDEX_ENTRY_LENGTH);
+    read(indexChannel, entries, indexPosition);
+    for (int j = 0; j < numEntries; j++) {
+      byte[] key = new byte[KEY_LENGTH];
+      entries.get(key);
+      offsets.put(ByteBuffer.wrap(key), entries.getLong());
+    }
+    indexPosition += numEntries * INDEX_ENTRY_LENGTH;
+  }
+
+  /**
+   * Reads the record at {@code offset}, returning null if it is not a valid
+   * record of the key.
+   */
+  private List<Record> readRecord(long offset, ByteBuffer key)
+      throws IOException {
+    long size = segmentChannel.size();
+    if (offset + KEY_LENGTH + 4 > size) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.allocate(KEY_LENGTH + 4);
+    read(segmentChannel, header, offset);
+    int length = header.getInt(KEY_LENGTH);
+    header.limit(KEY_LENGTH);
+    if (!header.equals(key) || length < 0
+        || offset + KEY_LENGTH + 8 + length > size) {
+      return null;
+    }
+    ByteBuffer body = ByteBuffer.allocate(length + 4);
+    read(segmentChannel, body, offset + KEY_LENGTH + 4);
+    CRC32 crc = new CRC32();
+    crc.update(key.array());
+    crc.update(body.array(), 0, length);
+    if ((int) crc.getValue() != body.getInt(length)) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(body
+        .array(), 0, length));
+    int numRecords = in.readInt();
+    List<Record> records = new ArrayList<Record>(numRecords);
+    for (int j = 0; j < numRecords; j++) {
+      records.add(new Record(in.readUTF(), in.readByte(), in.readInt()));
+    }
+    return records;
+  }
+
+  /**
+   * Returns the record of the entities of a key.
+   */
+  private static ByteBuffer encode(ByteBuffer key, List<Record> records)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(key.array());
+    out.writeInt(0); // the length of the entities
+    out.writeInt(records.size());
+    for (Record record : records) {
+      out.writeUTF(record.value);
+      out.writeByte(record.type);
+      out.writeInt(record.count);
+    }
+    out.writeInt(0); // the checksum
+    out.close();
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    int length = buffer.capacity() - KEY_LENGTH - 8;
+    buffer.putInt(KEY_LENGTH, length);
+    CRC32 crc = new CRC32();
+    crc.update(key.array());
+    crc.update(buffer.array(), KEY_LENGTH + 4, length);
+    buffer.putInt(KEY_LENGTH + 4 + length, (int) crc.getValue());
+    return buffer;
+  }
+
+  /**
+   * Returns the key of a document, i.e., the SHA-1 hash of the identity and
+   * the content.
+   */
+  static ByteBuffer key(String identity, String content) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+      digest.update(identity.getBytes("UTF-8"));
+      digest.update((byte) 0);
+      digest.update(content.getBytes("UTF-8"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("SHA-1 is not available", e);
+    } catch (IOException e) {
+      throw new RuntimeException("UTF-8 is not available", e);
+    }
+    return ByteBuffer.wrap(digest.digest());
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buffer,
+      long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void read(FileChannel channel, ByteBuffer buffer,
+      long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position);
+      if (n < 0) {
+        throw new IOException("Unexpected end of entity cache");
+      }
+      position += n;
+    }
+    buffer.flip();
+  }
+}
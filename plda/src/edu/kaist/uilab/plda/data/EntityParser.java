@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 
@@ -11,6 +12,7 @@ import com.aliasi.util.ObjectToCounterMap;
 
 import edu.kaist.uilab.plda.file.DocumentReader;
 import edu.kaist.uilab.plda.file.ReutersDocumentReader;
+import edu.kaist.uilab.plda.util.Metrics;
 import edu.stanford.nlp.ie.AbstractSequenceClassifier;
 import edu.stanford.nlp.ie.crf.CRFClassifier;
 import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
@@ -24,8 +26,6 @@ import edu.stanford.nlp.ling.CoreLabel;
 public class EntityParser {
   
   private static final String serializedClassifier = "classifiers/ner-eng-ie.crf-3-all2008-distsim.ser.gz";
-  private static final AbstractSequenceClassifier classifier = CRFClassifier
-      .getClassifierNoExceptions(serializedClassifier);
   private static final String PERSON = "PERSON";
   private static final String LOCATION = "LOCATION";
   private static final String ORGANIZATION = "ORGANIZATION";
@@ -40,6 +40,15 @@ public class EntityParser {
   private boolean acceptPerson = true;
   private boolean acceptLocation = true;
   private boolean acceptOrganization = true;
+  private Metrics metrics;
+  private EntityCache cache;
+
+  // loads the NER model when a document is first classified, so that the
+  // methods which do not need it work without the model
+  private static class ClassifierHolder {
+    static final AbstractSequenceClassifier classifier = CRFClassifier
+        .getClassifierNoExceptions(serializedClassifier);
+  }
 
   /**
    * Initializes an entity parser for all documents of a corpus.
@@ -75,6 +84,27 @@ public class EntityParser {
     acceptLocation = location;
     acceptOrganization = organization;
   }
+
+  /**
+   * Sets the metrics to which the parsed documents are recorded.
+   * 
+   * @param metrics
+   *       the metrics (null for none, the default value)
+   */
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+  
+  /**
+   * Sets the cache of the entities of each document, so that the documents
+   * which are in the cache are not classified again.
+   * 
+   * @param cache
+   *       the cache (null for none, the default value)
+   */
+  public void setEntityCache(EntityCache cache) {
+    this.cache = cache;
+  }
   
   /**
    * Returns the {@link CorpusEntitySet} underlying this parser.
@@ -134,28 +164,58 @@ public class EntityParser {
    * Parses the corpus to get entities for each document.
    */
   public void parseCorpus() {
-    ArrayList<ArrayList<Entity>> docEntities = new ArrayList<ArrayList<Entity>>(
-        documentNames.size());
-    ArrayList<Entity> entities, copy;
+    DocumentPipeline pipeline = new DocumentPipeline(corpusDir, reader);
+    pipeline.addStage(newStage());
+    pipeline.setMetrics(metrics);
     try {
-      for (String doc : documentNames) {
-        String content = reader.readDocument(corpusDir + "/" + doc);
-        entities = classifyDocument(content);
+      pipeline.run(documentNames);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    System.out.println(pipeline.statistics());
+    if (cache != null) {
+      System.out.println(cache.statistics());
+    }
+  }
+
+  /**
+   * Returns a stage of a {@link DocumentPipeline} which parses the entities
+   * of the documents, e.g., to parse them while the documents are tokenized.
+   * The entities of the corpus are set when the pipeline has finished.
+   */
+  DocumentPipeline.Stage newStage() {
+    final int numDocuments = documentNames.size();
+    final ArrayList<ArrayList<Entity>> docEntities =
+        new ArrayList<ArrayList<Entity>>(numDocuments);
+    final ArrayList<ArrayList<Entity>> parsed =
+        new ArrayList<ArrayList<Entity>>(Collections
+            .<ArrayList<Entity>> nCopies(numDocuments, null));
+    final String identity = cacheIdentity();
+    return new DocumentPipeline.Stage("entities") {
+      @Override
+      public void process(int document, String content) throws IOException {
+        parsed.set(document, parseDocument(identity, content));
+      }
+
+      @Override
+      public void collect(int document) {
+        ArrayList<Entity> entities = parsed.set(document, null);
         // maintain 2 different list of entities
-        copy = new ArrayList<Entity>(entities.size());
+        ArrayList<Entity> copy = new ArrayList<Entity>(entities.size());
         for (Entity entity : entities) {
           copy.add(entity.clone());
         }
         docEntities.add(copy);
         corpusEntities.add(entities);
       }
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
 
-    // convert data to desirable form by LDA model
-    corpusEntities.setMinEntityCount(minEntityCount);
-    setCorpusData(corpusEntities, docEntities);
+      @Override
+      public void finish() {
+        // convert data to desirable form by LDA model
+        corpusEntities.setMinEntityCount(minEntityCount);
+        setCorpusData(corpusEntities, docEntities);
+      }
+    };
   }
 
   /**
@@ -186,6 +246,46 @@ public class EntityParser {
     }
   }
   
+  /**
+   * Returns the identity of the entities of a document in the cache: the
+   * classifier, this parser and the accepted entity types.
+   */
+  private String cacheIdentity() {
+    return EntityCache.fileIdentity(serializedClassifier) + " "
+        + getClass().getName() + " " + acceptPerson + " " + acceptLocation
+        + " " + acceptOrganization;
+  }
+
+  /**
+   * Returns the entities of a document from the cache, or classifies the
+   * document (and adds its entities to the cache).
+   */
+  ArrayList<Entity> parseDocument(String identity, String content)
+      throws IOException {
+    if (cache == null) {
+      return classifyDocument(content);
+    }
+    List<EntityCache.Record> records = cache.get(identity, content);
+    ArrayList<Entity> entities;
+    if (records != null) {
+      entities = new ArrayList<Entity>(records.size());
+      for (EntityCache.Record record : records) {
+        Entity entity = new Entity(record.value, record.type);
+        entity.count = record.count;
+        entities.add(entity);
+      }
+    } else {
+      entities = classifyDocument(content);
+      records = new ArrayList<EntityCache.Record>(entities.size());
+      for (Entity entity : entities) {
+        records.add(new EntityCache.Record(entity.value, entity.type,
+            entity.count));
+      }
+      cache.put(identity, content, records);
+    }
+    return entities;
+  }
+
   /**
    * Classifies the content of a document.
    * 
@@ -194,8 +294,20 @@ public class EntityParser {
    *       the list of {@link Entity}s in this document 
    */
   public ArrayList<Entity> classifyDocument(String content) {
+    return getDistinctEntities(recognizeMentions(content));
+  }
+
+  /**
+   * Returns the mentions of entities in the content of a document, in their
+   * order (before the mentions of the same entity are merged).
+   */
+  ArrayList<Entity> recognizeMentions(String content) {
     ArrayList<Entity> entities = new ArrayList<Entity>();
-    List<List<CoreLabel>> out = classifier.classify(content);
+    List<List<CoreLabel>> out;
+    // the classifier is not thread-safe
+    synchronized (ClassifierHolder.classifier) {
+      out = ClassifierHolder.classifier.classify(content);
+    }
     String prevAnnotation = "", annotation;
     // get all entities for document (without considering variance)
     for (List<CoreLabel> sentence : out) {
@@ -230,11 +342,48 @@ public class EntityParser {
       }
     }
     
-    return getDistinctEntities(entities);
+    return entities;
   }
 
   // make the entities of a document distinctive
   ArrayList<Entity> getDistinctEntities(ArrayList<Entity> entities) {
+    int size = entities.size();
+    String[] values = new String[size];
+    int[] types = new int[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = entities.get(i).value;
+      types[i] = entities.get(i).type;
+    }
+    MentionIndex index = new MentionIndex(values, types);
+    HashSet<Entity> set = new HashSet<Entity>();
+    for (int i = 0; i < size; i++) {
+      // find the longest representation for each entity among the mentions
+      // which may be merged with it, in the same order as all mentions
+      Entity longest = entities.get(i), temp;
+      int current = i; // the mention whose value longest has
+      int[] candidates = index.candidates(i);
+      int k = 0;
+      while (k < candidates.length) {
+        int j = candidates[k++];
+        temp = Entity.mergeRepresentation(longest, entities.get(j));
+        if (temp != null) {
+          longest = temp;
+          if (values[j].length() >= values[current].length()) {
+            // the value of mention j is the longest representation now
+            current = j;
+            candidates = index.candidates(j);
+            k = MentionIndex.next(candidates, j);
+          }
+        }
+      }
+      set.add(longest);
+    }
+    
+    return new ArrayList<Entity>(set);
+  }
+
+  // compares every pair of mentions, see getDistinctEntities()
+  ArrayList<Entity> getDistinctEntitiesPairwise(ArrayList<Entity> entities) {
     HashSet<Entity> set = new HashSet<Entity>();
     for (int i = 0; i < entities.size(); i++) {
       // find the longest representation for each entity
@@ -282,10 +431,21 @@ public class EntityParser {
     }
 //    EntityParser parser = new EntityParser("data/smalltest",
 //        new DefaultDocumentReader(), docNames, 10, 10);
-    EntityParser parser = new EntityParser(corpusDir, new ReutersDocumentReader(),
-        docNames, 6, 3);
+    DocumentReader reader = new ReutersDocumentReader();
+    EntityParser parser = new EntityParser(corpusDir, reader, docNames, 6, 3);
     parser.setAcceptedEntityType(true, false, true);
     parser.parseCorpus();
+    // -Dmentions=<file> also writes the mentions of each document, e.g., for
+    // the entity.distinct benchmark on a real corpus (see DataBenchmarks)
+    String mentionFile = System.getProperty("mentions");
+    if (mentionFile != null) {
+      PrintWriter mentions = new PrintWriter(mentionFile, "UTF-8");
+      for (String name : docNames) {
+        DataBenchmarks.writeMentions(mentions, parser.recognizeMentions(reader
+            .readDocument(corpusDir + "/" + name)));
+      }
+      mentions.close();
+    }
     System.out.println("Number of entities: " + parser.getNumEntities());
     // print out the entities
     PrintWriter out = new PrintWriter("entity.txt");
@@ -0,0 +1,323 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.kaist.uilab.plda.util.TextFiles;
+
+/**
+ * A corpus and its per-token assignments stored in memory-mapped files.
+ *
+ * <p> The words of all documents are stored one after another in a flat token
+ * array, and the assignments of the tokens in two 16-bit arrays with the same
+ * layout. Since the data lives outside of the Java heap, corpora much bigger
+ * than the heap can be sampled: the operating system keeps the pages that are
+ * being used in its page cache. The files are also the sampling state, i.e.,
+ * a run can be continued by opening the directory again.
+ *
+ * <p> A directory contains the following files:
+ * <ul>
+ * <li>{@value #TOKEN_FILE}: the word ids of all tokens (int)</li>
+ * <li>{@value #OFFSET_FILE}: the number of documents (int) followed by the
+ * position of the first token of each document and the total number of
+ * tokens (long)</li>
+ * <li>{@value #TOPIC_FILE}: the topic of each token (unsigned short)</li>
+ * <li>{@value #ENTITY_FILE}: the entity of each token (unsigned short)</li>
+ * <li>{@value #ITERATION_FILE}: the number of finished sampling iterations
+ * (only exists after the assignments have been initialized)</li>
+ * </ul>
+ *
+ * <p> Different threads can read and write the assignments of different tokens
+ * at the same time.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class MappedCorpus {
+  public static final String TOKEN_FILE = "tokens.bin";
+  public static final String OFFSET_FILE = "offsets.bin";
+  public static final String TOPIC_FILE = "topics.bin";
+  public static final String ENTITY_FILE = "entities.bin";
+  public static final String ITERATION_FILE = "iteration.txt";
+
+  /**
+   * The maximum value of an assignment.
+   */
+  public static final int MAX_VALUE = Character.MAX_VALUE;
+
+  // each file is mapped in segments of 2^SEGMENT_BITS values
+  private static final int SEGMENT_BITS = 28;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private final File dir;
+  // offsets[m] = position of the first token of document m
+  private final long[] offsets;
+  private final long numTokens;
+  private final IntBuffer[] tokens;
+  private final CharBuffer[] topics;
+  private final CharBuffer[] entities;
+  private final MappedByteBuffer[] buffers;
+
+  /**
+   * Writes a corpus to a directory one document at a time.
+   */
+  public static class Writer {
+    private final File dir;
+    private final DataOutputStream out;
+    private long[] offsets = new long[1024];
+    private int numDocuments;
+
+    Writer(File dir) throws IOException {
+      this.dir = dir;
+      dir.mkdirs();
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+          new File(dir, TOKEN_FILE)), 1 << 16));
+    }
+
+    /**
+     * Appends a document with the given word ids.
+     */
+    public void addDocument(int[] words) throws IOException {
+      if (numDocuments + 1 == offsets.length) {
+        long[] tmp = new long[offsets.length * 2];
+        System.arraycopy(offsets, 0, tmp, 0, offsets.length);
+        offsets = tmp;
+      }
+      for (int word : words) {
+        out.writeInt(word);
+      }
+      offsets[numDocuments + 1] = offsets[numDocuments] + words.length;
+      numDocuments++;
+    }
+
+    /**
+     * Finishes writing and opens the written corpus.
+     */
+    public MappedCorpus close() throws IOException {
+      out.close();
+      DataOutputStream offsetOut = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(new File(dir,
+              OFFSET_FILE))));
+      offsetOut.writeInt(numDocuments);
+      for (int m = 0; m <= numDocuments; m++) {
+        offsetOut.writeLong(offsets[m]);
+      }
+      offsetOut.close();
+      // the assignments of an older corpus are not valid anymore
+      new File(dir, TOPIC_FILE).delete();
+      new File(dir, ENTITY_FILE).delete();
+      new File(dir, ITERATION_FILE).delete();
+
+      return open(dir);
+    }
+  }
+
+  /**
+   * Returns a writer for a new corpus in the directory {@code dir}.
+   */
+  public static Writer newWriter(File dir) throws IOException {
+    return new Writer(dir);
+  }
+
+  /**
+   * Writes the documents to the directory {@code dir} and opens them.
+   *
+   * @param documents
+   *          documents[m][n] = the n_th word of document m
+   */
+  public static MappedCorpus create(File dir, int[][] documents)
+      throws IOException {
+    Writer writer = newWriter(dir);
+    for (int[] document : documents) {
+      writer.addDocument(document);
+    }
+
+    return writer.close();
+  }
+
+  /**
+   * Opens the corpus in the directory {@code dir}.
+   */
+  public static MappedCorpus open(File dir) throws IOException {
+    return new MappedCorpus(dir);
+  }
+
+  private MappedCorpus(File dir) throws IOException {
+    this.dir = dir;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(new File(dir, OFFSET_FILE))));
+    try {
+      offsets = new long[in.readInt() + 1];
+      for (int m = 0; m < offsets.length; m++) {
+        offsets[m] = in.readLong();
+      }
+    } finally {
+      in.close();
+    }
+    numTokens = offsets[offsets.length - 1];
+    int numSegments = (int) ((numTokens + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+    tokens = new IntBuffer[numSegments];
+    topics = new CharBuffer[numSegments];
+    entities = new CharBuffer[numSegments];
+    buffers = new MappedByteBuffer[2 * numSegments];
+    RandomAccessFile tokenFile = new RandomAccessFile(
+        new File(dir, TOKEN_FILE), "r");
+    RandomAccessFile topicFile = new RandomAccessFile(
+        new File(dir, TOPIC_FILE), "rw");
+    RandomAccessFile entityFile = new RandomAccessFile(new File(dir,
+        ENTITY_FILE), "rw");
+    try {
+      if (tokenFile.length() != 4 * numTokens) {
+        throw new IOException("Corrupted corpus " + dir + ": expected "
+            + numTokens + " tokens");
+      }
+      // new assignment files are filled with zeros
+      topicFile.setLength(2 * numTokens);
+      entityFile.setLength(2 * numTokens);
+      for (int p = 0; p < numSegments; p++) {
+        long start = (long) p << SEGMENT_BITS;
+        int size = (int) Math.min(SEGMENT_SIZE, numTokens - start);
+        tokens[p] = tokenFile.getChannel().map(FileChannel.MapMode.READ_ONLY,
+            4 * start, 4L * size).asIntBuffer();
+        buffers[2 * p] = topicFile.getChannel().map(
+            FileChannel.MapMode.READ_WRITE, 2 * start, 2L * size);
+        topics[p] = buffers[2 * p].asCharBuffer();
+        buffers[2 * p + 1] = entityFile.getChannel().map(
+            FileChannel.MapMode.READ_WRITE, 2 * start, 2L * size);
+        entities[p] = buffers[2 * p + 1].asCharBuffer();
+      }
+    } finally {
+      // the mappings stay valid after the files are closed
+      tokenFile.close();
+      topicFile.close();
+      entityFile.close();
+    }
+  }
+
+  /**
+   * Returns the directory of this corpus.
+   */
+  public File getDirectory() {
+    return dir;
+  }
+
+  /**
+   * Returns the number of documents.
+   */
+  public int getNumDocuments() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * Returns the total number of tokens.
+   */
+  public long getNumTokens() {
+    return numTokens;
+  }
+
+  /**
+   * Returns the position of the first token of document {@code m}.
+   */
+  public long getDocumentStart(int m) {
+    return offsets[m];
+  }
+
+  /**
+   * Returns the position after the last token of document {@code m}.
+   */
+  public long getDocumentEnd(int m) {
+    return offsets[m + 1];
+  }
+
+  /**
+   * Returns the number of tokens of document {@code m}.
+   */
+  public int getDocumentLength(int m) {
+    return (int) (offsets[m + 1] - offsets[m]);
+  }
+
+  /**
+   * Returns the word id of the token at position {@code pos}.
+   */
+  public int getToken(long pos) {
+    return tokens[(int) (pos >>> SEGMENT_BITS)].get((int) pos & SEGMENT_MASK);
+  }
+
+  /**
+   * Returns the topic of the token at position {@code pos}.
+   */
+  public int getTopic(long pos) {
+    return topics[(int) (pos >>> SEGMENT_BITS)].get((int) pos & SEGMENT_MASK);
+  }
+
+  /**
+   * Sets the topic of the token at position {@code pos}.
+   *
+   * @param topic
+   *          the topic (at most {@link #MAX_VALUE})
+   */
+  public void setTopic(long pos, int topic) {
+    topics[(int) (pos >>> SEGMENT_BITS)].put((int) pos & SEGMENT_MASK,
+        (char) topic);
+  }
+
+  /**
+   * Returns the entity of the token at position {@code pos}.
+   */
+  public int getEntity(long pos) {
+    return entities[(int) (pos >>> SEGMENT_BITS)].get((int) pos & SEGMENT_MASK);
+  }
+
+  /**
+   * Sets the entity of the token at position {@code pos}.
+   *
+   * @param entity
+   *          the entity (at most {@link #MAX_VALUE})
+   */
+  public void setEntity(long pos, int entity) {
+    entities[(int) (pos >>> SEGMENT_BITS)].put((int) pos & SEGMENT_MASK,
+        (char) entity);
+  }
+
+  /**
+   * Returns the number of finished sampling iterations or -1 if the
+   * assignments have not been initialized.
+   */
+  public int getIteration() throws IOException {
+    File file = new File(dir, ITERATION_FILE);
+    if (!file.exists()) {
+      return -1;
+    }
+
+    return Integer.parseInt(TextFiles.readFile(file.getPath()).trim());
+  }
+
+  /**
+   * Records that the assignments are the state after {@code iteration}
+   * sampling iterations.
+   */
+  public void setIteration(int iteration) throws IOException {
+    TextFiles.writeFile(new File(dir, ITERATION_FILE).getPath(),
+        String.valueOf(iteration));
+  }
+
+  /**
+   * Writes the changed assignments to the disk.
+   */
+  public void force() {
+    for (MappedByteBuffer buffer : buffers) {
+      buffer.force();
+    }
+  }
+}
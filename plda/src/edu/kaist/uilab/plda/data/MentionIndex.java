@@ -0,0 +1,210 @@
+package edu.kaist.uilab.plda.data;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of the mentions of a document by their tokens, which finds the
+ * mentions that may refer to the same entity as a mention without comparing
+ * all pairs of mentions.
+ *
+ * <p> A mention encloses another one (see {@link Entity#encloses(String,
+ * String)}) only if every token of the other mention is the prefix of one of
+ * its tokens (e.g., "York" of "New Yorker"). Hence two mentions are only
+ * compared if they have the same type and a token of one is a prefix of a
+ * token of the other; a mention without tokens is compared with all mentions
+ * of its type. Each mention is tokenized once, and the candidates of the
+ * mentions with the same value and type are only found once.
+ *
+ * <p> Fewer than {@value #MIN_INDEXED_MENTIONS} mentions are not indexed:
+ * every mention is a candidate of every mention, since comparing them is
+ * faster than building the index.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class MentionIndex {
+  static final int MIN_INDEXED_MENTIONS = 32;
+
+  private final String[] values;
+  private final int[] types;
+  // the tokens of each mention
+  private final String[][] tokens;
+  // the following are indexed by type:
+  // the mentions which contain a token, by the token
+  private final List<TreeMap<String, BitSet>> index;
+  // the lengths of the tokens
+  private final BitSet[] tokenLengths;
+  // the mentions without tokens
+  private final BitSet[] untokenized;
+  // all mentions
+  private final BitSet[] byType;
+  // the candidates of each value
+  private final List<HashMap<String, int[]>> candidates;
+  // all mentions (if they are not indexed)
+  private final int[] all;
+
+  /**
+   * Indexes the mentions of a document.
+   *
+   * @param values
+   *          the value of each mention
+   * @param types
+   *          the (non-negative) type of each mention, e.g.,
+   *          {@link Entity#PERSON} (null if mentions of different types may
+   *          refer to the same entity)
+   */
+  public MentionIndex(String[] values, int[] types) {
+    this.values = values;
+    this.types = types;
+    if (values.length < MIN_INDEXED_MENTIONS) {
+      all = new int[values.length];
+      for (int i = 0; i < values.length; i++) {
+        all[i] = i;
+      }
+      tokens = null;
+      index = null;
+      tokenLengths = null;
+      untokenized = null;
+      byType = null;
+      candidates = null;
+      return;
+    }
+    all = null;
+    int numTypes = 1;
+    for (int i = 0; types != null && i < types.length; i++) {
+      numTypes = Math.max(numTypes, types[i] + 1);
+    }
+    index = new ArrayList<TreeMap<String, BitSet>>(numTypes);
+    tokenLengths = new BitSet[numTypes];
+    untokenized = new BitSet[numTypes];
+    byType = new BitSet[numTypes];
+    candidates = new ArrayList<HashMap<String, int[]>>(numTypes);
+    for (int type = 0; type < numTypes; type++) {
+      index.add(new TreeMap<String, BitSet>());
+      tokenLengths[type] = new BitSet();
+      untokenized[type] = new BitSet();
+      byType[type] = new BitSet();
+      candidates.add(new HashMap<String, int[]>());
+    }
+    tokens = new String[values.length][];
+    for (int i = 0; i < values.length; i++) {
+      tokens[i] = tokenize(values[i]);
+      int type = typeOf(i);
+      byType[type].set(i);
+      if (tokens[i].length == 0) {
+        untokenized[type].set(i);
+      }
+      for (String token : tokens[i]) {
+        BitSet mentions = index.get(type).get(token);
+        if (mentions == null) {
+          mentions = new BitSet();
+          index.get(type).put(token, mentions);
+          tokenLengths[type].set(token.length());
+        }
+        mentions.set(i);
+      }
+    }
+  }
+
+  /**
+   * Returns the mentions (in increasing order) which may enclose the mention
+   * {@code i} or be enclosed by it, including {@code i} itself if it may
+   * enclose itself.
+   */
+  public int[] candidates(int i) {
+    if (all != null) {
+      return all;
+    }
+    int type = typeOf(i);
+    int[] result = candidates.get(type).get(values[i]);
+    if (result == null) {
+      result = toArray(findCandidates(i, type));
+      candidates.get(type).put(values[i], result);
+    }
+    return result;
+  }
+
+  private BitSet findCandidates(int i, int type) {
+    if (tokens[i].length == 0) {
+      return byType[type];
+    }
+    BitSet result = (BitSet) untokenized[type].clone();
+    TreeMap<String, BitSet> mentions = index.get(type);
+    BitSet lengths = tokenLengths[type];
+    for (String token : tokens[i]) {
+      // the tokens which start with the token
+      for (Map.Entry<String, BitSet> entry : mentions.tailMap(token)
+          .entrySet()) {
+        if (!entry.getKey().startsWith(token)) {
+          break;
+        }
+        result.or(entry.getValue());
+      }
+      // the tokens which are (shorter) prefixes of the token
+      for (int length = lengths.nextSetBit(0); length >= 0
+          && length < token.length(); length = lengths
+          .nextSetBit(length + 1)) {
+        BitSet prefix = mentions.get(token.substring(0, length));
+        if (prefix != null) {
+          result.or(prefix);
+        }
+      }
+    }
+    return result;
+  }
+
+  private int typeOf(int i) {
+    return types == null ? 0 : types[i];
+  }
+
+  private static int[] toArray(BitSet set) {
+    int[] array = new int[set.cardinality()];
+    int k = 0;
+    for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+      array[k++] = i;
+    }
+    return array;
+  }
+
+  /**
+   * Returns the tokens of a value, i.e., its substrings between spaces (as
+   * in {@link Entity#encloses(String, String)}).
+   */
+  static String[] tokenize(String value) {
+    List<String> list = new ArrayList<String>();
+    int start = -1;
+    for (int j = 0; j <= value.length(); j++) {
+      if (j == value.length() || value.charAt(j) == ' ') {
+        if (start >= 0) {
+          list.add(value.substring(start, j));
+          start = -1;
+        }
+      } else if (start < 0) {
+        start = j;
+      }
+    }
+    return list.toArray(new String[list.size()]);
+  }
+
+  /**
+   * Returns the position of the first candidate after mention {@code i} in
+   * {@code candidates} (the length of the array if there is none).
+   */
+  public static int next(int[] candidates, int i) {
+    int low = 0;
+    int high = candidates.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (candidates[mid] <= i) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
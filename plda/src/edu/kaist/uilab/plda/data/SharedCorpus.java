@@ -0,0 +1,98 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.IOException;
+
+import com.aliasi.symbol.SymbolTable;
+
+/**
+ * The result of a {@link CorpusProcessor} (or a {@link SyntheticCorpus}),
+ * shared by samplers which run at the same time.
+ *
+ * <p> The samplers only read the documents, entities and symbol table of a
+ * corpus, so one copy of them can be used by all runs of a hyperparameter
+ * sweep. The fields are final, i.e., the corpus can be handed to other
+ * threads after it is constructed; the arrays must not be changed afterwards.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public final class SharedCorpus {
+  private final int vocabularySize;
+  private final int numEntities;
+  private final long numTokens;
+  private final int[][] documentTokens;
+  private final Entity[][] documentEntities;
+  private final CorpusEntitySet corpusEntitySet;
+  private final SymbolTable symbolTable;
+
+  /**
+   * Constructs the shared corpus of a processed corpus.
+   *
+   * @param processor
+   *       a processor whose {@link CorpusProcessor#process()} has been called
+   */
+  public SharedCorpus(CorpusProcessor processor) throws IOException {
+    this(processor.getVocabularySize(), processor.getNumEntities(), processor
+        .getDocumentTokens(), processor.getDocumentEntities(), processor
+        .getCorpusEntitySet(), processor.getSymbolTable());
+  }
+
+  /**
+   * Constructs the shared corpus of a synthetic corpus.
+   */
+  public SharedCorpus(SyntheticCorpus corpus) {
+    this(corpus.getVocabularySize(), corpus.getNumEntities(), corpus
+        .getDocumentTokens(), corpus.getDocumentEntities(), corpus
+        .getCorpusEntitySet(), corpus.getSymbolTable());
+  }
+
+  private SharedCorpus(int vocabularySize, int numEntities,
+      int[][] documentTokens, Entity[][] documentEntities,
+      CorpusEntitySet corpusEntitySet, SymbolTable symbolTable) {
+    this.vocabularySize = vocabularySize;
+    this.numEntities = numEntities;
+    this.documentTokens = documentTokens;
+    this.documentEntities = documentEntities;
+    this.corpusEntitySet = corpusEntitySet;
+    this.symbolTable = symbolTable;
+    long count = 0;
+    for (int[] tokens : documentTokens) {
+      count += tokens.length;
+    }
+    numTokens = count;
+  }
+
+  public int getVocabularySize() {
+    return vocabularySize;
+  }
+
+  public int getNumDocuments() {
+    return documentTokens.length;
+  }
+
+  public int getNumEntities() {
+    return numEntities;
+  }
+
+  /**
+   * Returns the total number of tokens of the documents.
+   */
+  public long getNumTokens() {
+    return numTokens;
+  }
+
+  public int[][] getDocumentTokens() {
+    return documentTokens;
+  }
+
+  public Entity[][] getDocumentEntities() {
+    return documentEntities;
+  }
+
+  public CorpusEntitySet getCorpusEntitySet() {
+    return corpusEntitySet;
+  }
+
+  public SymbolTable getSymbolTable() {
+    return symbolTable;
+  }
+}
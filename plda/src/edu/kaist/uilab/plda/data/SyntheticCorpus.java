@@ -0,0 +1,129 @@
+package edu.kaist.uilab.plda.data;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.aliasi.symbol.MapSymbolTable;
+import com.aliasi.symbol.SymbolTable;
+
+/**
+ * A randomly generated corpus with the same form as the output of
+ * {@link CorpusProcessor}, for benchmarking the samplers without the NER
+ * classifier and a real corpus.
+ * 
+ * <p> Each document is generated from one of a few hidden topics, i.e., most
+ * of its words and entities come from the range of ids of that topic.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class SyntheticCorpus {
+  private static final int NUM_HIDDEN_TOPICS = 10;
+  // probability that a word or an entity is drawn from the document's topic
+  private static final double TOPIC_PROBABILITY = 0.8;
+
+  private int vocabularySize;
+  private int[][] documentTokens;
+  private Entity[][] documentEntities;
+  private CorpusEntitySet corpusEntities;
+  private SymbolTable symbolTable;
+
+  /**
+   * Generates a new corpus.
+   * 
+   * @param numDocuments
+   *       the number of documents
+   * @param vocabularySize
+   *       the number of distinct words (at least 10)
+   * @param meanDocumentLength
+   *       the average number of words in a document; lengths are uniform
+   *       in [meanDocumentLength / 2, 3 * meanDocumentLength / 2)
+   * @param numEntities
+   *       the number of distinct entities (at least 10)
+   * @param maxEntitiesPerDoc
+   *       the maximum number of distinct entities in a document
+   * @param seed
+   *       the seed of the random generator
+   */
+  public SyntheticCorpus(int numDocuments, int vocabularySize,
+      int meanDocumentLength, int numEntities, int maxEntitiesPerDoc, long seed) {
+    this.vocabularySize = vocabularySize;
+    Random random = new Random(seed);
+    symbolTable = new MapSymbolTable();
+    for (int i = 0; i < vocabularySize; i++) {
+      symbolTable.getOrAddSymbol("word" + i);
+    }
+    corpusEntities = new CorpusEntitySet();
+    documentTokens = new int[numDocuments][];
+    ArrayList<ArrayList<Entity>> docEntities = new ArrayList<ArrayList<Entity>>(
+        numDocuments);
+    for (int m = 0; m < numDocuments; m++) {
+      int topic = random.nextInt(NUM_HIDDEN_TOPICS);
+      int length = meanDocumentLength / 2 + random.nextInt(Math.max(1, meanDocumentLength));
+      documentTokens[m] = new int[length];
+      for (int n = 0; n < length; n++) {
+        documentTokens[m][n] = draw(random, topic, vocabularySize);
+      }
+      ArrayList<Entity> entities = new ArrayList<Entity>();
+      int size = random.nextInt(maxEntitiesPerDoc + 1);
+      for (int e = 0; e < size; e++) {
+        Entity entity = new Entity("Entity " + draw(random, topic, numEntities),
+            Entity.PERSON);
+        if (!entities.contains(entity)) {
+          entity.count = 1 + random.nextInt(3);
+          entities.add(entity);
+        }
+      }
+      ArrayList<Entity> copy = new ArrayList<Entity>(entities.size());
+      for (Entity entity : entities) {
+        copy.add(entity.clone());
+      }
+      docEntities.add(copy);
+      corpusEntities.add(entities);
+    }
+    corpusEntities.setMinEntityCount(1);
+    documentEntities = new Entity[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      documentEntities[m] = docEntities.get(m).toArray(new Entity[0]);
+    }
+  }
+
+  /**
+   * Draws an id in [0, size) which belongs to the range of {@code topic} with
+   * probability {@link #TOPIC_PROBABILITY}.
+   */
+  private static int draw(Random random, int topic, int size) {
+    int range = size / NUM_HIDDEN_TOPICS;
+    if (random.nextDouble() < TOPIC_PROBABILITY) {
+      return topic * range + random.nextInt(range);
+    }
+    return random.nextInt(size);
+  }
+
+  public int getVocabularySize() {
+    return vocabularySize;
+  }
+
+  public int getNumDocuments() {
+    return documentTokens.length;
+  }
+
+  public int getNumEntities() {
+    return corpusEntities.getNumEntities();
+  }
+
+  public int[][] getDocumentTokens() {
+    return documentTokens;
+  }
+
+  public Entity[][] getDocumentEntities() {
+    return documentEntities;
+  }
+
+  public CorpusEntitySet getCorpusEntitySet() {
+    return corpusEntities;
+  }
+
+  public SymbolTable getSymbolTable() {
+    return symbolTable;
+  }
+}
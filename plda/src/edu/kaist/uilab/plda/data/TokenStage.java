@@ -0,0 +1,230 @@
+package edu.kaist.uilab.plda.data;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.aliasi.symbol.MapSymbolTable;
+import com.aliasi.symbol.SymbolTable;
+import com.aliasi.util.Counter;
+import com.aliasi.util.ObjectToCounterMap;
+
+import edu.kaist.uilab.plda.util.CharSymbolTable;
+import edu.kaist.uilab.plda.util.IntList;
+
+/**
+ * The stage of a {@link DocumentPipeline} which tokenizes the documents of a
+ * corpus with a {@link CharTokenizer} and counts their tokens (once).
+ *
+ * <p> The tokens of a document are replaced by ids of all tokens of the
+ * corpus when the document is collected; they are counted by id, without
+ * creating a string per token. When all documents have been collected, the
+ * tokens whose count is less than {@code minTokenCount} and the top stop
+ * words are pruned, the symbol table is built from the remaining tokens and
+ * the documents are converted to ids of the symbol table; there may be
+ * documents with no tokens in them.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TokenStage extends DocumentPipeline.Stage {
+  private final CharTokenizer tokenizer;
+  private final int numDocuments;
+  private final int minTokenCount;
+  private final int topStopWords;
+  private final int topDocumentTokens;
+  // the lowercased text and the token ranges of the processed documents
+  private final char[][] documentTexts;
+  private final IntList[] documentRanges;
+  private final int[][] corpusIds;
+  // the ids of all tokens of the corpus, their counts and the number of
+  // documents which contain them
+  private final CharSymbolTable corpusTokens = new CharSymbolTable();
+  private final IntList counts = new IntList();
+  private final IntList documentCounts = new IntList();
+  // the last document which contains each token
+  private final IntList lastDocuments = new IntList();
+  private long numTokens;
+  // the results of finish()
+  private ObjectToCounterMap<String> tokenCounter;
+  private SymbolTable symbolTable;
+  private int[][] documentTokens;
+
+  /**
+   * Constructs the stage.
+   *
+   * @param tokenizer
+   *          the tokenizer of the corpus
+   * @param numDocuments
+   *          the number of documents of the pipeline
+   * @param minTokenCount
+   *          the minimum count of a token to be retained as one word in the
+   *          vocabulary
+   * @param topStopWords
+   *          the number of words which has highest frequency to be removed
+   * @param topDocumentTokens
+   *          the maximum percent of documents in which a word can appear
+   */
+  public TokenStage(CharTokenizer tokenizer, int numDocuments,
+      int minTokenCount, int topStopWords, int topDocumentTokens) {
+    super("tokens");
+    this.tokenizer = tokenizer;
+    this.numDocuments = numDocuments;
+    this.minTokenCount = minTokenCount;
+    this.topStopWords = topStopWords;
+    this.topDocumentTokens = topDocumentTokens;
+    documentTexts = new char[numDocuments][];
+    documentRanges = new IntList[numDocuments];
+    corpusIds = new int[numDocuments][];
+  }
+
+  @Override
+  public void process(int document, String content) {
+    IntList ranges = new IntList(content.length() / 4);
+    documentTexts[document] = tokenizer.tokenize(content, ranges);
+    documentRanges[document] = ranges;
+  }
+
+  @Override
+  public void collect(int document) {
+    char[] cs = documentTexts[document];
+    IntList ranges = documentRanges[document];
+    documentTexts[document] = null;
+    documentRanges[document] = null;
+    int[] ids = new int[ranges.size() / 2];
+    for (int n = 0; n < ids.length; n++) {
+      int start = ranges.get(2 * n);
+      int id = corpusTokens.getOrAdd(cs, start, ranges.get(2 * n + 1) - start);
+      if (id == counts.size()) {
+        counts.add(0);
+        documentCounts.add(0);
+        lastDocuments.add(-1);
+      }
+      counts.set(id, counts.get(id) + 1);
+      if (lastDocuments.get(id) != document) {
+        lastDocuments.set(id, document);
+        documentCounts.set(id, documentCounts.get(id) + 1);
+      }
+      ids[n] = id;
+    }
+    corpusIds[document] = ids;
+    numTokens += ids.length;
+  }
+
+  @Override
+  public void finish() {
+    // the counters are filled in the order the tokens first appear in the
+    // corpus, as when they were incremented token by token
+    String[] tokens = new String[corpusTokens.size()];
+    tokenCounter = new ObjectToCounterMap<String>();
+    ObjectToCounterMap<String> tokDocumentCounter =
+        new ObjectToCounterMap<String>();
+    for (int id = 0; id < tokens.length; id++) {
+      tokens[id] = corpusTokens.idToSymbol(id);
+      tokenCounter.set(tokens[id], counts.get(id));
+      tokDocumentCounter.set(tokens[id], documentCounts.get(id));
+    }
+    ObjectToCounterMap<String> vocabulary = new ObjectToCounterMap<String>();
+    for (Map.Entry<String, Counter> entry : tokenCounter.entrySet()) {
+      if (entry.getValue().intValue() >= minTokenCount) {
+        vocabulary.set(entry.getKey(), entry.getValue().intValue());
+      }
+    }
+    pruneTopWords(vocabulary, topStopWords);
+    pruneTopDocumentTokens(tokDocumentCounter, topDocumentTokens);
+    symbolTable = new MapSymbolTable();
+    for (String token : vocabulary.keySet()) {
+      symbolTable.getOrAddSymbol(token);
+    }
+    // the id in the symbol table of each token of the corpus
+    int[] wordId = new int[tokens.length];
+    for (int id = 0; id < wordId.length; id++) {
+      wordId[id] = symbolTable.symbolToID(tokens[id]);
+    }
+    documentTokens = new int[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      int size = 0;
+      for (int id : corpusIds[m]) {
+        if (wordId[id] >= 0) {
+          size++;
+        }
+      }
+      documentTokens[m] = new int[size];
+      size = 0;
+      for (int id : corpusIds[m]) {
+        if (wordId[id] >= 0) {
+          documentTokens[m][size++] = wordId[id];
+        }
+      }
+      corpusIds[m] = null;
+    }
+  }
+
+  /**
+   * Returns the counts of all tokens of the corpus (before pruning).
+   */
+  public ObjectToCounterMap<String> getTokenCounter() {
+    return tokenCounter;
+  }
+
+  /**
+   * Returns the symbol table of the tokens which were not pruned.
+   */
+  public SymbolTable getSymbolTable() {
+    return symbolTable;
+  }
+
+  /**
+   * Returns the ids in the symbol table of the tokens of each document.
+   */
+  public int[][] getDocumentTokens() {
+    return documentTokens;
+  }
+
+  /**
+   * Returns the number of tokens of the corpus (before pruning).
+   */
+  public long getNumTokens() {
+    return numTokens;
+  }
+
+  /**
+   * Prunes the tokens that appear in more than a specified number of documents.
+   *
+   * @param counter
+   * @param percent
+   */
+  private void pruneTopDocumentTokens(ObjectToCounterMap<String> counter,
+      int percent) {
+    int threshold = percent * numDocuments / 100;
+    int count = 0;
+    Iterator<Map.Entry<String, Counter>> iter = counter.entrySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().getValue().intValue() > threshold) {
+        iter.remove();
+        count++;
+      }
+    }
+    System.err.printf("%d words pruned.\n", count);
+  }
+
+  /**
+   * Prunes the top {@code num} tokens from the vocabulary set.
+   *
+   * @param tokenCounter
+   * @param num
+   */
+  private static void pruneTopWords(ObjectToCounterMap<String> tokenCounter,
+      int num) {
+    HashSet<String> topKeys = new HashSet<String>(
+        tokenCounter.keysOrderedByCountList().subList(0, num));
+    Iterator<Map.Entry<String, Counter>> iter = tokenCounter.entrySet().iterator();
+    int count = 0;
+    while (iter.hasNext()) {
+      if (topKeys.contains(iter.next().getKey())) {
+        iter.remove();
+        count++;
+      }
+    }
+    System.err.printf("%d stop words pruned.\n", count);
+  }
+}
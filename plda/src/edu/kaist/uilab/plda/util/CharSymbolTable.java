@@ -0,0 +1,159 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.Arrays;
+
+/**
+ * A symbol table whose symbols are looked up and added as ranges of a
+ * {@code char} array, so that a tokenizer can find the id of a token without
+ * creating a {@code String} for it.
+ *
+ * <p> The characters of the symbols are appended to a single array and the
+ * ids are kept in an open-addressing hash table (with linear probing) of
+ * primitive values. Symbols get the ids {@code 0, 1, ...} in the order they
+ * are added, as in {@code MapSymbolTable}. A table which is no longer
+ * modified may be read by several threads.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class CharSymbolTable {
+  // the characters of all symbols; symbol id is in
+  // chars[offsets[id], offsets[id + 1])
+  private char[] chars;
+  private int[] offsets;
+  private int[] hashes;
+  // id + 1 of the symbol in each slot, 0 if the slot is empty
+  private int[] slots;
+  private int size;
+
+  /**
+   * Constructs an empty symbol table.
+   */
+  public CharSymbolTable() {
+    chars = new char[256];
+    offsets = new int[33];
+    hashes = new int[32];
+    slots = new int[64];
+  }
+
+  /**
+   * Returns the number of symbols in this table.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the id of the symbol {@code cs[start, start + length)}, or -1 if
+   * it is not in this table.
+   */
+  public int get(char[] cs, int start, int length) {
+    int hash = hash(cs, start, length);
+    int mask = slots.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (id < 0) {
+        return -1;
+      }
+      if (hashes[id] == hash && matches(id, cs, start, length)) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * Returns the id of the symbol {@code cs[start, start + length)}, adding it
+   * to this table if it is not there.
+   */
+  public int getOrAdd(char[] cs, int start, int length) {
+    int hash = hash(cs, start, length);
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (;; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (id < 0) {
+        break;
+      }
+      if (hashes[id] == hash && matches(id, cs, start, length)) {
+        return id;
+      }
+    }
+    int id = size++;
+    if (size == hashes.length) {
+      hashes = Arrays.copyOf(hashes, 2 * size);
+      offsets = Arrays.copyOf(offsets, 2 * size + 1);
+    }
+    int end = offsets[id] + length;
+    if (end > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(end, 2 * chars.length));
+    }
+    System.arraycopy(cs, start, chars, offsets[id], length);
+    offsets[id + 1] = end;
+    hashes[id] = hash;
+    slots[slot] = id + 1;
+    // keep the table at most half full
+    if (2 * size > slots.length) {
+      rehash(2 * slots.length);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of a symbol, adding it to this table if it is not there.
+   */
+  public int getOrAdd(String symbol) {
+    char[] cs = symbol.toCharArray();
+    return getOrAdd(cs, 0, cs.length);
+  }
+
+  /**
+   * Returns the id of a symbol, or -1 if it is not in this table.
+   */
+  public int get(String symbol) {
+    char[] cs = symbol.toCharArray();
+    return get(cs, 0, cs.length);
+  }
+
+  /**
+   * Returns the symbol with the given id.
+   */
+  public String idToSymbol(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("No symbol with id " + id);
+    }
+    return new String(chars, offsets[id], offsets[id + 1] - offsets[id]);
+  }
+
+  private boolean matches(int id, char[] cs, int start, int length) {
+    int offset = offsets[id];
+    if (offsets[id + 1] - offset != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (chars[offset + i] != cs[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehash(int capacity) {
+    slots = new int[capacity];
+    int mask = capacity - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hashes[id] & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id + 1;
+    }
+  }
+
+  private static int hash(char[] cs, int start, int length) {
+    int h = 0;
+    for (int i = start; i < start + length; i++) {
+      h = 31 * h + cs[i];
+    }
+    // spread the high bits to the low bits used by the mask
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,508 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * The sampling state of a model in a compact binary file.
+ *
+ * <p> Only the latent variables of each document (e.g., the topic of each
+ * word) are stored, since all counts of a model can be rebuilt from them. The
+ * values of a variable are bit-packed with the number of bits of its largest
+ * value, and the documents are split into blocks of
+ * {@value #DOCUMENTS_PER_BLOCK} documents which are deflate-compressed
+ * independently, so blocks can be compressed and decompressed by different
+ * threads.
+ *
+ * <p> The file starts with a header:
+ * <ul>
+ * <li>magic number and format version (int)</li>
+ * <li>the name of the model (UTF) and the iteration of the state (int)</li>
+ * <li>the dimensions of the model (int count followed by ints)</li>
+ * <li>the priors of the model (int count followed by doubles)</li>
+ * <li>the number of documents, the number of variables and the bits of each
+ * variable (int)</li>
+ * </ul>
+ * followed by each block as its uncompressed length, its compressed length
+ * (int) and the compressed bytes. A block holds the length of the variables of
+ * its documents (int) followed by the packed values of each variable.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class Checkpoint {
+  public static final String FILE_NAME = "checkpoint.bin";
+  static final String TMP_SUFFIX = ".tmp";
+  public static final int VERSION = 1;
+  static final int MAGIC = 0x504c4443; // "PLDC"
+  static final int DOCUMENTS_PER_BLOCK = 1024;
+
+  private final String modelName;
+  private final int iteration;
+  private final int[] dimensions;
+  private final double[] priors;
+  // variables[v][m] = values of the v_th variable of document m
+  private final int[][][] variables;
+  // bits[v] = number of bits of each value of the v_th variable
+  private final int[] bits;
+  private final int numDocuments;
+
+  /**
+   * Constructs a checkpoint of the given state.
+   *
+   * @param modelName
+   *          the name of the model (checked when the state is restored)
+   * @param iteration
+   *          the number of finished iterations
+   * @param dimensions
+   *          the dimensions of the model, e.g., number of documents and topics
+   * @param priors
+   *          the priors of the model
+   * @param variables
+   *          variables[v][m][n] = the non-negative value of the v_th variable
+   *          of the n_th element (word, entity...) of document m
+   */
+  public Checkpoint(String modelName, int iteration, int[] dimensions,
+      double[] priors, int[][]... variables) {
+    this.modelName = modelName;
+    this.iteration = iteration;
+    this.dimensions = dimensions;
+    this.priors = priors;
+    this.variables = variables;
+    numDocuments = variables.length > 0 ? variables[0].length : 0;
+    bits = new int[variables.length];
+    for (int v = 0; v < variables.length; v++) {
+      if (variables[v].length != numDocuments) {
+        throw new IllegalArgumentException("Variable " + v + " has "
+            + variables[v].length + " documents instead of " + numDocuments);
+      }
+      int max = 0;
+      for (int[] values : variables[v]) {
+        for (int value : values) {
+          if (value < 0) {
+            throw new IllegalArgumentException("Negative value of variable "
+                + v);
+          }
+          max = Math.max(max, value);
+        }
+      }
+      bits[v] = 32 - Integer.numberOfLeadingZeros(max);
+    }
+  }
+
+  private Checkpoint(String modelName, int iteration, int[] dimensions,
+      double[] priors, int numDocuments, int[] bits) {
+    this.modelName = modelName;
+    this.iteration = iteration;
+    this.dimensions = dimensions;
+    this.priors = priors;
+    this.numDocuments = numDocuments;
+    this.bits = bits;
+    variables = new int[bits.length][numDocuments][];
+  }
+
+  /**
+   * Returns the name of the model.
+   */
+  public String getModelName() {
+    return modelName;
+  }
+
+  /**
+   * Returns the number of finished iterations of the state.
+   */
+  public int getIteration() {
+    return iteration;
+  }
+
+  /**
+   * Returns the dimensions of the model.
+   */
+  public int[] getDimensions() {
+    return dimensions;
+  }
+
+  /**
+   * Returns the priors of the model.
+   */
+  public double[] getPriors() {
+    return priors;
+  }
+
+  /**
+   * Returns the number of documents.
+   */
+  public int getNumDocuments() {
+    return numDocuments;
+  }
+
+  /**
+   * Returns the values of the v_th variable of each document.
+   */
+  public int[][] getVariable(int v) {
+    return variables[v];
+  }
+
+  /**
+   * Checks that this checkpoint is a state of the given model.
+   *
+   * <p> The model name and dimensions must be equal; different priors are
+   * allowed (the new priors are used for the following iterations) but
+   * reported.
+   *
+   * @throws IOException
+   *           if the checkpoint is the state of another model
+   */
+  public void check(String modelName, int[] dimensions, double[] priors)
+      throws IOException {
+    if (!this.modelName.equals(modelName)) {
+      throw new IOException("Checkpoint of " + this.modelName
+          + " cannot be loaded by " + modelName);
+    }
+    if (!Arrays.equals(this.dimensions, dimensions)) {
+      throw new IOException("Checkpoint dimensions "
+          + Arrays.toString(this.dimensions) + " do not match the model "
+          + Arrays.toString(dimensions));
+    }
+    if (!Arrays.equals(this.priors, priors)) {
+      System.err.printf("Warning: checkpoint priors %s differ from %s\n",
+          Arrays.toString(this.priors), Arrays.toString(priors));
+    }
+  }
+
+  /**
+   * Writes this checkpoint to {@code file}.
+   *
+   * <p> The checkpoint is written to a temporary file which is then renamed
+   * to {@code file}, so {@code file} is never left half-written, e.g., when a
+   * run is killed while it writes a checkpoint.
+   *
+   * @param executor
+   *          the threads which compress the blocks (null to compress them in
+   *          the calling thread)
+   * @return the size of the file in bytes
+   */
+  public long write(File file, ExecutorService executor) throws IOException {
+    List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+    for (int m = 0; m < numDocuments; m += DOCUMENTS_PER_BLOCK) {
+      final int from = m;
+      final int to = Math.min(numDocuments, m + DOCUMENTS_PER_BLOCK);
+      tasks.add(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          return compress(encodeBlock(from, to));
+        }
+      });
+    }
+    List<byte[]> blocks = run(tasks, executor);
+
+    File tmpFile = new File(file.getPath() + TMP_SUFFIX);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmpFile), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(modelName);
+      out.writeInt(iteration);
+      out.writeInt(dimensions.length);
+      for (int dimension : dimensions) {
+        out.writeInt(dimension);
+      }
+      out.writeInt(priors.length);
+      for (double prior : priors) {
+        out.writeDouble(prior);
+      }
+      out.writeInt(numDocuments);
+      out.writeInt(bits.length);
+      for (int b : bits) {
+        out.writeInt(b);
+      }
+      for (int p = 0; p < blocks.size(); p++) {
+        int from = p * DOCUMENTS_PER_BLOCK;
+        out.writeInt(blockSize(from, Math.min(numDocuments, from
+            + DOCUMENTS_PER_BLOCK)));
+        out.writeInt(blocks.get(p).length);
+        out.write(blocks.get(p));
+      }
+    } finally {
+      out.close();
+    }
+    // renameTo() does not replace an existing file on every platform
+    file.delete();
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("Cannot rename " + tmpFile + " to " + file);
+    }
+
+    return file.length();
+  }
+
+  /**
+   * Returns the directories of the reported iterations of {@code outputDir},
+   * which are named by their iteration, the newest first.
+   */
+  public static List<File> listIterationDirs(String outputDir) {
+    List<File> dirs = new ArrayList<File>();
+    for (File file : new File(outputDir).listFiles()) {
+      if (file.isDirectory()) {
+        dirs.add(file);
+      }
+    }
+    Collections.sort(dirs, new Comparator<File>() {
+      @Override
+      public int compare(File dir1, File dir2) {
+        return Integer.parseInt(dir2.getName())
+            - Integer.parseInt(dir1.getName());
+      }
+    });
+
+    return dirs;
+  }
+
+  /**
+   * Reads a checkpoint from {@code file}.
+   *
+   * @param executor
+   *          the threads which decompress the blocks (null to decompress them
+   *          in the calling thread)
+   */
+  public static Checkpoint read(File file, ExecutorService executor)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(file), 1 << 16));
+    final Checkpoint checkpoint;
+    final List<byte[]> blocks = new ArrayList<byte[]>();
+    final List<Integer> blockSizes = new ArrayList<Integer>();
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a checkpoint");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported checkpoint version " + version
+            + " of " + file);
+      }
+      String modelName = in.readUTF();
+      int iteration = in.readInt();
+      int[] dimensions = new int[in.readInt()];
+      for (int d = 0; d < dimensions.length; d++) {
+        dimensions[d] = in.readInt();
+      }
+      double[] priors = new double[in.readInt()];
+      for (int d = 0; d < priors.length; d++) {
+        priors[d] = in.readDouble();
+      }
+      int numDocuments = in.readInt();
+      int[] bits = new int[in.readInt()];
+      for (int v = 0; v < bits.length; v++) {
+        bits[v] = in.readInt();
+      }
+      checkpoint = new Checkpoint(modelName, iteration, dimensions, priors,
+          numDocuments, bits);
+      for (int m = 0; m < numDocuments; m += DOCUMENTS_PER_BLOCK) {
+        blockSizes.add(in.readInt());
+        byte[] block = new byte[in.readInt()];
+        in.readFully(block);
+        blocks.add(block);
+      }
+    } finally {
+      in.close();
+    }
+
+    List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+    for (int p = 0; p < blocks.size(); p++) {
+      final int block = p;
+      tasks.add(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          int from = block * DOCUMENTS_PER_BLOCK;
+          int to = Math.min(checkpoint.numDocuments, from
+              + DOCUMENTS_PER_BLOCK);
+          checkpoint.decodeBlock(
+              decompress(blocks.get(block), blockSizes.get(block)), from, to);
+          blocks.set(block, null);
+          return null;
+        }
+      });
+    }
+    run(tasks, executor);
+
+    return checkpoint;
+  }
+
+  /**
+   * Returns the size of the uncompressed block of documents [from, to).
+   */
+  private int blockSize(int from, int to) {
+    long numBits = 0;
+    for (int v = 0; v < variables.length; v++) {
+      for (int m = from; m < to; m++) {
+        numBits += (long) bits[v] * variables[v][m].length;
+      }
+    }
+
+    return (int) (4L * variables.length * (to - from) + (numBits + 7) / 8);
+  }
+
+  /**
+   * Returns the uncompressed block of documents [from, to).
+   */
+  private byte[] encodeBlock(int from, int to) {
+    ByteBuffer buffer = ByteBuffer.allocate(blockSize(from, to));
+    for (int v = 0; v < variables.length; v++) {
+      for (int m = from; m < to; m++) {
+        buffer.putInt(variables[v][m].length);
+      }
+    }
+    long bitBuffer = 0;
+    int numBits = 0;
+    for (int v = 0; v < variables.length; v++) {
+      int b = bits[v];
+      for (int m = from; m < to; m++) {
+        for (int value : variables[v][m]) {
+          bitBuffer |= (long) value << numBits;
+          numBits += b;
+          while (numBits >= 8) {
+            buffer.put((byte) bitBuffer);
+            bitBuffer >>>= 8;
+            numBits -= 8;
+          }
+        }
+      }
+    }
+    if (numBits > 0) {
+      buffer.put((byte) bitBuffer);
+    }
+
+    return buffer.array();
+  }
+
+  /**
+   * Reads the variables of documents [from, to) from an uncompressed block.
+   */
+  private void decodeBlock(byte[] block, int from, int to) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(block);
+    long numBits = 0;
+    for (int v = 0; v < variables.length; v++) {
+      for (int m = from; m < to; m++) {
+        int length = buffer.getInt();
+        if (length < 0) {
+          throw new IOException("Corrupted checkpoint block");
+        }
+        variables[v][m] = new int[length];
+        numBits += (long) bits[v] * length;
+      }
+    }
+    if (buffer.remaining() != (numBits + 7) / 8) {
+      throw new IOException("Corrupted checkpoint block");
+    }
+    long bitBuffer = 0;
+    int available = 0;
+    for (int v = 0; v < variables.length; v++) {
+      int b = bits[v];
+      int mask = (1 << b) - 1;
+      for (int m = from; m < to; m++) {
+        int[] values = variables[v][m];
+        for (int n = 0; n < values.length; n++) {
+          while (available < b) {
+            bitBuffer |= (buffer.get() & 0xffL) << available;
+            available += 8;
+          }
+          values[n] = (int) bitBuffer & mask;
+          bitBuffer >>>= b;
+          available -= b;
+        }
+      }
+    }
+  }
+
+  private static byte[] compress(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+    DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+    out.write(data);
+    out.close();
+
+    return bytes.toByteArray();
+  }
+
+  private static byte[] decompress(byte[] data, int size) throws IOException {
+    Inflater inflater = new Inflater();
+    byte[] result = new byte[size];
+    try {
+      inflater.setInput(data);
+      int length = 0;
+      while (length < size && !inflater.finished()) {
+        int n = inflater.inflate(result, length, size - length);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        length += n;
+      }
+      if (length != size || !inflater.finished()) {
+        throw new IOException("Corrupted checkpoint block");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted checkpoint block", e);
+    } finally {
+      inflater.end();
+    }
+
+    return result;
+  }
+
+  /**
+   * Runs the tasks with the executor (or in the calling thread) and returns
+   * their results in order.
+   */
+  private static List<byte[]> run(List<Callable<byte[]>> tasks,
+      ExecutorService executor) throws IOException {
+    List<byte[]> results = new ArrayList<byte[]>(tasks.size());
+    try {
+      if (executor == null) {
+        for (Callable<byte[]> task : tasks) {
+          results.add(task.call());
+        }
+      } else {
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        for (Callable<byte[]> task : tasks) {
+          futures.add(executor.submit(task));
+        }
+        for (Future<byte[]> future : futures) {
+          results.add(future.get());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Checkpoint interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Checkpoint failed", e.getCause());
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Checkpoint failed", e);
+    }
+
+    return results;
+  }
+}
@@ -0,0 +1,121 @@
+package edu.kaist.uilab.plda.util;
+
+/**
+ * A count matrix stored in one flat (row-major) char array, i.e., with 16-bit
+ * unsigned counts.
+ * 
+ * <p> When a count of a row exceeds {@link Character#MAX_VALUE} (or becomes
+ * negative), the row is promoted to an int array and is read from there afterward. Since a row
+ * total bounds each of its counts, rows with a total of at most 65535 (e.g.,
+ * words which appear at most 65535 times) are never promoted.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class CompactCountMatrix extends CountMatrix {
+  private static final long serialVersionUID = 1L;
+
+  private final char[] counts;
+  // wide[r] = counts of row r if it was promoted, null otherwise
+  private final int[][] wide;
+  private int numWideRows;
+
+  public CompactCountMatrix(int numRows, int numColumns) {
+    super(numRows, numColumns);
+    checkFlatSize(numRows, numColumns);
+    counts = new char[numRows * numColumns];
+    wide = new int[numRows][];
+  }
+
+  /**
+   * Returns the number of bytes of a compact matrix with the given size and
+   * row totals.
+   */
+  static long memorySize(int numRows, int numColumns, int[] rowTotals) {
+    long size = 32 + 2L * numRows * numColumns + 8L * numRows;
+    for (int total : rowTotals) {
+      if (total > Character.MAX_VALUE) {
+        size += 16 + 4L * numColumns;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public int get(int row, int column) {
+    int[] w = wide[row];
+    return w == null ? counts[row * numColumns + column] : w[column];
+  }
+
+  @Override
+  public void set(int row, int column, int count) {
+    int[] w = wide[row];
+    if (w != null) {
+      w[column] = count;
+    } else if (count >= 0 && count <= Character.MAX_VALUE) {
+      counts[row * numColumns + column] = (char) count;
+    } else {
+      promote(row)[column] = count;
+    }
+  }
+
+  @Override
+  public void add(int row, int column, int delta) {
+    int[] w = wide[row];
+    if (w != null) {
+      w[column] += delta;
+    } else {
+      set(row, column, counts[row * numColumns + column] + delta);
+    }
+  }
+
+  /**
+   * Moves the counts of a row to an int array.
+   */
+  private int[] promote(int row) {
+    int[] w = new int[numColumns];
+    int offset = row * numColumns;
+    for (int c = 0; c < numColumns; c++) {
+      w[c] = counts[offset + c];
+      counts[offset + c] = 0;
+    }
+    wide[row] = w;
+    synchronized (wide) {
+      numWideRows++;
+    }
+    return w;
+  }
+
+  @Override
+  public CountMatrix copy() {
+    CompactCountMatrix copy = new CompactCountMatrix(numRows, numColumns);
+    copy.copyFrom(this);
+    return copy;
+  }
+
+  @Override
+  public void copyFrom(CountMatrix source) {
+    checkSameShape(source);
+    CompactCountMatrix compact = (CompactCountMatrix) source;
+    System.arraycopy(compact.counts, 0, counts, 0, counts.length);
+    numWideRows = 0;
+    for (int r = 0; r < numRows; r++) {
+      if (compact.wide[r] == null) {
+        wide[r] = null;
+      } else {
+        wide[r] = compact.wide[r].clone();
+        numWideRows++;
+      }
+    }
+  }
+
+  @Override
+  public long memorySize() {
+    return 32 + 2L * counts.length + 8L * numRows + numWideRows
+        * (16 + 4L * numColumns);
+  }
+
+  @Override
+  public String getName() {
+    return "compact";
+  }
+}
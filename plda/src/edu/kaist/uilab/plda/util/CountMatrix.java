@@ -0,0 +1,182 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.Serializable;
+
+/**
+ * A matrix of non-negative counts, e.g., the word-topic or document-topic
+ * counts of a topic model.
+ * 
+ * <p> There are three implementations:
+ * <ul>
+ * <li>{@link DenseCountMatrix}: one flat int array (fastest),</li>
+ * <li>{@link CompactCountMatrix}: one flat char array whose rows are promoted
+ * to int when a count overflows (half the memory of the dense matrix),</li>
+ * <li>{@link SparseCountMatrix}: the non-zero counts of each row (for rows
+ * that are mostly empty, e.g., document-topic counts with many topics).</li>
+ * </ul>
+ * {@link #newInstance(int, int, int[])} chooses one from the row totals.
+ * 
+ * <p> Different rows can be updated by different threads at the same time.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public abstract class CountMatrix implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  // a dense matrix larger than this is stored as a compact matrix
+  static final long MAX_DENSE_BYTES = 64L << 20;
+
+  protected final int numRows;
+  protected final int numColumns;
+
+  protected CountMatrix(int numRows, int numColumns) {
+    this.numRows = numRows;
+    this.numColumns = numColumns;
+  }
+
+  /**
+   * Returns a new (zero) matrix whose implementation is chosen from the
+   * maximum total count of each row.
+   * 
+   * <p> The sparse matrix is used if it takes less than half the memory of
+   * the compact matrix (or if the matrix does not fit in one array), the
+   * compact matrix if the dense matrix would take more
+   * than 64 MB, and the dense matrix otherwise.
+   * 
+   * @param numRows
+   * @param numColumns
+   * @param rowTotals
+   *       rowTotals[r] = an upper bound of the sum of the counts of row r
+   */
+  public static CountMatrix newInstance(int numRows, int numColumns,
+      int[] rowTotals) {
+    long dense = DenseCountMatrix.memorySize(numRows, numColumns);
+    long compact = CompactCountMatrix.memorySize(numRows, numColumns, rowTotals);
+    long sparse = SparseCountMatrix.memorySize(numRows, numColumns, rowTotals);
+    if (2 * sparse < compact
+        || (long) numRows * numColumns > Integer.MAX_VALUE) {
+      return new SparseCountMatrix(numRows, numColumns);
+    }
+    if (dense > MAX_DENSE_BYTES) {
+      return new CompactCountMatrix(numRows, numColumns);
+    }
+    return new DenseCountMatrix(numRows, numColumns);
+  }
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  public int getNumColumns() {
+    return numColumns;
+  }
+
+  /**
+   * Returns the count at the given row and column.
+   */
+  public abstract int get(int row, int column);
+
+  /**
+   * Sets the count at the given row and column.
+   */
+  public abstract void set(int row, int column, int count);
+
+  /**
+   * Adds {@code delta} to the count at the given row and column.
+   */
+  public abstract void add(int row, int column, int delta);
+
+  public void increment(int row, int column) {
+    add(row, column, 1);
+  }
+
+  public void decrement(int row, int column) {
+    add(row, column, -1);
+  }
+
+  /**
+   * Adds the counts of the rows [fromRow, toRow) of {@code source}, a matrix
+   * with the same dimensions, to this matrix.
+   */
+  public void addRows(CountMatrix source, int fromRow, int toRow) {
+    for (int r = fromRow; r < toRow; r++) {
+      for (int k = 0; k < numColumns; k++) {
+        int count = source.get(r, k);
+        if (count != 0) {
+          add(r, k, count);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of this matrix (with the same implementation).
+   */
+  public abstract CountMatrix copy();
+
+  /**
+   * Overwrites this matrix with the counts of {@code source}, a matrix with
+   * the same implementation and dimensions.
+   */
+  public abstract void copyFrom(CountMatrix source);
+
+  /**
+   * Returns the (approximate) number of bytes used by this matrix.
+   */
+  public abstract long memorySize();
+
+  /**
+   * Returns the name of the implementation of this matrix.
+   */
+  public abstract String getName();
+
+  /**
+   * Returns a line which describes the memory usage of this matrix.
+   * 
+   * @param name
+   *       the name of the matrix, e.g., "cwt"
+   */
+  public String memoryReport(String name) {
+    return String.format("%s: %s %d x %d, %s", name, getName(), numRows,
+        numColumns, formatBytes(memorySize()));
+  }
+
+  /**
+   * Checks that {@code source} has the same implementation and dimensions as
+   * this matrix.
+   */
+  protected void checkSameShape(CountMatrix source) {
+    if (source.getClass() != getClass() || source.numRows != numRows
+        || source.numColumns != numColumns) {
+      throw new IllegalArgumentException("Cannot copy a " + source.getName()
+          + " " + source.numRows + " x " + source.numColumns + " matrix to a "
+          + getName() + " " + numRows + " x " + numColumns + " matrix");
+    }
+  }
+
+  /**
+   * Checks that a matrix with the given size fits in one array.
+   */
+  protected static void checkFlatSize(int numRows, int numColumns) {
+    if ((long) numRows * numColumns > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many counts for a flat matrix: "
+          + numRows + " x " + numColumns);
+    }
+  }
+
+  /**
+   * Returns a human-readable number of bytes.
+   */
+  public static String formatBytes(long bytes) {
+    if (bytes < 1024) {
+      return bytes + " B";
+    }
+    if (bytes < 1024 * 1024) {
+      return String.format("%.1f KB", bytes / 1024.0);
+    }
+    if (bytes < 1024L * 1024 * 1024) {
+      return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+    return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+  }
+}
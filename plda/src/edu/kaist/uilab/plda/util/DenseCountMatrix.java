@@ -0,0 +1,107 @@
+package edu.kaist.uilab.plda.util;
+
+/**
+ * A count matrix stored in one flat int array.
+ * 
+ * <p> In the row-major layout (default), the counts of a row are adjacent,
+ * which suits the samplers as they read all topics of a word or a document.
+ * The column-major layout suits reading one column (e.g., one topic) over all
+ * rows.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class DenseCountMatrix extends CountMatrix {
+  private static final long serialVersionUID = 1L;
+
+  public static final int ROW_MAJOR = 0;
+  public static final int COLUMN_MAJOR = 1;
+
+  private final int layout;
+  private final int[] counts;
+
+  /**
+   * Constructs a row-major matrix.
+   */
+  public DenseCountMatrix(int numRows, int numColumns) {
+    this(numRows, numColumns, ROW_MAJOR);
+  }
+
+  /**
+   * Constructs a matrix with the given layout.
+   * 
+   * @param numRows
+   * @param numColumns
+   * @param layout
+   *       {@link #ROW_MAJOR} or {@link #COLUMN_MAJOR}
+   */
+  public DenseCountMatrix(int numRows, int numColumns, int layout) {
+    super(numRows, numColumns);
+    checkFlatSize(numRows, numColumns);
+    this.layout = layout == COLUMN_MAJOR ? COLUMN_MAJOR : ROW_MAJOR;
+    counts = new int[numRows * numColumns];
+  }
+
+  /**
+   * Returns the number of bytes of a dense matrix with the given size.
+   */
+  static long memorySize(int numRows, int numColumns) {
+    return 16 + 4L * numRows * numColumns;
+  }
+
+  private int index(int row, int column) {
+    return layout == ROW_MAJOR ? row * numColumns + column : column * numRows
+        + row;
+  }
+
+  @Override
+  public int get(int row, int column) {
+    return counts[index(row, column)];
+  }
+
+  @Override
+  public void set(int row, int column, int count) {
+    counts[index(row, column)] = count;
+  }
+
+  @Override
+  public void add(int row, int column, int delta) {
+    counts[index(row, column)] += delta;
+  }
+
+  @Override
+  public void increment(int row, int column) {
+    counts[index(row, column)]++;
+  }
+
+  @Override
+  public void decrement(int row, int column) {
+    counts[index(row, column)]--;
+  }
+
+  @Override
+  public CountMatrix copy() {
+    DenseCountMatrix copy = new DenseCountMatrix(numRows, numColumns, layout);
+    copy.copyFrom(this);
+    return copy;
+  }
+
+  @Override
+  public void copyFrom(CountMatrix source) {
+    checkSameShape(source);
+    DenseCountMatrix dense = (DenseCountMatrix) source;
+    if (dense.layout != layout) {
+      throw new IllegalArgumentException("Different layouts");
+    }
+    System.arraycopy(dense.counts, 0, counts, 0, counts.length);
+  }
+
+  @Override
+  public long memorySize() {
+    return memorySize(numRows, numColumns);
+  }
+
+  @Override
+  public String getName() {
+    return layout == ROW_MAJOR ? "dense (row-major)" : "dense (column-major)";
+  }
+}
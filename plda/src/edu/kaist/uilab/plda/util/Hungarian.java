@@ -0,0 +1,91 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.Arrays;
+
+/**
+ * The Hungarian algorithm for the assignment problem, e.g., matching the
+ * topics of two samplers.
+ *
+ * <p> Given an n x m cost matrix (n &lt;= m), {@link #minimumCostAssignment}
+ * assigns a different column to each row so that the sum of the costs of the
+ * assigned cells is minimal. It runs in O(n^2 m) time (the shortest
+ * augmenting path version with row and column potentials).
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class Hungarian {
+  private Hungarian() {
+  }
+
+  /**
+   * Returns the assignment of minimum cost: {@code result[r]} is the column
+   * assigned to row r.
+   *
+   * @param cost
+   *          the cost matrix (no more rows than columns)
+   */
+  public static int[] minimumCostAssignment(double[][] cost) {
+    int n = cost.length;
+    int m = n > 0 ? cost[0].length : 0;
+    if (n > m) {
+      throw new IllegalArgumentException("More rows than columns: " + n
+          + " x " + m);
+    }
+    // 1-based: u[r], v[c] = potentials, rowOf[c] = row assigned to column c
+    // (0 = none), column 0 is the start of an augmenting path
+    double[] u = new double[n + 1];
+    double[] v = new double[m + 1];
+    int[] rowOf = new int[m + 1];
+    int[] previous = new int[m + 1];
+    double[] minSlack = new double[m + 1];
+    boolean[] used = new boolean[m + 1];
+    for (int r = 1; r <= n; r++) {
+      rowOf[0] = r;
+      int column = 0;
+      Arrays.fill(minSlack, Double.POSITIVE_INFINITY);
+      Arrays.fill(used, false);
+      // grows the shortest augmenting path until it reaches a free column
+      do {
+        used[column] = true;
+        int row = rowOf[column];
+        double delta = Double.POSITIVE_INFINITY;
+        int next = 0;
+        for (int c = 1; c <= m; c++) {
+          if (!used[c]) {
+            double slack = cost[row - 1][c - 1] - u[row] - v[c];
+            if (slack < minSlack[c]) {
+              minSlack[c] = slack;
+              previous[c] = column;
+            }
+            if (minSlack[c] < delta) {
+              delta = minSlack[c];
+              next = c;
+            }
+          }
+        }
+        for (int c = 0; c <= m; c++) {
+          if (used[c]) {
+            u[rowOf[c]] += delta;
+            v[c] -= delta;
+          } else {
+            minSlack[c] -= delta;
+          }
+        }
+        column = next;
+      } while (rowOf[column] != 0);
+      // flips the path
+      do {
+        int c = previous[column];
+        rowOf[column] = rowOf[c];
+        column = c;
+      } while (column != 0);
+    }
+    int[] assignment = new int[n];
+    for (int c = 1; c <= m; c++) {
+      if (rowOf[c] != 0) {
+        assignment[rowOf[c] - 1] = c - 1;
+      }
+    }
+    return assignment;
+  }
+}
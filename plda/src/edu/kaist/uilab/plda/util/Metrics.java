@@ -0,0 +1,368 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-iteration metrics of a sampler or a corpus processor.
+ *
+ * <p> The sampler calls {@link #startSweep()} and
+ * {@link #endSweep(int, long)} around each sweep over the corpus and reports
+ * its log-likelihood, the memory of its count matrices and the time of its
+ * reports; corpus processors report the documents they have processed. The
+ * counters can be read live through JMX (see {@link MetricsMBean}) once the
+ * metrics are registered with {@link #register(String)}, and every event can
+ * also be appended as a line of JSON to a file (see
+ * {@link #setJsonOutput(File)}), e.g., {@value #JSON_FILE} in the output
+ * directory of a run:
+ *
+ * <pre>
+ * {"time":1700000000000,"name":"elda","event":"sweep","iteration":3,
+ *  "tokens":120000,"nanos":81000000,"allocatedBytes":1024}
+ * </pre>
+ *
+ * <p> The bytes allocated during a sweep are those of all live threads of the
+ * JVM, which include the threads of other samplers running at the same time
+ * (e.g., the concurrent runs of a {@code SweepRunner}); they are only the
+ * allocation of one sampler if it runs alone.
+ *
+ * <p> The methods are thread-safe.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class Metrics implements MetricsMBean {
+  /** The JMX domain of the metrics. */
+  public static final String DOMAIN = "edu.kaist.uilab";
+  /** The usual name of the JSON lines file in an output directory. */
+  public static final String JSON_FILE = "metrics.jsonl";
+  private static final int NUM_BUCKETS = 24;
+
+  private final String name;
+  private ObjectName objectName;
+  private PrintWriter json;
+
+  private int iteration = -1;
+  private long numSweeps;
+  private long tokensSampled;
+  private long lastSweepTime; // ns
+  private long lastSweepTokens;
+  private long lastSweepAllocated; // -1 if unknown
+  private final long[] histogram = new long[NUM_BUCKETS];
+  private double logLikelihood = Double.NaN;
+  private long countMatrixBytes;
+  private long numReports;
+  private long lastReportTime; // ns
+  private long documentsProcessed;
+  private long documentTime; // ns
+  // the start of the current sweep
+  private long sweepStart;
+  private long allocationStart;
+
+  /**
+   * Constructs metrics which are not registered with JMX.
+   *
+   * @param name
+   *          the name of the sampler or processor
+   */
+  public Metrics(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Returns new metrics registered with the platform MBean server as
+   * {@value #DOMAIN}:type=Metrics,name=<i>name</i>; metrics registered
+   * before with the same name are replaced. The metrics still work if the
+   * registration fails.
+   */
+  public static Metrics register(String name) {
+    Metrics metrics = new Metrics(name);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name="
+          + ObjectName.quote(name));
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(metrics, objectName);
+      metrics.objectName = objectName;
+    } catch (JMException e) {
+      System.err.println("Cannot register the metrics " + name + ": " + e);
+    }
+    return metrics;
+  }
+
+  /**
+   * Appends the events to the given file from now on.
+   *
+   * @param file
+   *          the file (null to stop writing)
+   */
+  public synchronized void setJsonOutput(File file) throws IOException {
+    if (json != null) {
+      json.close();
+    }
+    json = file == null ? null : new PrintWriter(new BufferedWriter(
+        new FileWriter(file, true)));
+  }
+
+  /**
+   * Unregisters the metrics from JMX and closes the JSON lines file.
+   */
+  public synchronized void close() throws IOException {
+    setJsonOutput(null);
+    if (objectName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+      } catch (JMException e) {
+        // already unregistered
+      }
+      objectName = null;
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Marks the start of a sweep.
+   */
+  public synchronized void startSweep() {
+    allocationStart = allocatedBytes();
+    sweepStart = System.nanoTime();
+  }
+
+  /**
+   * Marks the end of the sweep started by the last call to
+   * {@link #startSweep()}.
+   *
+   * @param iteration
+   *          the iteration of the sweep
+   * @param numTokens
+   *          the number of tokens sampled by the sweep
+   */
+  public synchronized void endSweep(int iteration, long numTokens) {
+    long time = System.nanoTime() - sweepStart;
+    long allocated = allocatedBytes();
+    this.iteration = iteration;
+    numSweeps++;
+    tokensSampled += numTokens;
+    lastSweepTime = time;
+    lastSweepTokens = numTokens;
+    // the counts of the threads which have ended are lost
+    lastSweepAllocated = allocated < 0 ? -1 : Math.max(0, allocated
+        - allocationStart);
+    histogram[bucket(time)]++;
+    writeJson("sweep", "\"iteration\":" + iteration + ",\"tokens\":"
+        + numTokens + ",\"nanos\":" + time + ",\"allocatedBytes\":"
+        + lastSweepAllocated);
+  }
+
+  /**
+   * Returns the bucket of the histogram of a sweep time (ns).
+   */
+  static int bucket(long time) {
+    long millis = time / 1000000;
+    int bucket = 64 - Long.numberOfLeadingZeros(millis);
+    return Math.min(bucket, NUM_BUCKETS - 1);
+  }
+
+  /**
+   * Sets the log-likelihood of the given iteration.
+   */
+  public synchronized void setLogLikelihood(int iteration, double log) {
+    logLikelihood = log;
+    writeJson("likelihood", "\"iteration\":" + iteration + ",\"value\":"
+        + toJson(log));
+  }
+
+  /**
+   * Sets the memory used by the count matrices (bytes).
+   */
+  public synchronized void setCountMatrixBytes(long bytes) {
+    countMatrixBytes = bytes;
+    writeJson("memory", "\"countMatrixBytes\":" + bytes);
+  }
+
+  /**
+   * Adds a report of the given iteration.
+   *
+   * @param nanos
+   *          the time spent by the sampler on the report
+   */
+  public synchronized void addReport(int iteration, long nanos) {
+    numReports++;
+    lastReportTime = nanos;
+    writeJson("report", "\"iteration\":" + iteration + ",\"nanos\":" + nanos);
+  }
+
+  /**
+   * Adds documents processed by a phase of a corpus processor; they are only
+   * written as an event, since a document goes through several phases (see
+   * {@link #addDocuments(int, long)}).
+   *
+   * @param phase
+   *          the phase (e.g., "read", "entities" or "tokens")
+   * @param numDocuments
+   *          the number of documents
+   * @param nanos
+   *          the time spent on these documents
+   */
+  public synchronized void addPhaseDocuments(String phase, int numDocuments,
+      long nanos) {
+    writeJson("documents", "\"phase\":\"" + escape(phase) + "\",\"count\":"
+        + numDocuments + ",\"nanos\":" + nanos);
+  }
+
+  /**
+   * Adds documents which have gone through all phases of a corpus processor.
+   *
+   * @param numDocuments
+   *          the number of documents
+   * @param nanos
+   *          the elapsed time since the previous documents were added (or
+   *          since the processor started)
+   */
+  public synchronized void addDocuments(int numDocuments, long nanos) {
+    documentsProcessed += numDocuments;
+    documentTime += nanos;
+  }
+
+  private void writeJson(String event, String fields) {
+    if (json != null) {
+      json.println("{\"time\":" + System.currentTimeMillis() + ",\"name\":\""
+          + escape(name) + "\",\"event\":\"" + event + "\"," + fields + "}");
+      json.flush();
+    }
+  }
+
+  private static String toJson(double value) {
+    return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String
+        .valueOf(value);
+  }
+
+  private static String escape(String s) {
+    StringBuilder builder = new StringBuilder(s.length());
+    for (int j = 0; j < s.length(); j++) {
+      char c = s.charAt(j);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Returns the number of bytes allocated so far by all live threads of the
+   * JVM (-1 if the JVM does not support it).
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      long sum = 0;
+      for (long bytes : ((com.sun.management.ThreadMXBean) bean)
+          .getThreadAllocatedBytes(bean.getAllThreadIds())) {
+        if (bytes > 0) {
+          sum += bytes;
+        }
+      }
+      return sum;
+    }
+    return -1;
+  }
+
+  @Override
+  public synchronized int getIteration() {
+    return iteration;
+  }
+
+  @Override
+  public synchronized long getNumSweeps() {
+    return numSweeps;
+  }
+
+  @Override
+  public synchronized long getTokensSampled() {
+    return tokensSampled;
+  }
+
+  @Override
+  public synchronized double getLastSweepMillis() {
+    return lastSweepTime / 1e6;
+  }
+
+  @Override
+  public synchronized double getTokensPerSecond() {
+    return lastSweepTime > 0 ? lastSweepTokens / (lastSweepTime / 1e9) : 0.0;
+  }
+
+  @Override
+  public synchronized double getAllocatedBytesPerToken() {
+    if (lastSweepAllocated < 0) {
+      return -1;
+    }
+    return lastSweepTokens > 0 ? (double) lastSweepAllocated / lastSweepTokens
+        : 0.0;
+  }
+
+  /**
+   * Returns the number of bytes allocated during the last sweep (-1 if
+   * unknown).
+   */
+  synchronized long getLastSweepAllocatedBytes() {
+    return lastSweepAllocated;
+  }
+
+  @Override
+  public synchronized long[] getSweepLatencyHistogram() {
+    return histogram.clone();
+  }
+
+  @Override
+  public synchronized double getLogLikelihood() {
+    return logLikelihood;
+  }
+
+  @Override
+  public synchronized long getCountMatrixBytes() {
+    return countMatrixBytes;
+  }
+
+  @Override
+  public long getHeapUsedBytes() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  @Override
+  public synchronized long getNumReports() {
+    return numReports;
+  }
+
+  @Override
+  public synchronized double getLastReportMillis() {
+    return lastReportTime / 1e6;
+  }
+
+  @Override
+  public synchronized long getDocumentsProcessed() {
+    return documentsProcessed;
+  }
+
+  @Override
+  public synchronized double getDocumentsPerSecond() {
+    return documentTime > 0 ? documentsProcessed / (documentTime / 1e9) : 0.0;
+  }
+}
@@ -0,0 +1,86 @@
+package edu.kaist.uilab.plda.util;
+
+/**
+ * The live counters of {@link Metrics} exposed through JMX (e.g., in
+ * jconsole or VisualVM under {@value Metrics#DOMAIN}).
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public interface MetricsMBean {
+
+  /**
+   * Returns the last iteration whose sweep has finished.
+   */
+  int getIteration();
+
+  /**
+   * Returns the number of sweeps so far.
+   */
+  long getNumSweeps();
+
+  /**
+   * Returns the number of tokens sampled so far.
+   */
+  long getTokensSampled();
+
+  /**
+   * Returns the time of the last sweep (ms).
+   */
+  double getLastSweepMillis();
+
+  /**
+   * Returns the number of tokens sampled per second in the last sweep.
+   */
+  double getTokensPerSecond();
+
+  /**
+   * Returns the number of bytes allocated per token in the last sweep by all
+   * threads of the JVM (-1 if the JVM cannot measure it); this includes the
+   * allocation of the other samplers which run at the same time.
+   */
+  double getAllocatedBytesPerToken();
+
+  /**
+   * Returns the number of sweeps whose time falls in each bucket: bucket 0
+   * counts the sweeps shorter than 1 ms, bucket b the sweeps of
+   * [2^(b - 1), 2^b) ms and the last bucket all longer sweeps.
+   */
+  long[] getSweepLatencyHistogram();
+
+  /**
+   * Returns the last log-likelihood (NaN if none was computed).
+   */
+  double getLogLikelihood();
+
+  /**
+   * Returns the memory used by the count matrices of the sampler (bytes).
+   */
+  long getCountMatrixBytes();
+
+  /**
+   * Returns the heap used by the JVM (bytes).
+   */
+  long getHeapUsedBytes();
+
+  /**
+   * Returns the number of reports so far.
+   */
+  long getNumReports();
+
+  /**
+   * Returns the time spent by the sampler on the last report (ms).
+   */
+  double getLastReportMillis();
+
+  /**
+   * Returns the number of documents processed so far (by all phases, e.g.,
+   * parsed and tokenized).
+   */
+  long getDocumentsProcessed();
+
+  /**
+   * Returns the number of documents processed per second (by all phases) so
+   * far.
+   */
+  double getDocumentsPerSecond();
+}
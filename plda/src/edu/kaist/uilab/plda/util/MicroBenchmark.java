@@ -0,0 +1,232 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A small harness which measures the time per operation of the hot paths of
+ * the samplers.
+ *
+ * <p> Each {@link Case} is run for {@code warmupIterations} iterations, which
+ * are not measured and let the JIT compiler optimize the code, and then for
+ * {@code measurementIterations} iterations. An iteration calls
+ * {@link Case#run()} until {@code iterationMillis} have passed; its result is
+ * the measured time divided by the number of operations of these calls. The
+ * values returned by the calls are summed so that the JIT compiler cannot
+ * drop the work, and the output of the cases to {@code System.out} is
+ * discarded while they run. The bytes allocated per operation are printed for
+ * the cases which measure them (see {@link Case#getAllocatedBytes()}).
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class MicroBenchmark {
+
+  /**
+   * A piece of code to measure.
+   */
+  public static abstract class Case {
+    private final String name;
+    private final String parameters;
+
+    /**
+     * @param name
+     *          the name of the measured code
+     * @param parameters
+     *          a description of the parameters, e.g., "K=20 V=5000"
+     */
+    protected Case(String name, String parameters) {
+      this.name = name;
+      this.parameters = parameters;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getParameters() {
+      return parameters;
+    }
+
+    /**
+     * Prepares the state of the case (not measured).
+     */
+    public void setUp() throws Exception {
+    }
+
+    /**
+     * Runs the measured code once and returns a value computed from its
+     * result.
+     */
+    public abstract long run() throws Exception;
+
+    /**
+     * Returns the number of operations (e.g., sampled tokens) of a run.
+     */
+    public long getOperations() {
+      return 1;
+    }
+
+    /**
+     * Returns the time of the last run measured by the case itself (ns), or
+     * -1 to measure the whole run.
+     */
+    public long getMeasuredNanos() {
+      return -1;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the last run measured by the
+     * case itself, or -1 if unknown.
+     */
+    public long getAllocatedBytes() {
+      return -1;
+    }
+  }
+
+  /**
+   * Sums the time and the allocated bytes of the sweeps of a sampler (see
+   * {@link #endSweep(int, long)}), so that a case can leave out the
+   * initialization of the sampler.
+   */
+  public static class SweepTimer extends Metrics {
+    private long nanos;
+    private long bytes;
+
+    public SweepTimer() {
+      super("benchmark");
+    }
+
+    @Override
+    public synchronized void endSweep(int iteration, long numTokens) {
+      super.endSweep(iteration, numTokens);
+      nanos += Math.round(getLastSweepMillis() * 1e6);
+      long allocated = getLastSweepAllocatedBytes();
+      bytes = allocated < 0 || bytes < 0 ? -1 : bytes + allocated;
+    }
+
+    /**
+     * Returns the total time of the sweeps so far (ns).
+     */
+    public synchronized long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * Returns the bytes allocated by the sweeps so far (-1 if unknown).
+     */
+    public synchronized long getAllocatedBytes() {
+      return bytes;
+    }
+  }
+
+  private final int warmupIterations;
+  private final int measurementIterations;
+  private final long iterationNanos;
+  private long sink;
+  // the allocated bytes and operations of the measured iterations of a case
+  private long allocated;
+  private long allocatedOperations;
+
+  /**
+   * Constructs a harness.
+   *
+   * @param warmupIterations
+   *          the number of iterations before the measurement
+   * @param measurementIterations
+   *          the number of measured iterations
+   * @param iterationMillis
+   *          the minimum time of an iteration
+   */
+  public MicroBenchmark(int warmupIterations, int measurementIterations,
+      long iterationMillis) {
+    this.warmupIterations = warmupIterations;
+    this.measurementIterations = Math.max(1, measurementIterations);
+    this.iterationNanos = iterationMillis * 1000000;
+  }
+
+  /**
+   * Runs the cases whose name matches {@code filter} and prints the mean
+   * time per operation, its standard deviation over the iterations and the
+   * bytes allocated per operation ("-" if the case does not measure them).
+   */
+  public void run(List<? extends Case> cases, Pattern filter, PrintStream out)
+      throws Exception {
+    out.printf("%-32s %-24s %12s %10s %14s %12s\n", "BENCHMARK",
+        "PARAMETERS", "NS/OP", "+-", "OPS/SEC", "BYTES/OP");
+    for (Case c : cases) {
+      if (filter != null && !filter.matcher(c.getName()).find()) {
+        continue;
+      }
+      double[] time = measure(c);
+      double mean = 0.0;
+      for (double t : time) {
+        mean += t / time.length;
+      }
+      double variance = 0.0;
+      for (double t : time) {
+        variance += (t - mean) * (t - mean) / time.length;
+      }
+      out.printf("%-32s %-24s %12.2f %10.2f %14.0f %12s\n", c.getName(), c
+          .getParameters(), mean, Math.sqrt(variance), 1e9 / mean,
+          allocated < 0 ? "-" : String.format("%.1f", (double) allocated
+              / allocatedOperations));
+    }
+    if (sink == 42) {
+      out.println();
+    }
+  }
+
+  /**
+   * Returns the time per operation (ns) of each measured iteration of a case.
+   */
+  public double[] measure(Case c) throws Exception {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    }));
+    try {
+      c.setUp();
+      for (int i = 0; i < warmupIterations; i++) {
+        iteration(c);
+      }
+      double[] time = new double[measurementIterations];
+      allocated = 0;
+      allocatedOperations = 0;
+      for (int i = 0; i < measurementIterations; i++) {
+        time[i] = iteration(c);
+      }
+      return time;
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+
+  /**
+   * Runs one iteration of a case and returns its time per operation (ns);
+   * adds the bytes allocated by the runs to {@link #allocated}.
+   */
+  private double iteration(Case c) throws Exception {
+    long elapsed = 0;
+    long operations = 0;
+    long start = System.nanoTime();
+    do {
+      long runStart = System.nanoTime();
+      sink += c.run();
+      long measured = c.getMeasuredNanos();
+      elapsed += measured >= 0 ? measured : System.nanoTime() - runStart;
+      operations += c.getOperations();
+      long bytes = c.getAllocatedBytes();
+      allocated = bytes < 0 || allocated < 0 ? -1 : allocated + bytes;
+    } while (System.nanoTime() - start < iterationNanos);
+    allocatedOperations += operations;
+    return (double) elapsed / operations;
+  }
+}
@@ -0,0 +1,277 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A matrix of doubles or floats in the NumPy .npy format.
+ *
+ * <p> The values are stored row by row as little-endian float64 ({@code <f8})
+ * or float32 ({@code <f4}) after a small text header, so a matrix written by
+ * {@link #write(File, double[][], boolean)} can be loaded with
+ * {@code numpy.load} (or {@code numpy.load(file, mmap_mode='r')}), and the
+ * files are much smaller and faster to write than the csv reports.
+ *
+ * <p> {@link #open(File)} memory-maps a file: {@link #getRow(int)} and
+ * {@link #getFloatRow(int)} return views of the mapped rows without copying
+ * them.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class NpyFile {
+  private static final byte[] MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y' };
+  // the header (including the magic string) is padded to a multiple of this
+  private static final int HEADER_ALIGNMENT = 64;
+  private static final Pattern DESCR = Pattern
+      .compile("'descr'\\s*:\\s*'([^']*)'");
+  private static final Pattern FORTRAN_ORDER = Pattern
+      .compile("'fortran_order'\\s*:\\s*(True|False)");
+  private static final Pattern SHAPE = Pattern
+      .compile("'shape'\\s*:\\s*\\(\\s*(\\d+)\\s*,\\s*(\\d*)\\s*,?\\s*\\)");
+
+  private final int numRows;
+  private final int numColumns;
+  private final boolean float32;
+  // rows [p * rowsPerSegment, (p + 1) * rowsPerSegment) are in segments[p]
+  private final int rowsPerSegment;
+  private final MappedByteBuffer[] segments;
+
+  /**
+   * Writes a matrix to {@code file}.
+   *
+   * @param matrix
+   *          the matrix (all rows must have the same length)
+   * @param float32
+   *          true to store the values as float32, false as float64
+   */
+  public static void write(File file, double[][] matrix, boolean float32)
+      throws IOException {
+    int numRows = matrix.length;
+    int numColumns = numRows > 0 ? matrix[0].length : 0;
+    for (double[] row : matrix) {
+      if (row.length != numColumns) {
+        throw new IllegalArgumentException("Rows of different lengths");
+      }
+    }
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    try {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(
+          ByteOrder.LITTLE_ENDIAN);
+      buffer.put(header(float32, numRows, numColumns));
+      int size = float32 ? 4 : 8;
+      for (double[] row : matrix) {
+        for (double value : row) {
+          if (buffer.remaining() < size) {
+            flush(channel, buffer);
+          }
+          if (float32) {
+            buffer.putFloat((float) value);
+          } else {
+            buffer.putDouble(value);
+          }
+        }
+      }
+      flush(channel, buffer);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer)
+      throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Returns the header (magic string, version 1.0 and the array description)
+   * of a matrix.
+   */
+  static byte[] header(boolean float32, int numRows, int numColumns) {
+    StringBuilder dict = new StringBuilder();
+    dict.append("{'descr': '").append(float32 ? "<f4" : "<f8").append(
+        "', 'fortran_order': False, 'shape': (").append(numRows).append(", ")
+        .append(numColumns).append("), }");
+    // magic (6), version (2), header length (2), dictionary and '\n'
+    int length = MAGIC.length + 4 + dict.length() + 1;
+    int padding = (HEADER_ALIGNMENT - length % HEADER_ALIGNMENT)
+        % HEADER_ALIGNMENT;
+    for (int p = 0; p < padding; p++) {
+      dict.append(' ');
+    }
+    dict.append('\n');
+    ByteBuffer header = ByteBuffer.allocate(length + padding).order(
+        ByteOrder.LITTLE_ENDIAN);
+    header.put(MAGIC).put((byte) 1).put((byte) 0);
+    header.putShort((short) dict.length());
+    for (int c = 0; c < dict.length(); c++) {
+      header.put((byte) dict.charAt(c));
+    }
+
+    return header.array();
+  }
+
+  /**
+   * Memory-maps the matrix of {@code file}.
+   */
+  public static NpyFile open(File file) throws IOException {
+    return new NpyFile(file);
+  }
+
+  private NpyFile(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      for (int b = 0; b < MAGIC.length; b++) {
+        if (magic[b] != MAGIC[b]) {
+          throw new IOException(file + " is not a .npy file");
+        }
+      }
+      int major = in.readUnsignedByte();
+      in.readUnsignedByte();
+      long headerLength;
+      if (major == 1) {
+        headerLength = in.readUnsignedByte() | in.readUnsignedByte() << 8;
+      } else if (major == 2 || major == 3) {
+        headerLength = Integer.reverseBytes(in.readInt()) & 0xffffffffL;
+      } else {
+        throw new IOException("Unsupported .npy version " + major + " of "
+            + file);
+      }
+      byte[] dictBytes = new byte[(int) headerLength];
+      in.readFully(dictBytes);
+      String dict = new String(dictBytes, "ISO-8859-1");
+      long dataStart = in.getFilePointer();
+
+      Matcher descr = DESCR.matcher(dict);
+      Matcher fortranOrder = FORTRAN_ORDER.matcher(dict);
+      Matcher shape = SHAPE.matcher(dict);
+      if (!descr.find() || !fortranOrder.find() || !shape.find()) {
+        throw new IOException("Invalid .npy header of " + file + ": " + dict);
+      }
+      if (descr.group(1).equals("<f4")) {
+        float32 = true;
+      } else if (descr.group(1).equals("<f8")) {
+        float32 = false;
+      } else {
+        throw new IOException("Unsupported type " + descr.group(1) + " of "
+            + file);
+      }
+      if (fortranOrder.group(1).equals("True")) {
+        throw new IOException("Fortran order of " + file + " is not supported");
+      }
+      numRows = Integer.parseInt(shape.group(1));
+      // a vector is read as a matrix with one column
+      numColumns = shape.group(2).length() > 0 ? Integer.parseInt(shape
+          .group(2)) : 1;
+
+      long rowBytes = (long) numColumns * (float32 ? 4 : 8);
+      if (in.length() < dataStart + rowBytes * numRows) {
+        throw new IOException("Truncated .npy file " + file);
+      }
+      if (rowBytes > Integer.MAX_VALUE) {
+        throw new IOException("Rows of " + file + " are too long to be mapped");
+      }
+      rowsPerSegment = rowBytes == 0 ? Math.max(1, numRows) : (int) Math.max(
+          1, Integer.MAX_VALUE / rowBytes);
+      int numSegments = (numRows + rowsPerSegment - 1) / rowsPerSegment;
+      segments = new MappedByteBuffer[numSegments];
+      for (int p = 0; p < numSegments; p++) {
+        int rows = Math.min(rowsPerSegment, numRows - p * rowsPerSegment);
+        segments[p] = in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+            dataStart + rowBytes * p * rowsPerSegment, rowBytes * rows);
+        segments[p].order(ByteOrder.LITTLE_ENDIAN);
+      }
+    } finally {
+      // the mappings stay valid after the file is closed
+      in.close();
+    }
+  }
+
+  public int getNumRows() {
+    return numRows;
+  }
+
+  public int getNumColumns() {
+    return numColumns;
+  }
+
+  /**
+   * Returns true if the values are stored as float32.
+   */
+  public boolean isFloat32() {
+    return float32;
+  }
+
+  /**
+   * Returns the value at the given row and column.
+   */
+  public double get(int row, int column) {
+    int offset = (row % rowsPerSegment * numColumns + column)
+        * (float32 ? 4 : 8);
+    MappedByteBuffer segment = segments[row / rowsPerSegment];
+    return float32 ? segment.getFloat(offset) : segment.getDouble(offset);
+  }
+
+  /**
+   * Returns a read-only view of a row of a float64 matrix.
+   */
+  public DoubleBuffer getRow(int row) {
+    if (float32) {
+      throw new IllegalStateException("The matrix is stored as float32");
+    }
+    return rowBytes(row).asDoubleBuffer();
+  }
+
+  /**
+   * Returns a read-only view of a row of a float32 matrix.
+   */
+  public FloatBuffer getFloatRow(int row) {
+    if (!float32) {
+      throw new IllegalStateException("The matrix is stored as float64");
+    }
+    return rowBytes(row).asFloatBuffer();
+  }
+
+  private ByteBuffer rowBytes(int row) {
+    int rowBytes = numColumns * (float32 ? 4 : 8);
+    ByteBuffer segment = segments[row / rowsPerSegment].duplicate();
+    segment.position(row % rowsPerSegment * rowBytes);
+    segment.limit(segment.position() + rowBytes);
+
+    return segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Returns a copy of the matrix.
+   */
+  public double[][] toArray() {
+    double[][] matrix = new double[numRows][numColumns];
+    for (int r = 0; r < numRows; r++) {
+      if (float32) {
+        FloatBuffer row = getFloatRow(r);
+        for (int c = 0; c < numColumns; c++) {
+          matrix[r][c] = row.get(c);
+        }
+      } else {
+        getRow(r).get(matrix[r]);
+      }
+    }
+
+    return matrix;
+  }
+}
@@ -0,0 +1,85 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.IOException;
+
+/**
+ * A fast (non-synchronized) pseudo random number generator.
+ * 
+ * <p> Unlike {@link Math#random()}, which shares one synchronized
+ * {@link java.util.Random} among all threads, each sampler (and each of its
+ * worker threads) owns a generator. A run is reproducible from the seed of
+ * its master generator: the generators of worker threads are derived from the
+ * master with {@link #split()} in a fixed order.
+ * 
+ * <p> Instances are not thread-safe.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public abstract class RandomGenerator {
+  /**
+   * The file (in the output directory of a run) to which the seed of the run
+   * is written.
+   */
+  public static final String SEED_FILE = "seed.txt";
+
+  /**
+   * Returns the next pseudo random 64-bit value.
+   */
+  public abstract long nextLong();
+
+  /**
+   * Returns a new generator whose sequence is independent of this generator.
+   * 
+   * <p> This generator is advanced, so successive calls return different
+   * generators, and the same sequence of calls on generators with the same
+   * seed returns the same generators.
+   */
+  public abstract RandomGenerator split();
+
+  /**
+   * Returns a pseudo random value uniformly distributed in [0, 1).
+   */
+  public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Returns a pseudo random value uniformly distributed in [0, n).
+   */
+  public int nextInt(int n) {
+    return (int) (nextDouble() * n);
+  }
+
+  /**
+   * Returns a new instance of the default generator.
+   * 
+   * @param seed
+   *       the seed of the generator
+   */
+  public static RandomGenerator newInstance(long seed) {
+    return new Xoroshiro128Plus(seed);
+  }
+
+  /**
+   * Returns a seed which differs between runs.
+   */
+  public static long newSeed() {
+    return SplitMix64.mix(System.nanoTime() ^ System.currentTimeMillis() << 20);
+  }
+
+  /**
+   * Writes {@code seed} to the file {@link #SEED_FILE} of the directory
+   * {@code dir}.
+   */
+  public static void writeSeed(String dir, long seed) throws IOException {
+    TextFiles.writeFile(dir + "/" + SEED_FILE, String.valueOf(seed));
+  }
+
+  /**
+   * Reads the seed written by {@link #writeSeed(String, long)} in the
+   * directory {@code dir}.
+   */
+  public static long readSeed(String dir) throws IOException {
+    return Long.parseLong(TextFiles.readFile(dir + "/" + SEED_FILE).trim());
+  }
+}
@@ -0,0 +1,158 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes report files in background threads while a sampler keeps sampling.
+ *
+ * <p> A sampler takes a snapshot of the counts and parameters it reports and
+ * submits one task per file. At most {@code maxPending} tasks can be waiting
+ * or running: {@link #submit(Task)} blocks when the writers fall behind, so
+ * the snapshots of a fast sampler do not fill the heap. The first failure of
+ * a task is thrown by the next call to {@link #submit(Task)} or
+ * {@link #close()}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class ReportWriter {
+  // size of the buffer of a report file
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * A task which writes one report file.
+   */
+  public interface Task {
+    void write() throws IOException;
+  }
+
+  private final ExecutorService executor;
+  private final Semaphore pending;
+  private volatile Throwable failure;
+  // statistics (ns)
+  private long blockedTime;
+  private long numTasks;
+  private long writeTime;
+
+  /**
+   * Constructs a writer.
+   *
+   * @param numThreads
+   *          the number of writer threads (0 to write the files in the calling
+   *          thread)
+   * @param maxPending
+   *          the maximum number of tasks waiting or running
+   */
+  public ReportWriter(int numThreads, int maxPending) {
+    executor = numThreads > 0 ? Executors.newFixedThreadPool(numThreads) : null;
+    pending = new Semaphore(Math.max(1, maxPending));
+  }
+
+  /**
+   * Returns a buffered writer for a report file.
+   */
+  public static PrintWriter newPrintWriter(String file) throws IOException {
+    return new PrintWriter(new BufferedWriter(new FileWriter(file),
+        BUFFER_SIZE));
+  }
+
+  /**
+   * Submits a task, waiting while too many tasks are pending.
+   */
+  public void submit(final Task task) throws IOException {
+    checkFailure();
+    if (executor == null) {
+      long start = System.nanoTime();
+      task.write();
+      synchronized (this) {
+        numTasks++;
+        writeTime += System.nanoTime() - start;
+      }
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      pending.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Reporting interrupted", e);
+    }
+    synchronized (this) {
+      blockedTime += System.nanoTime() - start;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long start = System.nanoTime();
+        try {
+          task.write();
+        } catch (Throwable e) {
+          if (failure == null) {
+            failure = e;
+          }
+        } finally {
+          synchronized (ReportWriter.this) {
+            numTasks++;
+            writeTime += System.nanoTime() - start;
+          }
+          pending.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits until all submitted tasks are finished and stops the threads.
+   */
+  public void close() throws IOException {
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          System.out.println("Waiting for the report writers...");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Reporting interrupted", e);
+      }
+    }
+    checkFailure();
+  }
+
+  /**
+   * Closes the writer when the caller is already failing: waits for the tasks
+   * like {@link #close()}, but only prints a failure of the tasks, so that it
+   * does not hide the failure of the caller.
+   */
+  public void closeAfterFailure() {
+    try {
+      close();
+    } catch (IOException e) {
+      System.err.println("Reporting failed too: " + e);
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable e = failure;
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e != null) {
+      throw new IOException("Reporting failed", e);
+    }
+  }
+
+  /**
+   * Returns the number of files written, the time spent on writing them and
+   * the time the sampler was blocked by a full queue.
+   */
+  public synchronized String statistics() {
+    return String.format("%d report files written in %.2f s, sampling "
+        + "blocked for %.2f s", numTasks, writeTime / 1e9, blockedTime / 1e9);
+  }
+}
@@ -0,0 +1,161 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.Arrays;
+
+/**
+ * A count matrix which stores the non-zero counts of each row as pairs of
+ * (column, count) sorted by column.
+ * 
+ * <p> Reading or updating a count takes O(log n) time where n is the number of
+ * non-zero counts of its row, so this matrix is meant for rows with few
+ * non-zero counts, e.g., document-topic counts where a document has far fewer
+ * words than there are topics.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class SparseCountMatrix extends CountMatrix {
+  private static final long serialVersionUID = 1L;
+
+  private static final int[] EMPTY = new int[0];
+  private static final int INITIAL_CAPACITY = 4;
+
+  // columns[r][0..size[r]) = sorted columns of the non-zero counts of row r
+  private final int[][] columns;
+  // values[r][j] = count of column columns[r][j]
+  private final int[][] values;
+  private final int[] size;
+
+  public SparseCountMatrix(int numRows, int numColumns) {
+    super(numRows, numColumns);
+    columns = new int[numRows][];
+    values = new int[numRows][];
+    size = new int[numRows];
+    Arrays.fill(columns, EMPTY);
+    Arrays.fill(values, EMPTY);
+  }
+
+  /**
+   * Returns the (maximum) number of bytes of a sparse matrix with the given
+   * size and row totals.
+   */
+  static long memorySize(int numRows, int numColumns, int[] rowTotals) {
+    long size = 48 + 20L * numRows;
+    for (int total : rowTotals) {
+      size += 32 + 8L * Math.min(total, numColumns);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of non-zero counts of a row.
+   */
+  public int getRowSize(int row) {
+    return size[row];
+  }
+
+  /**
+   * Returns the column of the j_th non-zero count of a row.
+   */
+  public int getColumn(int row, int j) {
+    return columns[row][j];
+  }
+
+  /**
+   * Returns the j_th non-zero count of a row.
+   */
+  public int getValue(int row, int j) {
+    return values[row][j];
+  }
+
+  @Override
+  public int get(int row, int column) {
+    int j = Arrays.binarySearch(columns[row], 0, size[row], column);
+    return j >= 0 ? values[row][j] : 0;
+  }
+
+  @Override
+  public void set(int row, int column, int count) {
+    int j = Arrays.binarySearch(columns[row], 0, size[row], column);
+    if (j >= 0) {
+      if (count == 0) {
+        remove(row, j);
+      } else {
+        values[row][j] = count;
+      }
+    } else if (count != 0) {
+      insert(row, -j - 1, column, count);
+    }
+  }
+
+  @Override
+  public void add(int row, int column, int delta) {
+    int j = Arrays.binarySearch(columns[row], 0, size[row], column);
+    if (j >= 0) {
+      int count = values[row][j] + delta;
+      if (count == 0) {
+        remove(row, j);
+      } else {
+        values[row][j] = count;
+      }
+    } else if (delta != 0) {
+      insert(row, -j - 1, column, delta);
+    }
+  }
+
+  private void insert(int row, int j, int column, int count) {
+    int n = size[row];
+    if (n == columns[row].length) {
+      int capacity = Math.min(Math.max(INITIAL_CAPACITY, 2 * n), numColumns);
+      columns[row] = Arrays.copyOf(columns[row], capacity);
+      values[row] = Arrays.copyOf(values[row], capacity);
+    }
+    System.arraycopy(columns[row], j, columns[row], j + 1, n - j);
+    System.arraycopy(values[row], j, values[row], j + 1, n - j);
+    columns[row][j] = column;
+    values[row][j] = count;
+    size[row]++;
+  }
+
+  private void remove(int row, int j) {
+    int n = --size[row];
+    System.arraycopy(columns[row], j + 1, columns[row], j, n - j);
+    System.arraycopy(values[row], j + 1, values[row], j, n - j);
+  }
+
+  @Override
+  public CountMatrix copy() {
+    SparseCountMatrix copy = new SparseCountMatrix(numRows, numColumns);
+    copy.copyFrom(this);
+    return copy;
+  }
+
+  @Override
+  public void copyFrom(CountMatrix source) {
+    checkSameShape(source);
+    SparseCountMatrix sparse = (SparseCountMatrix) source;
+    for (int r = 0; r < numRows; r++) {
+      int n = sparse.size[r];
+      if (columns[r].length < n) {
+        columns[r] = new int[sparse.columns[r].length];
+        values[r] = new int[sparse.columns[r].length];
+      }
+      System.arraycopy(sparse.columns[r], 0, columns[r], 0, n);
+      System.arraycopy(sparse.values[r], 0, values[r], 0, n);
+      size[r] = n;
+    }
+  }
+
+  @Override
+  public long memorySize() {
+    long bytes = 48 + 20L * numRows;
+    for (int r = 0; r < numRows; r++) {
+      bytes += 32 + 8L * columns[r].length;
+    }
+    return bytes;
+  }
+
+  @Override
+  public String getName() {
+    return "sparse";
+  }
+}
@@ -0,0 +1,41 @@
+package edu.kaist.uilab.plda.util;
+
+/**
+ * The SplitMix64 generator (Steele, Lea and Flood, "Fast splittable
+ * pseudorandom number generators", OOPSLA 2014), i.e., the generator behind
+ * {@code java.util.SplittableRandom} with a fixed gamma.
+ * 
+ * <p> Its main use is to expand a 64-bit seed into the state of
+ * other generators.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class SplitMix64 extends RandomGenerator {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private long state;
+
+  public SplitMix64(long seed) {
+    state = seed;
+  }
+
+  @Override
+  public long nextLong() {
+    state += GOLDEN_GAMMA;
+    return mix(state);
+  }
+
+  @Override
+  public RandomGenerator split() {
+    return new SplitMix64(nextLong());
+  }
+
+  /**
+   * Returns the mixed (scrambled) value of {@code z}.
+   */
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,259 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Selects the {@code k} largest counts of a list of counts, e.g., the top
+ * words of a topic or the top topics of a document.
+ *
+ * <p> The counts are added one by one to a bounded min-heap of primitive
+ * values, so selecting the top 30 of V words takes O(V log 30) time and no
+ * allocation per word instead of boxing all V words and sorting them. As in
+ * the reports written with {@code ObjectToCounterMap.keysOrderedByCountList()},
+ * only positive counts are selected, and the selected indices are ordered by
+ * decreasing count and then by increasing index.
+ *
+ * <p> {@link #selectInRows(CountMatrix, int, int)} and
+ * {@link #selectInColumns(CountMatrix, int, int)} select the top counts of all
+ * rows or columns of a matrix with several threads.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TopK {
+  private final int k;
+  // a min-heap: heap[0] is the smallest of the selected counts
+  private final int[] heapIndices;
+  private final int[] heapCounts;
+  private int size;
+
+  /**
+   * Constructs an empty selection of the {@code k} largest counts.
+   */
+  public TopK(int k) {
+    this.k = Math.max(0, k);
+    heapIndices = new int[this.k];
+    heapCounts = new int[this.k];
+  }
+
+  /**
+   * Returns the number of selected counts (at most {@code k}).
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds the count of {@code index}.
+   */
+  public void add(int index, int count) {
+    if (count <= 0) {
+      return;
+    }
+    if (size < k) {
+      // sift up
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >> 1;
+        if (!less(count, index, heapCounts[parent], heapIndices[parent])) {
+          break;
+        }
+        heapCounts[i] = heapCounts[parent];
+        heapIndices[i] = heapIndices[parent];
+        i = parent;
+      }
+      heapCounts[i] = count;
+      heapIndices[i] = index;
+    } else if (k > 0 && less(heapCounts[0], heapIndices[0], count, index)) {
+      siftDown(count, index, size);
+    }
+  }
+
+  /**
+   * Returns true if (count1, index1) ranks below (count2, index2), i.e., it
+   * has a smaller count or the same count and a larger index.
+   */
+  private static boolean less(int count1, int index1, int count2, int index2) {
+    return count1 < count2 || (count1 == count2 && index1 > index2);
+  }
+
+  /**
+   * Replaces the root of the heap [0, n) with (count, index).
+   */
+  private void siftDown(int count, int index, int n) {
+    int i = 0;
+    int child;
+    while ((child = 2 * i + 1) < n) {
+      if (child + 1 < n
+          && less(heapCounts[child + 1], heapIndices[child + 1],
+              heapCounts[child], heapIndices[child])) {
+        child++;
+      }
+      if (!less(heapCounts[child], heapIndices[child], count, index)) {
+        break;
+      }
+      heapCounts[i] = heapCounts[child];
+      heapIndices[i] = heapIndices[child];
+      i = child;
+    }
+    heapCounts[i] = count;
+    heapIndices[i] = index;
+  }
+
+  /**
+   * Returns the selected indices ordered by decreasing count (and increasing
+   * index for equal counts), and clears this selection.
+   */
+  public int[] indices() {
+    int[] indices = new int[size];
+    // pops the smallest count into the last free position
+    for (int n = size; n > 0; n--) {
+      indices[n - 1] = heapIndices[0];
+      if (n > 1) {
+        siftDown(heapCounts[n - 1], heapIndices[n - 1], n - 1);
+      }
+    }
+    size = 0;
+    return indices;
+  }
+
+  /**
+   * Returns the indices of the {@code k} largest positive counts, ordered by
+   * decreasing count (and increasing index for equal counts).
+   */
+  public static int[] select(int[] counts, int k) {
+    TopK top = new TopK(Math.min(k, counts.length));
+    for (int i = 0; i < counts.length; i++) {
+      top.add(i, counts[i]);
+    }
+    return top.indices();
+  }
+
+  /**
+   * Returns the top {@code k} columns of each row of {@code matrix}:
+   * {@code result[r]} are the columns of the {@code k} largest positive counts
+   * of row r.
+   *
+   * @param numThreads
+   *          the number of threads which select the rows (1 to select them in
+   *          the calling thread)
+   */
+  public static int[][] selectInRows(final CountMatrix matrix, final int k,
+      int numThreads) {
+    final int numRows = matrix.getNumRows();
+    final int numColumns = matrix.getNumColumns();
+    final int[][] result = new int[numRows][];
+    run(numThreads, numRows, new Range() {
+      @Override
+      public void run(int range, int from, int to) {
+        TopK top = new TopK(Math.min(k, numColumns));
+        for (int r = from; r < to; r++) {
+          for (int c = 0; c < numColumns; c++) {
+            top.add(c, matrix.get(r, c));
+          }
+          result[r] = top.indices();
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Returns the top {@code k} rows of each column of {@code matrix}:
+   * {@code result[c]} are the rows of the {@code k} largest positive counts
+   * of column c.
+   *
+   * <p> The matrix is read row by row (one pass for all columns); each thread
+   * selects the top rows of a range of rows, and the selections of the ranges
+   * are then merged.
+   *
+   * @param numThreads
+   *          the number of threads which select the rows (1 to select them in
+   *          the calling thread)
+   */
+  public static int[][] selectInColumns(final CountMatrix matrix, final int k,
+      int numThreads) {
+    final int numRows = matrix.getNumRows();
+    final int numColumns = matrix.getNumColumns();
+    final int size = Math.min(k, numRows);
+    final int numRanges = Math.max(1, Math.min(numThreads, numRows));
+    final TopK[][] ranges = new TopK[numRanges][];
+    run(numRanges, numRows, new Range() {
+      @Override
+      public void run(int range, int from, int to) {
+        TopK[] tops = new TopK[numColumns];
+        for (int c = 0; c < numColumns; c++) {
+          tops[c] = new TopK(size);
+        }
+        for (int r = from; r < to; r++) {
+          for (int c = 0; c < numColumns; c++) {
+            tops[c].add(r, matrix.get(r, c));
+          }
+        }
+        ranges[range] = tops;
+      }
+    });
+    int[][] result = new int[numColumns][];
+    for (int c = 0; c < numColumns; c++) {
+      TopK top = ranges[0][c];
+      for (int p = 1; p < numRanges; p++) {
+        TopK range = ranges[p][c];
+        for (int i = 0; i < range.size; i++) {
+          top.add(range.heapIndices[i], range.heapCounts[i]);
+        }
+      }
+      result[c] = top.indices();
+    }
+    return result;
+  }
+
+  /**
+   * The p-th range [from, to) of rows, processed by one thread.
+   */
+  private interface Range {
+    void run(int p, int from, int to);
+  }
+
+  /**
+   * Splits [0, numRows) into {@code numThreads} ranges of about the same size
+   * and runs {@code range} on each of them.
+   */
+  private static void run(int numThreads, final int numRows, final Range range) {
+    numThreads = Math.max(1, Math.min(numThreads, numRows));
+    if (numThreads == 1) {
+      range.run(0, 0, numRows);
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Object>> futures = new ArrayList<Future<Object>>(numThreads);
+      for (int p = 0; p < numThreads; p++) {
+        final int index = p;
+        final int from = (int) ((long) numRows * p / numThreads);
+        final int to = (int) ((long) numRows * (p + 1) / numThreads);
+        futures.add(executor.submit(new Callable<Object>() {
+          @Override
+          public Object call() {
+            range.run(index, from, to);
+            return null;
+          }
+        }));
+      }
+      for (Future<Object> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Top-k selection interrupted", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Top-k selection failed", e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package edu.kaist.uilab.plda.util;
+
+/**
+ * The xoroshiro128+ generator (Blackman and Vigna, 2018).
+ * 
+ * <p> It has a period of 2^128 - 1 and needs only a few arithmetic operations
+ * per value, which makes it much cheaper than {@link java.util.Random}. The
+ * lowest bits of its output are weaker than the others, so the values are used
+ * through the upper bits ({@link #nextDouble()} uses the upper 53 bits).
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class Xoroshiro128Plus extends RandomGenerator {
+  private long s0;
+  private long s1;
+
+  /**
+   * Constructs a new generator whose 128-bit state is expanded from
+   * {@code seed} by {@link SplitMix64}.
+   */
+  public Xoroshiro128Plus(long seed) {
+    SplitMix64 seeder = new SplitMix64(seed);
+    s0 = seeder.nextLong();
+    s1 = seeder.nextLong();
+  }
+
+  @Override
+  public long nextLong() {
+    final long x = s0;
+    long y = s1;
+    final long result = x + y;
+    y ^= x;
+    s0 = Long.rotateLeft(x, 24) ^ y ^ (y << 16);
+    s1 = Long.rotateLeft(y, 37);
+    return result;
+  }
+
+  @Override
+  public RandomGenerator split() {
+    return new Xoroshiro128Plus(nextLong());
+  }
+}
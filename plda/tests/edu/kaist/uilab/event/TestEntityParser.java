@@ -0,0 +1,45 @@
+package edu.kaist.uilab.event;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link EntityParser}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestEntityParser extends TestCase {
+  // tokens which are prefixes of each other
+  private static final String[] TOKENS = { "New", "York", "Yorker", "Y", "Ne",
+      "Times", "Tim", "Obama", "Barack", "U.S." };
+
+  public void testDistinctEntitiesAreThoseOfPairwiseComparison() {
+    EntityParser parser = new EntityParser(null, null,
+        new ArrayList<String>(), 1);
+    Random random = new Random(1);
+    for (int document = 0; document < 500; document++) {
+      ArrayList<Entity> mentions = new ArrayList<Entity>();
+      int size = random.nextInt(100);
+      for (int j = 0; j < size; j++) {
+        StringBuilder value = new StringBuilder();
+        int numTokens = random.nextInt(20) == 0 ? 0 : 1 + random.nextInt(3);
+        for (int n = 0; n < numTokens; n++) {
+          if (n > 0) {
+            value.append(random.nextInt(20) == 0 ? "  " : " ");
+          }
+          value.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        mentions.add(new Entity(value.toString(), 1 + random.nextInt(2)));
+      }
+      ArrayList<Entity> expected = parser.getDistinctEntitiesPairwise(mentions);
+      ArrayList<Entity> actual = parser.getDistinctEntities(mentions);
+      assertEquals(expected.size(), actual.size());
+      for (int j = 0; j < expected.size(); j++) {
+        // the longest form of each mention is the same mention
+        assertSame(expected.get(j), actual.get(j));
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package edu.kaist.uilab.lda;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import edu.kaist.uilab.plda.data.SyntheticCorpus;
+import edu.kaist.uilab.plda.util.CountMatrix;
+
+/**
+ * Tests for {@link GibbsSampler}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestGibbsSampler extends TestCase {
+  private static final int[][] documents = {
+      { 1, 4, 3, 2, 3, 1, 4, 3, 2, 3, 1, 4, 3, 2, 3, 6 },
+      { 2, 2, 4, 2, 4, 2, 2, 2, 2, 4, 2, 2 },
+      { 1, 6, 5, 6, 0, 1, 6, 5, 6, 0, 1, 6, 5, 6, 0, 0 },
+      { 5, 6, 6, 2, 3, 3, 6, 5, 6, 2, 2, 6, 5, 6, 6, 6, 0 } };
+
+  /**
+   * Tests if the sparse sampling method samples a topic from the same
+   * distribution as the dense full conditional.
+   */
+  public void testSparseSampling() {
+    GibbsSampler sampler = new GibbsSampler(5, 7, documents, 0.5, 0.1);
+    sampler.initialize();
+    sampler.initSparseBuckets();
+    sampler.updateSmoothingMass();
+    final int m = 2, n = 3;
+    final double[] p = sampler.fullConditional(m, n);
+    final int[] sampleCounts = new int[p.length];
+    final int numSamples = 20000;
+    sampler.beginDocumentSparse(m);
+    for (int i = 0; i < numSamples; i++) {
+      sampleCounts[sampler.sampleFullConditionalSparse(m, n)]++;
+    }
+    sampler.endDocumentSparse(m);
+
+    double delta = 0.02;
+    for (int k = 0; k < p.length; k++) {
+      double difference = Math.abs(((double) sampleCounts[k]) / numSamples - p[k]);
+      assertTrue(difference < delta);
+    }
+  }
+
+  /**
+   * Tests if blocks are balanced by weight (number of tokens).
+   */
+  public void testBalanceBlocks() {
+    int[] weight = { 10, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 9 };
+    int[] block = GibbsSampler.balanceBlocks(weight, 2);
+    int[] load = new int[2];
+    for (int i = 0; i < weight.length; i++) {
+      load[block[i]] += weight[i];
+    }
+    assertTrue(Math.abs(load[0] - load[1]) <= 1);
+  }
+
+  /**
+   * Tests if two parallel runs with the same seed give the same samples.
+   */
+  public void testSeed() {
+    double[][][] theta = new double[2][][];
+    for (int run = 0; run < 2; run++) {
+      GibbsSampler sampler = new GibbsSampler(3, 7, documents, 0.5, 0.1);
+      sampler.setSamplerParameters(150, 100, 10, 2);
+      sampler.setNumThreads(2);
+      sampler.setSeed(17);
+      sampler.doGibbsSampling();
+      theta[run] = sampler.getTheta();
+    }
+    assertTrue(Arrays.deepEquals(theta[0], theta[1]));
+  }
+
+  /**
+   * Tests if every parallel sweep samples every token exactly once and keeps
+   * cwt, cdt and cwtsum equal to the counts of the topic assignments (after
+   * cwtsum is reconciled at the end of each round).
+   */
+  public void testParallelSweepsKeepCounts() throws Exception {
+    SyntheticCorpus corpus = new SyntheticCorpus(60, 100, 20, 10, 1, 3);
+    int[][] docs = corpus.getDocumentTokens();
+    int numTopics = 5;
+    int vocabularySize = corpus.getVocabularySize();
+    GibbsSampler sampler = new GibbsSampler(numTopics, vocabularySize, docs,
+        0.5, 0.1);
+    sampler.setNumThreads(3);
+    sampler.setSeed(17);
+    sampler.initialize();
+    sampler.initBlocks();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      for (int sweep = 0; sweep < 5; sweep++) {
+        sampler.visits = new int[docs.length][];
+        for (int m = 0; m < docs.length; m++) {
+          sampler.visits[m] = new int[docs[m].length];
+        }
+        sampler.sampleBlocks(executor);
+        for (int m = 0; m < docs.length; m++) {
+          for (int n = 0; n < docs[m].length; n++) {
+            assertEquals(1, sampler.visits[m][n]);
+          }
+        }
+
+        int[][] z = sampler.getAssignments();
+        int[][] cwt = new int[vocabularySize][numTopics];
+        int[][] cdt = new int[docs.length][numTopics];
+        int[] cwtsum = new int[numTopics];
+        for (int m = 0; m < docs.length; m++) {
+          for (int n = 0; n < docs[m].length; n++) {
+            cwt[docs[m][n]][z[m][n]]++;
+            cdt[m][z[m][n]]++;
+            cwtsum[z[m][n]]++;
+          }
+        }
+        assertCounts(cwt, sampler.getWordTopicCounts());
+        assertCounts(cdt, sampler.getDocumentTopicCounts());
+        assertTrue(Arrays.equals(cwtsum, sampler.getTopicCounts()));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void assertCounts(int[][] expected, CountMatrix counts) {
+    for (int r = 0; r < expected.length; r++) {
+      for (int k = 0; k < expected[r].length; k++) {
+        assertEquals(expected[r][k], counts.get(r, k));
+      }
+    }
+  }
+
+  /**
+   * Tests if a sampler which is not initialized can sample a distribution.
+   */
+  public void testSampleBeforeInitialize() {
+    GibbsSampler sampler = new GibbsSampler();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(1, sampler.sample(new double[] { 0, 2, 0 }));
+      int k = sampler.sample(new double[] { 1, 1, 1 });
+      assertTrue(k >= 0 && k < 3);
+    }
+    sampler.setSeed(17);
+    GibbsSampler other = new GibbsSampler(3, 7, documents, 0.5, 0.1);
+    other.setSeed(17);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(sampler.sample(new double[] { 1, 2, 3 }), other
+          .sample(new double[] { 1, 2, 3 }));
+    }
+  }
+}
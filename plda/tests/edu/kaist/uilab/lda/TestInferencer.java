@@ -0,0 +1,129 @@
+package edu.kaist.uilab.lda;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.aliasi.symbol.MapSymbolTable;
+
+/**
+ * Tests for {@link Inferencer}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestInferencer extends TestCase {
+  // topic 0 uses words 0-2, topic 1 uses words 3-5, no topic uses word 6
+  private static final double[][] phi = {
+      { 0.4, 0.3, 0.3, 0.0, 0.0, 0.0, 0.0 },
+      { 0.0, 0.0, 0.0, 0.5, 0.25, 0.25, 0.0 } };
+  private static final int[][] documents = {
+      { 0, 1, 2, 0, 1, 2, 0, 1 },
+      { 3, 4, 5, 3, 4, 6, 6 },
+      { 0, 1, 2, 3, 4, 5 },
+      { 6, 9 } };
+
+  /**
+   * Tests if theta reflects the words of each document.
+   */
+  public void testInfer() {
+    Inferencer inferencer = new Inferencer(phi, 0.1);
+    inferencer.setSeed(3);
+    double[][] theta = inferencer.infer(documents);
+    assertTrue(theta[0][0] > 0.9);
+    assertTrue(theta[1][1] > 0.9);
+    assertEquals(0.5, theta[2][0], 0.01);
+    // no known words
+    assertEquals(0.5, theta[3][0], 1e-9);
+    for (double[] t : theta) {
+      assertEquals(1.0, t[0] + t[1], 1e-9);
+    }
+    assertEquals(documents.length, inferencer.getLatencies().length);
+  }
+
+  /**
+   * Tests if the result does not depend on the number of threads.
+   */
+  public void testThreads() {
+    int[][] batch = new int[500][];
+    for (int m = 0; m < batch.length; m++) {
+      batch[m] = documents[m % 3];
+    }
+    Inferencer inferencer = new Inferencer(phi, 0.1);
+    inferencer.setSeed(5);
+    double[][] theta1 = inferencer.infer(batch);
+    inferencer.setNumThreads(4);
+    double[][] theta4 = inferencer.infer(batch);
+    assertTrue(Arrays.deepEquals(theta1, theta4));
+    System.out.println(inferencer.latencyReport());
+  }
+
+  /**
+   * Tests writing and reading phi.
+   */
+  public void testReadPhi() throws IOException {
+    File file = File.createTempFile("phi", ".csv");
+    try {
+      Inferencer.writePhi(phi, file.getPath());
+      double[][] read = Inferencer.readPhi(file.getPath());
+      assertEquals(phi.length, read.length);
+      for (int k = 0; k < phi.length; k++) {
+        for (int i = 0; i < phi[k].length; i++) {
+          assertEquals(phi[k][i], read[k][i], 1e-9);
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Tests reading the phi.csv file of the nicta sampler, whose words are in a
+   * different order than in the symbol table and include a word which is not
+   * in the symbol table.
+   */
+  public void testReadTopicWord() throws IOException {
+    File file = File.createTempFile("phi", ".csv");
+    try {
+      // the layout of GibbsSampler.writeTopicWord() of the nicta sampler
+      PrintWriter out = new PrintWriter(file);
+      out.print(",");
+      for (int k = 0; k < phi.length; k++) {
+        out.printf("topic %d,", k);
+      }
+      out.println();
+      out.print("unknown,");
+      for (int k = 0; k < phi.length; k++) {
+        out.printf("%.4f,", 0.1);
+      }
+      out.println();
+      for (int i = 0; i < phi[0].length; i++) {
+        out.printf("%s,", "word" + i);
+        for (int k = 0; k < phi.length; k++) {
+          out.printf("%.4f,", phi[k][i]);
+        }
+        out.println();
+      }
+      out.close();
+
+      // the ids of the words in the reverse order
+      MapSymbolTable symbolTable = new MapSymbolTable();
+      for (int i = phi[0].length - 1; i >= 0; i--) {
+        symbolTable.getOrAddSymbol("word" + i);
+      }
+      double[][] read = Inferencer.readTopicWord(file.getPath(), symbolTable);
+      assertEquals(phi.length, read.length);
+      for (int k = 0; k < phi.length; k++) {
+        assertEquals(phi[k].length, read[k].length);
+        for (int i = 0; i < phi[k].length; i++) {
+          int id = symbolTable.symbolToID("word" + i);
+          assertEquals(phi[k][i], read[k][id], 1e-9);
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package edu.kaist.uilab.lda;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link MultiChainSampler}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestMultiChainSampler extends TestCase {
+  private static final int[][] documents = {
+      { 1, 4, 3, 2, 3, 1, 4, 3, 2, 3, 1, 4, 3, 2, 3, 6 },
+      { 2, 2, 4, 2, 4, 2, 2, 2, 2, 4, 2, 2 },
+      { 1, 6, 5, 6, 0, 1, 6, 5, 6, 0, 1, 6, 5, 6, 0, 0 },
+      { 5, 6, 6, 2, 3, 3, 6, 5, 6, 2, 2, 6, 5, 6, 6, 6, 0 } };
+
+  /**
+   * Tests that the topics of a permuted copy of phi are matched back.
+   */
+  public void testAlignTopics() {
+    double[][] reference = { { 0.7, 0.2, 0.1, 0.0 }, { 0.1, 0.1, 0.4, 0.4 },
+        { 0.0, 0.5, 0.5, 0.0 } };
+    int[] permutation = { 2, 0, 1 };
+    double[][] phi = new double[3][];
+    for (int k = 0; k < 3; k++) {
+      phi[permutation[k]] = reference[k];
+    }
+    assertTrue(Arrays.equals(permutation, MultiChainSampler.alignTopics(
+        reference, phi)));
+  }
+
+  /**
+   * Tests that the averaged estimates are distributions and that a chain is
+   * aligned to itself.
+   */
+  public void testAverage() {
+    MultiChainSampler sampler = new MultiChainSampler(3, 7, documents, 0.5,
+        0.1);
+    sampler.setNumChains(3);
+    sampler.setSamplerParameters(200, 100, 10, 2);
+    sampler.setSeed(5);
+    sampler.doGibbsSampling();
+    for (double[] row : sampler.getPhi()) {
+      assertEquals(1.0, sum(row), 1e-9);
+    }
+    for (double[] row : sampler.getTheta()) {
+      assertEquals(1.0, sum(row), 1e-9);
+    }
+    assertEquals(1.0, sampler.getChainSimilarity()[0], 1e-9);
+  }
+
+  private static double sum(double[] values) {
+    double sum = 0.0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+}
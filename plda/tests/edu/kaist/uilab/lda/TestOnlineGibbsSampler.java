@@ -0,0 +1,102 @@
+package edu.kaist.uilab.lda;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import com.aliasi.symbol.MapSymbolTable;
+
+import edu.kaist.uilab.plda.data.CorpusProcessor;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link OnlineGibbsSampler}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestOnlineGibbsSampler extends TestCase {
+  private static final String[][] topics = {
+      { "apple", "banana", "cherry", "grape", "lemon" },
+      { "xenon", "yttrium", "zinc", "argon", "boron" } };
+
+  /**
+   * Returns a document about one of the topics.
+   */
+  private static String newDocument(Random random) {
+    String[] words = topics[random.nextInt(topics.length)];
+    StringBuilder builder = new StringBuilder();
+    for (int n = 0; n < 30; n++) {
+      builder.append(words[random.nextInt(words.length)]).append(' ');
+    }
+    return builder.toString();
+  }
+
+  private static OnlineGibbsSampler newSampler(int numThreads) {
+    OnlineGibbsSampler sampler = new OnlineGibbsSampler(2,
+        new MapSymbolTable(), CorpusProcessor
+            .newTokenizerFactory(new HashSet<String>()), 0.1, 0.01);
+    sampler.setLearningRate(1, 0.7);
+    sampler.setEvaluationInterval(5);
+    sampler.setNumThreads(numThreads);
+    sampler.setSeed(7);
+    return sampler;
+  }
+
+  /**
+   * Tests if the topics are learned from a stream of batches.
+   */
+  public void testUpdate() {
+    Random random = new Random(1);
+    OnlineGibbsSampler sampler = newSampler(1);
+    for (int m = 0; m < 20; m++) {
+      sampler.addHeldOut(newDocument(random));
+    }
+    double perplexity = Double.NaN;
+    for (int batch = 0; batch < 20; batch++) {
+      int[][] documents = new int[10][];
+      for (int m = 0; m < documents.length; m++) {
+        documents[m] = sampler.tokenize(newDocument(random), true);
+      }
+      sampler.update(documents);
+      if (batch == 0) {
+        perplexity = sampler.heldOutPerplexity();
+      }
+    }
+    assertEquals(200, sampler.getNumDocuments());
+    assertEquals(10, sampler.getVocabularySize());
+    // each topic has 5 equally likely words
+    assertTrue(sampler.heldOutPerplexity() < perplexity);
+    assertEquals(5.0, sampler.heldOutPerplexity(), 0.5);
+    // the words of a topic are in the same learned topic
+    double[][] phi = sampler.getPhi();
+    int apple = sampler.getSymbolTable().symbolToID("apple");
+    int zinc = sampler.getSymbolTable().symbolToID("zinc");
+    int appleTopic = phi[0][apple] > phi[1][apple] ? 0 : 1;
+    assertTrue(phi[appleTopic][apple] > 0.15);
+    assertTrue(phi[1 - appleTopic][zinc] > 0.15);
+  }
+
+  /**
+   * Tests if the result does not depend on the number of threads.
+   */
+  public void testThreads() {
+    double[][][] phi = new double[2][][];
+    for (int t = 0; t < 2; t++) {
+      Random random = new Random(1);
+      OnlineGibbsSampler sampler = newSampler(t == 0 ? 1 : 3);
+      for (int batch = 0; batch < 3; batch++) {
+        int[][] documents = new int[40][];
+        for (int m = 0; m < documents.length; m++) {
+          documents[m] = sampler.tokenize(newDocument(random), true);
+        }
+        sampler.update(documents);
+      }
+      phi[t] = sampler.getPhi();
+    }
+    for (int k = 0; k < phi[0].length; k++) {
+      for (int i = 0; i < phi[0][k].length; i++) {
+        assertEquals(phi[0][k][i], phi[1][k][i], 1e-12);
+      }
+    }
+  }
+}
@@ -0,0 +1,410 @@
+package edu.kaist.uilab.lda;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+import edu.kaist.uilab.plda.data.SyntheticCorpus;
+
+/**
+ * Tests for {@link ParameterServer} and {@link DistributedGibbsSampler}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestParameterServer extends TestCase {
+  private static final int NUM_TOPICS = 4;
+
+  private List<ParameterServer> startServers(int numServers,
+      int vocabularySize, int numWorkers) throws Exception {
+    List<ParameterServer> servers = new ArrayList<ParameterServer>();
+    for (int s = 0; s < numServers; s++) {
+      ParameterServer server = new ParameterServer(ParameterServer.rangeStart(
+          vocabularySize, numServers, s), ParameterServer.rangeStart(
+          vocabularySize, numServers, s + 1), NUM_TOPICS, numWorkers);
+      server.start(0);
+      servers.add(server);
+    }
+    return servers;
+  }
+
+  private static List<InetSocketAddress> addresses(
+      List<ParameterServer> servers) {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (ParameterServer server : servers) {
+      addresses.add(new InetSocketAddress("localhost", server.getPort()));
+    }
+    return addresses;
+  }
+
+  /**
+   * Tests that the counts of the servers are the counts of the topic
+   * assignments of all workers after sampling, and that the estimates are
+   * distributions.
+   */
+  public void testDistributedSampling() throws Exception {
+    SyntheticCorpus corpus = new SyntheticCorpus(60, 100, 20, 10, 1, 3);
+    int vocabularySize = corpus.getVocabularySize();
+    final int numWorkers = 3;
+    List<ParameterServer> servers = startServers(2, vocabularySize, numWorkers);
+    List<InetSocketAddress> addresses = addresses(servers);
+    ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+    List<Future<DistributedGibbsSampler>> futures =
+        new ArrayList<Future<DistributedGibbsSampler>>();
+    for (int w = 0; w < numWorkers; w++) {
+      final DistributedGibbsSampler sampler = new DistributedGibbsSampler(
+          NUM_TOPICS, vocabularySize, DistributedGibbsSampler.shard(corpus
+              .getDocumentTokens(), w, numWorkers), 0.1, 0.01, addresses, w);
+      sampler.setSamplerParameters(10, 4, 2, 3);
+      sampler.setStaleness(1);
+      sampler.setSeed(w);
+      futures.add(executor.submit(new Callable<DistributedGibbsSampler>() {
+        @Override
+        public DistributedGibbsSampler call() throws Exception {
+          sampler.doGibbsSampling();
+          return sampler;
+        }
+      }));
+    }
+    List<DistributedGibbsSampler> samplers =
+        new ArrayList<DistributedGibbsSampler>();
+    for (Future<DistributedGibbsSampler> future : futures) {
+      samplers.add(future.get(60, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    for (ParameterServer server : servers) {
+      server.awaitTermination();
+    }
+
+    int[] frequency = new int[vocabularySize];
+    for (int[] document : corpus.getDocumentTokens()) {
+      for (int i : document) {
+        frequency[i]++;
+      }
+    }
+    for (int i = 0; i < vocabularySize; i++) {
+      ParameterServer server = servers.get(i < ParameterServer.rangeStart(
+          vocabularySize, 2, 1) ? 0 : 1);
+      int sum = 0;
+      for (int k = 0; k < NUM_TOPICS; k++) {
+        sum += server.getCount(i, k);
+        for (DistributedGibbsSampler sampler : samplers) {
+          assertEquals(server.getCount(i, k),
+              sampler.getWordTopicCounts()[i][k]);
+        }
+      }
+      assertEquals(frequency[i], sum);
+    }
+    for (DistributedGibbsSampler sampler : samplers) {
+      for (double[] theta : sampler.getTheta()) {
+        assertEquals(1.0, sum(theta), 1e-9);
+      }
+      for (double[] phi : sampler.getPhi()) {
+        assertEquals(1.0, sum(phi), 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Tests that the other workers fail instead of waiting forever when a
+   * worker throws an exception in the middle of its iterations.
+   */
+  public void testFailingWorkerFailsOtherWorkers() throws Exception {
+    SyntheticCorpus corpus = new SyntheticCorpus(60, 100, 20, 10, 1, 3);
+    int vocabularySize = corpus.getVocabularySize();
+    final int numWorkers = 3;
+    final int failingWorker = 1;
+    List<ParameterServer> servers = startServers(2, vocabularySize, numWorkers);
+    List<InetSocketAddress> addresses = addresses(servers);
+    ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+    List<Future<DistributedGibbsSampler>> futures =
+        new ArrayList<Future<DistributedGibbsSampler>>();
+    for (int w = 0; w < numWorkers; w++) {
+      int[][] shard = DistributedGibbsSampler.shard(corpus.getDocumentTokens(),
+          w, numWorkers);
+      final DistributedGibbsSampler sampler;
+      if (w == failingWorker) {
+        // fails in the third iteration
+        final int numSampledDocuments = 2 * shard.length;
+        sampler = new DistributedGibbsSampler(NUM_TOPICS, vocabularySize,
+            shard, 0.1, 0.01, addresses, w) {
+          int count;
+
+          @Override
+          void sampleDocument(int m, ParameterClient client) {
+            if (++count > numSampledDocuments) {
+              throw new IllegalStateException("Worker failure");
+            }
+            super.sampleDocument(m, client);
+          }
+        };
+      } else {
+        sampler = new DistributedGibbsSampler(NUM_TOPICS, vocabularySize,
+            shard, 0.1, 0.01, addresses, w);
+      }
+      sampler.setSamplerParameters(10, 4, 2, 3);
+      sampler.setStaleness(0);
+      sampler.setSeed(w);
+      futures.add(executor.submit(new Callable<DistributedGibbsSampler>() {
+        @Override
+        public DistributedGibbsSampler call() throws Exception {
+          sampler.doGibbsSampling();
+          return sampler;
+        }
+      }));
+    }
+    for (int w = 0; w < numWorkers; w++) {
+      try {
+        futures.get(w).get(10, TimeUnit.SECONDS);
+        fail("Worker " + w + " succeeded after a worker failed");
+      } catch (ExecutionException e) {
+        if (w == failingWorker) {
+          assertTrue(e.getCause() instanceof IllegalStateException);
+        } else {
+          assertTrue(e.getCause() instanceof IOException);
+        }
+      }
+    }
+    executor.shutdown();
+    for (ParameterServer server : servers) {
+      server.close();
+    }
+  }
+
+  private static double sum(double[] x) {
+    double sum = 0.0;
+    for (double value : x) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  /**
+   * Tests that a pull waits until every worker has reached the clock.
+   */
+  public void testPullWaitsForSlowWorker() throws Exception {
+    List<ParameterServer> servers = startServers(1, 10, 2);
+    List<InetSocketAddress> addresses = addresses(servers);
+    final ParameterClient fast = new ParameterClient(addresses, 0, 10,
+        NUM_TOPICS);
+    ParameterClient slow = new ParameterClient(addresses, 1, 10, NUM_TOPICS);
+    fast.add(3, 2, 1);
+    fast.push(1);
+    slow.add(3, 2, 1);
+    slow.push(1);
+    fast.add(3, 1, 1);
+    fast.push(2);
+    final int[][] counts = new int[10][NUM_TOPICS];
+    final int[] topicSums = new int[NUM_TOPICS];
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<Integer> pull = executor.submit(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return fast.pull(2, counts, topicSums);
+      }
+    });
+    try {
+      pull.get(200, TimeUnit.MILLISECONDS);
+      fail("The pull did not wait for the slow worker");
+    } catch (TimeoutException e) {
+      // expected
+    }
+    slow.add(3, 2, -1);
+    slow.add(4, 0, 1);
+    slow.push(2);
+    assertEquals(2, pull.get(10, TimeUnit.SECONDS).intValue());
+    assertEquals(1, counts[3][1]);
+    assertEquals(1, counts[3][2]);
+    assertEquals(1, counts[4][0]);
+    assertEquals(3, topicSums[0] + topicSums[1] + topicSums[2]);
+    executor.shutdown();
+    fast.close();
+    slow.close();
+    servers.get(0).awaitTermination();
+  }
+
+  /**
+   * Tests that a pull only overwrites the words changed since the previous
+   * pull of the client.
+   */
+  public void testPullSendsChangedWords() throws Exception {
+    List<ParameterServer> servers = startServers(2, 10, 2);
+    List<InetSocketAddress> addresses = addresses(servers);
+    ParameterClient first = new ParameterClient(addresses, 0, 10, NUM_TOPICS);
+    ParameterClient second = new ParameterClient(addresses, 1, 10, NUM_TOPICS);
+    first.add(2, 1, 2);
+    first.add(7, 3, 1);
+    first.push(1);
+    second.add(2, 1, 1);
+    second.push(1);
+    int[][] counts = new int[10][NUM_TOPICS];
+    int[] topicSums = new int[NUM_TOPICS];
+    assertEquals(1, first.pull(1, counts, topicSums));
+    assertEquals(3, counts[2][1]);
+    assertEquals(1, counts[7][3]);
+    assertEquals(4, topicSums[1] + topicSums[3]);
+
+    // only word 2 changes; the other words keep the values of this copy
+    counts[7][3] = -1;
+    counts[5][0] = -1;
+    second.add(2, 1, -1);
+    second.add(2, 0, 1);
+    second.push(2);
+    first.push(2);
+    assertEquals(2, first.pull(2, counts, topicSums));
+    assertEquals(1, counts[2][0]);
+    assertEquals(2, counts[2][1]);
+    assertEquals(-1, counts[7][3]);
+    assertEquals(-1, counts[5][0]);
+    assertEquals(1, topicSums[0]);
+    assertEquals(2, topicSums[1]);
+
+    // the first pull of a client gets all counts
+    int[][] all = new int[10][NUM_TOPICS];
+    assertEquals(2, second.pull(2, all, new int[NUM_TOPICS]));
+    assertEquals(1, all[7][3]);
+    assertEquals(2, all[2][1]);
+    first.close();
+    second.close();
+    for (ParameterServer server : servers) {
+      server.awaitTermination();
+    }
+  }
+
+  /**
+   * Tests that a push with a topic out of range fails the server, so that the
+   * other workers stop waiting for the worker and fail too.
+   */
+  public void testInvalidPushFailsWaitingWorkers() throws Exception {
+    List<ParameterServer> servers = startServers(1, 10, 2);
+    List<InetSocketAddress> addresses = addresses(servers);
+    final ParameterClient waiting = new ParameterClient(addresses, 1, 10,
+        NUM_TOPICS);
+    waiting.add(3, 2, 1);
+    waiting.push(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<Integer> pull = executor.submit(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return waiting.pull(1, new int[10][NUM_TOPICS], new int[NUM_TOPICS]);
+      }
+    });
+    Socket socket = new Socket("localhost", servers.get(0).getPort());
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    out.writeByte(ParameterServer.HELLO);
+    out.writeInt(0);
+    out.flush();
+    in.readInt();
+    in.readInt();
+    in.readInt();
+    // word 3 with two changes: (topic 0, delta 1), (topic NUM_TOPICS, delta 1)
+    out.writeByte(ParameterServer.PUSH);
+    out.writeInt(1);
+    out.writeInt(6);
+    out.writeInt(3);
+    out.writeInt(2);
+    out.writeInt(0);
+    out.writeInt(1);
+    out.writeInt(NUM_TOPICS);
+    out.writeInt(1);
+    out.flush();
+    try {
+      pull.get(10, TimeUnit.SECONDS);
+      fail("The pull succeeded after an invalid push");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    // no change of the invalid push was applied
+    assertEquals(0, servers.get(0).getCount(3, 0));
+    assertEquals(1, servers.get(0).getCount(3, 2));
+    executor.shutdown();
+    socket.close();
+    servers.get(0).close();
+  }
+
+  /**
+   * Tests that the process of a server exits with 1 once a worker has failed
+   * and the connections of all workers have been closed.
+   */
+  public void testFailedRunEndsServerProcess() throws Exception {
+    ServerSocket free = new ServerSocket(0);
+    int port = free.getLocalPort();
+    free.close();
+    final Process process = new ProcessBuilder(System.getProperty("java.home")
+        + File.separator + "bin" + File.separator + "java", "-cp", System
+        .getProperty("java.class.path"), ParameterServer.class.getName(),
+        String.valueOf(port), "0", "10", String.valueOf(NUM_TOPICS), "2")
+        .redirectErrorStream(true).start();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> exit = executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          InputStream in = process.getInputStream();
+          while (in.read() >= 0) {
+          }
+          return process.waitFor();
+        }
+      });
+      Socket other = hello(port, 1);
+      Socket failing = hello(port, 0);
+      failing.getOutputStream().write(ParameterServer.FAIL);
+      failing.getOutputStream().flush();
+      try {
+        exit.get(500, TimeUnit.MILLISECONDS);
+        fail("The server exited while a worker was connected");
+      } catch (TimeoutException e) {
+        // the other worker has not noticed the failure yet
+      }
+      other.close();
+      assertEquals(1, exit.get(10, TimeUnit.SECONDS).intValue());
+      failing.close();
+    } finally {
+      process.destroy();
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Connects a worker to the server on the given port (which may still be
+   * starting) and says hello.
+   */
+  private static Socket hello(int port, int worker) throws Exception {
+    Socket socket = null;
+    for (int attempt = 0; socket == null; attempt++) {
+      try {
+        socket = new Socket("localhost", port);
+      } catch (ConnectException e) {
+        if (attempt == 100) {
+          throw e;
+        }
+        Thread.sleep(100);
+      }
+    }
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    out.writeByte(ParameterServer.HELLO);
+    out.writeInt(worker);
+    out.flush();
+    in.readInt();
+    in.readInt();
+    in.readInt();
+    return socket;
+  }
+}
@@ -0,0 +1,39 @@
+package edu.kaist.uilab.plda;
+
+import junit.framework.TestCase;
+
+import edu.kaist.uilab.plda.util.RandomGenerator;
+
+/**
+ * Tests for {@link SamplingBuffer}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestSamplingBuffer extends TestCase {
+
+  /**
+   * Tests if sampling sets are drawn in proportion to their probabilities and
+   * if the buffer can be reused after {@link SamplingBuffer#clear()}.
+   */
+  public void testSample() {
+    SamplingBuffer buffer = new SamplingBuffer(3, RandomGenerator.newInstance(1));
+    buffer.add(0, -1, 0, 5.0);
+    buffer.add(0, 7, 1, 5.0);
+    buffer.clear();
+    double[] p = { 0.45, 0.2, 0.35 };
+    for (int k = 0; k < p.length; k++) {
+      buffer.add(k, 10 + k, 1, p[k]);
+    }
+    assertEquals(3, buffer.size);
+    assertEquals(11, buffer.rho[1]);
+    final int numSamples = 20000;
+    int[] sampleCounts = new int[p.length];
+    for (int i = 0; i < numSamples; i++) {
+      sampleCounts[buffer.sample()]++;
+    }
+    for (int k = 0; k < p.length; k++) {
+      double difference = Math.abs(((double) sampleCounts[k]) / numSamples - p[k]);
+      assertTrue(difference < 0.02);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package edu.kaist.uilab.plda;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.kaist.uilab.plda.data.SharedCorpus;
+import edu.kaist.uilab.plda.data.SyntheticCorpus;
+
+/**
+ * Tests for {@link SweepRunner}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestSweepRunner extends TestCase {
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("sweep", "");
+    dir.delete();
+  }
+
+  @Override
+  protected void tearDown() {
+    delete(dir);
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private SweepRunner newSweep(SharedCorpus corpus) {
+    SweepRunner sweep = new SweepRunner(corpus, dir.getPath(), 7);
+    sweep.setNumWorkers(2);
+    sweep.setSamplerParameters(6, 2, 2, 2);
+    sweep.setOutputParameters(5, 3, 3);
+    return sweep;
+  }
+
+  /**
+   * Tests that all configurations are summarized and that a sweep started
+   * again only runs the configurations which are not finished.
+   */
+  public void testSummaryAndResume() throws IOException {
+    SharedCorpus corpus = new SharedCorpus(new SyntheticCorpus(100, 200, 30,
+        20, 3, 5));
+    List<SweepRunner.Config> configs = new ArrayList<SweepRunner.Config>();
+    configs.add(new SweepRunner.Config("a", 0.1, 0.5, 4, 3, 0.01, 0.1, 0.5, 5));
+    configs.add(new SweepRunner.Config("b", 0.2, 0.5, 5, 2, 0.01, 0.1, 0.5, 5));
+    newSweep(corpus).run(configs);
+    File summary = new File(dir, SweepRunner.SUMMARY_FILE);
+    List<SweepRunner.Result> results = SweepRunner.readSummary(summary);
+    assertEquals(2, results.size());
+    assertTrue(new File(dir, "a").isDirectory());
+    assertTrue(new File(dir, SweepRunner.TABLE_FILE).exists());
+    SweepRunner.Result parsed = SweepRunner.Result.parse(results.get(0)
+        .toString());
+    assertEquals(results.get(0).toString(), parsed.toString());
+
+    configs.add(new SweepRunner.Config("c", 0.1, 0.5, 3, 3, 0.01, 0.1, 0.5, 5));
+    long modified = new File(dir, "a").lastModified();
+    newSweep(corpus).run(configs);
+    results = SweepRunner.readSummary(summary);
+    assertEquals(3, results.size());
+    assertEquals("c", results.get(2).getName());
+    assertEquals(modified, new File(dir, "a").lastModified());
+  }
+}
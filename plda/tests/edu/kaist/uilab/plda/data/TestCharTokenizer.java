@@ -0,0 +1,99 @@
+package edu.kaist.uilab.plda.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.aliasi.symbol.MapSymbolTable;
+import com.aliasi.tokenizer.EnglishStopTokenizerFactory;
+import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
+import com.aliasi.tokenizer.TokenizerFactory;
+import com.aliasi.util.Strings;
+
+import edu.kaist.uilab.plda.util.IntList;
+
+/**
+ * Tests for {@link CharTokenizer}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestCharTokenizer extends TestCase {
+  private static final String TEXT = "Mr. Obama met the CEO of Apple Inc. "
+      + "in New York on 12/3/2010, says a $5-million report; it's U.S. news "
+      + "about IBM's A1 chips (and 3M). \u00c9t\u00e9 caf\u00e9 na\u00efve";
+  // the characters of the random texts
+  private static final String CHARS = "aZbYs$9 .-'\u00e9\n";
+
+  private static Set<String> stopWords() {
+    return new HashSet<String>(Arrays.asList("york", "news", "Apple"));
+  }
+
+  private static List<String> tokens(CharTokenizer tokenizer, String text) {
+    IntList ranges = new IntList();
+    char[] cs = tokenizer.tokenize(text, ranges);
+    List<String> tokens = new ArrayList<String>();
+    for (int n = 0; n < ranges.size(); n += 2) {
+      tokens.add(new String(cs, ranges.get(n), ranges.get(n + 1)
+          - ranges.get(n)));
+    }
+    return tokens;
+  }
+
+  private static List<String> tokens(TokenizerFactory factory, String text) {
+    char[] cs = Strings.toCharArray(text);
+    return Arrays.asList(factory.tokenizer(cs, 0, cs.length).tokenize());
+  }
+
+  public void testTokensAreThoseOfLingpipe() {
+    CharTokenizer tokenizer = new CharTokenizer(stopWords(), true);
+    TokenizerFactory factory = CorpusProcessor.newTokenizerFactory(stopWords());
+    assertEquals(tokens(factory, TEXT), tokens(tokenizer, TEXT));
+    assertEquals(Arrays.asList("obama", "met", "ceo", "apple", "new", "york",
+        "12", "3", "2010", "$5", "million", "report", "u", "news", "ibm",
+        "a1", "chips", "3m", "t", "caf", "na", "ve"), tokens(
+        new CharTokenizer(new HashSet<String>(), false), TEXT));
+    Random random = new Random(1);
+    for (int document = 0; document < 1000; document++) {
+      StringBuilder text = new StringBuilder();
+      for (int i = random.nextInt(200); i > 0; i--) {
+        text.append(CHARS.charAt(random.nextInt(CHARS.length())));
+      }
+      assertEquals(tokens(factory, text.toString()), tokens(tokenizer, text
+          .toString()));
+    }
+  }
+
+  public void testEnglishStopWordsAreThoseOfLingpipe() {
+    TokenizerFactory factory = new EnglishStopTokenizerFactory(
+        IndoEuropeanTokenizerFactory.INSTANCE);
+    for (String word : CharTokenizer.ENGLISH_STOP_WORDS) {
+      assertEquals(word, 0, tokens(factory, word).size());
+    }
+    // the words which are not stop words
+    StringBuilder text = new StringBuilder();
+    for (String word : TEXT.toLowerCase().split("[^a-z]+")) {
+      if (!Arrays.asList(CharTokenizer.ENGLISH_STOP_WORDS).contains(word)) {
+        assertEquals(word, tokens(factory, word).size(), 1);
+        text.append(word).append(' ');
+      }
+    }
+    assertTrue(text.length() > 0);
+  }
+
+  public void testToIds() {
+    MapSymbolTable symbolTable = new MapSymbolTable();
+    symbolTable.getOrAddSymbol("chips");
+    symbolTable.getOrAddSymbol("obama");
+    symbolTable.getOrAddSymbol("the");
+    CorpusProcessor processor = new CorpusProcessor(null, null, 1, 1, 0, 100,
+        0, new String[0]);
+    processor.setSymbolTable(symbolTable);
+    assertTrue(Arrays.equals(new int[] { 1, 0 }, processor.tokenize(TEXT)));
+    assertEquals(0, processor.tokenize("").length);
+  }
+}
@@ -0,0 +1,145 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.aliasi.util.ObjectToCounterMap;
+
+/**
+ * Tests for {@link CorpusBundle}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestCorpusBundle extends TestCase {
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    file = File.createTempFile("corpus", ".bin");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  private static Map<String, String> parameters(int minTokenCount) {
+    Map<String, String> parameters = new LinkedHashMap<String, String>();
+    parameters.put("minTokenCount", String.valueOf(minTokenCount));
+    parameters.put("stopWords", "[a, \u00e9t\u00e9, the]");
+    return parameters;
+  }
+
+  public void testWriteAndRead() throws Exception {
+    SyntheticCorpus corpus = new SyntheticCorpus(50, 300, 40, 20, 5, 1);
+    List<String> names = new ArrayList<String>();
+    ObjectToCounterMap<String> tokenCounter = new ObjectToCounterMap<String>();
+    for (int m = 0; m < corpus.getNumDocuments(); m++) {
+      names.add("doc" + m);
+      for (int word : corpus.getDocumentTokens()[m]) {
+        tokenCounter.increment(corpus.getSymbolTable().idToSymbol(word));
+      }
+    }
+    tokenCounter.increment("pruned");
+    new CorpusBundle(parameters(5), names, corpus.getSymbolTable(),
+        tokenCounter, 1234, corpus.getCorpusEntitySet(), corpus
+            .getDocumentTokens(), corpus.getDocumentEntities()).write(file);
+
+    CorpusBundle bundle = CorpusBundle.read(file);
+    assertEquals(parameters(5), bundle.getParameters());
+    bundle.checkParameters(parameters(5));
+    assertEquals(names, bundle.getDocumentNames());
+    assertEquals(corpus.getVocabularySize(), bundle.getSymbolTable()
+        .numSymbols());
+    for (int id = 0; id < corpus.getVocabularySize(); id++) {
+      assertEquals(corpus.getSymbolTable().idToSymbol(id), bundle
+          .getSymbolTable().idToSymbol(id));
+    }
+    assertEquals(tokenCounter.size(), bundle.getTokenCounter().size());
+    for (String token : tokenCounter.keySet()) {
+      assertEquals(tokenCounter.getCount(token), bundle.getTokenCounter()
+          .getCount(token));
+    }
+    assertEquals(1234, bundle.getNumTokens());
+    assertTrue(Arrays.deepEquals(corpus.getDocumentTokens(), bundle
+        .getDocumentTokens()));
+    CorpusEntitySet entities = corpus.getCorpusEntitySet();
+    assertEquals(entities.getEntities(), bundle.getCorpusEntitySet()
+        .getEntities());
+    for (int m = 0; m < corpus.getNumDocuments(); m++) {
+      Entity[] expected = corpus.getDocumentEntities()[m];
+      Entity[] actual = bundle.getDocumentEntities()[m];
+      assertEquals(expected.length, actual.length);
+      for (int e = 0; e < expected.length; e++) {
+        assertEquals(expected[e], actual[e]);
+        assertEquals(expected[e].getCount(), actual[e].getCount());
+        assertEquals(entities.toId(expected[e]), bundle.getCorpusEntitySet()
+            .toId(actual[e]));
+      }
+    }
+    for (Entity entity : entities.getEntities()) {
+      Entity loaded = bundle.getCorpusEntitySet().getEntities().get(
+          entities.toId(entity));
+      assertEquals(entity.getCount(), loaded.getCount());
+    }
+  }
+
+  public void testMismatchedParametersAreRefused() throws Exception {
+    SyntheticCorpus corpus = new SyntheticCorpus(5, 100, 10, 10, 2, 1);
+    new CorpusBundle(parameters(5), new ArrayList<String>(Arrays.asList("a",
+        "b", "c", "d", "e")), corpus.getSymbolTable(),
+        new ObjectToCounterMap<String>(), 0, corpus.getCorpusEntitySet(),
+        corpus.getDocumentTokens(), corpus.getDocumentEntities()).write(file);
+    try {
+      CorpusBundle.read(file).checkParameters(parameters(3));
+      fail("A bundle with other parameters was accepted");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("minTokenCount = 5 instead of 3"));
+    }
+  }
+
+  public void testReadParameters() throws Exception {
+    SyntheticCorpus corpus = new SyntheticCorpus(5, 100, 10, 10, 2, 1);
+    new CorpusBundle(parameters(5), new ArrayList<String>(Arrays.asList("a",
+        "b", "c", "d", "e")), corpus.getSymbolTable(),
+        new ObjectToCounterMap<String>(), 0, corpus.getCorpusEntitySet(),
+        corpus.getDocumentTokens(), corpus.getDocumentEntities()).write(file);
+    assertEquals(parameters(5), CorpusBundle.readParameters(file));
+    try {
+      CorpusBundle.checkParameters(CorpusBundle.readParameters(file),
+          parameters(3));
+      fail("A bundle with other parameters was accepted");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("minTokenCount = 5 instead of 3"));
+    }
+  }
+
+  /**
+   * Tests that a write which fails halfway leaves neither a (truncated)
+   * bundle nor its temporary file.
+   */
+  public void testFailedWriteLeavesNoBundle() throws Exception {
+    file.delete();
+    SyntheticCorpus corpus = new SyntheticCorpus(5, 100, 10, 10, 2, 1);
+    // no document tokens: fails after the header has been written
+    CorpusBundle bundle = new CorpusBundle(parameters(5),
+        new ArrayList<String>(Arrays.asList("a", "b", "c", "d", "e")),
+        corpus.getSymbolTable(), new ObjectToCounterMap<String>(), 0,
+        corpus.getCorpusEntitySet(), null, corpus.getDocumentEntities());
+    try {
+      bundle.write(file);
+      fail("The bundle was written without its tokens");
+    } catch (NullPointerException e) {
+      // expected
+    }
+    assertFalse(file.exists());
+    assertFalse(new File(file.getPath() + CorpusBundle.TMP_SUFFIX).exists());
+  }
+}
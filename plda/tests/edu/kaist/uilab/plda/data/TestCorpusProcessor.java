@@ -0,0 +1,50 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import edu.kaist.uilab.plda.file.DefaultDocumentReader;
+
+/**
+ * Tests for {@link CorpusProcessor}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestCorpusProcessor extends TestCase {
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = TestUtils.createCorpus(new Random(1), 60);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    TestUtils.deleteCorpus(dir);
+  }
+
+  /**
+   * Tests if the token stage counts the tokens and builds the vocabulary as
+   * the string-based token stage did.
+   */
+  public void testTokensAreThoseOfStringTokenStage() throws Exception {
+    ArrayList<String> docNames = new ArrayList<String>();
+    for (int m = 0; m < 60; m++) {
+      docNames.add("d" + m + ".txt");
+    }
+    // a document may be chosen twice
+    docNames.add("d7.txt");
+    String[] stopWords = { "korea", "York" };
+    CorpusProcessor processor = new CorpusProcessor(dir.getPath(),
+        new DefaultDocumentReader(), 3, 1, 4, 90, 10, stopWords);
+    processor.setNumThreads(3);
+    processor.processTokens(docNames);
+    new TestUtils.StringTokenStage(dir, docNames, new HashSet<String>(Arrays
+        .asList(stopWords)), 3, 4).assertEqualsTo(processor.getTokenCounter(),
+        processor.getSymbolTable(), processor.getDocumentTokens());
+  }
+}
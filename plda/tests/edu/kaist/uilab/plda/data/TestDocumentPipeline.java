@@ -0,0 +1,122 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import edu.kaist.uilab.plda.file.DocumentReader;
+import edu.kaist.uilab.plda.util.Metrics;
+
+/**
+ * Tests for {@link DocumentPipeline}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestDocumentPipeline extends TestCase {
+  private static final int NUM_DOCUMENTS = 200;
+
+  /**
+   * A reader which returns the name of a document as its content (and fails
+   * for the documents named "missing").
+   */
+  private static class NameReader implements DocumentReader {
+    final AtomicInteger numReads = new AtomicInteger();
+
+    @Override
+    public String readDocument(String filename) throws IOException {
+      numReads.incrementAndGet();
+      String name = new File(filename).getName();
+      if (name.equals("missing")) {
+        throw new IOException("no such document");
+      }
+      return name;
+    }
+  }
+
+  /**
+   * A stage which stores the content of each document by its index and
+   * records the order in which the documents are collected.
+   */
+  private static class RecordingStage extends DocumentPipeline.Stage {
+    final List<String> processed = Collections
+        .synchronizedList(new ArrayList<String>(Collections.<String> nCopies(
+            NUM_DOCUMENTS, null)));
+    final List<String> collected = new ArrayList<String>();
+    boolean finished;
+
+    RecordingStage(String name) {
+      super(name);
+    }
+
+    @Override
+    public void process(int document, String content) {
+      processed.set(document, content);
+    }
+
+    @Override
+    public void collect(int document) {
+      assertFalse(finished);
+      collected.add(processed.get(document));
+    }
+
+    @Override
+    public void finish() {
+      finished = true;
+    }
+  }
+
+  public void testDocumentsAreReadOnceAndCollectedInOrder() throws Exception {
+    List<String> names = new ArrayList<String>();
+    for (int m = 0; m < NUM_DOCUMENTS; m++) {
+      names.add(m == 7 ? "missing" : "doc" + m);
+    }
+    NameReader reader = new NameReader();
+    DocumentPipeline pipeline = new DocumentPipeline("corpus", reader);
+    pipeline.setNumThreads(3, 4);
+    pipeline.setMaxPending(5);
+    Metrics metrics = new Metrics("pipeline");
+    pipeline.setMetrics(metrics);
+    RecordingStage entities = new RecordingStage("entities");
+    RecordingStage tokens = new RecordingStage("tokens");
+    pipeline.addStage(entities);
+    pipeline.addStage(tokens);
+    pipeline.run(names);
+
+    assertEquals(NUM_DOCUMENTS, reader.numReads.get());
+    // each document is counted once, not once per stage
+    assertEquals(NUM_DOCUMENTS, metrics.getDocumentsProcessed());
+    for (RecordingStage stage : new RecordingStage[] { entities, tokens }) {
+      assertTrue(stage.finished);
+      assertEquals(NUM_DOCUMENTS, stage.collected.size());
+      for (int m = 0; m < NUM_DOCUMENTS; m++) {
+        // an unreadable document is processed as an empty document
+        assertEquals(m == 7 ? "" : "doc" + m, stage.collected.get(m));
+      }
+    }
+    String statistics = pipeline.statistics();
+    assertTrue(statistics.startsWith("read: "));
+    assertTrue(statistics.contains(", entities: "));
+    assertTrue(statistics.contains(", tokens: "));
+    assertTrue(statistics.contains("pipeline: " + NUM_DOCUMENTS + " documents"));
+  }
+
+  public void testFailureOfStage() {
+    DocumentPipeline pipeline = new DocumentPipeline("corpus", new NameReader());
+    pipeline.addStage(new DocumentPipeline.Stage("failing") {
+      @Override
+      public void process(int document, String content) throws IOException {
+        throw new IOException("cannot process " + content);
+      }
+    });
+    try {
+      pipeline.run(Collections.singletonList("doc"));
+      fail("The failure of the stage was not thrown");
+    } catch (IOException e) {
+      assertEquals("cannot process doc", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import edu.kaist.uilab.plda.file.DefaultDocumentReader;
+
+/**
+ * Tests for {@link EntityCache}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestEntityCache extends TestCase {
+  private File dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    dir = File.createTempFile("entitycache", "");
+    dir.delete();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  private static List<EntityCache.Record> records(String... values) {
+    List<EntityCache.Record> records = new ArrayList<EntityCache.Record>();
+    for (int j = 0; j < values.length; j++) {
+      records.add(new EntityCache.Record(values[j], Entity.PERSON, j + 1));
+    }
+    return records;
+  }
+
+  public void testPutAndGet() throws Exception {
+    EntityCache cache = new EntityCache(dir);
+    assertNull(cache.get("ner", "Obama met Merkel."));
+    cache.put("ner", "Obama met Merkel.", records("Obama", "Merkel"));
+    cache.put("ner", "No entity.", records());
+    List<EntityCache.Record> records = cache.get("ner", "Obama met Merkel.");
+    assertEquals(2, records.size());
+    assertEquals("Merkel", records.get(1).value);
+    assertEquals(Entity.PERSON, records.get(1).type);
+    assertEquals(2, records.get(1).count);
+    assertEquals(0, cache.get("ner", "No entity.").size());
+    // another classifier
+    assertNull(cache.get("other", "Obama met Merkel."));
+    assertEquals(2, cache.getNumMisses());
+    assertEquals(2, cache.getNumHits());
+    cache.close();
+
+    cache = new EntityCache(dir);
+    assertEquals("Obama", cache.get("ner", "Obama met Merkel.").get(0).value);
+    cache.close();
+  }
+
+  public void testRecordsOfOtherWriters() throws Exception {
+    EntityCache reader = new EntityCache(dir);
+    EntityCache writer = new EntityCache(dir);
+    assertNull(reader.get("ner", "Seoul"));
+    writer.put("ner", "Seoul", records("Seoul"));
+    assertEquals("Seoul", reader.get("ner", "Seoul").get(0).value);
+    reader.close();
+    writer.close();
+  }
+
+  /**
+   * Tests that the entries written after a torn index entry (left by a
+   * writer which died while writing it) are found.
+   */
+  public void testTornIndexEntry() throws Exception {
+    EntityCache cache = new EntityCache(dir);
+    cache.put("ner", "Seoul", records("Seoul"));
+    cache.close();
+    RandomAccessFile index = new RandomAccessFile(new File(dir,
+        EntityCache.INDEX_FILE), "rw");
+    index.seek(index.length());
+    index.write(new byte[EntityCache.INDEX_ENTRY_LENGTH / 2]);
+    index.close();
+
+    cache = new EntityCache(dir);
+    cache.put("ner", "Daejeon", records("Daejeon"));
+    cache.close();
+    cache = new EntityCache(dir);
+    assertEquals("Seoul", cache.get("ner", "Seoul").get(0).value);
+    assertEquals("Daejeon", cache.get("ner", "Daejeon").get(0).value);
+    cache.close();
+    assertEquals(0, (new File(dir, EntityCache.INDEX_FILE).length()
+        - EntityCache.HEADER_LENGTH) % EntityCache.INDEX_ENTRY_LENGTH);
+  }
+
+  public void testCorruptedRecordIsMissing() throws Exception {
+    EntityCache cache = new EntityCache(dir);
+    cache.put("ner", "Seoul", records("Seoul"));
+    cache.close();
+    RandomAccessFile segment = new RandomAccessFile(new File(dir,
+        EntityCache.SEGMENT_FILE), "rw");
+    segment.seek(segment.length() - 6);
+    segment.write('X');
+    segment.close();
+    cache = new EntityCache(dir);
+    assertNull(cache.get("ner", "Seoul"));
+    // the document is classified and cached again
+    cache.put("ner", "Seoul", records("Seoul"));
+    assertEquals("Seoul", cache.get("ner", "Seoul").get(0).value);
+    cache.close();
+  }
+
+  public void testParserUsesCachedEntities() throws Exception {
+    EntityCache cache = new EntityCache(dir);
+    cache.put("ner", "Obama met Merkel.", records("Obama", "Merkel"));
+    EntityParser parser = new EntityParser("corpus",
+        new DefaultDocumentReader(), new ArrayList<String>(), 1, 10);
+    parser.setEntityCache(cache);
+    // the classifier is not needed
+    ArrayList<Entity> entities = parser.parseDocument("ner",
+        "Obama met Merkel.");
+    assertEquals(2, entities.size());
+    assertEquals(new Entity("Merkel", Entity.PERSON), entities.get(1));
+    assertEquals(2, entities.get(1).getCount());
+    cache.close();
+  }
+}
@@ -0,0 +1,73 @@
+package edu.kaist.uilab.plda.data;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the class {@link MappedCorpus}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestMappedCorpus extends TestCase {
+  private File dir;
+  private int[][] documents = new int[][] {
+      { 3, 1, 4, 1, 5 },
+      {},
+      { 9, 2, 6 },
+      { 70000 },
+  };
+
+  @Override
+  public void setUp() throws IOException {
+    dir = File.createTempFile("mapped", "");
+    dir.delete();
+  }
+
+  @Override
+  public void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  public void testTokens() throws IOException {
+    MappedCorpus corpus = MappedCorpus.create(dir, documents);
+    assertEquals(4, corpus.getNumDocuments());
+    assertEquals(9, corpus.getNumTokens());
+    for (int m = 0; m < documents.length; m++) {
+      assertEquals(documents[m].length, corpus.getDocumentLength(m));
+      long start = corpus.getDocumentStart(m);
+      for (int n = 0; n < documents[m].length; n++) {
+        assertEquals(documents[m][n], corpus.getToken(start + n));
+      }
+    }
+    assertEquals(-1, corpus.getIteration());
+  }
+
+  public void testAssignments() throws IOException {
+    MappedCorpus corpus = MappedCorpus.create(dir, documents);
+    for (long pos = 0; pos < corpus.getNumTokens(); pos++) {
+      assertEquals(0, corpus.getTopic(pos));
+      corpus.setTopic(pos, (int) pos * 1000);
+      corpus.setEntity(pos, MappedCorpus.MAX_VALUE - (int) pos);
+    }
+    corpus.setIteration(7);
+    corpus.force();
+
+    // the assignments are kept when the corpus is opened again
+    corpus = MappedCorpus.open(dir);
+    assertEquals(7, corpus.getIteration());
+    for (long pos = 0; pos < corpus.getNumTokens(); pos++) {
+      assertEquals(pos * 1000, corpus.getTopic(pos));
+      assertEquals(MappedCorpus.MAX_VALUE - pos, corpus.getEntity(pos));
+    }
+
+    // but not when it is written again
+    corpus = MappedCorpus.create(dir, documents);
+    assertEquals(-1, corpus.getIteration());
+    assertEquals(0, corpus.getTopic(5));
+  }
+}
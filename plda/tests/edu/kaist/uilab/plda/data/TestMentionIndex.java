@@ -0,0 +1,84 @@
+package edu.kaist.uilab.plda.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link MentionIndex}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestMentionIndex extends TestCase {
+  // tokens which are prefixes of each other
+  private static final String[] TOKENS = { "New", "York", "Yorker", "Y", "Ne",
+      "Times", "Tim", "Obama", "Barack", "U.S." };
+
+  public void testTokenize() {
+    assertTrue(Arrays.equals(new String[] { "New", "York" }, MentionIndex
+        .tokenize(" New  York ")));
+    assertEquals(0, MentionIndex.tokenize("  ").length);
+  }
+
+  public void testCandidates() {
+    String[] values = new String[MentionIndex.MIN_INDEXED_MENTIONS];
+    int[] types = new int[values.length];
+    String[] head = { "York", "New Yorker", "Times", "York", "", "Obama" };
+    int[] headTypes = { 1, 1, 1, 1, 1, 2 };
+    for (int i = 0; i < values.length; i++) {
+      values[i] = i < head.length ? head[i] : "Seoul";
+      types[i] = i < head.length ? headTypes[i] : 3;
+    }
+    MentionIndex index = new MentionIndex(values, types);
+    assertTrue(Arrays.equals(new int[] { 0, 1, 3, 4 }, index.candidates(0)));
+    assertTrue(Arrays.equals(new int[] { 2, 4 }, index.candidates(2)));
+    // a mention without tokens may enclose every mention of its type
+    assertTrue(Arrays.equals(new int[] { 0, 1, 2, 3, 4 }, index
+        .candidates(4)));
+    assertTrue(Arrays.equals(new int[] { 5 }, index.candidates(5)));
+    assertEquals(2, MentionIndex.next(index.candidates(0), 1));
+    assertEquals(4, MentionIndex.next(index.candidates(0), 4));
+  }
+
+  public void testFewMentionsAreNotIndexed() {
+    MentionIndex index = new MentionIndex(new String[] { "York", "Times",
+        "Obama" }, new int[] { 1, 1, 2 });
+    assertTrue(Arrays.equals(new int[] { 0, 1, 2 }, index.candidates(0)));
+  }
+
+  public void testDistinctEntitiesAreThoseOfPairwiseComparison() {
+    EntityParser parser = new EntityParser(null, null,
+        new ArrayList<String>(), 1, 1);
+    Random random = new Random(1);
+    for (int document = 0; document < 500; document++) {
+      ArrayList<Entity> mentions = new ArrayList<Entity>();
+      int size = random.nextInt(100);
+      for (int j = 0; j < size; j++) {
+        StringBuilder value = new StringBuilder();
+        int numTokens = random.nextInt(20) == 0 ? 0 : 1 + random.nextInt(3);
+        for (int n = 0; n < numTokens; n++) {
+          if (n > 0) {
+            value.append(random.nextInt(20) == 0 ? "  " : " ");
+          }
+          value.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        mentions.add(new Entity(value.toString(), 1 + random.nextInt(2)));
+      }
+      assertEquals(counts(parser.getDistinctEntitiesPairwise(mentions)),
+          counts(parser.getDistinctEntities(mentions)));
+    }
+  }
+
+  private static Map<Entity, Integer> counts(ArrayList<Entity> entities) {
+    Map<Entity, Integer> counts = new HashMap<Entity, Integer>();
+    for (Entity entity : entities) {
+      counts.put(entity, entity.count);
+    }
+    assertEquals(entities.size(), counts.size());
+    return counts;
+  }
+}
@@ -1,6 +1,27 @@
 package edu.kaist.uilab.plda.data;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import com.aliasi.symbol.MapSymbolTable;
+import com.aliasi.symbol.SymbolTable;
+import com.aliasi.tokenizer.TokenizerFactory;
+import com.aliasi.util.Counter;
+import com.aliasi.util.ObjectToCounterMap;
+import com.aliasi.util.Strings;
+
+import edu.kaist.uilab.plda.file.DefaultDocumentReader;
 
 /**
  * Utility class for test classes.
@@ -60,4 +81,124 @@ public class TestUtils {
     
     return list;
   }
+
+  /**
+   * Writes {@code numDocuments} random documents to a new directory and
+   * returns the directory; the documents contain words in upper and lower
+   * case, numbers, stop words and punctuation.
+   */
+  public static File createCorpus(Random random, int numDocuments)
+      throws IOException {
+    String[] words = { "Obama", "the", "New", "York", "it's", "U.S.", "$5",
+        "3M", "a1", "x", "caf\u00e9", "report", "Korea", "42", "and" };
+    File dir = File.createTempFile("corpus", "");
+    dir.delete();
+    dir.mkdir();
+    for (int m = 0; m < numDocuments; m++) {
+      Writer out = new FileWriter(new File(dir, "d" + m + ".txt"));
+      for (int n = random.nextInt(300); n > 0; n--) {
+        out.write(random.nextBoolean() ? words[random.nextInt(words.length)]
+            : "w" + random.nextInt(150));
+        out.write(random.nextInt(8) == 0 ? ".\n" : " ");
+      }
+      out.close();
+    }
+    return dir;
+  }
+
+  /**
+   * Deletes a directory written by {@link #createCorpus(Random, int)}.
+   */
+  public static void deleteCorpus(File dir) {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * The tokens of a corpus as the corpus processors counted them before
+   * {@link CharTokenizer}: token by token, as strings of the lingpipe
+   * tokenizer chain. The vocabulary contains the tokens whose count is at
+   * least {@code minTokenCount} except the top {@code topStopWords} tokens.
+   */
+  public static class StringTokenStage {
+    public final ObjectToCounterMap<String> tokenCounter =
+        new ObjectToCounterMap<String>();
+    public final MapSymbolTable symbolTable = new MapSymbolTable();
+    public final int[][] documentTokens;
+
+    public StringTokenStage(File dir, List<String> docNames,
+        Set<String> stopWords, int minTokenCount, int topStopWords)
+        throws IOException {
+      TokenizerFactory factory = CorpusProcessor
+          .newTokenizerFactory(stopWords);
+      MapSymbolTable corpusTokens = new MapSymbolTable();
+      int[][] corpusIds = new int[docNames.size()][];
+      for (int m = 0; m < corpusIds.length; m++) {
+        char[] cs = Strings.toCharArray(new DefaultDocumentReader()
+            .readDocument(dir + "/" + docNames.get(m)));
+        String[] tokens = factory.tokenizer(cs, 0, cs.length).tokenize();
+        corpusIds[m] = new int[tokens.length];
+        for (int n = 0; n < tokens.length; n++) {
+          tokenCounter.increment(tokens[n]);
+          corpusIds[m][n] = corpusTokens.getOrAddSymbol(tokens[n]);
+        }
+      }
+      ObjectToCounterMap<String> vocabulary = new ObjectToCounterMap<String>();
+      for (Map.Entry<String, Counter> entry : tokenCounter.entrySet()) {
+        if (entry.getValue().intValue() >= minTokenCount) {
+          vocabulary.set(entry.getKey(), entry.getValue().intValue());
+        }
+      }
+      Set<String> topWords = new HashSet<String>(vocabulary
+          .keysOrderedByCountList().subList(0, topStopWords));
+      for (String token : vocabulary.keySet()) {
+        if (!topWords.contains(token)) {
+          symbolTable.getOrAddSymbol(token);
+        }
+      }
+      documentTokens = new int[corpusIds.length][];
+      for (int m = 0; m < corpusIds.length; m++) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int id : corpusIds[m]) {
+          int word = symbolTable.symbolToID(corpusTokens.idToSymbol(id));
+          if (word >= 0) {
+            ids.add(word);
+          }
+        }
+        documentTokens[m] = new int[ids.size()];
+        for (int n = 0; n < ids.size(); n++) {
+          documentTokens[m][n] = ids.get(n);
+        }
+      }
+    }
+
+    /**
+     * Asserts that the tokens counted by a corpus processor are these tokens:
+     * the token counter has the same entries in the same order (which
+     * decides the ids of the vocabulary), and the symbol tables and the
+     * tokens of the documents are equal.
+     */
+    public void assertEqualsTo(ObjectToCounterMap<String> tokenCounter,
+        SymbolTable symbolTable, int[][] documentTokens) {
+      Assert.assertEquals(new ArrayList<String>(this.tokenCounter.keySet()),
+          new ArrayList<String>(tokenCounter.keySet()));
+      for (String token : tokenCounter.keySet()) {
+        Assert.assertEquals(token, this.tokenCounter.getCount(token),
+            tokenCounter.getCount(token));
+      }
+      Assert.assertEquals(this.symbolTable.numSymbols(), symbolTable
+          .numSymbols());
+      for (int id = 0; id < symbolTable.numSymbols(); id++) {
+        Assert.assertEquals(this.symbolTable.idToSymbol(id), symbolTable
+            .idToSymbol(id));
+      }
+      Assert.assertEquals(this.documentTokens.length, documentTokens.length);
+      for (int m = 0; m < documentTokens.length; m++) {
+        Assert.assertTrue("document " + m, Arrays.equals(
+            this.documentTokens[m], documentTokens[m]));
+      }
+    }
+  }
 }
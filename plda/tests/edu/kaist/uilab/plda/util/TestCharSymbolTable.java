@@ -0,0 +1,48 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.aliasi.symbol.MapSymbolTable;
+
+/**
+ * Tests for {@link CharSymbolTable}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestCharSymbolTable extends TestCase {
+  public void testGetAndAdd() {
+    CharSymbolTable table = new CharSymbolTable();
+    char[] cs = "new york times".toCharArray();
+    assertEquals(-1, table.get(cs, 4, 4));
+    assertEquals(0, table.getOrAdd(cs, 4, 4));
+    assertEquals(1, table.getOrAdd(cs, 0, 3));
+    assertEquals(0, table.getOrAdd("york"));
+    assertEquals(1, table.get("new"));
+    assertEquals(-1, table.get(cs, 0, 2));
+    assertEquals(2, table.getOrAdd(cs, 0, 0));
+    assertEquals(3, table.size());
+    assertEquals("york", table.idToSymbol(0));
+    assertEquals("", table.idToSymbol(2));
+  }
+
+  public void testIdsAreThoseOfMapSymbolTable() {
+    CharSymbolTable table = new CharSymbolTable();
+    MapSymbolTable expected = new MapSymbolTable();
+    Random random = new Random(1);
+    for (int n = 0; n < 20000; n++) {
+      char[] cs = new char[1 + random.nextInt(4)];
+      for (int i = 0; i < cs.length; i++) {
+        cs[i] = (char) ('a' + random.nextInt(8));
+      }
+      assertEquals(expected.getOrAddSymbol(new String(cs)), table.getOrAdd(
+          cs, 0, cs.length));
+    }
+    assertEquals(expected.numSymbols(), table.size());
+    for (int id = 0; id < table.size(); id++) {
+      assertEquals(expected.idToSymbol(id), table.idToSymbol(id));
+      assertEquals(id, table.get(expected.idToSymbol(id)));
+    }
+  }
+}
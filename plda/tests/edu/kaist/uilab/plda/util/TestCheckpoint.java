@@ -0,0 +1,152 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link Checkpoint}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestCheckpoint extends TestCase {
+  private File file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = File.createTempFile("checkpoint", ".bin");
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Returns random variables with values less than {@code max} for documents
+   * of random lengths (including empty documents).
+   */
+  private static int[][] randomVariable(Random random, int numDocuments,
+      int max) {
+    int[][] values = new int[numDocuments][];
+    for (int m = 0; m < numDocuments; m++) {
+      values[m] = new int[random.nextInt(50)];
+      for (int n = 0; n < values[m].length; n++) {
+        values[m][n] = random.nextInt(max);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Tests that the state is read back unchanged, with and without threads.
+   */
+  public void testRoundTrip() throws IOException {
+    Random random = new Random(7);
+    // more than one block and values of 1, 3 and 31 bits
+    int numDocuments = 2 * Checkpoint.DOCUMENTS_PER_BLOCK + 17;
+    int[][] z = randomVariable(random, numDocuments, 8);
+    int[][] s = randomVariable(random, numDocuments, 2);
+    int[][] big = randomVariable(random, numDocuments, Integer.MAX_VALUE);
+    int[] dimensions = { numDocuments, 100, 8 };
+    double[] priors = { 0.1, 0.01 };
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      new Checkpoint("test", 12, dimensions, priors, z, s, big).write(file,
+          executor);
+      Checkpoint serial = Checkpoint.read(file, null);
+      Checkpoint parallel = Checkpoint.read(file, executor);
+      for (Checkpoint checkpoint : Arrays.asList(serial, parallel)) {
+        checkpoint.check("test", dimensions, priors);
+        assertEquals(12, checkpoint.getIteration());
+        assertEquals(numDocuments, checkpoint.getNumDocuments());
+        assertTrue(Arrays.deepEquals(z, checkpoint.getVariable(0)));
+        assertTrue(Arrays.deepEquals(s, checkpoint.getVariable(1)));
+        assertTrue(Arrays.deepEquals(big, checkpoint.getVariable(2)));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Tests that the state of another model is rejected.
+   */
+  public void testCheck() throws IOException {
+    new Checkpoint("test", 1, new int[] { 1, 2 }, new double[] { 0.1 },
+        new int[][] { { 1, 0 } }).write(file, null);
+    Checkpoint checkpoint = Checkpoint.read(file, null);
+    try {
+      checkpoint.check("other", new int[] { 1, 2 }, new double[] { 0.1 });
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      checkpoint.check("test", new int[] { 1, 3 }, new double[] { 0.1 });
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that a file which is not a checkpoint is rejected.
+   */
+  public void testCorrupted() throws IOException {
+    new Checkpoint("test", 1, new int[0], new double[0],
+        new int[][] { { 1, 2, 3 } }).write(file, null);
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    out.writeInt(0);
+    out.close();
+    try {
+      Checkpoint.read(file, null);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that a checkpoint replaces an existing file without leaving its
+   * temporary file.
+   */
+  public void testWriteReplacesFile() throws IOException {
+    new Checkpoint("test", 1, new int[0], new double[0],
+        new int[][] { { 1, 2, 3 } }).write(file, null);
+    new Checkpoint("test", 2, new int[0], new double[0],
+        new int[][] { { 3, 2 } }).write(file, null);
+    assertFalse(new File(file.getPath() + Checkpoint.TMP_SUFFIX).exists());
+    Checkpoint checkpoint = Checkpoint.read(file, null);
+    assertEquals(2, checkpoint.getIteration());
+    assertTrue(Arrays.equals(new int[] { 3, 2 }, checkpoint.getVariable(0)[0]));
+  }
+
+  /**
+   * Tests that the iteration directories are listed the newest first.
+   */
+  public void testListIterationDirs() throws IOException {
+    File dir = new File(file.getPath() + ".dir");
+    for (int iter : new int[] { 9, 100, 10 }) {
+      new File(dir, String.valueOf(iter)).mkdirs();
+    }
+    try {
+      StringBuilder names = new StringBuilder();
+      for (File iterDir : Checkpoint.listIterationDirs(dir.getPath())) {
+        names.append(iterDir.getName()).append(' ');
+      }
+      assertEquals("100 10 9 ", names.toString());
+    } finally {
+      for (File iterDir : dir.listFiles()) {
+        iterDir.delete();
+      }
+      dir.delete();
+    }
+  }
+}
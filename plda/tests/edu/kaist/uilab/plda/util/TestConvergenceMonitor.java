@@ -0,0 +1,30 @@
+package edu.kaist.uilab.plda.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ConvergenceMonitor}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestConvergenceMonitor extends TestCase {
+
+  /**
+   * Tests that convergence needs {@code window} small changes in a row.
+   */
+  public void testWindow() {
+    ConvergenceMonitor monitor = new ConvergenceMonitor(5, 1e-3, 2);
+    assertFalse(monitor.isDue(0));
+    assertTrue(monitor.isDue(4));
+    assertFalse(monitor.update(-1000));
+    assertFalse(monitor.update(-900));
+    assertFalse(monitor.update(-899.9));
+    // a big change resets the count
+    assertFalse(monitor.update(-850));
+    assertFalse(monitor.update(-849.9));
+    assertTrue(monitor.update(-849.8));
+    assertEquals(-849.8, monitor.getLastValue());
+    monitor.reset();
+    assertFalse(monitor.isConverged());
+  }
+}
@@ -0,0 +1,151 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CountMatrix} and its implementations.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestCountMatrix extends TestCase {
+  static final int ROWS = 13;
+  static final int COLUMNS = 17;
+
+  /**
+   * Applies the same random updates to every implementation and to a plain
+   * int[][] and compares the results.
+   */
+  public void testRandomUpdates() {
+    CountMatrix[] matrices = new CountMatrix[] {
+        new DenseCountMatrix(ROWS, COLUMNS),
+        new DenseCountMatrix(ROWS, COLUMNS, DenseCountMatrix.COLUMN_MAJOR),
+        new CompactCountMatrix(ROWS, COLUMNS),
+        new SparseCountMatrix(ROWS, COLUMNS),
+    };
+    int[][] expected = new int[ROWS][COLUMNS];
+    Random random = new Random(3);
+    for (int i = 0; i < 20000; i++) {
+      int row = random.nextInt(ROWS);
+      int column = random.nextInt(COLUMNS);
+      int op = random.nextInt(4);
+      for (CountMatrix matrix : matrices) {
+        if (op == 0) {
+          matrix.increment(row, column);
+        } else if (op == 1 && expected[row][column] > 0) {
+          matrix.decrement(row, column);
+        } else if (op == 2) {
+          matrix.add(row, column, -expected[row][column]);
+        } else if (op == 3) {
+          matrix.set(row, column, 5);
+        }
+      }
+      if (op == 0) {
+        expected[row][column]++;
+      } else if (op == 1 && expected[row][column] > 0) {
+        expected[row][column]--;
+      } else if (op == 2) {
+        expected[row][column] = 0;
+      } else if (op == 3) {
+        expected[row][column] = 5;
+      }
+    }
+    for (CountMatrix matrix : matrices) {
+      assertMatrixEquals(expected, matrix);
+      assertMatrixEquals(expected, matrix.copy());
+    }
+  }
+
+  /**
+   * Tests counts that do not fit in a char in the compact matrix.
+   */
+  public void testCompactOverflow() {
+    CountMatrix matrix = new CompactCountMatrix(2, 3);
+    matrix.set(0, 1, 65535);
+    matrix.increment(0, 1);
+    matrix.add(1, 2, -4);
+    assertEquals(65536, matrix.get(0, 1));
+    assertEquals(-4, matrix.get(1, 2));
+    assertEquals(0, matrix.get(0, 0));
+    matrix.add(0, 1, 1000000);
+    assertEquals(1065536, matrix.get(0, 1));
+  }
+
+  /**
+   * Tests that zero counts are removed from the sparse matrix.
+   */
+  public void testSparseRemoval() {
+    SparseCountMatrix matrix = new SparseCountMatrix(1, 10);
+    matrix.increment(0, 7);
+    matrix.increment(0, 2);
+    matrix.add(0, 5, 3);
+    assertEquals(3, matrix.getRowSize(0));
+    assertEquals(2, matrix.getColumn(0, 0));
+    assertEquals(5, matrix.getColumn(0, 1));
+    assertEquals(3, matrix.getValue(0, 1));
+    matrix.decrement(0, 2);
+    matrix.set(0, 5, 0);
+    assertEquals(1, matrix.getRowSize(0));
+    assertEquals(7, matrix.getColumn(0, 0));
+    assertEquals(0, matrix.get(0, 2));
+  }
+
+  /**
+   * Tests copying into matrices of the same implementation.
+   */
+  public void testCopyFrom() {
+    CountMatrix[] sources = new CountMatrix[] {
+        new DenseCountMatrix(ROWS, COLUMNS),
+        new CompactCountMatrix(ROWS, COLUMNS),
+        new SparseCountMatrix(ROWS, COLUMNS),
+    };
+    CountMatrix[] targets = new CountMatrix[] {
+        new DenseCountMatrix(ROWS, COLUMNS),
+        new CompactCountMatrix(ROWS, COLUMNS),
+        new SparseCountMatrix(ROWS, COLUMNS),
+    };
+    int[][] expected = new int[ROWS][COLUMNS];
+    for (int i = 0; i < ROWS; i++) {
+      expected[i][(i * 5) % COLUMNS] = i + 1;
+    }
+    for (int t = 0; t < targets.length; t++) {
+      for (int i = 0; i < ROWS; i++) {
+        sources[t].set(i, (i * 5) % COLUMNS, i + 1);
+      }
+      targets[t].set(0, 1, 99);
+      targets[t].copyFrom(sources[t]);
+      assertMatrixEquals(expected, targets[t]);
+    }
+    try {
+      targets[0].copyFrom(sources[2]);
+      fail("Copied a sparse matrix to a dense matrix");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests the choice of implementation by {@link CountMatrix#newInstance}.
+   */
+  public void testNewInstance() {
+    int[] full = new int[ROWS];
+    int[] sparse = new int[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      full[i] = 1000;
+      sparse[i] = 1;
+    }
+    assertTrue(CountMatrix.newInstance(ROWS, COLUMNS, full)
+        instanceof DenseCountMatrix);
+    assertTrue(CountMatrix.newInstance(ROWS, 1000, sparse)
+        instanceof SparseCountMatrix);
+  }
+
+  private void assertMatrixEquals(int[][] expected, CountMatrix matrix) {
+    for (int i = 0; i < ROWS; i++) {
+      for (int j = 0; j < COLUMNS; j++) {
+        assertEquals(matrix.getName(), expected[i][j], matrix.get(i, j));
+      }
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link Hungarian}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestHungarian extends TestCase {
+
+  /**
+   * Tests that the assignment has the minimum cost of all assignments of
+   * random (square and rectangular) matrices.
+   */
+  public void testMinimumCost() {
+    Random random = new Random(3);
+    for (int t = 0; t < 100; t++) {
+      int n = 1 + random.nextInt(6);
+      int m = n + random.nextInt(2);
+      double[][] cost = new double[n][m];
+      for (int r = 0; r < n; r++) {
+        for (int c = 0; c < m; c++) {
+          // few distinct values to have ties
+          cost[r][c] = random.nextInt(5) - 2;
+        }
+      }
+      int[] assignment = Hungarian.minimumCostAssignment(cost);
+      boolean[] used = new boolean[m];
+      double total = 0.0;
+      for (int r = 0; r < n; r++) {
+        assertFalse(used[assignment[r]]);
+        used[assignment[r]] = true;
+        total += cost[r][assignment[r]];
+      }
+      assertEquals(minimumCost(cost, 0, new boolean[m]), total, 1e-9);
+    }
+  }
+
+  /**
+   * Returns the minimum cost of assigning the rows [row, n) to the unused
+   * columns (by enumerating all assignments).
+   */
+  private static double minimumCost(double[][] cost, int row, boolean[] used) {
+    if (row == cost.length) {
+      return 0.0;
+    }
+    double min = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < used.length; c++) {
+      if (!used[c]) {
+        used[c] = true;
+        min = Math.min(min, cost[row][c] + minimumCost(cost, row + 1, used));
+        used[c] = false;
+      }
+    }
+    return min;
+  }
+}
@@ -0,0 +1,82 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link Metrics}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestMetrics extends TestCase {
+
+  public void testBucket() {
+    assertEquals(0, Metrics.bucket(999999));
+    assertEquals(1, Metrics.bucket(1000000));
+    assertEquals(2, Metrics.bucket(3999999));
+    assertEquals(3, Metrics.bucket(4000000));
+    assertEquals(23, Metrics.bucket(Long.MAX_VALUE));
+  }
+
+  /**
+   * Tests that the counters are exposed through JMX and that every event is
+   * written as a line of JSON.
+   */
+  public void testJmxAndJson() throws Exception {
+    File file = File.createTempFile("metrics", ".jsonl");
+    file.delete();
+    Metrics metrics = Metrics.register("test \"sampler\"");
+    try {
+      metrics.setJsonOutput(file);
+      metrics.setCountMatrixBytes(1024);
+      for (int iter = 0; iter < 3; iter++) {
+        metrics.startSweep();
+        metrics.endSweep(iter, 100);
+      }
+      metrics.setLogLikelihood(2, -5.5);
+      metrics.addReport(2, 2000000);
+      metrics.addPhaseDocuments("tokens", 10, 1000000000);
+      metrics.addPhaseDocuments("entities", 10, 3000000000L);
+      metrics.addDocuments(10, 2000000000);
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(Metrics.DOMAIN + ":type=Metrics,name="
+          + ObjectName.quote("test \"sampler\""));
+      assertEquals(2, server.getAttribute(name, "Iteration"));
+      assertEquals(300L, server.getAttribute(name, "TokensSampled"));
+      assertEquals(-5.5, server.getAttribute(name, "LogLikelihood"));
+      assertEquals(1024L, server.getAttribute(name, "CountMatrixBytes"));
+      assertEquals(2.0, server.getAttribute(name, "LastReportMillis"));
+      assertEquals(10L, server.getAttribute(name, "DocumentsProcessed"));
+      assertEquals(5.0, server.getAttribute(name, "DocumentsPerSecond"));
+      long sweeps = 0;
+      for (long count : (long[]) server.getAttribute(name,
+          "SweepLatencyHistogram")) {
+        sweeps += count;
+      }
+      assertEquals(3, sweeps);
+
+      metrics.close();
+      assertFalse(server.isRegistered(name));
+      List<String> lines = TextFiles.readLines(file.getPath());
+      assertEquals(8, lines.size());
+      assertTrue(lines.get(0).contains("\"name\":\"test \\\"sampler\\\"\""));
+      assertTrue(lines.get(0).endsWith(
+          "\"event\":\"memory\",\"countMatrixBytes\":1024}"));
+      assertTrue(lines.get(3).contains("\"event\":\"sweep\",\"iteration\":2,"
+          + "\"tokens\":100,"));
+      assertTrue(lines.get(4).endsWith("\"iteration\":2,\"value\":-5.5}"));
+      assertTrue(lines.get(6).endsWith("\"phase\":\"tokens\",\"count\":10,"
+          + "\"nanos\":1000000000}"));
+    } finally {
+      metrics.close();
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link MicroBenchmark}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestMicroBenchmark extends TestCase {
+
+  /**
+   * A case which reports its own time of 1000 ns for 10 operations.
+   */
+  private static class FixedCase extends MicroBenchmark.Case {
+    int setUps;
+    int runs;
+
+    FixedCase(String name) {
+      super(name, "n=10");
+    }
+
+    @Override
+    public void setUp() {
+      setUps++;
+    }
+
+    @Override
+    public long run() {
+      System.out.println("discarded");
+      return ++runs;
+    }
+
+    @Override
+    public long getOperations() {
+      return 10;
+    }
+
+    @Override
+    public long getMeasuredNanos() {
+      return 1000;
+    }
+  }
+
+  public void testMeasure() throws Exception {
+    FixedCase c = new FixedCase("fixed");
+    double[] time = new MicroBenchmark(2, 3, 1).measure(c);
+    assertEquals(3, time.length);
+    for (double t : time) {
+      assertEquals(100.0, t, 1e-9);
+    }
+    assertEquals(1, c.setUps);
+    assertTrue(c.runs >= 5);
+  }
+
+  public void testRunFiltersCases() throws Exception {
+    FixedCase selected = new FixedCase("lda.sweep");
+    FixedCase skipped = new FixedCase("topk.rows");
+    List<FixedCase> cases = new ArrayList<FixedCase>();
+    cases.add(selected);
+    cases.add(skipped);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    new MicroBenchmark(0, 1, 1).run(cases, Pattern.compile("sweep"), out);
+    out.flush();
+    String report = bytes.toString();
+    assertTrue(report.contains("lda.sweep"));
+    assertFalse(report.contains("topk.rows"));
+    assertFalse(report.contains("discarded"));
+    assertEquals(0, skipped.runs);
+    assertTrue(selected.runs > 0);
+  }
+
+  public void testRunPrintsAllocatedBytes() throws Exception {
+    FixedCase allocating = new FixedCase("allocating") {
+      @Override
+      public long getAllocatedBytes() {
+        return 250;
+      }
+    };
+    List<FixedCase> cases = new ArrayList<FixedCase>();
+    cases.add(allocating);
+    cases.add(new FixedCase("unknown"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    new MicroBenchmark(1, 2, 1).run(cases, null, out);
+    out.flush();
+    String[] lines = bytes.toString().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].trim().endsWith("BYTES/OP"));
+    assertTrue(lines[1].startsWith("allocating"));
+    assertTrue(lines[1].trim().endsWith(" 25.0"));
+    assertTrue(lines[2].startsWith("unknown"));
+    assertTrue(lines[2].trim().endsWith(" -"));
+  }
+}
@@ -0,0 +1,95 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link NpyFile}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestNpyFile extends TestCase {
+  private File file;
+
+  @Override
+  protected void setUp() throws IOException {
+    file = File.createTempFile("matrix", ".npy");
+  }
+
+  @Override
+  protected void tearDown() {
+    file.delete();
+  }
+
+  /**
+   * Tests that the header is the one written by numpy.save.
+   */
+  public void testHeader() throws IOException {
+    byte[] header = NpyFile.header(false, 2, 3);
+    assertEquals(128, header.length);
+    assertEquals((byte) 0x93, header[0]);
+    assertEquals("NUMPY", new String(header, 1, 5, "ISO-8859-1"));
+    assertEquals(1, header[6]);
+    assertEquals(0, header[7]);
+    assertEquals(118, (header[8] & 0xff) | (header[9] & 0xff) << 8);
+    String dict = new String(header, 10, 118, "ISO-8859-1");
+    assertTrue(dict.startsWith("{'descr': '<f8', 'fortran_order': False, "
+        + "'shape': (2, 3), }   "));
+    assertTrue(dict.endsWith(" \n"));
+  }
+
+  /**
+   * Tests writing and reading a float64 and a float32 matrix.
+   */
+  public void testRoundTrip() throws IOException {
+    double[][] matrix = new double[300][7];
+    for (int r = 0; r < matrix.length; r++) {
+      for (int c = 0; c < matrix[r].length; c++) {
+        matrix[r][c] = r * 0.1 + c / 3.0;
+      }
+    }
+    NpyFile.write(file, matrix, false);
+    NpyFile npy = NpyFile.open(file);
+    assertFalse(npy.isFloat32());
+    assertEquals(300, npy.getNumRows());
+    assertEquals(7, npy.getNumColumns());
+    assertEquals(matrix[123][4], npy.get(123, 4));
+    DoubleBuffer row = npy.getRow(299);
+    assertEquals(7, row.remaining());
+    assertEquals(matrix[299][6], row.get(6));
+    assertEquals(matrix[5][2], npy.toArray()[5][2]);
+
+    NpyFile.write(file, matrix, true);
+    npy = NpyFile.open(file);
+    assertTrue(npy.isFloat32());
+    FloatBuffer floatRow = npy.getFloatRow(10);
+    assertEquals((float) matrix[10][3], floatRow.get(3));
+    assertEquals((float) matrix[42][1], (float) npy.get(42, 1));
+    try {
+      npy.getRow(0);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Tests that other files are rejected.
+   */
+  public void testInvalid() throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("not a numpy file".getBytes("ISO-8859-1"));
+    out.close();
+    try {
+      NpyFile.open(file);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package edu.kaist.uilab.plda.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RandomGenerator} and its implementations.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestRandomGenerator extends TestCase {
+
+  /**
+   * Tests SplitMix64 against the output of the reference implementation.
+   */
+  public void testSplitMix64() {
+    SplitMix64 random = new SplitMix64(1234567);
+    assertEquals(6457827717110365317L, random.nextLong());
+    assertEquals(3203168211198807973L, random.nextLong());
+  }
+
+  /**
+   * Tests if generators with the same seed (and their splits) give the same
+   * sequence and if values are in range.
+   */
+  public void testSeed() {
+    RandomGenerator r1 = RandomGenerator.newInstance(5);
+    RandomGenerator r2 = RandomGenerator.newInstance(5);
+    RandomGenerator s1 = r1.split();
+    RandomGenerator s2 = r2.split();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(r1.nextLong(), r2.nextLong());
+      int value = s1.nextInt(10);
+      assertEquals(value, s2.nextInt(10));
+      assertTrue(value >= 0 && value < 10);
+      double u = r1.nextDouble();
+      assertEquals(u, r2.nextDouble());
+      assertTrue(u >= 0.0 && u < 1.0);
+    }
+  }
+}
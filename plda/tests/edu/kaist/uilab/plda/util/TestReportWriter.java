@@ -0,0 +1,105 @@
+package edu.kaist.uilab.plda.util;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ReportWriter}.
+ * 
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestReportWriter extends TestCase {
+
+  /**
+   * Tests that all tasks are run and that submit() waits while
+   * {@code maxPending} tasks are pending.
+   */
+  public void testBackpressure() throws Exception {
+    final int maxPending = 3;
+    final AtomicInteger done = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    ReportWriter writer = new ReportWriter(2, maxPending);
+    for (int t = 0; t < 20; t++) {
+      if (t == maxPending) {
+        // the writers are blocked; let them go before the queue is full
+        start.countDown();
+      }
+      writer.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e.toString());
+          }
+          done.incrementAndGet();
+        }
+      });
+      assertTrue(t + 1 - done.get() <= maxPending);
+    }
+    writer.close();
+    assertEquals(20, done.get());
+  }
+
+  /**
+   * Tests that the failure of a task is thrown by close().
+   */
+  public void testFailure() {
+    ReportWriter writer = new ReportWriter(1, 4);
+    try {
+      writer.submit(new ReportWriter.Task() {
+        @Override
+        public void write() throws IOException {
+          throw new IOException("disk full");
+        }
+      });
+      writer.close();
+      fail();
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests that closeAfterFailure() waits for the tasks but does not throw the
+   * failure of a task.
+   */
+  public void testCloseAfterFailure() throws IOException {
+    final AtomicInteger done = new AtomicInteger();
+    ReportWriter writer = new ReportWriter(1, 4);
+    writer.submit(new ReportWriter.Task() {
+      @Override
+      public void write() {
+        done.incrementAndGet();
+      }
+    });
+    writer.submit(new ReportWriter.Task() {
+      @Override
+      public void write() throws IOException {
+        throw new IOException("disk full");
+      }
+    });
+    writer.closeAfterFailure();
+    assertEquals(1, done.get());
+  }
+
+  /**
+   * Tests that tasks are run in the calling thread without writer threads.
+   */
+  public void testSynchronous() throws IOException {
+    final Thread caller = Thread.currentThread();
+    final boolean[] ran = new boolean[1];
+    ReportWriter writer = new ReportWriter(0, 4);
+    writer.submit(new ReportWriter.Task() {
+      @Override
+      public void write() {
+        ran[0] = Thread.currentThread() == caller;
+      }
+    });
+    assertTrue(ran[0]);
+    writer.close();
+  }
+}
@@ -0,0 +1,86 @@
+package edu.kaist.uilab.plda.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.aliasi.util.ObjectToCounterMap;
+
+/**
+ * Tests for {@link TopK}.
+ *
+ * @author trung nguyen (trung.ngvan@gmail.com)
+ */
+public class TestTopK extends TestCase {
+
+  public void testSelect() {
+    int[] counts = { 3, 0, 7, 3, 1, 7, 0, 2 };
+    assertTrue(Arrays.equals(new int[] { 2, 5, 0 }, TopK.select(counts, 3)));
+    // only positive counts are selected
+    assertTrue(Arrays.equals(new int[] { 2, 5, 0, 3, 7, 4 },
+        TopK.select(counts, 10)));
+    assertEquals(0, TopK.select(counts, 0).length);
+    assertEquals(0, TopK.select(new int[5], 3).length);
+  }
+
+  /**
+   * Tests that the selection is the beginning of the list ordered by
+   * {@link ObjectToCounterMap#keysOrderedByCountList()} (which the reports
+   * used), with many equal counts.
+   */
+  public void testSameOrderAsCounterMap() {
+    Random random = new Random(7);
+    for (int t = 0; t < 50; t++) {
+      int[] counts = new int[1 + random.nextInt(300)];
+      ObjectToCounterMap<Integer> counter = new ObjectToCounterMap<Integer>();
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = random.nextInt(5);
+        counter.set(i, counts[i]);
+      }
+      int k = random.nextInt(40);
+      List<Integer> expected = counter.keysOrderedByCountList();
+      expected = expected.subList(0, Math.min(k, expected.size()));
+      int[] top = TopK.select(counts, k);
+      assertEquals(expected.size(), top.length);
+      for (int rank = 0; rank < top.length; rank++) {
+        assertEquals(expected.get(rank).intValue(), top[rank]);
+      }
+    }
+  }
+
+  /**
+   * Tests that the parallel selections of the rows and columns of a matrix
+   * are the same as the selections of each row and column.
+   */
+  public void testSelectInRowsAndColumns() {
+    Random random = new Random(11);
+    int numRows = 257;
+    int numColumns = 13;
+    CountMatrix matrix = new DenseCountMatrix(numRows, numColumns);
+    for (int r = 0; r < numRows; r++) {
+      for (int c = 0; c < numColumns; c++) {
+        matrix.set(r, c, random.nextInt(10));
+      }
+    }
+    for (int numThreads = 1; numThreads <= 4; numThreads++) {
+      int[][] rows = TopK.selectInRows(matrix, 5, numThreads);
+      int[] row = new int[numColumns];
+      for (int r = 0; r < numRows; r++) {
+        for (int c = 0; c < numColumns; c++) {
+          row[c] = matrix.get(r, c);
+        }
+        assertTrue(Arrays.equals(TopK.select(row, 5), rows[r]));
+      }
+      int[][] columns = TopK.selectInColumns(matrix, 30, numThreads);
+      int[] column = new int[numRows];
+      for (int c = 0; c < numColumns; c++) {
+        for (int r = 0; r < numRows; r++) {
+          column[r] = matrix.get(r, c);
+        }
+        assertTrue(Arrays.equals(TopK.select(column, 30), columns[c]));
+      }
+    }
+  }
+}